@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.benchmarks;
+
+import gate.AnnotationSet;
+import gate.Document;
+import gate.Factory;
+import gate.Gate;
+import gate.plugin.evaluation.api.AnnotationDifferTagging;
+import gate.plugin.evaluation.api.AnnotationDifferTagging.CandidateList;
+import gate.plugin.evaluation.api.ByRankEvalStatsTagging;
+import gate.plugin.evaluation.api.ByThEvalStatsTagging;
+import gate.plugin.evaluation.api.EvalStatsTagging;
+import gate.plugin.evaluation.api.FeatureComparison;
+import gate.plugin.evaluation.api.ThresholdsOrRanksToUse;
+import gate.plugin.evaluation.api.ThresholdsToUse;
+import gate.plugin.evaluation.tests.CorpusGenerator;
+import gate.util.GateException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks for the back-end API: the differ, the by-threshold and by-rank calculations,
+ * candidate lists and the statistics objects.
+ * <p>
+ * All benchmarks run on one document per parameter combination, created with the 
+ * CorpusGenerator from the test sources. The parameters are the number of key positions, 
+ * the overlap depth, i.e. the number of additional nested, overlapping keys and responses 
+ * at each position, and the number of distinct score values used for the responses and candidates.
+ * 
+ * @author Johann Petrak
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DifferBenchmarks {
+  
+  @Param({"100", "1000", "10000"})
+  public int nAnnotations;
+  
+  @Param({"0", "2"})
+  public int overlapDepth;
+  
+  @Param({"10", "1000"})
+  public int nScores;
+  
+  /** Number of candidates in each candidate list. */
+  public static final int LIST_LENGTH = 10;
+  
+  public static final String KEY_SET = "Key";
+  public static final String RESPONSE_SET = "Response";
+  public static final String LIST_SET = "Lists";
+  public static final String LIST_TYPE = "LookupList";
+  public static final String SCORE = "score";
+  public static final String EDGE = "ids";
+  
+  private Document doc;
+  private AnnotationSet keys;
+  private AnnotationSet responses;
+  private AnnotationSet candidates;
+  private AnnotationSet lists;
+  private List<CandidateList> candLists;
+  private Set<String> features;
+  private ByThEvalStatsTagging byThOther;
+  private EvalStatsTagging stats;
+  private double[] thresholds;
+  private final FeatureComparison fcmp = FeatureComparison.FEATURE_EQUALITY;
+  
+  @Setup(Level.Trial)
+  public void setup() throws GateException {
+    Gate.init();
+    // the lists go into their own set so that the response set for the non-list 
+    // benchmarks only contains plain responses
+    doc = new CorpusGenerator()
+            .nKeys(nAnnotations)
+            .nestingDepth(overlapDepth)
+            .valueCardinality(Math.max(1, nAnnotations / 10))
+            .nDistinctScores(nScores)
+            .listSetName(LIST_SET)
+            .listLength(LIST_LENGTH)
+            .generate();
+    keys = doc.getAnnotations(KEY_SET);
+    responses = doc.getAnnotations(RESPONSE_SET);
+    candidates = doc.getAnnotations(LIST_SET);
+    lists = candidates.get(LIST_TYPE);
+    features = new HashSet<String>();
+    features.add("id");
+    candLists = AnnotationDifferTagging.createCandidateLists(
+            candidates, lists, EDGE, SCORE, null, false, null, null);
+    byThOther = AnnotationDifferTagging.calculateByThEvalStatsTagging(
+            keys, responses, features, fcmp, SCORE, ThresholdsToUse.USE_ALL, null, null);
+    stats = new AnnotationDifferTagging(keys, responses, features, fcmp, null).getEvalStatsTagging();
+    thresholds = new double[nScores+1];
+    for(int i = 0; i <= nScores; i++) {
+      thresholds[i] = i / (double)nScores;
+    }
+  }
+  
+  @TearDown(Level.Trial)
+  public void teardown() {
+    Factory.deleteResource(doc);
+  }
+  
+  @Benchmark
+  public EvalStatsTagging differ() {
+    return new AnnotationDifferTagging(keys, responses, features, fcmp, null).getEvalStatsTagging();
+  }
+  
+  @Benchmark
+  public ByThEvalStatsTagging byThresholdAll() {
+    return AnnotationDifferTagging.calculateByThEvalStatsTagging(
+            keys, responses, features, fcmp, SCORE, ThresholdsToUse.USE_ALL, null, null);
+  }
+  
+  @Benchmark
+  public ByThEvalStatsTagging byThreshold11() {
+    return AnnotationDifferTagging.calculateByThEvalStatsTagging(
+            keys, responses, features, fcmp, SCORE, ThresholdsToUse.USE_11FROM0TO1, null, null);
+  }
+  
+  @Benchmark
+  public ByThEvalStatsTagging listByThreshold() {
+    ByThEvalStatsTagging ret = AnnotationDifferTagging.calculateListByThEvalStatsTagging(
+            keys, lists, candLists, features, fcmp, EDGE, SCORE, 
+            ThresholdsToUse.USE_21FROM0TO1, null, null);
+    clearLimits();
+    return ret;
+  }
+  
+  @Benchmark
+  public ByRankEvalStatsTagging listByRank() {
+    ByRankEvalStatsTagging ret = AnnotationDifferTagging.calculateListByRankEvalStatsTagging(
+            keys, lists, candLists, features, fcmp, EDGE, SCORE, 
+            ThresholdsOrRanksToUse.USE_RANKS_ALL, null, null);
+    clearLimits();
+    return ret;
+  }
+  
+  @Benchmark
+  public List<CandidateList> createCandidateLists() {
+    return AnnotationDifferTagging.createCandidateLists(
+            candidates, lists, EDGE, SCORE, null, false, null, null);
+  }
+  
+  @Benchmark
+  public int candidateListThresholdMoves() {
+    int total = 0;
+    for(CandidateList cl : candLists) {
+      for(double th : thresholds) {
+        cl.setThreshold(th);
+        total += cl.size();
+      }
+      cl.clearLimits();
+    }
+    return total;
+  }
+  
+  @Benchmark
+  public ByThEvalStatsTagging byThresholdAdd() {
+    ByThEvalStatsTagging ret = new ByThEvalStatsTagging(ThresholdsToUse.USE_ALL);
+    ret.add(byThOther);
+    ret.add(byThOther);
+    return ret;
+  }
+  
+  @Benchmark
+  public String tsvLine() {
+    return stats.getTSVLine();
+  }
+  
+  private void clearLimits() {
+    for(CandidateList cl : candLists) {
+      cl.clearLimits();
+    }
+  }
+  
+}
@@ -45,8 +45,8 @@ import gate.util.Out;
  */
 public class AnnotationDifferClassification {
   
-  /** Array of dimensions categories * categories. */
-  private float[][] confusionMatrix;
+  /** The counts of pairs of feature values, only the non-zero counts are stored. */
+  private ConfusionMatrix matrix = new ConfusionMatrix();
   
   /** Cohen's kappa. */
   private float kappaCohen = 0;
@@ -57,7 +57,16 @@ public class AnnotationDifferClassification {
   private boolean isCalculatedKappas = false;
   
   /** List of feature values that are the labels of the confusion matrix */
-  private TreeSet<String> featureValues;
+  private TreeSet<String> featureValues = new TreeSet<String>();
+  
+  /** 
+   * Maximum number of labels for which getConfusionMatrix(String) shows the full matrix, 
+   * for more labels only the most frequent confusions are shown.
+   */
+  public static final int MAX_LABELS_FULL_MATRIX = 100;
+  
+  /** Number of confusions shown by getConfusionMatrix(String) for large label sets. */
+  public static final int DEFAULT_TOP_CONFUSIONS = 100;
 
   public AnnotationDifferClassification() {
     // empty constructor
@@ -114,11 +123,28 @@ public class AnnotationDifferClassification {
    * To understand exactly which types are being confused with which other
    * types you will need to view this array in conjunction with featureValues,
    * which gives the class labels (annotation types) in the correct order.
+   * Note that the array is created on each call and needs memory quadratic in the number
+   * of labels, for large label sets use getMatrix() instead.
    * @return confusion matrix describing how annotations in one
    * set are classified in the other and vice versa
    */
   public float[][] getConfusionMatrix(){
-      return confusionMatrix.clone();
+    String[] values = featureValues.toArray(new String[featureValues.size()]);
+    float[][] ret = new float[values.length][values.length];
+    for(int i = 0; i < values.length; i++) {
+      for(int j = 0; j < values.length; j++) {
+        ret[i][j] = matrix.getCount(values[i], values[j]);
+      }
+    }
+    return ret;
+  }
+  
+  /**
+   * The sparse confusion matrix of counts.
+   * @return confusion matrix
+   */
+  public ConfusionMatrix getMatrix() {
+    return matrix;
   }
   
   /**
@@ -144,13 +170,6 @@ public class AnnotationDifferClassification {
   public void calculateConfusionMatrix(AnnotationSet aS1, AnnotationSet aS2,
     String type, String feature, boolean verbose)
   {   
-    // We'll accumulate a list of the feature values (a.k.a. class labels)
-    featureValues = new TreeSet<String>();
-    
-    // Make a hash of hashes for the counts.
-    HashMap<String, HashMap<String, Float>> countMap =
-      new HashMap<String, HashMap<String, Float>>();
-    
     // Get all the annotations of the correct type containing
     // the correct feature
     HashSet<String> featureSet = new HashSet<String>();
@@ -158,88 +177,77 @@ public class AnnotationDifferClassification {
     AnnotationSet relevantAnns1 = aS1.get(type, featureSet);
     AnnotationSet relevantAnns2 = aS2.get(type, featureSet);
     
+    // Index both sets by span, so that the annotations with the same span in the same set
+    // and the coextensive annotations in the other set can be found with one lookup.
+    HashMap<Long, List<Annotation>> spans1 = indexBySpan(relevantAnns1);
+    HashMap<Long, List<Annotation>> spans2 = indexBySpan(relevantAnns2);
+    
+    matrix = new ConfusionMatrix();
+    isCalculatedKappas = false;
+    
     // For each annotation in aS1, find the match in aS2
     for (Annotation relevantAnn1 : relevantAnns1) {
-
+      long span = spanKey(relevantAnn1);
       // First we need to check that this annotation is not identical in span
       // to anything else in the same set. Duplicates should be excluded.
-      List<Annotation> dupeAnnotations = new ArrayList<Annotation>();
-      for (Annotation aRelevantAnns1 : relevantAnns1) {
-        if (aRelevantAnns1.equals(relevantAnn1)) { continue; }
-        if (aRelevantAnns1.coextensive(relevantAnn1)) {
-          dupeAnnotations.add(aRelevantAnns1);
-          dupeAnnotations.add(relevantAnn1);
-        }
-      }
-
-      if (dupeAnnotations.size() > 1) {
+      List<Annotation> sameSpan1 = spans1.get(span);
+      if (sameSpan1.size() > 1) {
         if (verbose) {
+          List<Annotation> dupeAnnotations = new ArrayList<Annotation>();
+          for (Annotation aRelevantAnns1 : sameSpan1) {
+            if (aRelevantAnns1.equals(relevantAnn1)) { continue; }
+            dupeAnnotations.add(aRelevantAnns1);
+            dupeAnnotations.add(relevantAnn1);
+          }
           Out.prln("ClassificationMeasures: " +
             "Same span annotations in set 1 detected! Ignoring.");
           Out.prln(Arrays.toString(dupeAnnotations.toArray()));
         }
-      } else {
-        // Find the match in as2
-        List<Annotation>  coextensiveAnnotations = new ArrayList<Annotation>();
-        for (Annotation relevantAnn2 : relevantAnns2) {
-          if (relevantAnn2.coextensive(relevantAnn1)) {
-            coextensiveAnnotations.add(relevantAnn2);
-          }
+        continue;
+      }
+      // Find the match in as2
+      List<Annotation> coextensiveAnnotations = spans2.get(span);
+      if (coextensiveAnnotations == null) {
+        if (verbose) {
+          Out.prln("ClassificationMeasures: Annotation in set 1 " +
+            "with no counterpart in set 2 detected! Ignoring.");
+          Out.prln(relevantAnn1.toString());
         }
-
-        if (coextensiveAnnotations.size() == 0) {
-          if (verbose) {
-            Out.prln("ClassificationMeasures: Annotation in set 1 " +
-              "with no counterpart in set 2 detected! Ignoring.");
-            Out.prln(relevantAnn1.toString());
-          }
-        } else if (coextensiveAnnotations.size() == 1) {
-
-          // What are our feature values?
-          String featVal1 = String.valueOf(relevantAnn1.getFeatures().get(feature));
-          String featVal2 = String.valueOf(coextensiveAnnotations.get(0).getFeatures().get(feature));
-
-          // Make sure both are present in our feature value list
-          featureValues.add(featVal1);
-          featureValues.add(featVal2);
-
-          // Update the matrix hash of hashes
-          // Get the right hashmap for the as1 feature value
-          HashMap<String, Float> subHash = countMap.get(featVal1);
-          if (subHash == null) {
-            // This is a new as1 feature value, since it has no subhash yet
-            HashMap<String, Float> subHashForNewAS1FeatVal =
-              new HashMap<String, Float>();
-
-            // Since it is a new as1 feature value, there can be no existing
-            // as2 feature values paired with it. So we make a new one for this
-            // as2 feature value
-            subHashForNewAS1FeatVal.put(featVal2, (float) 1);
-
-            countMap.put(featVal1, subHashForNewAS1FeatVal);
-          } else {
-            // Increment the count
-            Float count = subHash.get(featVal2);
-            if (count == null) {
-              subHash.put(featVal2, (float) 1);
-            } else {
-              subHash.put(featVal2, (float) count.intValue() + 1);
-            }
-
-          }
-        } else if (coextensiveAnnotations.size() > 1) {
-          if (verbose) {
-            Out.prln("ClassificationMeasures: " +
-              "Same span annotations in set 2 detected! Ignoring.");
-            Out.prln(Arrays.toString(coextensiveAnnotations.toArray()));
-          }
+      } else if (coextensiveAnnotations.size() == 1) {
+        // What are our feature values?
+        String featVal1 = String.valueOf(relevantAnn1.getFeatures().get(feature));
+        String featVal2 = String.valueOf(coextensiveAnnotations.get(0).getFeatures().get(feature));
+        matrix.increment(featVal1, featVal2);
+      } else {
+        if (verbose) {
+          Out.prln("ClassificationMeasures: " +
+            "Same span annotations in set 2 detected! Ignoring.");
+          Out.prln(Arrays.toString(coextensiveAnnotations.toArray()));
         }
       }
     }
     
-    // Now we have this hash of hashes, but the calculation implementations
-    // require an array of floats. So for now we can just translate it.
-    confusionMatrix = convert2DHashTo2DFloatArray(countMap, featureValues);
+    featureValues = new TreeSet<String>(matrix.getLabels());
+  }
+  
+  // Annotation offsets are always within the document content, which is a String, so
+  // start and end fit into an int and can be combined into one long.
+  private static long spanKey(Annotation ann) {
+    return (ann.getStartNode().getOffset() << 32) | ann.getEndNode().getOffset();
+  }
+  
+  private static HashMap<Long, List<Annotation>> indexBySpan(AnnotationSet anns) {
+    HashMap<Long, List<Annotation>> index = new HashMap<Long, List<Annotation>>();
+    for (Annotation ann : anns) {
+      long span = spanKey(ann);
+      List<Annotation> sameSpan = index.get(span);
+      if (sameSpan == null) {
+        sameSpan = new ArrayList<Annotation>(1);
+        index.put(span, sameSpan);
+      }
+      sameSpan.add(ann);
+    }
+    return index;
   }
   
   /**
@@ -249,130 +257,21 @@ public class AnnotationDifferClassification {
    * @param tables tables to combine
    */
   public AnnotationDifferClassification(Collection<AnnotationDifferClassification> tables) {
-    /* A hash of hashes for the actual values.
-     * This will later be converted to a 2D float array for
-     * compatibility with the existing code. */
-    HashMap<String, HashMap<String, Float>> countMap =
-      new HashMap<String, HashMap<String, Float>>();
-    
-    /* Make a new feature values set which is a superset of all the others */
-    TreeSet<String> newFeatureValues = new TreeSet<String>();
-    
-    /* Now we are going to add each new contingency table in turn */
-
     for (AnnotationDifferClassification table : tables) {
-      int it1index = 0;
-      for (String featureValue1 : table.featureValues) {
-        newFeatureValues.add(featureValue1);
-        int it2index = 0;
-        for (String featureValue2 : table.featureValues) {
-
-          /* So we have the labels of the count we want to add */
-          /* What is the value we want to add? */
-          Float valtoadd = table.confusionMatrix[it1index][it2index];
-
-          HashMap<String, Float> subHash = countMap.get(featureValue1);
-          if (subHash == null) {
-            /* This is a new as1 feature value, since it has no subhash yet */
-            HashMap<String, Float> subHashForNewAS1FeatVal =
-              new HashMap<String, Float>();
-
-            /* Since it is a new as1 feature value, there can be no existing
-             *  as2 feature values paired with it. So we make a new one for this
-             *  as2 feature value */
-            subHashForNewAS1FeatVal.put(featureValue2, valtoadd);
-
-            countMap.put(featureValue1, subHashForNewAS1FeatVal);
-          } else {
-            /* Increment the count */
-            Float count = subHash.get(featureValue2);
-            if (count == null) {
-              subHash.put(featureValue2, valtoadd);
-            } else {
-              subHash.put(featureValue2, count.intValue() + valtoadd);
-            }
-          }
-          it2index++;
-        }
-        it1index++;
-      }
+      matrix.add(table.matrix);
     }
-    
-    confusionMatrix = convert2DHashTo2DFloatArray(countMap, newFeatureValues);
-    featureValues = newFeatureValues;
+    featureValues = new TreeSet<String>(matrix.getLabels());
     isCalculatedKappas = false;
   }
   
   /** Compute Cohen's and Pi kappas for two annotators.
+   * The chance agreements are calculated from the marginal sums which the confusion
+   * matrix keeps up to date while counting.
    */
   protected void computeKappaPairwise()
   {
-    // Compute the agreement
-    float observedAgreement = getObservedAgreement();
-    int numCats = featureValues.size();
-    // compute the agreement by chance
-    // Get the marginal sum for each annotator
-    float[] marginalArrayC = new float[numCats];
-    float[] marginalArrayR = new float[numCats];
-    float totalSum = 0;
-    for(int i = 0; i < numCats; ++i) {
-      float sum = 0;
-      for(int j = 0; j < numCats; ++j)
-        sum += confusionMatrix[i][j];
-      marginalArrayC[i] = sum;
-      totalSum += sum;
-      sum = 0;
-      for(int j = 0; j < numCats; ++j)
-        sum += confusionMatrix[j][i];
-      marginalArrayR[i] = sum;
-    }
-    
-    // Compute Cohen's p(E)
-    float pE = 0;
-    if(totalSum > 0) {
-      float doubleSum = totalSum * totalSum;
-      for(int i = 0; i < numCats; ++i)
-        pE += (marginalArrayC[i] * marginalArrayR[i]) / doubleSum;
-    }
-    
-    // Compute Cohen's Kappa
-    if (pE == 1.0F) { // prevent division by zero
-      kappaCohen = 1.0F;
-    }
-    else if (totalSum > 0) 
-      kappaCohen = (observedAgreement - pE) / (1.0F - pE);
-    else kappaCohen = 0;
-    
-    // Compute S&C's chance agreement
-    pE = 0;
-    if(totalSum > 0) {
-      float doubleSum = 2 * totalSum;
-      for(int i = 0; i < numCats; ++i) {
-        float p = (marginalArrayC[i] + marginalArrayR[i]) / doubleSum;
-        pE += p * p;
-      }
-    }
-    
-    if (pE == 1.0F) { // prevent division by zero
-      kappaPi = 1.0F;
-    }
-    else if (totalSum > 0)
-      kappaPi = (observedAgreement - pE) / (1.0F - pE);
-    else kappaPi = 0;
-    
-    // Compute the specific agreement for each label using marginal sums
-    float[][] sAgreements = new float[numCats][2];
-    for(int i = 0; i < numCats; ++i) {
-      if(marginalArrayC[i] + marginalArrayR[i]>0) 
-        sAgreements[i][0] = (2 * confusionMatrix[i][i])
-          / (marginalArrayC[i] + marginalArrayR[i]);
-      else sAgreements[i][0] = 0.0f;
-      if(2 * totalSum - marginalArrayC[i] - marginalArrayR[i]>0)
-        sAgreements[i][1] = (2 * (totalSum - marginalArrayC[i]
-          - marginalArrayR[i] + confusionMatrix[i][i]))
-          / (2 * totalSum - marginalArrayC[i] - marginalArrayR[i]);
-      else sAgreements[i][1] = 0.0f;
-    }
+    kappaCohen = (float) matrix.getKappaCohen();
+    kappaPi = (float) matrix.getKappaPi();
   }
   
   /** Gets the number of annotations for which the two annotation sets
@@ -380,11 +279,7 @@ public class AnnotationDifferClassification {
    * @return Number of agreed trials
    */
   public float getAgreedTrials(){
-    float sumAgreed = 0;
-    for(int i = 0; i < featureValues.size(); ++i) {
-      sumAgreed += confusionMatrix[i][i];
-    }
-    return sumAgreed;
+    return matrix.getAgreed();
   }
   
   /** Gets the total number of annotations in the two sets.
@@ -393,20 +288,20 @@ public class AnnotationDifferClassification {
    * @return Number of trials
    */
   public float getTotalTrials(){
-    float sumTotal = 0;
-    for(int i = 0; i < featureValues.size(); ++i) {
-      for(int j = 0; j < featureValues.size(); ++j) {
-        sumTotal += confusionMatrix[i][j];
-      }
-    }
-    return sumTotal;
+    return matrix.getTotal();
   }
   
   /**
+   * Return the confusion matrix as rows of strings. If there are at most 
+   * MAX_LABELS_FULL_MATRIX labels, this is the full matrix, otherwise the 
+   * DEFAULT_TOP_CONFUSIONS most frequent confusions, see getConfusionMatrix(String,int).
    * @param title matrix title
    * @return confusion matrix as a list of list of String
    */
   public List<List<String>> getConfusionMatrix(String title) {
+    if (featureValues.size() > MAX_LABELS_FULL_MATRIX) {
+      return getConfusionMatrix(title, DEFAULT_TOP_CONFUSIONS);
+    }
     List<List<String>> matrix = new ArrayList<List<String>>();
     List<String> row = new ArrayList<String>();
     row.add(" ");
@@ -431,6 +326,36 @@ public class AnnotationDifferClassification {
     return matrix;
   }
 
+  /**
+   * Return the most frequent confusions, i.e. pairs of different labels, as rows of strings
+   * with the label in set A, the label in set B and the count.
+   * @param title matrix title
+   * @param topN maximum number of confusions to return
+   * @return confusions as a list of list of String
+   */
+  public List<List<String>> getConfusionMatrix(String title, int topN) {
+    List<List<String>> matrix = new ArrayList<List<String>>();
+    List<String> row = new ArrayList<String>();
+    row.add(" ");
+    matrix.add(row); // spacer
+    row = new ArrayList<String>();
+    row.add(title);
+    matrix.add(row); // title
+    row = new ArrayList<String>();
+    row.add("A");
+    row.add("B");
+    row.add("count");
+    matrix.add(row); // heading
+    for (ConfusionMatrix.Entry entry : this.matrix.getTopEntries(topN, false)) {
+      row = new ArrayList<String>();
+      row.add(entry.getKeyLabel());
+      row.add(entry.getResponseLabel());
+      row.add(String.valueOf(entry.getCount()));
+      matrix.add(row);
+    }
+    return matrix;
+  }
+
   public List<String> getMeasuresRow(Object[] measures, String documentName) {
     NumberFormat f = NumberFormat.getInstance(Locale.ENGLISH);
     f.setMaximumFractionDigits(2);
@@ -456,42 +381,4 @@ public class AnnotationDifferClassification {
     return row;
   }
 
-  /**
-   * Convert between two formats of confusion matrix.
-   * A hashmap of hashmaps is easier to populate but an array is better for
-   * matrix computation.
-   * @param countMap count for each label as in confusion matrix
-   * @param featureValues sorted set of labels that will define the dimensions
-   * @return converted confusion matrix as an 2D array
-   */
-  private float[][] convert2DHashTo2DFloatArray(
-    HashMap<String, HashMap<String, Float>> countMap,
-    TreeSet<String> featureValues)
-  {
-    int dimensionOfContingencyTable = featureValues.size();
-    float[][] matrix =
-      new float[dimensionOfContingencyTable][dimensionOfContingencyTable];
-    int i=0;
-    int j=0;
-    for (String featureValue1 : featureValues) {
-      HashMap<String, Float> hashForThisAS1FeatVal =
-        countMap.get(featureValue1);
-      j = 0;
-      for (String featureValue2 : featureValues) {
-        Float count = null;
-        if (hashForThisAS1FeatVal != null) {
-          count = hashForThisAS1FeatVal.get(featureValue2);
-        }
-        if (count != null) {
-          matrix[i][j] = count;
-        } else {
-          matrix[i][j] = 0;
-        }
-        j++;
-      }
-      i++;
-    }    
-    return matrix;
-  }
-  
 }
@@ -27,15 +27,20 @@ import gate.annotation.AnnotationSetImpl;
 import gate.annotation.ImmutableAnnotationSetImpl;
 import gate.util.GateRuntimeException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NavigableSet;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 import org.apache.log4j.Logger;
 
 /**
@@ -126,6 +131,40 @@ public class AnnotationDifferTagging {
     return featureComparison;
   }
 
+  // The id of the target each correct or incorrect response was matched with and for each
+  // missing target its own id. This is kept here instead of in the features of the 
+  // annotations so that the differ does not modify the annotations it evaluates.
+  private IntIntMap targetIds;
+
+  /**
+   * Return the id of the target annotation the response was matched with. For a missing target,
+   * this returns the id of the target itself. If the annotation was not matched or this differ
+   * was not created with additional data, returns null.
+   *
+   * @param ann a response or target annotation
+   * @return the id of the matched target or null
+   */
+  public Integer getTargetId(Annotation ann) {
+    if (targetIds == null) {
+      return null;
+    }
+    int id = targetIds.get(ann.getId());
+    return id < 0 ? null : id;
+  }
+
+  private long nCandidatePairs = 0;
+
+  /**
+   * Returns the number of key/response pairs which were considered as possible matches. 
+   * These are all pairs where the key and response overlap. If the differ was run several 
+   * times internally (e.g. for several thresholds), this is the sum over all runs.
+   *
+   * @return number of candidate pairs
+   */
+  public long getCandidatePairsCount() {
+    return nCandidatePairs;
+  }
+
   /**
    * Create a differ for the two sets and the given, potentially empty/null list of features.
    *
@@ -193,6 +232,124 @@ public class AnnotationDifferTagging {
     evalStats = calculateDiff(targets, responses, features, fcmp, scoreFeature,
             thresholdValue, null, null, annotationTypeSpecs);
   }
+  
+  // If true, calculateDiff keeps the key index, response index and value of all possible 
+  // pairings in rawPairings, so that the differs for each type can be derived.
+  private boolean keepRawPairings = false;
+  private int[][] rawPairings;
+  
+  /**
+   * Create a differ for all the types in the type specifications which can also provide 
+   * the differs for each individual type without comparing the annotations again.
+   * <p>
+   * The differ returned is identical to one created with the constructor, but in addition
+   * the method getDifferForType can be used to get the differ for one of the type specifications.
+   * That differ is identical to creating a differ from just the keys and responses of that 
+   * type, but only re-uses the possible pairings found for all types and only does the
+   * conflict resolution again, for the pairings between annotations of that type.
+   * 
+   * @param targets target annotations of all types
+   * @param responses response annotations of all types
+   * @param features features to use
+   * @param fcmp feature comparison to use
+   * @param annotationTypeSpecs the type specifications
+   * @return the differ for all types
+   */
+  public static AnnotationDifferTagging calculateForAllTypes(
+          AnnotationSet targets,
+          AnnotationSet responses,
+          Set<String> features,
+          FeatureComparison fcmp,
+          AnnotationTypeSpecs annotationTypeSpecs
+  ) {
+    AnnotationDifferTagging differ = new AnnotationDifferTagging();
+    differ.features = features;
+    differ.featureComparison = fcmp;
+    differ.keepRawPairings = true;
+    differ.evalStats = differ.calculateDiff(targets, responses, features, fcmp, null,
+            Double.NaN, null, null, annotationTypeSpecs);
+    return differ;
+  }
+  
+  /**
+   * Return the differ for the keys and responses of just one type specification. 
+   * This can only be used with a differ created by calculateForAllTypes.
+   * 
+   * @param typeSpec the type specification
+   * @return differ for that type
+   */
+  public AnnotationDifferTagging getDifferForType(AnnotationTypeSpec typeSpec) {
+    if(rawPairings == null) {
+      throw new GateRuntimeException("Differ for a type can only be created from a differ created with calculateForAllTypes");
+    }
+    return new AnnotationDifferTagging(this, typeSpec);
+  }
+  
+  private AnnotationDifferTagging(AnnotationDifferTagging allTypes, AnnotationTypeSpec typeSpec) {
+    features = allTypes.features;
+    featureComparison = allTypes.featureComparison;
+    // The key and response lists of the differ for all types are sorted, so the sublists 
+    // are sorted too. The maps give the index in the sublist or -1 for the other types.
+    int[] keyMap = new int[allTypes.keyList.size()];
+    keyList = new ArrayList<Annotation>();
+    for(int i = 0; i < keyMap.length; i++) {
+      Annotation ann = allTypes.keyList.get(i);
+      if(ann.getType().equals(typeSpec.getKeyType())) {
+        keyMap[i] = keyList.size();
+        keyList.add(ann);
+      } else {
+        keyMap[i] = -1;
+      }
+    }
+    int[] responseMap = new int[allTypes.responseList.size()];
+    responseList = new ArrayList<Annotation>();
+    for(int j = 0; j < responseMap.length; j++) {
+      Annotation ann = allTypes.responseList.get(j);
+      if(ann.getType().equals(typeSpec.getResponseType())) {
+        responseMap[j] = responseList.size();
+        responseList.add(ann);
+      } else {
+        responseMap[j] = -1;
+      }
+    }
+    AnnotationSet keyAnns = new ImmutableAnnotationSetImpl(allTypes.targetAnns.getDocument(), keyList);
+    AnnotationSet responseAnns = new ImmutableAnnotationSetImpl(allTypes.targetAnns.getDocument(), responseList);
+    initAdditionalData(keyAnns);
+    EvalStatsTagging es = new EvalStatsTagging4Score(Double.NaN);
+    keyChoices = new ArrayList<List<Pairing>>(keyList.size());
+    keyChoices.addAll(Collections.nCopies(keyList.size(), (List<Pairing>) null));
+    responseChoices = new ArrayList<List<Pairing>>(responseList.size());
+    responseChoices.addAll(Collections.nCopies(responseList.size(), (List<Pairing>) null));
+    possibleChoices = new ArrayList<Pairing>();
+    es.addTargets(keyList.size());
+    es.addResponses(responseList.size());
+    boolean[] haveStrictResponse = new boolean[keyList.size()];
+    boolean[] haveLenientResponse = new boolean[keyList.size()];
+    for(int[] raw : allTypes.rawPairings) {
+      int i = keyMap[raw[0]];
+      int j = responseMap[raw[1]];
+      if(i >= 0 && j >= 0) {
+        Pairing choice = new Pairing(i, j, raw[2]);
+        addPairing(choice, i, keyChoices);
+        addPairing(choice, j, responseChoices);
+        possibleChoices.add(choice);
+        haveLenientResponse[i] = true;
+        if(raw[2] == CORRECT_VALUE || raw[2] == MISMATCH_VALUE) {
+          haveStrictResponse[i] = true;
+        }
+      }
+    }
+    nCandidatePairs += possibleChoices.size();
+    int nTargetsWithStrictResponses = 0;
+    int nTargetsWithLenientResponses = 0;
+    for(int i = 0; i < keyList.size(); i++) {
+      if(haveStrictResponse[i]) nTargetsWithStrictResponses++;
+      if(haveLenientResponse[i]) nTargetsWithLenientResponses++;
+    }
+    es.addTargetsWithStrictResponses(nTargetsWithStrictResponses);
+    es.addTargetsWithLenientResponses(nTargetsWithLenientResponses);
+    evalStats = resolveChoices(es, keyAnns, responseAnns);
+  }
 
   /**
    * Calculate a new or add to an existing ByThEvalStatsTagging object. If this is called with the
@@ -341,6 +498,46 @@ public class AnnotationDifferTagging {
           ThresholdsToUse thToUse,
           ByThEvalStatsTagging existingByThresholdEvalStats,
           AnnotationTypeSpecs typeSpecs
+  ) {
+    return calculateListByThEvalStatsTagging(targets, listAnnotations, responseCandidatesLists,
+            featureSet, fcmp, listIdFeature, scoreFeature, thToUse, existingByThresholdEvalStats,
+            typeSpecs, null, false);
+  }
+
+  /**
+   * Same as the method without the cache parameter, but if a cache is given, the differ 
+   * for the extreme threshold is stored in it, so that the indicator annotations for the 
+   * best list elements can be created without diffing again. If parallel is true, the 
+   * thresholds are evaluated concurrently on the common fork-join pool, the result is 
+   * identical to evaluating them one after the other.
+   *
+   * @param targets target annotation set
+   * @param listAnnotations list annotation set
+   * @param responseCandidatesLists list of candidates
+   * @param featureSet set of features
+   * @param fcmp feature comparison instance
+   * @param listIdFeature name of the id feature
+   * @param scoreFeature score feature name 
+   * @param thToUse threshold to use
+   * @param existingByThresholdEvalStats some existing stats instance
+   * @param typeSpecs annotation type specs
+   * @param cache the per-document cache of differs, or null
+   * @param parallel if the thresholds should be evaluated in parallel
+   * @return new or updated stats object
+   */
+  public static ByThEvalStatsTagging calculateListByThEvalStatsTagging(
+          AnnotationSet targets,
+          AnnotationSet listAnnotations,
+          List<CandidateList> responseCandidatesLists,
+          Set<String> featureSet,
+          FeatureComparison fcmp,
+          String listIdFeature,
+          String scoreFeature,
+          ThresholdsToUse thToUse,
+          ByThEvalStatsTagging existingByThresholdEvalStats,
+          AnnotationTypeSpecs typeSpecs,
+          ListDiffCache cache,
+          boolean parallel
   ) {
     ByThEvalStatsTagging byThresholdEvalStats = null;
     if (existingByThresholdEvalStats == null) {
@@ -365,8 +562,8 @@ public class AnnotationDifferTagging {
 
     if (allScores != null) {
       for (CandidateList listOfCandList : responseCandidatesLists) {
-        for (Annotation ann : listOfCandList.getList()) {
-          double score = object2Double(ann.getFeatures().get(scoreFeature));
+        for (int i = 0; i < listOfCandList.size(); i++) {
+          double score = listOfCandList.getScore(i);
           if (thToUse == ThresholdsToUse.USE_ALLROUNDED) {
             score = round(score, 100.0);
           }
@@ -387,22 +584,40 @@ public class AnnotationDifferTagging {
 
     thresholds.add(Double.NEGATIVE_INFINITY); // add the extreme value always
     
-    // By increasing threshold, process the listAnnotations: 
-    ByThEvalStatsTagging newMap = new ByThEvalStatsTagging();
-    AnnotationDifferTagging tmpAD = new AnnotationDifferTagging();
-    for (double th : thresholds) {
+    // Evaluate each threshold into its own slot, then add the stats by increasing threshold.
+    // The differ is reused for the thresholds, unless we run in parallel or need to keep the 
+    // differ for the extreme value for the cache.
+    final Double[] ths = thresholds.toArray(new Double[thresholds.size()]);
+    final EvalStatsTagging[] results = new EvalStatsTagging[ths.length];
+    final AnnotationDifferTagging[] extremeAD = new AnnotationDifferTagging[1];
+    final AnnotationDifferTagging tmpAD = new AnnotationDifferTagging();
+    runForEach(ths.length, parallel, k -> {
+      double th = ths[k];
       logger.debug("DEBUG: running differ for th " + th + " nr targets is " + targets.size() + " nr responseCands is " + responseCandidatesLists.size());
       // TODO!!! CHECK: can we ignore the annotation type specs here??? Because we handle lists?
-      if(th == Double.NEGATIVE_INFINITY) {
-        tmpAD.createAdditionalData = true;
-      } else {
-        tmpAD.createAdditionalData = false;        
+      boolean extreme = (th == Double.NEGATIVE_INFINITY);
+      AnnotationDifferTagging ad = tmpAD;
+      if(parallel || (extreme && cache != null)) {
+        ad = new AnnotationDifferTagging();
       }
-      EvalStatsTagging es = tmpAD.calculateDiff(
+      ad.createAdditionalData = extreme;
+      EvalStatsTagging es = ad.calculateDiff(
               targets, listAnnotations, featureSet, fcmp, scoreFeature,
               th, null, responseCandidatesLists, typeSpecs);
       logger.debug("DEBUG: got stats: " + es);
-      newMap.put(th, es);
+      results[k] = es;
+      if(extreme) {
+        ad.evalStats = es;
+        extremeAD[0] = ad;
+      }
+    });
+    ByThEvalStatsTagging newMap = new ByThEvalStatsTagging();
+    for (int k = 0; k < ths.length; k++) {
+      newMap.put(ths[k], results[k]);
+    }
+    if(cache != null) {
+      cache.put(targets, listAnnotations, responseCandidatesLists, featureSet, fcmp, scoreFeature, 
+              Double.NEGATIVE_INFINITY, null, typeSpecs, extremeAD[0]);
     }
     byThresholdEvalStats.add(newMap);
 
@@ -436,6 +651,44 @@ public class AnnotationDifferTagging {
           ThresholdsOrRanksToUse thToUse,
           ByRankEvalStatsTagging existingByRankEvalStats,
           AnnotationTypeSpecs typeSpecs
+  ) {
+    return calculateListByRankEvalStatsTagging(targets, listAnnotations, responseCandidatesLists,
+            featureSet, fcmp, listIdFeature, scoreFeature, thToUse, existingByRankEvalStats,
+            typeSpecs, null, false);
+  }
+
+  /**
+   * Same as the method without the cache parameter, but if a cache is given, the differ 
+   * for the extreme rank is stored in it. If parallel is true, the ranks are evaluated 
+   * concurrently on the common fork-join pool.
+   * 
+   * @param targets target annotation set
+   * @param listAnnotations list annotation set
+   * @param responseCandidatesLists list of candidates
+   * @param featureSet set of features
+   * @param fcmp feature comparison instance
+   * @param listIdFeature name of the id feature
+   * @param scoreFeature score feature name
+   * @param thToUse ranks to use
+   * @param existingByRankEvalStats some existing stats instance
+   * @param typeSpecs annotation type specs
+   * @param cache the per-document cache of differs, or null
+   * @param parallel if the ranks should be evaluated in parallel
+   * @return new or updated stats object
+   */
+  public static ByRankEvalStatsTagging calculateListByRankEvalStatsTagging(
+          AnnotationSet targets,
+          AnnotationSet listAnnotations,
+          List<CandidateList> responseCandidatesLists,
+          Set<String> featureSet,
+          FeatureComparison fcmp,
+          String listIdFeature,
+          String scoreFeature,
+          ThresholdsOrRanksToUse thToUse,
+          ByRankEvalStatsTagging existingByRankEvalStats,
+          AnnotationTypeSpecs typeSpecs,
+          ListDiffCache cache,
+          boolean parallel
   ) {
     ByRankEvalStatsTagging rankEvalStats = null;
     if (existingByRankEvalStats == null) {
@@ -472,30 +725,58 @@ public class AnnotationDifferTagging {
 
     thresholds.add(Integer.MAX_VALUE); // add the extreme value always
     
-    // By increasing threshold, process the listAnnotations: 
-    ByRankEvalStatsTagging newMap = new ByRankEvalStatsTagging();
-    AnnotationDifferTagging tmpAD = new AnnotationDifferTagging();
-    tmpAD.createAdditionalData = false;
-    for (int rank : thresholds) {
+    // Evaluate each rank into its own slot, then add the stats by increasing rank.
+    // The extreme rank is the last one, so the differ does not get reused after that, unless
+    // we run in parallel, where each rank gets its own differ.
+    final Integer[] ranks = thresholds.toArray(new Integer[thresholds.size()]);
+    final EvalStatsTagging[] results = new EvalStatsTagging[ranks.length];
+    final AnnotationDifferTagging[] extremeAD = new AnnotationDifferTagging[1];
+    final AnnotationDifferTagging tmpAD = new AnnotationDifferTagging();
+    runForEach(ranks.length, parallel, k -> {
+      int rank = ranks[k];
       logger.debug("DEBUG: running differ for th " + rank + " nr targets is " + targets.size() + " nr responseCands is " + responseCandidatesLists.size());
       // TODO!!! CHECK: can we ignore the annotation type specs here??? Because we handle lists?
-      if(rank == Integer.MAX_VALUE) {
-        tmpAD.createAdditionalData = true;
-      } else {
-        tmpAD.createAdditionalData = false;        
-      }
-      EvalStatsTagging es = tmpAD.calculateDiff(
+      boolean extreme = (rank == Integer.MAX_VALUE);
+      AnnotationDifferTagging ad = parallel ? new AnnotationDifferTagging() : tmpAD;
+      ad.createAdditionalData = extreme;
+      EvalStatsTagging es = ad.calculateDiff(
               targets, listAnnotations, featureSet, fcmp, 
               scoreFeature,
               null, rank, responseCandidatesLists, typeSpecs);
       logger.debug("DEBUG: got stats: " + es);
-      newMap.put(rank, es);
+      results[k] = es;
+      if(extreme) {
+        ad.evalStats = es;
+        extremeAD[0] = ad;
+      }
+    });
+    ByRankEvalStatsTagging newMap = new ByRankEvalStatsTagging();
+    for (int k = 0; k < ranks.length; k++) {
+      newMap.put(ranks[k], results[k]);
+    }
+    if(cache != null) {
+      cache.put(targets, listAnnotations, responseCandidatesLists, featureSet, fcmp, scoreFeature, 
+              null, Integer.MAX_VALUE, typeSpecs, extremeAD[0]);
     }
     rankEvalStats.add(newMap);
 
     return rankEvalStats;
   }
 
+  /**
+   * Run the task for the indices 0 to n-1, either one after the other or in parallel on
+   * the common fork-join pool. 
+   */
+  private static void runForEach(int n, boolean parallel, IntConsumer task) {
+    if (parallel && n > 1) {
+      IntStream.range(0, n).parallel().forEach(task);
+    } else {
+      for (int k = 0; k < n; k++) {
+        task.accept(k);
+      }
+    }
+  }
+
   /**
    * TODO!!!
    *
@@ -523,6 +804,49 @@ public class AnnotationDifferTagging {
           Integer rankThreshold,
           AnnotationTypeSpecs annotationTypeSpecs
   ) {
+    return calculateEvalStatsTagging4List(targets, listAnnotations, responseCandidatesLists,
+            featureSet, fcmp, listIdFeature, scoreFeature, scoreThreshold, rankThreshold,
+            annotationTypeSpecs, null);
+  }
+
+  /**
+   * Same as the method without the cache parameter, but if a cache is given and already 
+   * contains a differ for the same threshold or rank and configuration, that differ is 
+   * returned, otherwise the newly calculated differ is added to the cache.
+   * 
+   * @param targets target annotation set
+   * @param listAnnotations list annotation set
+   * @param responseCandidatesLists list of candidates
+   * @param featureSet set of features
+   * @param fcmp feature comparison instance
+   * @param listIdFeature name of the id feature
+   * @param scoreFeature score feature name
+   * @param scoreThreshold score threshold or null
+   * @param rankThreshold rank threshold or null
+   * @param annotationTypeSpecs annotation type specs
+   * @param cache the per-document cache of differs, or null
+   * @return the differ 
+   */
+  public static AnnotationDifferTagging calculateEvalStatsTagging4List(
+          AnnotationSet targets,
+          AnnotationSet listAnnotations,
+          List<CandidateList> responseCandidatesLists,
+          Set<String> featureSet,
+          FeatureComparison fcmp,
+          String listIdFeature,
+          String scoreFeature,
+          Double scoreThreshold,
+          Integer rankThreshold,
+          AnnotationTypeSpecs annotationTypeSpecs,
+          ListDiffCache cache
+  ) {
+    if(cache != null) {
+      AnnotationDifferTagging cached = cache.get(targets, listAnnotations, responseCandidatesLists, featureSet, 
+              fcmp, scoreFeature, scoreThreshold, rankThreshold, annotationTypeSpecs);
+      if(cached != null) {
+        return cached;
+      }
+    }
     AnnotationDifferTagging tmpAD = new AnnotationDifferTagging();
     //tmpAD.createAdditionalData = false;
     EvalStatsTagging es
@@ -534,6 +858,10 @@ public class AnnotationDifferTagging {
                     responseCandidatesLists,
                     annotationTypeSpecs);
     tmpAD.evalStats = es;
+    if(cache != null) {
+      cache.put(targets, listAnnotations, responseCandidatesLists, featureSet, fcmp, scoreFeature, 
+              scoreThreshold, rankThreshold, annotationTypeSpecs, tmpAD);
+    }
     return tmpAD;
   }
 
@@ -633,15 +961,27 @@ public class AnnotationDifferTagging {
    * @param prefix TODO
    */
   public void addIndicatorAnnotations(AnnotationSet outSet, String prefix) {
+    addIndicatorAnnotations(outSet, prefix, null);
+  }
+
+  /**
+   * Like addIndicatorAnnotations(outSet,prefix) but only record the annotations in the buffer
+   * if the buffer is not null. 
+   *
+   * @param outSet the output set
+   * @param prefix prefix for the type suffix
+   * @param buffer buffer to record the annotations in, or null to add them immediately
+   */
+  public void addIndicatorAnnotations(AnnotationSet outSet, String prefix, IndicatorAnnotationBuffer buffer) {
     if (prefix == null) {
       prefix = "";
     }
-    addAnnsWithTypeSuffix(outSet, getCorrectStrictAnnotations(), prefix + "_CS", null);
-    addAnnsWithTypeSuffix(outSet, getCorrectPartialAnnotations(), prefix + "_CP", null);
-    addAnnsWithTypeSuffix(outSet, getIncorrectStrictAnnotations(), prefix + "_IS", null);
-    addAnnsWithTypeSuffix(outSet, getIncorrectPartialAnnotations(), prefix + "_IP", null);
-    addAnnsWithTypeSuffix(outSet, getTrueMissingLenientAnnotations(), prefix + "_ML", null);
-    addAnnsWithTypeSuffix(outSet, getTrueSpuriousLenientAnnotations(), prefix + "_SL", null);
+    addAnnsWithTypeSuffix(outSet, getCorrectStrictAnnotations(), prefix + "_CS", null, this, buffer);
+    addAnnsWithTypeSuffix(outSet, getCorrectPartialAnnotations(), prefix + "_CP", null, this, buffer);
+    addAnnsWithTypeSuffix(outSet, getIncorrectStrictAnnotations(), prefix + "_IS", null, this, buffer);
+    addAnnsWithTypeSuffix(outSet, getIncorrectPartialAnnotations(), prefix + "_IP", null, this, buffer);
+    addAnnsWithTypeSuffix(outSet, getTrueMissingLenientAnnotations(), prefix + "_ML", null, this, buffer);
+    addAnnsWithTypeSuffix(outSet, getTrueSpuriousLenientAnnotations(), prefix + "_SL", null, this, buffer);
   }
 
   /**
@@ -748,6 +1088,20 @@ public class AnnotationDifferTagging {
   // differences really only makes sense if the same set and strategy are used!!
   public static void addChangesIndicatorAnnotations(AnnotationDifferTagging responses,
           AnnotationDifferTagging reference, AnnotationSet outSet) {
+    addChangesIndicatorAnnotations(responses, reference, outSet, null);
+  }
+
+  /**
+   * Like addChangesIndicatorAnnotations(responses,reference,outSet) but only record the 
+   * annotations in the buffer if the buffer is not null.
+   *
+   * @param responses differ for the responses
+   * @param reference differ for the reference set
+   * @param outSet the output set
+   * @param buffer buffer to record the annotations in, or null to add them immediately
+   */
+  public static void addChangesIndicatorAnnotations(AnnotationDifferTagging responses,
+          AnnotationDifferTagging reference, AnnotationSet outSet, IndicatorAnnotationBuffer buffer) {
 
     Set<String> fs = responses.getFeatureSet();
     FeatureComparison fc = FeatureComparison.FEATURE_EQUALITY;
@@ -764,70 +1118,68 @@ public class AnnotationDifferTagging {
     for (Annotation ann : reference.getCorrectStrictAnnotations()) {
       AnnotationSet tmpSet;
       tmpSet = getOverlappingAnnsNotIn(responses.getCorrectPartialAnnotations(), ann, allRefs, fs, fc);
-      addAnnsWithTypeSuffix(outSet, tmpSet, "_CS_CP", "-");
+      addAnnsWithTypeSuffix(outSet, tmpSet, "_CS_CP", "-", responses, buffer);
       tmpSet = getOverlappingAnnsNotIn(responses.getIncorrectStrictAnnotations(), ann, allRefs, fs, fc);
-      addAnnsWithTypeSuffix(outSet, tmpSet, "_CS_IS", "-");
+      addAnnsWithTypeSuffix(outSet, tmpSet, "_CS_IS", "-", responses, buffer);
       tmpSet = getOverlappingAnnsNotIn(responses.getIncorrectPartialAnnotations(), ann, allRefs, fs, fc);
-      addAnnsWithTypeSuffix(outSet, tmpSet, "_CS_IP", "-");
+      addAnnsWithTypeSuffix(outSet, tmpSet, "_CS_IP", "-", responses, buffer);
       tmpSet = getOverlappingAnnsNotIn(responses.getTrueMissingLenientAnnotations(), ann, allRefs, fs, fc);
-      addAnnsWithTypeSuffix(outSet, tmpSet, "_CS_ML", "-");
+      addAnnsWithTypeSuffix(outSet, tmpSet, "_CS_ML", "-", responses, buffer);
     }
     // CP -> CS, IS, IP, ML
     for (Annotation ann : reference.getCorrectPartialAnnotations()) {
       AnnotationSet tmpSet;
       tmpSet = getOverlappingAnnsNotIn(responses.getCorrectStrictAnnotations(), ann, allRefs, fs, fc);
-      addAnnsWithTypeSuffix(outSet, tmpSet, "_CP_CS", "+");
+      addAnnsWithTypeSuffix(outSet, tmpSet, "_CP_CS", "+", responses, buffer);
       tmpSet = getOverlappingAnnsNotIn(responses.getIncorrectStrictAnnotations(), ann, allRefs, fs, fc);
-      addAnnsWithTypeSuffix(outSet, tmpSet, "_CP_IS", "-");
+      addAnnsWithTypeSuffix(outSet, tmpSet, "_CP_IS", "-", responses, buffer);
       tmpSet = getOverlappingAnnsNotIn(responses.getIncorrectPartialAnnotations(), ann, allRefs, fs, fc);
-      addAnnsWithTypeSuffix(outSet, tmpSet, "_CP_IP", "-");
+      addAnnsWithTypeSuffix(outSet, tmpSet, "_CP_IP", "-", responses, buffer);
       tmpSet = getOverlappingAnnsNotIn(responses.getTrueMissingLenientAnnotations(), ann, allRefs, fs, fc);
-      addAnnsWithTypeSuffix(outSet, tmpSet, "_CP_ML", "-");
+      addAnnsWithTypeSuffix(outSet, tmpSet, "_CP_ML", "-", responses, buffer);
     }
     // IS -> IP, CS, CP, ML
     for (Annotation ann : reference.getIncorrectStrictAnnotations()) {
       AnnotationSet tmpSet;
       tmpSet = getOverlappingAnnsNotIn(responses.getIncorrectPartialAnnotations(), ann, allRefs, fs, fc);
-      addAnnsWithTypeSuffix(outSet, tmpSet, "_IS_IP", "+-");
+      addAnnsWithTypeSuffix(outSet, tmpSet, "_IS_IP", "+-", responses, buffer);
       tmpSet = getOverlappingAnnsNotIn(responses.getCorrectStrictAnnotations(), ann, allRefs, fs, fc);
-      addAnnsWithTypeSuffix(outSet, tmpSet, "_IS_CS", "+");
+      addAnnsWithTypeSuffix(outSet, tmpSet, "_IS_CS", "+", responses, buffer);
       tmpSet = getOverlappingAnnsNotIn(responses.getCorrectPartialAnnotations(), ann, allRefs, fs, fc);
-      addAnnsWithTypeSuffix(outSet, tmpSet, "_IS_CP", "+");
+      addAnnsWithTypeSuffix(outSet, tmpSet, "_IS_CP", "+", responses, buffer);
       tmpSet = getOverlappingAnnsNotIn(responses.getTrueMissingLenientAnnotations(), ann, allRefs, fs, fc);
-      addAnnsWithTypeSuffix(outSet, tmpSet, "_IS_ML", "+-");
+      addAnnsWithTypeSuffix(outSet, tmpSet, "_IS_ML", "+-", responses, buffer);
     }
     // IP -> IS, CS, CP, ML
     for (Annotation ann : reference.getIncorrectPartialAnnotations()) {
       AnnotationSet tmpSet;
       tmpSet = getOverlappingAnnsNotIn(responses.getIncorrectStrictAnnotations(), ann, allRefs, fs, fc);
-      addAnnsWithTypeSuffix(outSet, tmpSet, "_IP_IS", "+-");
+      addAnnsWithTypeSuffix(outSet, tmpSet, "_IP_IS", "+-", responses, buffer);
       tmpSet = getOverlappingAnnsNotIn(responses.getCorrectStrictAnnotations(), ann, allRefs, fs, fc);
-      addAnnsWithTypeSuffix(outSet, tmpSet, "_IP_CS", "+");
+      addAnnsWithTypeSuffix(outSet, tmpSet, "_IP_CS", "+", responses, buffer);
       tmpSet = getOverlappingAnnsNotIn(responses.getCorrectPartialAnnotations(), ann, allRefs, fs, fc);
-      addAnnsWithTypeSuffix(outSet, tmpSet, "_IP_CP", "+");
+      addAnnsWithTypeSuffix(outSet, tmpSet, "_IP_CP", "+", responses, buffer);
       tmpSet = getOverlappingAnnsNotIn(responses.getTrueMissingLenientAnnotations(), ann, allRefs, fs, fc);
-      addAnnsWithTypeSuffix(outSet, tmpSet, "_IP_ML", "+-");
+      addAnnsWithTypeSuffix(outSet, tmpSet, "_IP_ML", "+-", responses, buffer);
     }
     // ML -> CS, CP, IS, IP
     for (Annotation ann : reference.getTrueMissingLenientAnnotations()) {
       AnnotationSet tmpSet;
       tmpSet = getOverlappingAnnsNotIn(responses.getCorrectStrictAnnotations(), ann, allRefs, fs, fc);
-      addAnnsWithTypeSuffix(outSet, tmpSet, "_ML_CS", "+");
+      addAnnsWithTypeSuffix(outSet, tmpSet, "_ML_CS", "+", responses, buffer);
       tmpSet = getOverlappingAnnsNotIn(responses.getCorrectPartialAnnotations(), ann, allRefs, fs, fc);
-      addAnnsWithTypeSuffix(outSet, tmpSet, "_ML_CP", "+");
+      addAnnsWithTypeSuffix(outSet, tmpSet, "_ML_CP", "+", responses, buffer);
       tmpSet = getOverlappingAnnsNotIn(responses.getIncorrectStrictAnnotations(), ann, allRefs, fs, fc);
-      addAnnsWithTypeSuffix(outSet, tmpSet, "_ML_IS", "+-");
+      addAnnsWithTypeSuffix(outSet, tmpSet, "_ML_IS", "+-", responses, buffer);
       tmpSet = getOverlappingAnnsNotIn(responses.getIncorrectPartialAnnotations(), ann, allRefs, fs, fc);
-      addAnnsWithTypeSuffix(outSet, tmpSet, "_ML_IP", "+-");
+      addAnnsWithTypeSuffix(outSet, tmpSet, "_ML_IP", "+-", responses, buffer);
     }
     // SL -> A (absent)
     for (Annotation ann : reference.getTrueSpuriousLenientAnnotations()) {
       AnnotationSet tmpSet;
       tmpSet = Utils.getOverlappingAnnotations(responses.getTrueSpuriousLenientAnnotations(), ann);
       if (tmpSet.size() == 0) {
-        FeatureMap fm = gate.Utils.toFeatureMap(ann.getFeatures());
-        fm.put("_eval.change", "+-");
-        gate.Utils.addAnn(outSet, ann, ann.getType() + "_SL_A", fm);
+        addAnnWithType(outSet, ann, ann.getType() + "_SL_A", "+-", null, buffer);
       }
     }
     // A (absent) -> SL
@@ -836,9 +1188,7 @@ public class AnnotationDifferTagging {
       tmpSet = Utils.getOverlappingAnnotations(reference.getTrueSpuriousLenientAnnotations(), ann);
       //System.err.println("\n\nDEBUG: checking ann in response "+ann+"\ngot overlaps: "+tmpSet+"\nsize is "+tmpSet.size());
       if (tmpSet.size() == 0) {
-        FeatureMap fm = gate.Utils.toFeatureMap(ann.getFeatures());
-        fm.put("_eval.change", "+-");
-        gate.Utils.addAnn(outSet, ann, ann.getType() + "_A_SL", fm);
+        addAnnWithType(outSet, ann, ann.getType() + "_A_SL", "+-", null, buffer);
       }
     }
   // This would amount to 22 different pairings of which the following 9 are good:
@@ -922,28 +1272,19 @@ public class AnnotationDifferTagging {
       es = new EvalStatsTagging4Score(scoreThreshold);
     }
 
-    if (createAdditionalData) {
-      correctStrictAnns = new AnnotationSetImpl(keyAnns.getDocument());
-      correctPartialAnns = new AnnotationSetImpl(keyAnns.getDocument());
-      incorrectStrictAnns = new AnnotationSetImpl(keyAnns.getDocument());
-      incorrectPartialAnns = new AnnotationSetImpl(keyAnns.getDocument());
-      trueMissingLenientAnns = new AnnotationSetImpl(keyAnns.getDocument());
-      trueSpuriousLenientAnns = new AnnotationSetImpl(keyAnns.getDocument());
-      targetAnns = new AnnotationSetImpl(keyAnns.getDocument());
-      targetAnns.addAll(keyAnns);
-      singleCorrectPartialAnns = new AnnotationSetImpl(keyAnns.getDocument());
-      singleCorrectStrictAnns = new AnnotationSetImpl(keyAnns.getDocument());
-    }
+    initAdditionalData(keyAnns);
     keyList = new ArrayList<Annotation>(keyAnns);
     // sort to avoid non-determinism
     Collections.sort(keyList,new OffsetAndMoreComparator(features));
     responseList = null;
-    // If we do list processing, this records, for each response annotation, what the corresponding
-    // index of the candidate list is. Since the responeList only contains annotations from those
-    // candidate lists which have still at least one candidate, there is no 1:1 mapping between
-    // the index of an annotation in the responseList and the index of the candidate lists, so 
-    // this list is used instead.
-    List<Integer> candidateIndices = new ArrayList<Integer>();
+    // If we do list processing, this records, for each response annotation, the view of the 
+    // corresponding candidate list for the threshold or rank. Since the responeList only contains
+    // annotations from those candidate lists which have still at least one candidate, there is 
+    // no 1:1 mapping between the index of an annotation in the responseList and the index of 
+    // the candidate lists, so this list is used instead.
+    // We only use views here and never change the candidate lists, so that the differs for 
+    // different thresholds can run at the same time.
+    List<CandidateList.View> candidateViews = new ArrayList<CandidateList.View>();
 
     // if the candidateLists parameter is not null, we need to prepare the responses 
     // from those lists.
@@ -953,22 +1294,21 @@ public class AnnotationDifferTagging {
       // adding the highest score candidate to the response list if the candidate list 
       // still has entries for the scoreThreshold. That candidate may get replaced later ...
       responseList = new ArrayList<Annotation>(responseAnns.size());
-      int cidx = 0;
       for (CandidateList cand : candidateLists) {
+        CandidateList.View view;
         if(rankThreshold != null) {
-          cand.setRank(rankThreshold);
+          view = cand.viewForRank(rankThreshold);
         } else {
-          cand.setThreshold(scoreThreshold);
+          view = cand.viewForThreshold(scoreThreshold);
         }
-        //System.out.println("DEBUG after setting to "+rankThreshold+"/"+scoreThreshold+" size="+cand.size());
-        if (cand.size() != 0) {
-          responseList.add(cand.get(0));
-          candidateIndices.add(cidx);
+        //System.out.println("DEBUG after setting to "+rankThreshold+"/"+scoreThreshold+" size="+view.size());
+        if (view.size() != 0) {
+          responseList.add(view.get(0));
+          candidateViews.add(view);
         }
-        cidx++;
       }
       //logger.debug("DEBUG: response list size is now: " + responseList.size());
-      //System.err.println("DEBUG: respListSize="+responseList.size()+" candIndicesSize="+candidateIndices.size());
+      //System.err.println("DEBUG: respListSize="+responseList.size()+" candViewsSize="+candidateViews.size());
     } else {
 
       // if we do not need to process the candidate lists, check if we need to process for 
@@ -1029,6 +1369,14 @@ public class AnnotationDifferTagging {
     boolean[] haveStrictResponse = new boolean[keyList.size()];
     boolean[] haveLenientResponse = new boolean[keyList.size()];
     for(int i=0; i<keyList.size(); i++) { haveStrictResponse[i] = false; haveLenientResponse[i] = false; }
+    // For list evaluation with feature equality, whether a candidate matches a key only depends
+    // on the value of the first feature (see isAnnotationsMatch), so we can look up the first
+    // matching candidate in an index over the candidate list instead of checking all candidates.
+    String matchFeature = null;
+    if (candidateLists != null && features != null && !features.isEmpty() && 
+            (fcmp == FeatureComparison.FEATURE_EQUALITY || fcmp == FeatureComparison.FEATURE_EQUALITY_AS_STRING)) {
+      matchFeature = features.iterator().next();
+    }
     for (int i = 0; i < keyList.size(); i++) {
       for (int j = 0; j < responseList.size(); j++) {
         Annotation keyAnn = keyList.get(i);
@@ -1046,7 +1394,7 @@ public class AnnotationDifferTagging {
         // NOTE: this will only consider list annotation which match the type of the key 
         // annotation according to the type specs
         if (candidateLists != null) {
-          CandidateList candList = candidateLists.get(candidateIndices.get(j));
+          CandidateList.View candList = candidateViews.get(j);
           // check already at this point that the candidate list has a type
           // that matches the key, based on the type specifications we got!
           String candType = candList.getListAnnotation().getType();
@@ -1064,7 +1412,28 @@ public class AnnotationDifferTagging {
             // We initialize responselist(i) with candList.get(0) so the above is identical to
             // Annotation bestAnn = candList.get(0);
             boolean foundOverlap = false;
-            for (int c = 0; c < candList.size(); c++) {
+            int nToCheck = candList.size();
+            if (matchFeature != null && candList.getCandidateList().isAllCoextensive() && 
+                    keyAnn.coextensive(candList.getListAnnotation())) {
+              // All candidates are coextensive with the key, so the first candidate with the 
+              // same value is a correct match, and if there is none, the first candidate is
+              // a mismatch. This is the same result the loop below would give us.
+              int rank = candList.getCandidateList().getFirstRank(matchFeature, 
+                      fcmp == FeatureComparison.FEATURE_EQUALITY_AS_STRING, 
+                      keyAnn.getFeatures().get(matchFeature));
+              if (rank >= 0 && rank < candList.size()) {
+                match = CORRECT_VALUE;
+                bestAnn = candList.get(rank);
+              } else {
+                match = MISMATCH_VALUE;
+                bestAnn = candList.get(0);
+              }
+              foundOverlap = true;
+              haveStrictResponse[i]=true;
+              haveLenientResponse[i]=true;
+              nToCheck = 0;
+            }
+            for (int c = 0; c < nToCheck; c++) {
               Annotation tmpResp = candList.get(c);
               //System.out.println("DEBUG: pairing key="+debugAnnAsString(keyAnn,i)+" respAnn="+debugAnnAsString(tmpResp,j)+" best="+debugAnnAsString(bestAnn,j));
               //logger.debug("Checking annotation at index: " + c + ": " + tmpResp);
@@ -1163,6 +1532,14 @@ public class AnnotationDifferTagging {
         }
       }//for j
     }//for i
+    nCandidatePairs += possibleChoices.size();
+    if(keepRawPairings) {
+      rawPairings = new int[possibleChoices.size()][];
+      for(int k = 0; k < possibleChoices.size(); k++) {
+        Pairing p = possibleChoices.get(k);
+        rawPairings[k] = new int[]{p.keyIndex, p.responseIndex, p.value};
+      }
+    }
 
     int nTargetsWithStrictResponses = 0;
     int nTargetsWithLenientResponses = 0;
@@ -1179,6 +1556,31 @@ public class AnnotationDifferTagging {
     es.addTargetsWithStrictResponses(nTargetsWithStrictResponses);
     es.addTargetsWithLenientResponses(nTargetsWithLenientResponses);
     
+    return resolveChoices(es, keyAnns, responseAnns);
+  }
+  
+  private void initAdditionalData(AnnotationSet keyAnns) {
+    if (createAdditionalData) {
+      targetIds = new IntIntMap(-1);
+      correctStrictAnns = new AnnotationSetImpl(keyAnns.getDocument());
+      correctPartialAnns = new AnnotationSetImpl(keyAnns.getDocument());
+      incorrectStrictAnns = new AnnotationSetImpl(keyAnns.getDocument());
+      incorrectPartialAnns = new AnnotationSetImpl(keyAnns.getDocument());
+      trueMissingLenientAnns = new AnnotationSetImpl(keyAnns.getDocument());
+      trueSpuriousLenientAnns = new AnnotationSetImpl(keyAnns.getDocument());
+      targetAnns = new AnnotationSetImpl(keyAnns.getDocument());
+      targetAnns.addAll(keyAnns);
+      singleCorrectPartialAnns = new AnnotationSetImpl(keyAnns.getDocument());
+      singleCorrectStrictAnns = new AnnotationSetImpl(keyAnns.getDocument());
+    }
+  }
+  
+  /**
+   * Find the best set of pairings from the possible choices and count them.
+   * This expects keyList, responseList, keyChoices, responseChoices and possibleChoices to 
+   * be initialized with all possible pairings.
+   */
+  private EvalStatsTagging resolveChoices(EvalStatsTagging es, AnnotationSet keyAnns, AnnotationSet responseAnns) {
     //2) from all possible pairings, find the maximal set that also
     //maximises the total score
     Collections.sort(possibleChoices, new PairingScoreComparator());
@@ -1195,7 +1597,7 @@ public class AnnotationDifferTagging {
           //logger.debug("DEBUG: add a correct strict one: "+bestChoice.getKey());
           if (createAdditionalData) {
             Annotation tmp = bestChoice.getResponse();
-            tmp.getFeatures().put("gate.plugin.evaluation.targetId", bestChoice.getKey().getId());
+            targetIds.put(tmp.getId(), bestChoice.getKey().getId());
             correctStrictAnns.add(tmp);
           }
           es.addCorrectStrict(1);
@@ -1206,7 +1608,7 @@ public class AnnotationDifferTagging {
           //logger.debug("DEBUG: add a correct partial one: "+bestChoice.getKey());
           if (createAdditionalData) {
             Annotation tmp = bestChoice.getResponse();
-            tmp.getFeatures().put("gate.plugin.evaluation.targetId", bestChoice.getKey().getId());
+            targetIds.put(tmp.getId(), bestChoice.getKey().getId());
             correctPartialAnns.add(tmp);
           }
           es.addCorrectPartial(1);
@@ -1219,7 +1621,7 @@ public class AnnotationDifferTagging {
             bestChoice.setPairingType(MISMATCH_TYPE);
             if (createAdditionalData) {
               Annotation tmp = bestChoice.getResponse();
-              tmp.getFeatures().put("gate.plugin.evaluation.targetId", bestChoice.getKey().getId());
+              targetIds.put(tmp.getId(), bestChoice.getKey().getId());
               incorrectStrictAnns.add(tmp);
             }
           } else if (bestChoice.getKey() != null) {
@@ -1237,7 +1639,7 @@ public class AnnotationDifferTagging {
             es.addIncorrectPartial(1);
             if (createAdditionalData) {
               Annotation tmp = bestChoice.getResponse();
-              tmp.getFeatures().put("gate.plugin.evaluation.targetId", bestChoice.getKey().getId());
+              targetIds.put(tmp.getId(), bestChoice.getKey().getId());
               incorrectPartialAnns.add(tmp);
             }
             bestChoice.setPairingType(MISMATCH_TYPE);
@@ -1262,7 +1664,7 @@ public class AnnotationDifferTagging {
       if (aList == null || aList.isEmpty()) {
         if (createAdditionalData) {
           Annotation tmp = keyList.get(i);
-          tmp.getFeatures().put("gate.plugin.evaluation.targetId", tmp.getId());
+          targetIds.put(tmp.getId(), tmp.getId());
           trueMissingLenientAnns.add(tmp);
         }
         Pairing choice = new Pairing(i, -1, WRONG_VALUE);
@@ -1788,8 +2190,9 @@ public class AnnotationDifferTagging {
    * class represents each list the way we need it. It also allows to set a score or rank threshold
    * after which only those candidates within the threshold will be visible and the value returned
    * by the size() method is adjusted accordingly. Also, since the score or rank threshold needs to
-   * get adjusted frequently, we use a method that avoids going through all candidates every time
-   * when the score threshold gets adjusted.
+   * get adjusted frequently, the scores are read from the feature maps only once when the list
+   * is created and kept in an array parallel to the sorted candidates, so that a new score 
+   * threshold is found with a binary search.
    */
   public static class CandidateList {
     // the constructor takes the original list annotation and initializes this object 
@@ -1821,7 +2224,7 @@ public class AnnotationDifferTagging {
       logger.debug("DEBUG: id list is " + ids);
 
       if (!ids.isEmpty()) {
-        cands = new ArrayList<Annotation>(ids.size());
+        List<Annotation> tmpCands = new ArrayList<Annotation>(ids.size());
         for (Integer id : ids) {
           logger.debug("DEBUG: trying to get annotation for id " + id);
           Annotation cand = annSet.get(id);
@@ -1832,22 +2235,41 @@ public class AnnotationDifferTagging {
             if (filterNils) {
               String nilFValue = (String) cand.getFeatures().get(idFeature);
               if (!nilFValue.equals(nilValue)) {
-                cands.add(cand);
+                tmpCands.add(cand);
               }
             } else {
-              cands.add(cand);
+              tmpCands.add(cand);
             }
           }
         }
+        int n = tmpCands.size();
+        cands = new Annotation[n];
         if (this.scoreFeature != null) {
-          ByScoreComparator comp = new ByScoreComparator(scoreFeature);
-          Collections.sort(cands, comp);
-          logger.debug("DEBUG: cands sorted, is now " + cands);
+          // get each score once and sort the candidates by decreasing score, keeping
+          // the original order for identical scores. NaN sorts before everything else.
+          final double[] rawScores = new double[n];
+          Integer[] order = new Integer[n];
+          for (int i = 0; i < n; i++) {
+            rawScores[i] = object2Double(tmpCands.get(i).getFeatures().get(scoreFeature));
+            order[i] = i;
+          }
+          Arrays.sort(order, (i1, i2) -> Double.compare(rawScores[i2], rawScores[i1]));
+          scores = new double[n];
+          for (int i = 0; i < n; i++) {
+            cands[i] = tmpCands.get(order[i]);
+            scores[i] = rawScores[order[i]];
+          }
+          logger.debug("DEBUG: cands sorted, is now " + Arrays.toString(cands));
+        } else {
+          cands = tmpCands.toArray(cands);
         }
-        theSize = cands.size();
+        theSize = cands.length;
       } else {
         theSize = 0;
-        cands = new ArrayList<Annotation>(0);
+        cands = new Annotation[0];
+        if (this.scoreFeature != null) {
+          scores = new double[0];
+        }
       }
     }
     private int theSize = 0;
@@ -1870,14 +2292,16 @@ public class AnnotationDifferTagging {
      * @return TODO 
      */
     public int sizeAll() {
-      return cands.size();
+      return cands.length;
     }
     
 
     private double currentThreshold = Double.NEGATIVE_INFINITY;
 
     private String scoreFeature;
-    private List<Annotation> cands;
+    // the candidates sorted by decreasing score and the scores, if we have a score feature
+    private Annotation[] cands;
+    private double[] scores;
     private Annotation listAnn;
     private String type;
 
@@ -1894,49 +2318,84 @@ public class AnnotationDifferTagging {
       if (th == currentThreshold) {
         return;
       }
-      // if th > currentThreshold, then we need to reduce the size of the visible candidates
-      // by excluding those which have a score < the new threshold
-      // if th < currentThreshold, then we need to increase the size of the visible candidates
-      // by including those which have a score >= the new threshold
-      int newSize = size();
-      if (th < currentThreshold) {
-        for (int i = this.size(); i < cands.size(); i++) {
-          double sc = object2Double(cands.get(i).getFeatures().get(scoreFeature));
-          if (sc >= th) {
-            newSize = i;
-          } else {
-            break;
-          }
-        }
-      } else if (th > currentThreshold) {
-        for (int i = this.size() - 1; i >= 0; i--) {
-          double sc = object2Double(cands.get(i).getFeatures().get(scoreFeature));
-          if (sc < th) {
-            newSize = i;
-          } else {
-            break;
-          }
-        }
-      }
-      theSize = newSize;
+      theSize = sizeForThreshold(th);
       currentThreshold = th;
     }
 
     public void setRank(int rank) {
-      if (rank >= cands.size()) {
-        theSize = cands.size();
+      theSize = sizeForRank(rank);
+    }
+
+    /**
+     * Return the number of candidates which would be visible for the given score threshold.
+     * Unlike setThreshold, this does not change the list.
+     * 
+     * @param th score threshold
+     * @return number of candidates with a score greater or equal th
+     */
+    public int sizeForThreshold(double th) {
+      if (scoreFeature == null) {
+        throw new GateRuntimeException("sizeForThreshold can only be used if there is a score feature!");
+      }
+      // The visible candidates are those with a score greater or equal th and the ones with a
+      // NaN score, which are sorted first, so we need the first index with a score < th.
+      int lo = 0;
+      int hi = scores.length;
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (scores[mid] < th) {
+          hi = mid;
+        } else {
+          lo = mid + 1;
+        }
+      }
+      return lo;
+    }
+
+    /**
+     * Return the number of candidates which would be visible for the given rank.
+     * Unlike setRank, this does not change the list.
+     * 
+     * @param rank the highest rank (0-based) to include
+     * @return number of candidates up to and including that rank
+     */
+    public int sizeForRank(int rank) {
+      if (rank >= cands.length) {
+        return cands.length;
       } else if (rank < 0) {
-        theSize = 0;
+        return 0;
       } else {
-        theSize = rank + 1;
+        return rank + 1;
       }
     }
 
+    /**
+     * Return an immutable view of the candidates visible for the given score threshold. 
+     * Views for different thresholds can be used at the same time, e.g. from different threads,
+     * since they do not change the list.
+     * 
+     * @param th score threshold
+     * @return view 
+     */
+    public View viewForThreshold(double th) {
+      return new View(this, sizeForThreshold(th));
+    }
+
+    /**
+     * Return an immutable view of the candidates visible for the given rank.
+     * 
+     * @param rank the highest rank (0-based) to include
+     * @return view 
+     */
+    public View viewForRank(int rank) {
+      return new View(this, sizeForRank(rank));
+    }
+
     /**
      * Unset any rank or threshold limit that may be in place.
      */
     public void clearLimits() {
-      theSize = cands.size();
+      theSize = cands.length;
       currentThreshold = Double.NEGATIVE_INFINITY;
     }
     
@@ -1945,36 +2404,141 @@ public class AnnotationDifferTagging {
       if (index >= theSize) {
         throw new GateRuntimeException("Attempt to access element larger than the currently set size");
       }
-      return cands.get(index);
+      return cands[index];
+    }
+    
+    /**
+     * Return the score of the candidate at the given index, or NaN if there is no score 
+     * feature.
+     * 
+     * @param index index of the candidate
+     * @return score
+     */
+    public double getScore(int index) {
+      if (index >= theSize) {
+        throw new GateRuntimeException("Attempt to access element larger than the currently set size");
+      }
+      return scores == null ? Double.NaN : scores[index];
     }
 
+    /**
+     * Return the currently visible candidates. This is an unmodifiable view which does not
+     * copy the candidates, it does not change when the threshold or rank is changed later.
+     * 
+     * @return list of visible candidates
+     */
     public List<Annotation> getList() {
-      List<Annotation> ret = new ArrayList<Annotation>();
-      for (int i = 0; i < theSize; i++) {
-        ret.add(cands.get(i));
-      }
-      return ret;
+      return Collections.unmodifiableList(Arrays.asList(cands).subList(0, theSize));
     }
 
     public Annotation getListAnnotation() {
       return listAnn;
     }
 
-    protected static class ByScoreComparator implements Comparator<Annotation> {
+    /**
+     * Check if all candidates, irrespective of the threshold, are coextensive with the list
+     * annotation. 
+     * 
+     * @return true if all candidates have the offsets of the list annotation
+     */
+    public boolean isAllCoextensive() {
+      if (allCoextensive == null) {
+        boolean all = true;
+        for (Annotation cand : cands) {
+          if (!cand.coextensive(listAnn)) {
+            all = false;
+            break;
+          }
+        }
+        allCoextensive = all;
+      }
+      return allCoextensive;
+    }
 
-      private String scoreFeature;
+    /**
+     * Return the lowest index of a candidate which has the given value for the feature,
+     * irrespective of the threshold, or -1 if there is no such candidate. 
+     * The index from values to indices is created the first time this is called and 
+     * re-created only if called for a different feature or comparison.
+     * 
+     * @param feature the feature name
+     * @param asString if the values should be compared as strings
+     * @param value the value of the feature, may be null
+     * @return index or -1
+     */
+    public int getFirstRank(String feature, boolean asString, Object value) {
+      ValueIndex index = valueIndex;
+      if (index == null || !feature.equals(index.feature) || asString != index.asString) {
+        Map<Object,Integer> firstRankByValue = new HashMap<Object,Integer>();
+        for (int i = cands.length - 1; i >= 0; i--) {
+          firstRankByValue.put(indexValue(cands[i].getFeatures().get(feature), asString), i);
+        }
+        index = new ValueIndex(feature, asString, firstRankByValue);
+        valueIndex = index;
+      }
+      Integer rank = index.firstRankByValue.get(indexValue(value, asString));
+      return rank == null ? -1 : rank;
+    }
 
-      public ByScoreComparator(String fn) {
-        scoreFeature = fn;
+    private static Object indexValue(Object value, boolean asString) {
+      if (value == null) {
+        return NULL_VALUE;
       }
+      return asString ? value.toString() : value;
+    }
 
-      @Override
-      public int compare(Annotation o1, Annotation o2) {
-        double s1 = object2Double(o1.getFeatures().get(scoreFeature));
-        double s2 = object2Double(o2.getFeatures().get(scoreFeature));
-        return Double.compare(s2, s1);
+    private static final Object NULL_VALUE = new Object();
+    // these are created lazily and may get created by several threads at the same time, 
+    // which is harmless as long as each thread sees a complete object
+    private volatile Boolean allCoextensive;
+    private volatile ValueIndex valueIndex;
+    
+    private static final class ValueIndex {
+      final String feature;
+      final boolean asString;
+      final Map<Object,Integer> firstRankByValue;
+      ValueIndex(String feature, boolean asString, Map<Object,Integer> firstRankByValue) {
+        this.feature = feature;
+        this.asString = asString;
+        this.firstRankByValue = firstRankByValue;
       }
+    }
 
+    /**
+     * The candidates of a list which are visible for a specific threshold or rank.
+     * A view never changes, even if the threshold or rank of the list is changed.
+     */
+    public static final class View {
+      private final CandidateList list;
+      private final int size;
+      private View(CandidateList list, int size) {
+        this.list = list;
+        this.size = size;
+      }
+      public int size() {
+        return size;
+      }
+      public Annotation get(int index) {
+        if (index >= size) {
+          throw new GateRuntimeException("Attempt to access element larger than the size of the view");
+        }
+        return list.cands[index];
+      }
+      public double getScore(int index) {
+        if (index >= size) {
+          throw new GateRuntimeException("Attempt to access element larger than the size of the view");
+        }
+        return list.scores == null ? Double.NaN : list.scores[index];
+      }
+      public List<Annotation> getList() {
+        return Collections.unmodifiableList(Arrays.asList(list.cands).subList(0, size));
+      }
+      public CandidateList getCandidateList() {
+        return list;
+      }
+      public Annotation getListAnnotation() {
+        return list.listAnn;
+      }
     }
   }
 
@@ -2065,14 +2629,21 @@ public class AnnotationDifferTagging {
     return tmpSet;
   }
 
-  private static void addAnnsWithTypeSuffix(AnnotationSet outSet, Collection<Annotation> inAnns, String suffix, String changeInd) {
+  // The target ids for the annotations are looked up in the given differ.
+  private static void addAnnsWithTypeSuffix(AnnotationSet outSet, Collection<Annotation> inAnns, 
+          String suffix, String changeInd, AnnotationDifferTagging differ, IndicatorAnnotationBuffer buffer) {
     for (Annotation ann : inAnns) {
-      FeatureMap fm = gate.Utils.toFeatureMap(ann.getFeatures());
-      if (changeInd != null && !changeInd.isEmpty()) {
-        fm.put("_eval.change", changeInd);
-      }
-      gate.Utils.addAnn(outSet, ann, ann.getType() + suffix, fm);
+      addAnnWithType(outSet, ann, ann.getType() + suffix, changeInd, differ.getTargetId(ann), buffer);
+    }
+  }
+  
+  private static void addAnnWithType(AnnotationSet outSet, Annotation ann, 
+          String type, String changeInd, Integer targetId, IndicatorAnnotationBuffer buffer) {
+    if (buffer != null) {
+      buffer.add(outSet, ann, type, changeInd, targetId);
+      return;
     }
+    gate.Utils.addAnn(outSet, ann, type, IndicatorAnnotationBuffer.indicatorFeatures(ann, changeInd, targetId));
   }
   
   /**
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.api;
+
+import gate.util.GateRuntimeException;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.apache.log4j.Logger;
+
+/**
+ * A result sink which passes the results on to another sink on a separate thread. 
+ * <p>
+ * Adding a result only puts it into an unbounded queue, so a slow sink, e.g. one that writes
+ * to a network connection, does not hold up the pipeline. Closing this sink waits until all 
+ * queued results have been passed on and then closes the wrapped sink. If the wrapped sink 
+ * throws an exception, the remaining results are dropped and the exception is rethrown 
+ * from close().
+ * 
+ * @author Johann Petrak
+ */
+public class AsyncResultSink implements ResultSink {
+  
+  protected static final Logger logger = Logger.getLogger(AsyncResultSink.class);
+  
+  // marks the end of the results in the queue
+  private static final EvaluationResult END = new EvaluationResult(
+          "", "", null, "", null, Double.NaN, -1, false, new double[EvaluationResult.getValueCount()], null);
+  
+  private final ResultSink sink;
+  private final LinkedBlockingQueue<EvaluationResult> queue = new LinkedBlockingQueue<>();
+  private final Thread thread;
+  private volatile RuntimeException error;
+  private boolean closed = false;
+  
+  /**
+   * Create the sink and start the thread which passes the results on to the given sink. 
+   * @param sink the sink to pass the results on to
+   * @param name name for the thread
+   */
+  public AsyncResultSink(ResultSink sink, String name) {
+    this.sink = sink;
+    thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        passOn();
+      }
+    }, name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+  
+  /**
+   * Return the sink the results are passed on to.
+   * @return the wrapped sink
+   */
+  public ResultSink getSink() { return sink; }
+  
+  private void passOn() {
+    try {
+      while(true) {
+        EvaluationResult result = queue.take();
+        if(result == END) {
+          break;
+        }
+        sink.add(result);
+      }
+    } catch (InterruptedException ex) {
+      error = new GateRuntimeException("Result sink thread was interrupted", ex);
+    } catch (RuntimeException ex) {
+      logger.error("Result sink failed", ex);
+      error = ex;
+      // keep consuming so that close() does not wait forever
+      passOnAfterError();
+    }
+  }
+  
+  private void passOnAfterError() {
+    try {
+      while(queue.take() != END) {
+        // drop
+      }
+    } catch (InterruptedException ex) {
+      // give up
+    }
+  }
+
+  @Override
+  public void add(EvaluationResult result) {
+    if(closed) {
+      throw new GateRuntimeException("Result sink is already closed");
+    }
+    queue.add(result);
+  }
+  
+  /**
+   * Return the number of results which have been added but not yet passed on.
+   * @return queue length
+   */
+  public int getPending() {
+    return queue.size();
+  }
+
+  @Override
+  public void close() {
+    if(closed) {
+      return;
+    }
+    closed = true;
+    queue.add(END);
+    try {
+      thread.join();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new GateRuntimeException("Interrupted while waiting for the result sink", ex);
+    }
+    sink.close();
+    if(error != null) {
+      throw new GateRuntimeException("Result sink failed", error);
+    }
+  }
+  
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.api;
+
+import gate.util.GateRuntimeException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A result sink which writes the results in a compact binary format. 
+ * <p>
+ * The file starts with a header: the int MAGIC, the int VERSION, the number of values per
+ * result and the names of the values. Then each result is written as a flags byte (1: has 
+ * docName, 2: has typeName, 4: macro), the evaluationId, evaluationType, docName if present, 
+ * setName and typeName if present, the threshold as double, the rank as int and the values as 
+ * doubles. All strings are written with DataOutputStream.writeUTF. 
+ * Use readAll(InputStream) to read the results back.
+ * 
+ * @author Johann Petrak
+ */
+public class BinaryResultSink implements ResultSink {
+  
+  public static final int MAGIC = 0x47455652;
+  public static final int VERSION = 1;
+  
+  private static final int FLAG_DOC = 1;
+  private static final int FLAG_TYPE = 2;
+  private static final int FLAG_MACRO = 4;
+  
+  private final DataOutputStream out;
+  
+  /**
+   * Create a sink which writes to the stream. The stream is closed when the sink is closed.
+   * @param os stream to write to
+   */
+  public BinaryResultSink(OutputStream os) {
+    out = new DataOutputStream(new BufferedOutputStream(os));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      String[] names = EvaluationResult.getValueNames();
+      out.writeInt(names.length);
+      for(String name : names) {
+        out.writeUTF(name);
+      }
+    } catch (IOException ex) {
+      throw new GateRuntimeException("Could not write result file header", ex);
+    }
+  }
+
+  @Override
+  public synchronized void add(EvaluationResult result) {
+    try {
+      int flags = 0;
+      if(result.getDocName() != null) { flags |= FLAG_DOC; }
+      if(result.getTypeName() != null) { flags |= FLAG_TYPE; }
+      if(result.isMacro()) { flags |= FLAG_MACRO; }
+      out.writeByte(flags);
+      out.writeUTF(nonNull(result.getEvaluationId()));
+      out.writeUTF(nonNull(result.getEvaluationType()));
+      if(result.getDocName() != null) {
+        out.writeUTF(result.getDocName());
+      }
+      out.writeUTF(nonNull(result.getSetName()));
+      if(result.getTypeName() != null) {
+        out.writeUTF(result.getTypeName());
+      }
+      out.writeDouble(result.getThreshold());
+      out.writeInt(result.getRank());
+      for(int i = 0; i < EvaluationResult.getValueCount(); i++) {
+        out.writeDouble(result.getValue(i));
+      }
+    } catch (IOException ex) {
+      throw new GateRuntimeException("Could not write result", ex);
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    try {
+      out.close();
+    } catch (IOException ex) {
+      throw new GateRuntimeException("Could not close result file", ex);
+    }
+  }
+  
+  /**
+   * Read all results from a stream written by this sink. The results returned do not have
+   * a statistics object. The stream is not closed.
+   * @param is stream to read from
+   * @return list of results
+   */
+  public static List<EvaluationResult> readAll(InputStream is) {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+    List<EvaluationResult> results = new ArrayList<>();
+    try {
+      if(in.readInt() != MAGIC) {
+        throw new GateRuntimeException("Not a binary result file");
+      }
+      int version = in.readInt();
+      if(version != VERSION) {
+        throw new GateRuntimeException("Unsupported binary result file version "+version);
+      }
+      int nValues = in.readInt();
+      if(nValues != EvaluationResult.getValueCount()) {
+        throw new GateRuntimeException("Expected "+EvaluationResult.getValueCount()+" values per result but file has "+nValues);
+      }
+      for(int i = 0; i < nValues; i++) {
+        in.readUTF();
+      }
+      while(true) {
+        int flags = in.read();
+        if(flags < 0) {
+          break;
+        }
+        String evaluationId = in.readUTF();
+        String evaluationType = in.readUTF();
+        String docName = (flags & FLAG_DOC) != 0 ? in.readUTF() : null;
+        String setName = in.readUTF();
+        String typeName = (flags & FLAG_TYPE) != 0 ? in.readUTF() : null;
+        double threshold = in.readDouble();
+        int rank = in.readInt();
+        double[] values = new double[nValues];
+        for(int i = 0; i < nValues; i++) {
+          values[i] = in.readDouble();
+        }
+        results.add(new EvaluationResult(evaluationId, evaluationType, docName, setName, typeName, 
+                threshold, rank, (flags & FLAG_MACRO) != 0, values, null));
+      }
+    } catch (EOFException ex) {
+      throw new GateRuntimeException("Binary result file is truncated", ex);
+    } catch (IOException ex) {
+      throw new GateRuntimeException("Could not read binary result file", ex);
+    }
+    return results;
+  }
+  
+  private static String nonNull(String s) {
+    return s == null ? "" : s;
+  }
+  
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.api;
+
+import gate.Annotation;
+import gate.plugin.evaluation.api.AnnotationDifferTagging.CandidateList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An index over the offsets of the list annotations of candidate lists for quickly finding
+ * the lists which overlap a target annotation.
+ * <p>
+ * The lists are kept in an array sorted by the start and end offset of their list 
+ * annotation, together with the running maximum of the end offsets, so finding the 
+ * overlapping lists needs a binary search and then only visits lists which start before the 
+ * end of the target, going back until no earlier list can reach the start of the target.
+ * The lists found are the same as those for which the list annotation overlaps(..) the 
+ * target.
+ * 
+ * @author Johann Petrak
+ */
+public class CandidateListIndex {
+  
+  private final CandidateList[] lists;
+  private final long[] starts;
+  private final long[] ends;
+  // running maximum of ends
+  private final long[] maxEnds;
+  
+  /**
+   * Create the index for the given candidate lists.
+   * @param candLists the candidate lists
+   */
+  public CandidateListIndex(Collection<CandidateList> candLists) {
+    int n = candLists.size();
+    lists = candLists.toArray(new CandidateList[n]);
+    Arrays.sort(lists, (a, b) -> {
+      Annotation a1 = a.getListAnnotation();
+      Annotation a2 = b.getListAnnotation();
+      int c = Long.compare(a1.getStartNode().getOffset(), a2.getStartNode().getOffset());
+      return c != 0 ? c : Long.compare(a1.getEndNode().getOffset(), a2.getEndNode().getOffset());
+    });
+    starts = new long[n];
+    ends = new long[n];
+    maxEnds = new long[n];
+    long max = Long.MIN_VALUE;
+    for(int i = 0; i < n; i++) {
+      starts[i] = lists[i].getListAnnotation().getStartNode().getOffset();
+      ends[i] = lists[i].getListAnnotation().getEndNode().getOffset();
+      if(ends[i] > max) {
+        max = ends[i];
+      }
+      maxEnds[i] = max;
+    }
+  }
+  
+  public int size() {
+    return lists.length;
+  }
+  
+  /**
+   * Return the candidate lists where the list annotation overlaps with the given annotation,
+   * in the order of the offsets of the list annotations.
+   * @param ann the annotation
+   * @return overlapping lists, possibly empty
+   */
+  public List<CandidateList> getOverlapping(Annotation ann) {
+    return getOverlapping(ann.getStartNode().getOffset(), ann.getEndNode().getOffset());
+  }
+  
+  /**
+   * Return the candidate lists where the list annotation overlaps with the given span.
+   * As for Annotation.overlaps(..), a list overlaps if it starts before the end and ends after 
+   * the start of the span.
+   * @param start start offset
+   * @param end end offset
+   * @return overlapping lists, possibly empty
+   */
+  public List<CandidateList> getOverlapping(long start, long end) {
+    // all lists before this index start before end
+    int to = lowerBound(end);
+    List<CandidateList> ret = null;
+    for(int i = to - 1; i >= 0 && maxEnds[i] > start; i--) {
+      if(ends[i] > start) {
+        if(ret == null) {
+          ret = new ArrayList<CandidateList>();
+        }
+        ret.add(lists[i]);
+      }
+    }
+    if(ret == null) {
+      return Collections.emptyList();
+    }
+    Collections.reverse(ret);
+    return ret;
+  }
+  
+  // first index with starts[i] >= value
+  private int lowerBound(long value) {
+    int lo = 0;
+    int hi = starts.length;
+    while(lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if(starts[mid] < value) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+  
+}
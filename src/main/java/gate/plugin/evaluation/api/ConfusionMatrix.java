@@ -0,0 +1,404 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A confusion matrix of counts between key and response class labels which can be
+ * accumulated incrementally.
+ * 
+ * Labels are added as they are first seen. Only the non-zero counts are stored, in a hash 
+ * map keyed by the packed pair of label codes, and the marginal sums are kept up to date
+ * while counting, so the memory needed is linear in the number of labels and the number of
+ * distinct label pairs seen, which makes it possible to use this for very large label 
+ * spaces, e.g. the ids of knowledge base entries. Rows correspond to the key labels, 
+ * columns to the response labels.
+ * 
+ * @author Johann Petrak
+ */
+public class ConfusionMatrix {
+  
+  protected HashMap<String,Integer> labelCodes = new HashMap<String,Integer>();
+  protected List<String> labels = new ArrayList<String>();
+  // non-zero counts, keyed by the key label code in the upper and the response label code 
+  // in the lower 32 bits
+  protected LongLongMap counts = new LongLongMap();
+  protected long[] rowSums = new long[0];
+  protected long[] colSums = new long[0];
+  protected long total = 0;
+  protected long agreed = 0;
+  
+  public ConfusionMatrix() {    
+  }
+  
+  /**
+   * Return the code of the label, adding the label if it has not been seen yet.
+   * @param label the label
+   * @return the code of the label
+   */
+  protected int labelCode(String label) {
+    Integer code = labelCodes.get(label);
+    if(code == null) {
+      code = labels.size();
+      if(code >= rowSums.length) {
+        int newLength = Math.max(4, 2*rowSums.length);
+        rowSums = Arrays.copyOf(rowSums, newLength);
+        colSums = Arrays.copyOf(colSums, newLength);
+      }
+      labelCodes.put(label, code);
+      labels.add(label);
+    }
+    return code;
+  }
+  
+  private static long pack(int keyCode, int responseCode) {
+    return ((long)keyCode << 32) | responseCode;
+  }
+  
+  /**
+   * Count one more annotation with the given key and response labels.
+   * @param keyLabel label of the key annotation
+   * @param responseLabel label of the response annotation
+   */
+  public void increment(String keyLabel, String responseLabel) {
+    increment(keyLabel,responseLabel,1);
+  }
+  
+  public void increment(String keyLabel, String responseLabel, long n) {
+    int k = labelCode(keyLabel);
+    int r = labelCode(responseLabel);
+    increment(k,r,n);
+  }
+  
+  protected void increment(int k, int r, long n) {
+    counts.addTo(pack(k,r), n);
+    rowSums[k] += n;
+    colSums[r] += n;
+    total += n;
+    if(k == r) {
+      agreed += n;
+    }
+  }
+  
+  /**
+   * Add the counts from the confusion matrix calculated by the given differ.
+   * @param differ a differ for which calculateConfusionMatrix has been run
+   */
+  public void add(AnnotationDifferClassification differ) {
+    add(differ.getMatrix());
+  }
+  
+  /**
+   * Add all counts from another confusion matrix.
+   * @param other the other confusion matrix
+   */
+  public void add(ConfusionMatrix other) {
+    int[] codes = new int[other.labels.size()];
+    for(int i = 0; i < codes.length; i++) {
+      codes[i] = labelCode(other.labels.get(i));
+    }
+    LongLongMap otherCounts = other.counts;
+    for(int slot = 0; slot < otherCounts.slots(); slot++) {
+      if(otherCounts.isUsed(slot)) {
+        long key = otherCounts.keyAt(slot);
+        increment(codes[(int)(key >>> 32)], codes[(int)key], otherCounts.valueAt(slot));
+      }
+    }
+  }
+  
+  /**
+   * Return the number of distinct labels seen so far.
+   * @return number of labels
+   */
+  public int getLabelCount() {
+    return labels.size();
+  }
+  
+  /**
+   * Return all labels seen so far, in sorted order.
+   * @return labels
+   */
+  public List<String> getLabels() {
+    List<String> ret = new ArrayList<String>(labels);
+    Collections.sort(ret);
+    return ret;
+  }
+  
+  public long getCount(String keyLabel, String responseLabel) {
+    Integer k = labelCodes.get(keyLabel);
+    Integer r = labelCodes.get(responseLabel);
+    if(k == null || r == null) {
+      return 0;
+    }
+    return counts.get(pack(k,r));
+  }
+  
+  /**
+   * Number of key annotations with the given label.
+   * @param label the label
+   * @return count
+   */
+  public long getKeyCount(String label) {
+    Integer k = labelCodes.get(label);
+    return k == null ? 0 : rowSums[k];
+  }
+  
+  /**
+   * Number of response annotations with the given label.
+   * @param label the label
+   * @return count
+   */
+  public long getResponseCount(String label) {
+    Integer r = labelCodes.get(label);
+    return r == null ? 0 : colSums[r];
+  }
+  
+  public long getTotal() { return total; }
+  
+  public long getAgreed() { return agreed; }
+  
+  public double getObservedAgreement() {
+    if(total > 0) {
+      return (double)agreed / total;
+    } else {
+      return 0.0;
+    }
+  }
+  
+  /**
+   * Cohen's kappa, using the distribution of labels of the key and response separately.
+   * @return kappa
+   */
+  public double getKappaCohen() {
+    if(total == 0) {
+      return 0.0;
+    }
+    double pE = 0.0;
+    double t = total;
+    for(int i = 0; i < labels.size(); i++) {
+      pE += (rowSums[i] / t) * (colSums[i] / t);
+    }
+    return kappa(pE);
+  }
+  
+  /**
+   * Scott's pi (Siegel &amp; Castellan's kappa), using the combined distribution of labels
+   * of the key and response.
+   * @return kappa
+   */
+  public double getKappaPi() {
+    if(total == 0) {
+      return 0.0;
+    }
+    double pE = 0.0;
+    double t2 = 2.0 * total;
+    for(int i = 0; i < labels.size(); i++) {
+      double p = (rowSums[i] + colSums[i]) / t2;
+      pE += p * p;
+    }
+    return kappa(pE);
+  }
+  
+  private double kappa(double pE) {
+    if(pE == 1.0) {
+      return 1.0;
+    }
+    return (getObservedAgreement() - pE) / (1.0 - pE);
+  }
+  
+  /**
+   * Precision for a label: the fraction of responses with that label where the key has the 
+   * same label.
+   * @param label the label
+   * @return precision
+   */
+  public double getPrecision(String label) {
+    Integer c = labelCodes.get(label);
+    if(c == null) {
+      return 1.0;
+    }
+    return ratio(counts.get(pack(c,c)),colSums[c]);
+  }
+  
+  /**
+   * Recall for a label: the fraction of keys with that label where the response has the 
+   * same label.
+   * @param label the label
+   * @return recall
+   */
+  public double getRecall(String label) {
+    Integer c = labelCodes.get(label);
+    if(c == null) {
+      return 1.0;
+    }
+    return ratio(counts.get(pack(c,c)),rowSums[c]);
+  }
+  
+  public double getFMeasure(String label) {
+    double p = getPrecision(label);
+    double r = getRecall(label);
+    if(p + r == 0.0) {
+      return 0.0;
+    }
+    return 2.0 * p * r / (p + r);
+  }
+  
+  public double getPrecisionMacro() {
+    double sum = 0.0;
+    for(String label : labels) { sum += getPrecision(label); }
+    return labels.isEmpty() ? 1.0 : sum / labels.size();
+  }
+  
+  public double getRecallMacro() {
+    double sum = 0.0;
+    for(String label : labels) { sum += getRecall(label); }
+    return labels.isEmpty() ? 1.0 : sum / labels.size();
+  }
+  
+  public double getFMeasureMacro() {
+    double sum = 0.0;
+    for(String label : labels) { sum += getFMeasure(label); }
+    return labels.isEmpty() ? 1.0 : sum / labels.size();
+  }
+  
+  /**
+   * Micro averaged precision. Since every counted annotation has exactly one key and one 
+   * response label, this is identical to micro averaged recall and F-measure and to the 
+   * observed agreement.
+   * @return precision
+   */
+  public double getPrecisionMicro() {
+    return ratio(agreed,total);
+  }
+  
+  public double getRecallMicro() {
+    return ratio(agreed,total);
+  }
+  
+  public double getFMeasureMicro() {
+    return ratio(agreed,total);
+  }
+  
+  // same convention as for EvalStatsTagging: if there is nothing to find and nothing was
+  // found, the result is 1.0
+  private static double ratio(long correct, long all) {
+    if(all == 0) {
+      return correct == 0 ? 1.0 : 0.0;
+    }
+    return (double)correct / all;
+  }
+  
+  /**
+   * Return the n entries of the matrix with the highest counts, in decreasing order of the
+   * count and then in order of the key and response label.
+   * @param n maximum number of entries to return
+   * @param withDiagonal if false, only return entries where the key and response labels differ
+   * @return list of entries
+   */
+  public List<Entry> getTopEntries(int n, boolean withDiagonal) {
+    if(n <= 0) {
+      return new ArrayList<Entry>();
+    }
+    // keep the best n entries in a heap where the worst of those is at the head
+    PriorityQueue<Entry> heap = new PriorityQueue<Entry>(Math.max(1, n+1), Collections.reverseOrder());
+    for(int slot = 0; slot < counts.slots(); slot++) {
+      if(!counts.isUsed(slot)) {
+        continue;
+      }
+      long key = counts.keyAt(slot);
+      int k = (int)(key >>> 32);
+      int r = (int)key;
+      if(k == r && !withDiagonal) {
+        continue;
+      }
+      long n4entry = counts.valueAt(slot);
+      if(heap.size() == n && n4entry < heap.peek().count) {
+        continue;
+      }
+      heap.add(new Entry(labels.get(k), labels.get(r), n4entry));
+      if(heap.size() > n) {
+        heap.poll();
+      }
+    }
+    List<Entry> ret = new ArrayList<Entry>(heap);
+    Collections.sort(ret);
+    return ret;
+  }
+  
+  /**
+   * One non-zero cell of the confusion matrix. Entries sort by decreasing count and then by
+   * key and response label.
+   */
+  public static class Entry implements Comparable<Entry> {
+    private final String keyLabel;
+    private final String responseLabel;
+    private final long count;
+    public Entry(String keyLabel, String responseLabel, long count) {
+      this.keyLabel = keyLabel;
+      this.responseLabel = responseLabel;
+      this.count = count;
+    }
+    public String getKeyLabel() { return keyLabel; }
+    public String getResponseLabel() { return responseLabel; }
+    public long getCount() { return count; }
+    @Override
+    public int compareTo(Entry other) {
+      if(count != other.count) {
+        return count > other.count ? -1 : 1;
+      }
+      int c = keyLabel.compareTo(other.keyLabel);
+      if(c != 0) {
+        return c;
+      }
+      return responseLabel.compareTo(other.responseLabel);
+    }
+    @Override
+    public String toString() {
+      return keyLabel+"/"+responseLabel+"="+count;
+    }
+  }
+  
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("ConfusionMatrix{total=").append(total).append(",agreed=").append(agreed);
+    List<Entry> entries = getTopEntries(counts.size(), true);
+    Collections.sort(entries, new Comparator<Entry>() {
+      @Override
+      public int compare(Entry e1, Entry e2) {
+        int c = e1.keyLabel.compareTo(e2.keyLabel);
+        return c != 0 ? c : e1.responseLabel.compareTo(e2.responseLabel);
+      }
+    });
+    for(Entry e : entries) {
+      sb.append(",").append(e);
+    }
+    sb.append("}");
+    return sb.toString();
+  }
+  
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.api;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.annotation.ImmutableAnnotationSetImpl;
+import gate.util.GateRuntimeException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An index over the offsets of a set of containing annotations for quickly selecting 
+ * annotations which overlap, are contained in, or are coextensive with any of them.
+ * <p>
+ * The offsets of the containing annotations are kept in arrays sorted by start and then end 
+ * offset, together with the running maximum of the end offsets. Each annotation to check then
+ * only needs a binary search instead of querying the annotation set once per containing 
+ * annotation. The results are the same as when using gate.Utils.getOverlappingAnnotations,
+ * gate.Utils.getContainedAnnotations and gate.Utils.getCoextensiveAnnotations for each containing 
+ * annotation and taking the union.
+ * <p>
+ * The evaluation PRs create the index once for each document and use it for all types and 
+ * annotation sets of that document. For each annotation set that gets filtered by name, the 
+ * result is cached in the index as a bitmap indexed by annotation id, so filtering e.g. the 
+ * keys for each type only needs one lookup per annotation. Since the index does not get 
+ * updated when the document changes, it should not be kept longer than that.
+ * 
+ * @author Johann Petrak
+ */
+public class ContainmentIndex {
+  
+  private final long[] starts;
+  private final long[] ends;
+  // maxEnds[i] is the maximum of ends[0..i]
+  private final long[] maxEnds;
+  
+  // for each annotation set name and containment type, the bitmap of selected annotation ids
+  // and the first id which was not known when the bitmap was created
+  private final Map<String, BitSet> selectedIds = new HashMap<>();
+  private final Map<String, Integer> selectedIdsLimit = new HashMap<>();
+  
+  /**
+   * Create the index for the given containing annotations.
+   * @param containingSet the containing annotations
+   */
+  public ContainmentIndex(Collection<Annotation> containingSet) {
+    int n = containingSet.size();
+    long[][] tmp = new long[n][];
+    int i = 0;
+    for(Annotation ann : containingSet) {
+      tmp[i++] = new long[]{ann.getStartNode().getOffset(), ann.getEndNode().getOffset()};
+    }
+    Arrays.sort(tmp, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+    starts = new long[n];
+    ends = new long[n];
+    maxEnds = new long[n];
+    long max = Long.MIN_VALUE;
+    for(i = 0; i < n; i++) {
+      starts[i] = tmp[i][0];
+      ends[i] = tmp[i][1];
+      if(ends[i] > max) {
+        max = ends[i];
+      }
+      maxEnds[i] = max;
+    }
+  }
+  
+  public int size() {
+    return starts.length;
+  }
+  
+  /**
+   * Check if the annotation is selected by any of the containing annotations.
+   * @param ann the annotation to check
+   * @param how how the annotation must relate to a containing annotation
+   * @return true if selected
+   */
+  public boolean isSelected(Annotation ann, ContainmentType how) {
+    return isSelected(ann.getStartNode().getOffset(), ann.getEndNode().getOffset(), how);
+  }
+  
+  /**
+   * Check if the span given by the offsets is selected by any of the containing annotations.
+   * @param start start offset
+   * @param end end offset
+   * @param how how the span must relate to a containing annotation
+   * @return true if selected
+   */
+  public boolean isSelected(long start, long end, ContainmentType how) {
+    if(starts.length == 0) {
+      return false;
+    }
+    // index of the last containing annotation that starts at or before start, or -1
+    int last = upperBound(start) - 1;
+    if(how == ContainmentType.OVERLAPPING) {
+      // Same as AnnotationSet.get(s,e): the annotation starts in [s,e) or it starts before
+      // s and ends after s.
+      if(last >= 0 && maxEnds[last] > start) {
+        return true;
+      }
+      return last + 1 < starts.length && starts[last + 1] < end;
+    } else if(how == ContainmentType.CONTAINING) {
+      // Same as AnnotationSet.getContained(s,e): the annotation starts in [s,e) and ends at
+      // or before e. The containing annotation with the largest end is the best candidate.
+      return last >= 0 && maxEnds[last] > start && maxEnds[last] >= end;
+    } else if(how == ContainmentType.COEXTENSIVE) {
+      if(last < 0 || starts[last] != start) {
+        return false;
+      }
+      int from = lowerBound(start);
+      return Arrays.binarySearch(ends, from, last + 1, end) >= 0;
+    } else {
+      throw new GateRuntimeException("Odd ContainmentType parameter value: "+how);
+    }
+  }
+  
+  /**
+   * Return a new set with only those annotations from the given set which are selected by
+   * this index.
+   * @param toFilterSet set to filter
+   * @param how how the annotations must relate to a containing annotation
+   * @return filtered set
+   */
+  public AnnotationSet filter(AnnotationSet toFilterSet, ContainmentType how) {
+    if(toFilterSet.isEmpty()) return toFilterSet;
+    List<Annotation> selected = new ArrayList<>();
+    if(starts.length > 0) {
+      for(Annotation ann : toFilterSet) {
+        if(isSelected(ann, how)) {
+          selected.add(ann);
+        }
+      }
+    }
+    return new ImmutableAnnotationSetImpl(toFilterSet.getDocument(), selected);
+  }
+  
+  /**
+   * Return a new set with only those annotations from the given set which are selected by
+   * this index. All annotations in the set to filter must be from the document annotation set
+   * with the given name. This uses the bitmap of selected annotations for that set, 
+   * which gets created by the first call for the set name and containment type.
+   * 
+   * @param toFilterSet set to filter
+   * @param setName the name of the annotation set which contains all the annotations to filter
+   * @param how how the annotations must relate to a containing annotation
+   * @return filtered set
+   */
+  public AnnotationSet filter(AnnotationSet toFilterSet, String setName, ContainmentType how) {
+    if(toFilterSet.isEmpty()) return toFilterSet;
+    BitSet selected;
+    int limit;
+    String key = how.name()+"\t"+setName;
+    selected = selectedIds.get(key);
+    if(selected == null) {
+      selected = new BitSet();
+      AnnotationSet fullSet = toFilterSet.getDocument().getAnnotations(setName);
+      limit = 0;
+      for(Annotation ann : fullSet) {
+        if(ann.getId() >= limit) {
+          limit = ann.getId() + 1;
+        }
+        if(isSelected(ann, how)) {
+          selected.set(ann.getId());
+        }
+      }
+      selectedIds.put(key, selected);
+      selectedIdsLimit.put(key, limit);
+    } else {
+      limit = selectedIdsLimit.get(key);
+    }
+    List<Annotation> ret = new ArrayList<>();
+    for(Annotation ann : toFilterSet) {
+      int id = ann.getId();
+      // annotations added after the bitmap was created need to get checked directly
+      if(id < limit ? selected.get(id) : isSelected(ann, how)) {
+        ret.add(ann);
+      }
+    }
+    return new ImmutableAnnotationSetImpl(toFilterSet.getDocument(), ret);
+  }
+  
+  // first index with starts[i] >= value
+  private int lowerBound(long value) {
+    int lo = 0;
+    int hi = starts.length;
+    while(lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if(starts[mid] < value) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+  
+  // first index with starts[i] > value
+  private int upperBound(long value) {
+    int lo = 0;
+    int hi = starts.length;
+    while(lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if(starts[mid] <= value) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+  
+}
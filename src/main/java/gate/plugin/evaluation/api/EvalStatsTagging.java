@@ -81,6 +81,20 @@ public abstract class EvalStatsTagging  {
     nTargetsWithLenientResponses += other.nTargetsWithLenientResponses;
   }
   
+  // decrement this EvalStatsTagging object by the counts from another one which were added before
+  public void subtract(EvalStatsTagging other) {
+    nTargets -= other.nTargets;
+    nResponses -= other.nResponses;
+    nCorrectStrict -= other.nCorrectStrict;
+    nCorrectPartial -= other.nCorrectPartial;
+    nIncorrectStrict -= other.nIncorrectStrict;
+    nIncorrectPartial -= other.nIncorrectPartial;
+    nSingleCorrectStrict -= other.nSingleCorrectStrict;
+    nSingleCorrectPartial -= other.nSingleCorrectPartial;
+    nTargetsWithStrictResponses -= other.nTargetsWithStrictResponses;
+    nTargetsWithLenientResponses -= other.nTargetsWithLenientResponses;
+  }
+  
   public void addTargets(int n) { nTargets += n; }
   public void addResponses(int n) { nResponses += n; }
   public void addCorrectStrict(int n) { nCorrectStrict += n; }
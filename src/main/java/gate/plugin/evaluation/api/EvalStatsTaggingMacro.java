@@ -20,14 +20,16 @@
 package gate.plugin.evaluation.api;
 
 import gate.util.GateRuntimeException;
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.List;
 
 /**
  * A version of EvalStatsTagging that represents the macro average over several EvalStatsTagging objects.
  * Note: all counts are simply the sum of all the EvalStatsTagging counts that are added, 
  * but measures are the averages of the measures from all the EvalStatsTagging measures.
+ * 
+ * The measures of the added objects are not stored, only streaming accumulators for 
+ * mean and variance and a quantile sketch are kept for each measure, so the memory needed
+ * is constant no matter how many objects get added, e.g. one for each document of a corpus.
  * @author Johann Petrak
  */
 public class EvalStatsTaggingMacro extends EvalStatsTagging {
@@ -35,26 +37,40 @@ public class EvalStatsTaggingMacro extends EvalStatsTagging {
   
   public static final double EPS = 1.7763568394002505e-15;
   
+  /**
+   * The measures of the added EvalStatsTagging objects for which the distribution is kept.
+   */
+  public static enum Measure {
+    PRECISION_STRICT,
+    PRECISION_LENIENT,
+    RECALL_STRICT,
+    RECALL_LENIENT,
+    F1_STRICT,
+    F1_LENIENT,
+    SINGLE_CORRECT_ACCURACY_STRICT,
+    SINGLE_CORRECT_ACCURACY_LENIENT
+  }
+  
+  private static final Measure[] MEASURES = Measure.values();
+  
   public EvalStatsTaggingMacro() {
-    
+    for(int i = 0; i < MEASURES.length; i++) {
+      stats[i] = new StreamingStats();
+      sketches[i] = new QuantileSketch();
+    }
   }
   
   public EvalStatsTaggingMacro(Collection<EvalStatsTagging> others) {
+    this();
     for(EvalStatsTagging es : others) {
       add(es);
     }
   }
   
-  protected List<Double> precisionStrictVals = new ArrayList<>();
-  protected List<Double> precisionLenientVals = new ArrayList<>();
-  protected List<Double> recallStrictVals = new ArrayList<>();
-  protected List<Double> recallLenientVals = new ArrayList<>();
-  protected List<Double> fMeasureStrictVals = new ArrayList<>();
-  protected List<Double> fMeasureLenientVals = new ArrayList<>();
-  protected List<Double> singleCorrectAccuracyStrictVals = new ArrayList<>();
-  protected List<Double> singleCorrectAccuracyLenientVals = new ArrayList<>();
-  protected List<Integer> targetsVals = new ArrayList<>();
-  protected List<Integer> responsesVals = new ArrayList<>();
+  protected StreamingStats[] stats = new StreamingStats[MEASURES.length];
+  protected QuantileSketch[] sketches = new QuantileSketch[MEASURES.length];
+  protected StreamingStats targetsStats = new StreamingStats();
+  protected StreamingStats responsesStats = new StreamingStats();
   
   
   @Override
@@ -67,23 +83,50 @@ public class EvalStatsTaggingMacro extends EvalStatsTagging {
     nIncorrectPartial += other.nIncorrectPartial;
     nSingleCorrectStrict += other.nSingleCorrectStrict;
     nSingleCorrectPartial += other.nSingleCorrectPartial;
-    // now in addition to the counters, we also need to remember the basic measures from which 
+    // now in addition to the counters, we also need to accumulate the basic measures from which 
     // to calculate the macro averages:
-    precisionStrictVals.add(other.getPrecisionStrict());
-    precisionLenientVals.add(other.getPrecisionLenient());
-    recallStrictVals.add(other.getRecallStrict());
-    recallLenientVals.add(other.getRecallLenient());
-    fMeasureStrictVals.add(other.getFMeasureStrict(1.0));
-    fMeasureLenientVals.add(other.getFMeasureLenient(1.0));
-    singleCorrectAccuracyLenientVals.add(other.getSingleCorrectAccuracyLenient());
-    singleCorrectAccuracyStrictVals.add(other.getSingleCorrectAccuracyStrict());
-    targetsVals.add(other.getTargets());
-    responsesVals.add(other.getResponses());
+    addMeasure(Measure.PRECISION_STRICT, other.getPrecisionStrict());
+    addMeasure(Measure.PRECISION_LENIENT, other.getPrecisionLenient());
+    addMeasure(Measure.RECALL_STRICT, other.getRecallStrict());
+    addMeasure(Measure.RECALL_LENIENT, other.getRecallLenient());
+    addMeasure(Measure.F1_STRICT, other.getFMeasureStrict(1.0));
+    addMeasure(Measure.F1_LENIENT, other.getFMeasureLenient(1.0));
+    addMeasure(Measure.SINGLE_CORRECT_ACCURACY_STRICT, other.getSingleCorrectAccuracyStrict());
+    addMeasure(Measure.SINGLE_CORRECT_ACCURACY_LENIENT, other.getSingleCorrectAccuracyLenient());
+    targetsStats.add(other.getTargets());
+    responsesStats.add(other.getResponses());
   }
   
-  @Override
-  public double getPrecisionStrict() {
-    double tmp = averageOf(precisionStrictVals);
+  private void addMeasure(Measure m, double value) {
+    stats[m.ordinal()].add(value);
+    sketches[m.ordinal()].add(value);
+  }
+  
+  /**
+   * Add everything accumulated in another macro average object, the result is the same as 
+   * if all the objects added to the other one had been added to this one.
+   * @param other the other macro average object
+   */
+  public void merge(EvalStatsTaggingMacro other) {
+    nTargets += other.nTargets;
+    nResponses += other.nResponses;
+    nCorrectStrict += other.nCorrectStrict;
+    nCorrectPartial += other.nCorrectPartial;
+    nIncorrectStrict += other.nIncorrectStrict;
+    nIncorrectPartial += other.nIncorrectPartial;
+    nSingleCorrectStrict += other.nSingleCorrectStrict;
+    nSingleCorrectPartial += other.nSingleCorrectPartial;
+    for(int i = 0; i < MEASURES.length; i++) {
+      stats[i].merge(other.stats[i]);
+      sketches[i].merge(other.sketches[i]);
+    }
+    targetsStats.merge(other.targetsStats);
+    responsesStats.merge(other.responsesStats);
+  }
+  
+  // the macro average is 1.0 if nothing has been added yet
+  private double averageOrOne(Measure m) {
+    double tmp = stats[m.ordinal()].getMean();
     if(Double.isNaN(tmp)) {
       return 1.0;
     } else {
@@ -91,34 +134,24 @@ public class EvalStatsTaggingMacro extends EvalStatsTagging {
     }
   }
   
+  @Override
+  public double getPrecisionStrict() {
+    return averageOrOne(Measure.PRECISION_STRICT);
+  }
+  
   @Override
   public double getPrecisionLenient() {
-    double tmp = averageOf(precisionLenientVals);
-    if(Double.isNaN(tmp)) {
-      return 1.0;
-    } else {
-      return tmp;
-    }
+    return averageOrOne(Measure.PRECISION_LENIENT);
   }
   
   @Override
   public double getRecallStrict() {
-    double tmp = averageOf(recallStrictVals);
-    if(Double.isNaN(tmp)) {
-      return 1.0;
-    } else {
-      return tmp;
-    }
+    return averageOrOne(Measure.RECALL_STRICT);
   }
   
   @Override
   public double getRecallLenient() {
-    double tmp = averageOf(recallLenientVals);
-    if(Double.isNaN(tmp)) {
-      return 1.0;
-    } else {
-      return tmp;
-    }
+    return averageOrOne(Measure.RECALL_LENIENT);
   }
   
   /**
@@ -131,12 +164,7 @@ public class EvalStatsTaggingMacro extends EvalStatsTagging {
     if(Math.abs(beta - 1.0) > EPS) {
       throw new GateRuntimeException("Macro average for the FMeasure can only be calculated for beta=1.0 at the moment");
     }
-    double tmp = averageOf(fMeasureStrictVals);
-    if(Double.isNaN(tmp)) {
-      return 1.0;
-    } else {
-      return tmp;
-    }
+    return averageOrOne(Measure.F1_STRICT);
   }
   
   /**
@@ -149,12 +177,7 @@ public class EvalStatsTaggingMacro extends EvalStatsTagging {
     if(Math.abs(beta - 1.0) > EPS) {
       throw new GateRuntimeException("Macro average for the FMeasure can only be calculated for beta=1.0 at the moment");
     }
-    double tmp = averageOf(fMeasureLenientVals);
-    if(Double.isNaN(tmp)) {
-      return 1.0;
-    } else {
-      return tmp;
-    }
+    return averageOrOne(Measure.F1_LENIENT);
   }
   
   
@@ -164,29 +187,48 @@ public class EvalStatsTaggingMacro extends EvalStatsTagging {
    * @return TODO
    */
   public int getN() {
-    return precisionLenientVals.size();
+    return (int)stats[0].getN();
   }
   
-  /** 
-   * Calculate the average over the values.
-   * @param values TODO
-   * @return  TODO
+  /**
+   * Return the accumulated statistics for one of the measures.
+   * @param m the measure
+   * @return statistics
    */
-  protected double averageOf(List<Double> values) {
-    double sum = 0.0;
-    int n = 0;
-    for(Double val : values) {
-      //if(targetsVals.get(i) > 0 || responsesVals.get(i) > 0) {
-        sum += val;
-        n++;
-      //}
-    }
-    if(n > 0) {
-      return sum / n;
-    } else {
-      return Double.NaN;
-    }
+  public StreamingStats getStats(Measure m) {
+    return stats[m.ordinal()];
   }
   
+  /**
+   * The population standard deviation of the measure over all added objects, NaN if nothing 
+   * was added.
+   * @param m the measure
+   * @return standard deviation
+   */
+  public double getStdDev(Measure m) {
+    return stats[m.ordinal()].getStdDev();
+  }
+  
+  /**
+   * The estimated median of the measure over all added objects, NaN if nothing was added.
+   * The estimate is within 1/QuantileSketch.DEFAULT_BINS of the true median.
+   * @param m the measure
+   * @return median
+   */
+  public double getMedian(Measure m) {
+    return sketches[m.ordinal()].getMedian();
+  }
+  
+  public double getQuantile(Measure m, double q) {
+    return sketches[m.ordinal()].getQuantile(q);
+  }
+  
+  public StreamingStats getTargetsStats() {
+    return targetsStats;
+  }
+  
+  public StreamingStats getResponsesStats() {
+    return responsesStats;
+  }
   
 }
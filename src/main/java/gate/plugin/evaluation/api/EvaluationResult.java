@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.api;
+
+/**
+ * One evaluation result as passed to a ResultSink: the statistics for one document or for 
+ * the whole corpus, for one type and annotation set, and possibly for one threshold or rank. 
+ * <p>
+ * This corresponds to one line in the TSV file written by the evaluation PRs. The values of
+ * all measures are copied when the result is created, so they can be used on a different
+ * thread even if the statistics object gets changed later.
+ * 
+ * @author Johann Petrak
+ */
+public class EvaluationResult {
+  
+  private static final String[] VALUE_NAMES = {
+    "precisionStrict", "recallStrict", "F1Strict", "accuracyStrict", 
+    "precisionLenient", "recallLenient", "F1Lenient", "accuracyLenient",
+    "targets", "responses", "correctStrict", "singleCorrectStrict", "incorrectStrict", 
+    "missingStrict", "trueMissingStrict", "spuriousStrict", "trueSpuriousStrict",
+    "correctPartial", "singleCorrectPartial", "incorrectPartial", 
+    "missingLenient", "trueMissingLenient", "spuriousLenient", "trueSpuriousLenient"
+  };
+  
+  private final String evaluationId;
+  private final String evaluationType;
+  private final String docName;
+  private final String setName;
+  private final String typeName;
+  private final double threshold;
+  private final int rank;
+  private final boolean macro;
+  private final double[] values;
+  private final EvalStatsTagging stats;
+  
+  /**
+   * Create a result from the statistics object.
+   * @param evaluationId the evaluation id 
+   * @param evaluationType the kind of evaluation, as in the evaluationType column of the TSV file
+   * @param docName the document name or null for the result over all documents
+   * @param setName the name of the response set
+   * @param typeName the annotation type or null for the result over all types
+   * @param stats the statistics
+   */
+  public EvaluationResult(String evaluationId, String evaluationType, String docName, 
+          String setName, String typeName, EvalStatsTagging stats) {
+    this(evaluationId, evaluationType, docName, setName, typeName, 
+            stats instanceof EvalStatsTagging4Score ? ((EvalStatsTagging4Score)stats).getThreshold() : Double.NaN,
+            stats instanceof EvalStatsTagging4Rank ? ((EvalStatsTagging4Rank)stats).getRank() : -1,
+            stats instanceof EvalStatsTaggingMacro,
+            valuesOf(stats), stats);
+  }
+  
+  /**
+   * Create a result from already extracted values, e.g. when reading results back from a file.
+   * @param evaluationId the evaluation id 
+   * @param evaluationType the kind of evaluation
+   * @param docName the document name or null
+   * @param setName the name of the response set
+   * @param typeName the annotation type or null
+   * @param threshold the threshold or NaN
+   * @param rank the rank or -1
+   * @param macro if this is a macro average over types
+   * @param values the values, in the order of getValueNames()
+   * @param stats the statistics object or null
+   */
+  public EvaluationResult(String evaluationId, String evaluationType, String docName, 
+          String setName, String typeName, double threshold, int rank, boolean macro, 
+          double[] values, EvalStatsTagging stats) {
+    if(values.length != VALUE_NAMES.length) {
+      throw new IllegalArgumentException("Expected "+VALUE_NAMES.length+" values but got "+values.length);
+    }
+    this.evaluationId = evaluationId;
+    this.evaluationType = evaluationType;
+    this.docName = docName;
+    this.setName = setName;
+    this.typeName = typeName;
+    this.threshold = threshold;
+    this.rank = rank;
+    this.macro = macro;
+    this.values = values;
+    this.stats = stats;
+  }
+  
+  private static double[] valuesOf(EvalStatsTagging es) {
+    return new double[] {
+      es.getPrecisionStrict(), es.getRecallStrict(), es.getFMeasureStrict(1.0), es.getSingleCorrectAccuracyStrict(),
+      es.getPrecisionLenient(), es.getRecallLenient(), es.getFMeasureLenient(1.0), es.getSingleCorrectAccuracyLenient(),
+      es.getTargets(), es.getResponses(), es.getCorrectStrict(), es.getSingleCorrectStrict(), es.getIncorrectStrict(),
+      es.getMissingStrict(), es.getTrueMissingStrict(), es.getSpuriousStrict(), es.getTrueSpuriousStrict(),
+      es.getCorrectPartial(), es.getSingleCorrectPartial(), es.getIncorrectPartial(),
+      es.getMissingLenient(), es.getTrueMissingLenient(), es.getSpuriousLenient(), es.getTrueSpuriousLenient()
+    };
+  }
+  
+  /**
+   * The names of the values returned by getValues(), same as the names of the corresponding
+   * columns in the TSV file.
+   * @return new array of names
+   */
+  public static String[] getValueNames() { return VALUE_NAMES.clone(); }
+  
+  public static int getValueCount() { return VALUE_NAMES.length; }
+  
+  public String getEvaluationId() { return evaluationId; }
+  public String getEvaluationType() { return evaluationType; }
+  /** @return the document name or null if this is the result over all documents */
+  public String getDocName() { return docName; }
+  public String getSetName() { return setName; }
+  /** @return the annotation type or null if this is the result over all types */
+  public String getTypeName() { return typeName; }
+  /** @return the threshold or NaN if this is not a result for a threshold */
+  public double getThreshold() { return threshold; }
+  /** @return the rank or -1 if this is not a result for a rank */
+  public int getRank() { return rank; }
+  public boolean isMacro() { return macro; }
+  public boolean isDocument() { return docName != null; }
+  public boolean isByThreshold() { return !Double.isNaN(threshold); }
+  public boolean isByRank() { return rank >= 0; }
+  
+  /**
+   * Get the value with the given index, see getValueNames().
+   * @param i index
+   * @return value
+   */
+  public double getValue(int i) { return values[i]; }
+  
+  /**
+   * Get the value with the given name, see getValueNames().
+   * @param name value name
+   * @return value
+   */
+  public double getValue(String name) {
+    for(int i = 0; i < VALUE_NAMES.length; i++) {
+      if(VALUE_NAMES[i].equals(name)) {
+        return values[i];
+      }
+    }
+    throw new IllegalArgumentException("No value with name "+name);
+  }
+  
+  /**
+   * The statistics object this result was created from. This is the object used by the PR and
+   * may get changed later, e.g. when more documents get added to the statistics over all documents.
+   * Null if the result was not created from a statistics object.
+   * @return statistics object or null
+   */
+  public EvalStatsTagging getStats() { return stats; }
+  
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("EvaluationResult{").append(evaluationType);
+    sb.append(", doc=").append(docName).append(", set=").append(setName).append(", type=").append(typeName);
+    if(isByThreshold()) { sb.append(", th=").append(threshold); }
+    if(isByRank()) { sb.append(", rank=").append(rank); }
+    if(macro) { sb.append(", macro"); }
+    for(int i = 0; i < VALUE_NAMES.length; i++) {
+      sb.append(", ").append(VALUE_NAMES[i]).append("=").append(values[i]);
+    }
+    sb.append("}");
+    return sb.toString();
+  }
+}
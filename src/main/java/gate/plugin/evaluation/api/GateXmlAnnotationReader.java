@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.api;
+
+import gate.Annotation;
+import gate.FeatureMap;
+import gate.Node;
+import gate.annotation.AnnotationImpl;
+import gate.annotation.NodeImpl;
+import gate.util.GateRuntimeException;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Read just the annotations needed for an evaluation from a file in GATE XML format, 
+ * without creating a GATE document.
+ * <p>
+ * The file is read with a StAX stream reader in a single pass. The document text and 
+ * features are skipped and only the annotations of the given types in the given sets are
+ * created, with just the given features. This relies on the node ids in the file being
+ * the offsets, as they are in files written by GATE.
+ * <p>
+ * Feature values are recreated from their class name for strings, numbers and booleans,
+ * all other values are kept as the string from the file. 
+ * <p>
+ * Instances can be shared between threads.
+ * 
+ * @author Johann Petrak
+ */
+public class GateXmlAnnotationReader {
+  
+  protected final Set<String> setNames;
+  protected final Set<String> types;
+  protected final Set<String> featureNames;
+  
+  private static final ThreadLocal<XMLInputFactory> FACTORY = ThreadLocal.withInitial(() -> {
+    XMLInputFactory f = XMLInputFactory.newInstance();
+    f.setProperty(XMLInputFactory.IS_COALESCING, true);
+    f.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    return f;
+  });
+  
+  /**
+   * Create a reader.
+   * @param setNames the annotation set names to read, the empty string for the default set
+   * @param types the annotation types to read
+   * @param featureNames the features to keep, all others are ignored
+   */
+  public GateXmlAnnotationReader(Set<String> setNames, Set<String> types, Set<String> featureNames) {
+    this.setNames = setNames;
+    this.types = types;
+    this.featureNames = featureNames;
+  }
+  
+  /**
+   * Read the annotations from a file, which can be gzip-compressed if the name ends in ".gz".
+   * The returned map contains an entry for each of the set names and each of those 
+   * contains an entry for each of the types, possibly with an empty list, like the 
+   * partitions created by the evaluation PRs.
+   * @param file the GATE XML file
+   * @return map from set name to map from type to annotations
+   */
+  public Map<String, Map<String, List<Annotation>>> read(File file) {
+    try (InputStream in = openStream(file)) {
+      return read(in);
+    } catch(IOException ex) {
+      throw new GateRuntimeException("Could not read "+file,ex);
+    } catch(XMLStreamException|RuntimeException ex) {
+      throw new GateRuntimeException("Could not parse "+file,ex);
+    }
+  }
+  
+  protected static InputStream openStream(File file) throws IOException {
+    InputStream in = new BufferedInputStream(new FileInputStream(file), 65536);
+    if(file.getName().endsWith(".gz")) {
+      in = new GZIPInputStream(in, 65536);
+    }
+    return in;
+  }
+  
+  public Map<String, Map<String, List<Annotation>>> read(InputStream in) throws XMLStreamException {
+    Map<String, Map<String, List<Annotation>>> ret = new HashMap<>();
+    for(String setName : setNames) {
+      Map<String, List<Annotation>> byType = new HashMap<>();
+      for(String type : types) {
+        byType.put(type, new ArrayList<>());
+      }
+      ret.put(setName, byType);
+    }
+    XMLStreamReader xsr = FACTORY.get().createXMLStreamReader(in);
+    try {
+      // the annotations of the set we are in, null if the set is not needed
+      Map<String, List<Annotation>> current = null;
+      while(xsr.hasNext()) {
+        if(xsr.next() != XMLStreamConstants.START_ELEMENT) {
+          continue;
+        }
+        String name = xsr.getLocalName();
+        if("AnnotationSet".equals(name)) {
+          String setName = xsr.getAttributeValue(null, "Name");
+          current = ret.get(setName == null ? "" : setName);
+        } else if("Annotation".equals(name) && current != null) {
+          List<Annotation> anns = current.get(xsr.getAttributeValue(null, "Type"));
+          if(anns != null) {
+            anns.add(readAnnotation(xsr));
+          }
+        }
+      }
+    } finally {
+      xsr.close();
+    }
+    return ret;
+  }
+  
+  // Called at the start of an Annotation element, returns at its end.
+  protected Annotation readAnnotation(XMLStreamReader xsr) throws XMLStreamException {
+    Integer id = Integer.valueOf(xsr.getAttributeValue(null, "Id"));
+    String type = xsr.getAttributeValue(null, "Type");
+    Long start = Long.valueOf(xsr.getAttributeValue(null, "StartNode"));
+    Long end = Long.valueOf(xsr.getAttributeValue(null, "EndNode"));
+    FeatureMap fm = gate.Factory.newFeatureMap();
+    String featureName = null;
+    while(xsr.hasNext()) {
+      int event = xsr.next();
+      if(event == XMLStreamConstants.END_ELEMENT && "Annotation".equals(xsr.getLocalName())) {
+        break;
+      }
+      if(event != XMLStreamConstants.START_ELEMENT) {
+        continue;
+      }
+      String name = xsr.getLocalName();
+      if("Name".equals(name)) {
+        featureName = xsr.getElementText();
+      } else if("Value".equals(name)) {
+        if(featureName != null && featureNames.contains(featureName)) {
+          fm.put(featureName, toValue(xsr.getAttributeValue(null, "className"), xsr.getElementText()));
+        }
+        featureName = null;
+      }
+    }
+    return new ReadAnnotation(id, new NodeImpl(start.intValue(), start), 
+            new NodeImpl(end.intValue(), end), type, fm);
+  }
+  
+  /**
+   * Recreate a feature value from its class name and string representation.
+   * @param className the class name from the file, may be null
+   * @param text the string representation
+   * @return the value
+   */
+  protected static Object toValue(String className, String text) {
+    if(className == null) {
+      return text;
+    }
+    try {
+      switch(className) {
+        case "java.lang.Double": return Double.valueOf(text);
+        case "java.lang.Float": return Float.valueOf(text);
+        case "java.lang.Integer": return Integer.valueOf(text);
+        case "java.lang.Long": return Long.valueOf(text);
+        case "java.lang.Short": return Short.valueOf(text);
+        case "java.lang.Byte": return Byte.valueOf(text);
+        case "java.lang.Boolean": return Boolean.valueOf(text);
+        default: return text;
+      }
+    } catch(NumberFormatException ex) {
+      return text;
+    }
+  }
+  
+  // AnnotationImpl only has a protected constructor
+  private static class ReadAnnotation extends AnnotationImpl {
+    private static final long serialVersionUID = 1L;
+    ReadAnnotation(Integer id, Node start, Node end, String type, FeatureMap features) {
+      super(id, start, end, type, features);
+    }
+  }
+  
+}
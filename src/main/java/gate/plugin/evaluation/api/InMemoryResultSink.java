@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A result sink which keeps all results in a list. 
+ * 
+ * @author Johann Petrak
+ */
+public class InMemoryResultSink implements ResultSink {
+  
+  private final List<EvaluationResult> results = new ArrayList<>();
+
+  @Override
+  public synchronized void add(EvaluationResult result) {
+    results.add(result);
+  }
+  
+  /**
+   * Return a copy of the list of results added so far.
+   * @return list of results
+   */
+  public synchronized List<EvaluationResult> getResults() {
+    return Collections.unmodifiableList(new ArrayList<>(results));
+  }
+  
+  public synchronized void clear() {
+    results.clear();
+  }
+
+  @Override
+  public void close() {
+  }
+  
+}
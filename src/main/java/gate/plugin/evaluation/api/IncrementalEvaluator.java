@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.api;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.Utils;
+import gate.annotation.AnnotationSetImpl;
+import gate.event.AnnotationSetEvent;
+import gate.event.AnnotationSetListener;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the evaluation statistics for a key and a response set up to date while annotations
+ * get added to or removed from the sets, e.g. in an annotation tool or an active learning loop.
+ * <p>
+ * The evaluator registers itself as a listener with both sets. A key and a response annotation 
+ * can only be paired if they overlap or are coextensive, so the annotations are partitioned 
+ * into the connected components of the overlap graph between keys and responses, and the 
+ * differ is run for each component separately. The sum of the statistics of all components 
+ * is identical to the statistics for the whole sets. When an annotation is added, only the 
+ * components it overlaps are merged and evaluated again, when it is removed, only its 
+ * component is split and evaluated again.
+ * <p>
+ * Changes of the features or offsets of an annotation which is already in one of the sets
+ * are not noticed, use update(Annotation) for them. Call close() to stop listening to the sets.
+ * 
+ * @author Johann Petrak
+ */
+public class IncrementalEvaluator implements AnnotationSetListener {
+  
+  private static final class Component {
+    final List<Annotation> keys = new ArrayList<Annotation>();
+    final List<Annotation> responses = new ArrayList<Annotation>();
+    EvalStatsTagging stats;
+  }
+  
+  private final AnnotationSet keySet;
+  private final AnnotationSet responseSet;
+  private final Set<String> features;
+  private final FeatureComparison fcmp;
+  private final AnnotationTypeSpecs typeSpecs;
+  private final Set<String> keyTypes;
+  private final Set<String> responseTypes;
+  
+  private final Map<Annotation,Component> components = new IdentityHashMap<Annotation,Component>();
+  private final EvalStatsTagging total = new EvalStatsTagging4Score(Double.NaN);
+  private int nComponents = 0;
+  
+  /**
+   * Evaluate the current annotations in the sets and start listening to changes.
+   * 
+   * @param keySet the key annotation set
+   * @param responseSet the response annotation set
+   * @param features the features to compare
+   * @param fcmp the feature comparison
+   * @param typeSpecs the annotation type specs
+   */
+  public IncrementalEvaluator(AnnotationSet keySet, AnnotationSet responseSet, 
+          Set<String> features, FeatureComparison fcmp, AnnotationTypeSpecs typeSpecs) {
+    this.keySet = keySet;
+    this.responseSet = responseSet;
+    this.features = features;
+    this.fcmp = fcmp;
+    this.typeSpecs = typeSpecs;
+    keyTypes = new HashSet<String>(typeSpecs.getKeyTypes());
+    responseTypes = new HashSet<String>(typeSpecs.getResponseTypes());
+    for(Annotation ann : keySet) {
+      added(ann, true);
+    }
+    for(Annotation ann : responseSet) {
+      added(ann, false);
+    }
+    keySet.addAnnotationSetListener(this);
+    responseSet.addAnnotationSetListener(this);
+  }
+  
+  /**
+   * Return a copy of the current statistics.
+   * @return statistics over all keys and responses
+   */
+  public synchronized EvalStatsTagging getEvalStatsTagging() {
+    return new EvalStatsTagging4Score(total);
+  }
+  
+  /**
+   * Return the number of connected components of the overlap graph.
+   * @return number of components
+   */
+  public synchronized int getComponentCount() {
+    return nComponents;
+  }
+  
+  /**
+   * Stop listening to the key and response sets.
+   */
+  public void close() {
+    keySet.removeAnnotationSetListener(this);
+    responseSet.removeAnnotationSetListener(this);
+  }
+  
+  /**
+   * Evaluate the component of an annotation again after its features or offsets changed.
+   * @param ann an annotation from the key or response set
+   */
+  public synchronized void update(Annotation ann) {
+    if(components.containsKey(ann)) {
+      boolean isKey = components.get(ann).keys.contains(ann);
+      removed(ann);
+      added(ann, isKey);
+    }
+  }
+
+  @Override
+  public synchronized void annotationAdded(AnnotationSetEvent e) {
+    added(e.getAnnotation(), e.getSource() == keySet);
+  }
+
+  @Override
+  public synchronized void annotationRemoved(AnnotationSetEvent e) {
+    removed(e.getAnnotation());
+  }
+  
+  private void added(Annotation ann, boolean isKey) {
+    if(components.containsKey(ann) || 
+            !(isKey ? keyTypes : responseTypes).contains(ann.getType())) {
+      return;
+    }
+    // merge the new annotation and all the components it overlaps with into one component
+    Component merged = new Component();
+    if(isKey) {
+      merged.keys.add(ann);
+    } else {
+      merged.responses.add(ann);
+    }
+    Set<Component> old = Collections.newSetFromMap(new IdentityHashMap<Component,Boolean>());
+    for(Annotation other : candidates(isKey ? responseSet : keySet, ann)) {
+      Component c = components.get(other);
+      if(c != null && canPair(ann, other) && old.add(c)) {
+        merged.keys.addAll(c.keys);
+        merged.responses.addAll(c.responses);
+        retire(c);
+      }
+    }
+    install(merged);
+  }
+  
+  private void removed(Annotation ann) {
+    Component c = components.get(ann);
+    if(c == null) {
+      return;
+    }
+    retire(c);
+    components.remove(ann);
+    c.keys.remove(ann);
+    c.responses.remove(ann);
+    // split what is left into connected components, each key or response in the component
+    // is visited once 
+    Set<Annotation> seen = Collections.newSetFromMap(new IdentityHashMap<Annotation,Boolean>());
+    Set<Annotation> keys = Collections.newSetFromMap(new IdentityHashMap<Annotation,Boolean>());
+    keys.addAll(c.keys);
+    List<Annotation> all = new ArrayList<Annotation>(c.keys);
+    all.addAll(c.responses);
+    for(Annotation start : all) {
+      if(!seen.add(start)) {
+        continue;
+      }
+      Component part = new Component();
+      List<Annotation> todo = new ArrayList<Annotation>();
+      todo.add(start);
+      while(!todo.isEmpty()) {
+        Annotation a = todo.remove(todo.size()-1);
+        boolean isKey = keys.contains(a);
+        if(isKey) {
+          part.keys.add(a);
+        } else {
+          part.responses.add(a);
+        }
+        for(Annotation other : isKey ? c.responses : c.keys) {
+          if(!seen.contains(other) && canPair(a, other)) {
+            seen.add(other);
+            todo.add(other);
+          }
+        }
+      }
+      install(part);
+    }
+  }
+  
+  // The differ pairs a key and a response if they overlap or are coextensive, which only 
+  // differs for zero length annotations. When counting the single correct annotations it
+  // also takes a zero length annotation at the start of another one as overlapping it.
+  private static boolean canPair(Annotation a, Annotation b) {
+    return a.overlaps(b) || a.coextensive(b) || isZeroLengthAtStart(a, b) || isZeroLengthAtStart(b, a);
+  }
+  
+  private static boolean isZeroLengthAtStart(Annotation a, Annotation b) {
+    return Utils.length(a) == 0 && Utils.start(a).equals(Utils.start(b));
+  }
+  
+  // the annotations from the set which may be paired with the annotation: for a zero length 
+  // annotation these are the overlapping ones and all which start at the same offset
+  private static AnnotationSet candidates(AnnotationSet set, Annotation ann) {
+    if(Utils.length(ann) > 0) {
+      return Utils.getOverlappingAnnotations(set, ann);
+    }
+    return set.get(Utils.start(ann), Utils.start(ann) + 1);
+  }
+  
+  // remove the statistics of a component from the total
+  private void retire(Component c) {
+    total.subtract(c.stats);
+    nComponents--;
+  }
+  
+  // evaluate a component and add its statistics to the total
+  private void install(Component c) {
+    AnnotationSet keys = new AnnotationSetImpl(keySet.getDocument());
+    keys.addAll(c.keys);
+    AnnotationSet responses = new AnnotationSetImpl(responseSet.getDocument());
+    responses.addAll(c.responses);
+    c.stats = new AnnotationDifferTagging(keys, responses, features, fcmp, typeSpecs).getEvalStatsTagging();
+    for(Annotation a : c.keys) {
+      components.put(a, c);
+    }
+    for(Annotation a : c.responses) {
+      components.put(a, c);
+    }
+    total.add(c.stats);
+    nComponents++;
+  }
+  
+}
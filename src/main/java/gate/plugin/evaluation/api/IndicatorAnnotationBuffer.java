@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.api;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.FeatureMap;
+import gate.Utils;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects the indicator annotations for a document so they can be added in one go at the
+ * end of processing the document, or written to a file instead of the document.
+ * <p>
+ * Only the set to add to, the annotation to copy, the new type, the change indicator and the
+ * id of the matched target are recorded; the features are copied when the buffer gets flushed.
+ * Annotations are added in the order they were recorded, so they get the same ids as when 
+ * adding them immediately.
+ * 
+ * @author Johann Petrak
+ */
+public class IndicatorAnnotationBuffer {
+  
+  public static final String TARGET_ID_FEATURE = "gate.plugin.evaluation.targetId";
+  
+  private static final class Entry {
+    final AnnotationSet outSet;
+    final Annotation ann;
+    final String type;
+    final String changeInd;
+    final Integer targetId;
+    final boolean setTargetId;
+    Entry(AnnotationSet outSet, Annotation ann, String type, String changeInd, Integer targetId, boolean setTargetId) {
+      this.outSet = outSet;
+      this.ann = ann;
+      this.type = type;
+      this.changeInd = changeInd;
+      this.targetId = targetId;
+      this.setTargetId = setTargetId;
+    }
+    FeatureMap features() {
+      if(setTargetId) {
+        return indicatorFeatures(ann, changeInd, targetId);
+      } else {
+        return Utils.toFeatureMap(ann.getFeatures());
+      }
+    }
+  }
+  
+  private final List<Entry> entries = new ArrayList<>();
+  
+  /**
+   * Record an indicator annotation which has the offsets and features of ann, the given 
+   * type and, if changeInd is not null or empty, the feature "_eval.change" set to changeInd.
+   * If targetId is not null, the feature "gate.plugin.evaluation.targetId" is set to it.
+   * @param outSet the set where the annotation should get added
+   * @param ann the annotation to copy
+   * @param type the type of the indicator annotation
+   * @param changeInd change indicator or null
+   * @param targetId id of the matched target or null
+   */
+  public void add(AnnotationSet outSet, Annotation ann, String type, String changeInd, Integer targetId) {
+    entries.add(new Entry(outSet, ann, type, changeInd, targetId, true));
+  }
+  
+  /**
+   * Record an indicator annotation which has the offsets and an unchanged copy of the 
+   * features of ann, including the feature "gate.plugin.evaluation.targetId" if ann has it.
+   * @param outSet the set where the annotation should get added
+   * @param ann the annotation to copy
+   * @param type the type of the indicator annotation
+   */
+  public void add(AnnotationSet outSet, Annotation ann, String type) {
+    entries.add(new Entry(outSet, ann, type, null, null, false));
+  }
+  
+  public int size() { return entries.size(); }
+  
+  public boolean isEmpty() { return entries.isEmpty(); }
+  
+  public void clear() { entries.clear(); }
+  
+  /**
+   * Add all recorded annotations to their sets and clear the buffer.
+   */
+  public void flush() {
+    for(Entry e : entries) {
+      Utils.addAnn(e.outSet, e.ann, e.type, e.features());
+    }
+    entries.clear();
+  }
+  
+  /**
+   * Write all recorded annotations as lines to the stream and clear the buffer. 
+   * Each line contains the document name, the name of the annotation set the annotation would
+   * have been added to, the type, start and end offset and the features as name=value pairs
+   * separated by semicolons, sorted by name.
+   * @param out the stream to write to
+   * @param docName the document name to use in the first column
+   */
+  public void writeTsv(PrintStream out, String docName) {
+    for(Entry e : entries) {
+      StringBuilder sb = new StringBuilder();
+      sb.append(clean(docName)).append("\t");
+      sb.append(clean(e.outSet.getName())).append("\t");
+      sb.append(clean(e.type)).append("\t");
+      sb.append(Utils.start(e.ann)).append("\t");
+      sb.append(Utils.end(e.ann)).append("\t");
+      Map<String, Object> sorted = new TreeMap<>();
+      for(Map.Entry<Object, Object> fe : e.features().entrySet()) {
+        sorted.put(String.valueOf(fe.getKey()), fe.getValue());
+      }
+      boolean first = true;
+      for(Map.Entry<String, Object> fe : sorted.entrySet()) {
+        if(!first) {
+          sb.append(";");
+        }
+        first = false;
+        sb.append(clean(fe.getKey())).append("=").append(clean(String.valueOf(fe.getValue())));
+      }
+      out.println(sb.toString());
+    }
+    entries.clear();
+  }
+  
+  /**
+   * Write the header line for the lines written by writeTsv.
+   * @param out the stream to write to
+   */
+  public static void writeTsvHeader(PrintStream out) {
+    out.println("docName\tsetName\ttype\tstart\tend\tfeatures");
+  }
+  
+  /**
+   * Return the features for an indicator annotation for ann: a copy of the features of ann
+   * with the change indicator and target id added, if they are not null.
+   * @param ann the annotation to copy
+   * @param changeInd change indicator or null
+   * @param targetId id of the matched target or null
+   * @return new feature map
+   */
+  public static FeatureMap indicatorFeatures(Annotation ann, String changeInd, Integer targetId) {
+    FeatureMap fm = Utils.toFeatureMap(ann.getFeatures());
+    if(targetId == null) {
+      fm.remove(TARGET_ID_FEATURE);
+    } else {
+      fm.put(TARGET_ID_FEATURE, targetId);
+    }
+    if(changeInd != null && !changeInd.isEmpty()) {
+      fm.put("_eval.change", changeInd);
+    }
+    return fm;
+  }
+  
+  private static String clean(String s) {
+    if(s == null) {
+      return "";
+    }
+    return s.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+  }
+  
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.api;
+
+/**
+ * Where the indicator annotations (e.g. Mention_CS, Mention_ML) get written to: 
+ * DOCUMENT adds them to the output annotation sets of the document, FILE writes them to the 
+ * -indicators.tsv file in the output directory and leaves the document unchanged.
+ * 
+ * @author Johann Petrak
+ */
+public enum IndicatorOutput {
+  DOCUMENT, FILE
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.api;
+
+import java.util.Arrays;
+
+/**
+ * A minimal hash map from non-negative int keys to int values, e.g. from annotation id to 
+ * annotation id, which does not need to box the keys and values.
+ * Uses open addressing with linear probing. 
+ * 
+ * @author Johann Petrak
+ */
+class IntIntMap {
+  
+  private static final int FREE = -1;
+  
+  private int[] keys;
+  private int[] values;
+  private int size = 0;
+  private final int missingValue;
+  
+  /**
+   * Create a map which returns missingValue for keys which are not in the map.
+   * @param missingValue value to return for keys not in the map
+   */
+  IntIntMap(int missingValue) {
+    this.missingValue = missingValue;
+    keys = new int[16];
+    values = new int[16];
+    Arrays.fill(keys, FREE);
+  }
+  
+  int size() { return size; }
+  
+  void put(int key, int value) {
+    if(key < 0) {
+      throw new IllegalArgumentException("Key must not be negative: "+key);
+    }
+    if(2*(size+1) > keys.length) {
+      grow();
+    }
+    int pos = find(keys, key);
+    if(keys[pos] == FREE) {
+      keys[pos] = key;
+      size++;
+    }
+    values[pos] = value;
+  }
+  
+  int get(int key) {
+    if(key < 0) {
+      return missingValue;
+    }
+    int pos = find(keys, key);
+    return keys[pos] == FREE ? missingValue : values[pos];
+  }
+  
+  boolean containsKey(int key) {
+    return key >= 0 && keys[find(keys, key)] != FREE;
+  }
+  
+  void clear() {
+    Arrays.fill(keys, FREE);
+    size = 0;
+  }
+  
+  private static int find(int[] keys, int key) {
+    int mask = keys.length - 1;
+    int pos = (key * 0x9E3779B9) >>> 1 & mask;
+    while(keys[pos] != FREE && keys[pos] != key) {
+      pos = (pos + 1) & mask;
+    }
+    return pos;
+  }
+  
+  private void grow() {
+    int[] oldKeys = keys;
+    int[] oldValues = values;
+    keys = new int[oldKeys.length * 2];
+    values = new int[oldKeys.length * 2];
+    Arrays.fill(keys, FREE);
+    for(int i = 0; i < oldKeys.length; i++) {
+      if(oldKeys[i] != FREE) {
+        int pos = find(keys, oldKeys[i]);
+        keys[pos] = oldKeys[i];
+        values[pos] = oldValues[i];
+      }
+    }
+  }
+}
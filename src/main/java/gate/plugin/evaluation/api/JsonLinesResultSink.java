@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.api;
+
+import gate.util.GateRuntimeException;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A result sink which writes each result as a JSON object on its own line. 
+ * <p>
+ * Each object has the fields evaluationId, evaluationType, docName, setName, typeName,
+ * threshold, rank, macro and then one field for each of the values, using the names from 
+ * EvaluationResult.getValueNames(). The docName and typeName are null for results over all 
+ * documents or all types, threshold is null if the result is not for a threshold and rank is
+ * null if the result is not for a rank. Values which are NaN or infinite are written as null.
+ * 
+ * @author Johann Petrak
+ */
+public class JsonLinesResultSink implements ResultSink {
+  
+  private final Writer writer;
+  private final String[] valueNames = EvaluationResult.getValueNames();
+  
+  /**
+   * Create a sink which writes to the stream. The stream is closed when the sink is closed.
+   * @param out stream to write to
+   */
+  public JsonLinesResultSink(OutputStream out) {
+    writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+  }
+
+  @Override
+  public synchronized void add(EvaluationResult result) {
+    StringBuilder sb = new StringBuilder(1024);
+    sb.append("{");
+    appendField(sb, "evaluationId", result.getEvaluationId()).append(",");
+    appendField(sb, "evaluationType", result.getEvaluationType()).append(",");
+    appendField(sb, "docName", result.getDocName()).append(",");
+    appendField(sb, "setName", result.getSetName()).append(",");
+    appendField(sb, "typeName", result.getTypeName()).append(",");
+    appendName(sb, "threshold");
+    appendNumber(sb, result.getThreshold()).append(",");
+    appendName(sb, "rank");
+    if(result.isByRank()) {
+      sb.append(result.getRank());
+    } else {
+      sb.append("null");
+    }
+    sb.append(",");
+    appendName(sb, "macro");
+    sb.append(result.isMacro());
+    for(int i = 0; i < valueNames.length; i++) {
+      sb.append(",");
+      appendName(sb, valueNames[i]);
+      appendNumber(sb, result.getValue(i));
+    }
+    sb.append("}\n");
+    try {
+      writer.write(sb.toString());
+    } catch (IOException ex) {
+      throw new GateRuntimeException("Could not write result", ex);
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    try {
+      writer.close();
+    } catch (IOException ex) {
+      throw new GateRuntimeException("Could not close result file", ex);
+    }
+  }
+  
+  private static StringBuilder appendName(StringBuilder sb, String name) {
+    return appendString(sb, name).append(":");
+  }
+  
+  private static StringBuilder appendField(StringBuilder sb, String name, String value) {
+    appendName(sb, name);
+    if(value == null) {
+      return sb.append("null");
+    }
+    return appendString(sb, value);
+  }
+  
+  private static StringBuilder appendNumber(StringBuilder sb, double value) {
+    if(Double.isNaN(value) || Double.isInfinite(value)) {
+      return sb.append("null");
+    } 
+    if(value == Math.rint(value) && Math.abs(value) < 1e15) {
+      return sb.append((long)value);
+    }
+    return sb.append(value);
+  }
+  
+  private static StringBuilder appendString(StringBuilder sb, String value) {
+    sb.append('"');
+    for(int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch(c) {
+        case '"': sb.append("\\\""); break;
+        case '\\': sb.append("\\\\"); break;
+        case '\n': sb.append("\\n"); break;
+        case '\r': sb.append("\\r"); break;
+        case '\t': sb.append("\\t"); break;
+        default:
+          if(c < 0x20) {
+            sb.append(String.format("\\u%04x", (int)c));
+          } else {
+            sb.append(c);
+          }
+      }
+    }
+    return sb.append('"');
+  }
+  
+}
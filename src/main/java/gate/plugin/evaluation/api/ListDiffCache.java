@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.api;
+
+import gate.AnnotationSet;
+import gate.plugin.evaluation.api.AnnotationDifferTagging.CandidateList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Remembers the differs calculated for the candidate lists of one document, so that a result
+ * which is needed more than once, e.g. the differ at the extreme threshold or rank which is 
+ * used both for the by-threshold statistics and the indicator annotations for the best
+ * list element, is only calculated once.
+ * <p>
+ * Entries are keyed by the score threshold or rank and all other inputs of the diff: 
+ * the target set, the list annotation set and the candidate lists (by identity), the 
+ * features, the feature comparison, the score feature and the annotation type specs 
+ * (by identity). The sets and lists are compared by identity because they are created once
+ * for each document and type and are not modified while the document is evaluated, so the
+ * same object always has the same content. For the same reason, the cache must be cleared 
+ * before processing a new document.
+ * 
+ * @author Johann Petrak
+ */
+public class ListDiffCache {
+  
+  private static final class Key {
+    final AnnotationSet targets;
+    final AnnotationSet listAnnotations;
+    final List<CandidateList> lists;
+    final Set<String> featureSet;
+    final FeatureComparison fcmp;
+    final String scoreFeature;
+    final Double scoreThreshold;
+    final Integer rankThreshold;
+    final AnnotationTypeSpecs typeSpecs;
+    final int hash;
+    Key(AnnotationSet targets, AnnotationSet listAnnotations, List<CandidateList> lists, Set<String> featureSet, 
+            FeatureComparison fcmp, String scoreFeature, Double scoreThreshold, 
+            Integer rankThreshold, AnnotationTypeSpecs typeSpecs) {
+      this.targets = targets;
+      this.listAnnotations = listAnnotations;
+      this.lists = lists;
+      this.featureSet = featureSet;
+      this.fcmp = fcmp;
+      this.scoreFeature = scoreFeature;
+      this.scoreThreshold = scoreThreshold;
+      this.rankThreshold = rankThreshold;
+      this.typeSpecs = typeSpecs;
+      hash = Objects.hash(System.identityHashCode(targets), System.identityHashCode(listAnnotations),
+              System.identityHashCode(lists),
+              featureSet, fcmp, scoreFeature, scoreThreshold, rankThreshold, 
+              System.identityHashCode(typeSpecs));
+    }
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+    @Override
+    public boolean equals(Object obj) {
+      if(this == obj) {
+        return true;
+      }
+      if(!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key)obj;
+      return hash == other.hash && targets == other.targets && 
+              listAnnotations == other.listAnnotations && lists == other.lists && 
+              typeSpecs == other.typeSpecs && fcmp == other.fcmp &&
+              Objects.equals(featureSet, other.featureSet) &&
+              Objects.equals(scoreFeature, other.scoreFeature) &&
+              Objects.equals(scoreThreshold, other.scoreThreshold) &&
+              Objects.equals(rankThreshold, other.rankThreshold);
+    }
+  }
+  
+  private final Map<Key,AnnotationDifferTagging> differs = new HashMap<Key,AnnotationDifferTagging>();
+  
+  public AnnotationDifferTagging get(AnnotationSet targets, AnnotationSet listAnnotations, 
+          List<CandidateList> lists, 
+          Set<String> featureSet, FeatureComparison fcmp, String scoreFeature, 
+          Double scoreThreshold, Integer rankThreshold, AnnotationTypeSpecs typeSpecs) {
+    return differs.get(new Key(targets, listAnnotations, lists, featureSet, fcmp, scoreFeature, 
+            scoreThreshold, rankThreshold, typeSpecs));
+  }
+  
+  public void put(AnnotationSet targets, AnnotationSet listAnnotations, 
+          List<CandidateList> lists, 
+          Set<String> featureSet, FeatureComparison fcmp, String scoreFeature, 
+          Double scoreThreshold, Integer rankThreshold, AnnotationTypeSpecs typeSpecs,
+          AnnotationDifferTagging differ) {
+    differs.put(new Key(targets, listAnnotations, lists, featureSet, fcmp, scoreFeature, 
+            scoreThreshold, rankThreshold, typeSpecs), differ);
+  }
+  
+  public int size() {
+    return differs.size();
+  }
+  
+  public void clear() {
+    differs.clear();
+  }
+  
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.api;
+
+import java.util.Arrays;
+
+/**
+ * A minimal hash map from non-negative long keys to long values, e.g. from a packed pair of 
+ * label codes to a count, which does not need to box the keys and values.
+ * Uses open addressing with linear probing. The entries can be visited by iterating over
+ * the slots from 0 to slots()-1 and skipping those where isUsed is false.
+ * 
+ * @author Johann Petrak
+ */
+class LongLongMap {
+  
+  private static final long FREE = -1L;
+  
+  private long[] keys;
+  private long[] values;
+  private int size = 0;
+  
+  LongLongMap() {
+    keys = new long[16];
+    values = new long[16];
+    Arrays.fill(keys, FREE);
+  }
+  
+  int size() { return size; }
+  
+  /**
+   * Add the given value to the value for the key, a missing key has value 0.
+   * @param key key
+   * @param value value to add
+   */
+  void addTo(long key, long value) {
+    if(key < 0) {
+      throw new IllegalArgumentException("Key must not be negative: "+key);
+    }
+    if(2*(size+1) > keys.length) {
+      grow();
+    }
+    int pos = find(keys, key);
+    if(keys[pos] == FREE) {
+      keys[pos] = key;
+      values[pos] = 0;
+      size++;
+    }
+    values[pos] += value;
+  }
+  
+  /**
+   * Return the value for the key or 0 if the key is not in the map.
+   * @param key key
+   * @return value
+   */
+  long get(long key) {
+    if(key < 0) {
+      return 0;
+    }
+    int pos = find(keys, key);
+    return keys[pos] == FREE ? 0 : values[pos];
+  }
+  
+  int slots() { return keys.length; }
+  
+  boolean isUsed(int slot) { return keys[slot] != FREE; }
+  
+  long keyAt(int slot) { return keys[slot]; }
+  
+  long valueAt(int slot) { return values[slot]; }
+  
+  private static int find(long[] keys, long key) {
+    int mask = keys.length - 1;
+    int pos = (int)((key * 0x9E3779B97F4A7C15L) >>> 33) & mask;
+    while(keys[pos] != FREE && keys[pos] != key) {
+      pos = (pos + 1) & mask;
+    }
+    return pos;
+  }
+  
+  private void grow() {
+    long[] oldKeys = keys;
+    long[] oldValues = values;
+    keys = new long[oldKeys.length * 2];
+    values = new long[oldKeys.length * 2];
+    Arrays.fill(keys, FREE);
+    for(int i = 0; i < oldKeys.length; i++) {
+      if(oldKeys[i] != FREE) {
+        int pos = find(keys, oldKeys[i]);
+        keys[pos] = oldKeys[i];
+        values[pos] = oldValues[i];
+      }
+    }
+  }
+}
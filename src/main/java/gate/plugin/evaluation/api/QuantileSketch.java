@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.api;
+
+/**
+ * A small mergeable sketch for estimating quantiles of values between 0 and 1, 
+ * like precision, recall or F-measure, in constant memory.
+ * 
+ * The interval [0,1] is divided into a fixed number of bins of equal width and only the 
+ * number, the smallest and the largest of the values in each bin are stored. A quantile is 
+ * estimated by interpolating between the smallest and largest value of the bin that contains
+ * it, so the estimate is off by at most the bin width, and it is exact if all values in the
+ * bin are identical, which is often the case for measures calculated from small counts. 
+ * Values outside of [0,1] are counted in the first or last bin.
+ * 
+ * @author Johann Petrak
+ */
+public class QuantileSketch {
+  
+  public static final int DEFAULT_BINS = 200;
+  
+  private final long[] counts;
+  private final double[] mins;
+  private final double[] maxs;
+  private long n = 0;
+  
+  public QuantileSketch() {
+    this(DEFAULT_BINS);
+  }
+  
+  public QuantileSketch(int bins) {
+    if(bins < 1) {
+      throw new IllegalArgumentException("Number of bins must be at least 1: "+bins);
+    }
+    counts = new long[bins];
+    mins = new double[bins];
+    maxs = new double[bins];
+  }
+  
+  public void add(double value) {
+    if(Double.isNaN(value)) {
+      return;
+    }
+    int bin = (int)(value * counts.length);
+    if(bin < 0) { bin = 0; }
+    if(bin >= counts.length) { bin = counts.length - 1; }
+    if(counts[bin] == 0) {
+      mins[bin] = value;
+      maxs[bin] = value;
+    } else {
+      if(value < mins[bin]) { mins[bin] = value; }
+      if(value > maxs[bin]) { maxs[bin] = value; }
+    }
+    counts[bin]++;
+    n++;
+  }
+  
+  /**
+   * Add all values from another sketch with the same number of bins.
+   * @param other the other sketch
+   */
+  public void merge(QuantileSketch other) {
+    if(other.counts.length != counts.length) {
+      throw new IllegalArgumentException("Cannot merge sketches with "+counts.length+" and "+other.counts.length+" bins");
+    }
+    for(int i = 0; i < counts.length; i++) {
+      if(other.counts[i] == 0) {
+        continue;
+      }
+      if(counts[i] == 0) {
+        mins[i] = other.mins[i];
+        maxs[i] = other.maxs[i];
+      } else {
+        mins[i] = Math.min(mins[i], other.mins[i]);
+        maxs[i] = Math.max(maxs[i], other.maxs[i]);
+      }
+      counts[i] += other.counts[i];
+    }
+    n += other.n;
+  }
+  
+  public long getN() { return n; }
+  
+  /**
+   * Estimate the q-quantile.
+   * @param q a number between 0 and 1
+   * @return estimated quantile or NaN if no value has been added
+   */
+  public double getQuantile(double q) {
+    if(n == 0) {
+      return Double.NaN;
+    }
+    if(q < 0.0 || q > 1.0) {
+      throw new IllegalArgumentException("Quantile must be between 0 and 1: "+q);
+    }
+    // the rank of the wanted value among all values, from 0 to n-1
+    double rank = q * (n - 1);
+    long before = 0;
+    int bin = 0;
+    while(before + counts[bin] <= rank) {
+      before += counts[bin];
+      bin++;
+    }
+    if(counts[bin] == 1) {
+      return mins[bin];
+    }
+    // assume the values are spread evenly between the smallest and largest value in the bin
+    double fraction = Math.min(1.0, (rank - before) / (counts[bin] - 1));
+    return mins[bin] + fraction * (maxs[bin] - mins[bin]);
+  }
+  
+  public double getMedian() {
+    return getQuantile(0.5);
+  }
+}
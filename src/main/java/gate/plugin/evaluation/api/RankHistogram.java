@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Counts of how often something, e.g. the first match for a target in a candidate list, 
+ * occurred at each rank, kept in a growable int array.
+ * 
+ * The cumulative counts (how often it occurred at or below a rank), from which the recall@k
+ * curve is calculated, are obtained with one prefix sum over the array. Histograms, e.g. for 
+ * individual documents, are merged by adding the arrays.
+ * 
+ * @author Johann Petrak
+ */
+public class RankHistogram {
+  
+  private int[] counts = new int[16];
+  // one more than the highest rank counted so far
+  private int size = 0;
+  
+  public RankHistogram() {
+  }
+  
+  /**
+   * Number of ranks, i.e. one more than the highest rank for which something was counted.
+   * @return size
+   */
+  public int size() {
+    return size;
+  }
+  
+  public int get(int rank) {
+    return rank < size ? counts[rank] : 0;
+  }
+  
+  public void increment(int rank) {
+    increment(rank, 1);
+  }
+  
+  public void increment(int rank, int n) {
+    ensureSize(rank + 1);
+    counts[rank] += n;
+  }
+  
+  private void ensureSize(int newSize) {
+    if(newSize > counts.length) {
+      counts = Arrays.copyOf(counts, Math.max(newSize, 2 * counts.length));
+    }
+    if(newSize > size) {
+      size = newSize;
+    }
+  }
+  
+  /**
+   * Add the counts of another histogram to this one.
+   * @param other other histogram
+   */
+  public void add(RankHistogram other) {
+    ensureSize(other.size);
+    for(int i = 0; i < other.size; i++) {
+      counts[i] += other.counts[i];
+    }
+  }
+  
+  public void clear() {
+    Arrays.fill(counts, 0, size, 0);
+    size = 0;
+  }
+  
+  /**
+   * Return the cumulative counts: element i is the sum of the counts for ranks 0 to i.
+   * @return array of size size()
+   */
+  public long[] getCumulative() {
+    long[] ret = new long[size];
+    long sum = 0;
+    for(int i = 0; i < size; i++) {
+      sum += counts[i];
+      ret[i] = sum;
+    }
+    return ret;
+  }
+  
+  public List<Integer> toList() {
+    List<Integer> ret = new ArrayList<Integer>(size);
+    for(int i = 0; i < size; i++) {
+      ret.add(counts[i]);
+    }
+    return ret;
+  }
+  
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.api;
+
+import gate.Annotation;
+import gate.util.GateRuntimeException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import org.apache.log4j.Logger;
+
+/**
+ * A persistent cache of per-document evaluation counts, stored as one small file per entry
+ * in a directory.
+ * <p>
+ * Entries are keyed by a hash of the evaluation configuration and the content of the key 
+ * and response annotations which can influence the counts: the offsets, the type, the values
+ * of the compared features and of the score feature. Annotation ids are not used, so a
+ * document which has the same annotations as in an earlier run, e.g. because the response
+ * set did not change between two versions of a model, gets the same key and the differ does
+ * not need to run again for it.
+ * <p>
+ * Each entry contains the counts for the document and, if evaluation by score threshold was
+ * done, the counts for each threshold of the document. Entries which cannot be read are 
+ * treated as missing. Entries are written to a temporary file first and then renamed, so 
+ * several processes can share a cache directory.
+ * 
+ * @author Johann Petrak
+ */
+public class ResultCache {
+  
+  public static final int MAGIC = 0x47455243;
+  public static final int VERSION = 1;
+  
+  protected static final Logger logger = Logger.getLogger(ResultCache.class);
+  
+  private final File directory;
+  private long hits = 0;
+  private long misses = 0;
+  
+  /**
+   * Create a cache which uses the given directory. The directory is created if it does 
+   * not exist.
+   * @param directory cache directory
+   */
+  public ResultCache(File directory) {
+    if(!directory.exists() && !directory.mkdirs()) {
+      throw new GateRuntimeException("Could not create result cache directory "+directory);
+    }
+    if(!directory.isDirectory()) {
+      throw new GateRuntimeException("Result cache directory is not a directory: "+directory);
+    }
+    this.directory = directory;
+  }
+  
+  public File getDirectory() {
+    return directory;
+  }
+  
+  public long getHits() {
+    return hits;
+  }
+  
+  public long getMisses() {
+    return misses;
+  }
+  
+  /**
+   * A cached result: the counts for the document and the counts by threshold, if any.
+   */
+  public static class Entry {
+    private final EvalStatsTagging evalStats;
+    private final ByThEvalStatsTagging byThreshold;
+    public Entry(EvalStatsTagging evalStats, ByThEvalStatsTagging byThreshold) {
+      this.evalStats = evalStats;
+      this.byThreshold = byThreshold;
+    }
+    public EvalStatsTagging getEvalStats() { return evalStats; }
+    /** 
+     * The counts by threshold, or null if the entry was stored without them. 
+     * @return the counts by threshold
+     */
+    public ByThEvalStatsTagging getByThreshold() { return byThreshold; }
+  }
+  
+  /**
+   * Calculate the cache key for a document. 
+   * 
+   * @param config a string which describes the evaluation configuration
+   * @param keys the key annotations
+   * @param responses the response annotations
+   * @param features the features which are compared, may be null
+   * @param scoreFeature the name of the score feature, may be null or empty
+   * @return the key as a hex string
+   */
+  public static String key(String config, Collection<Annotation> keys, 
+          Collection<Annotation> responses, Set<String> features, String scoreFeature) {
+    // use a fixed order for the features so that the key does not depend on the set
+    List<String> names = new ArrayList<String>();
+    if(features != null) {
+      names.addAll(new TreeSet<String>(features));
+    }
+    if(scoreFeature != null && !scoreFeature.isEmpty()) {
+      names.add(scoreFeature);
+    }
+    MessageDigest md;
+    try {
+      md = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException ex) {
+      throw new GateRuntimeException("Could not create digest for the result cache", ex);
+    }
+    md.update(config.getBytes(StandardCharsets.UTF_8));
+    digestAnnotations(md, keys, names);
+    digestAnnotations(md, responses, names);
+    StringBuilder sb = new StringBuilder();
+    for(byte b : md.digest()) {
+      sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+      sb.append(Character.forDigit(b & 0xf, 16));
+    }
+    return sb.toString();
+  }
+  
+  // The annotations are encoded one by one and the encodings are sorted, so the digest
+  // does not depend on the order of the annotations in the set
+  private static void digestAnnotations(MessageDigest md, Collection<Annotation> anns, List<String> names) {
+    List<byte[]> encoded = new ArrayList<byte[]>(anns.size());
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      for(Annotation ann : anns) {
+        bytes.reset();
+        out.writeUTF(ann.getType());
+        out.writeLong(ann.getStartNode().getOffset());
+        out.writeLong(ann.getEndNode().getOffset());
+        for(String name : names) {
+          Object value = ann.getFeatures().get(name);
+          if(value == null) {
+            out.writeBoolean(false);
+          } else {
+            // the class is included since values are compared with equals
+            out.writeBoolean(true);
+            out.writeUTF(value.getClass().getName());
+            out.writeUTF(value.toString());
+          }
+        }
+        out.flush();
+        encoded.add(bytes.toByteArray());
+      }
+    } catch (IOException ex) {
+      throw new GateRuntimeException("Could not encode annotations for the result cache", ex);
+    }
+    encoded.sort(ResultCache::compareBytes);
+    md.update(intBytes(encoded.size()));
+    for(byte[] enc : encoded) {
+      md.update(intBytes(enc.length));
+      md.update(enc);
+    }
+  }
+  
+  private static int compareBytes(byte[] a, byte[] b) {
+    int n = Math.min(a.length, b.length);
+    for(int i = 0; i < n; i++) {
+      int c = Integer.compare(a[i] & 0xff, b[i] & 0xff);
+      if(c != 0) {
+        return c;
+      }
+    }
+    return Integer.compare(a.length, b.length);
+  }
+  
+  private static byte[] intBytes(int v) {
+    return new byte[] { (byte)(v >>> 24), (byte)(v >>> 16), (byte)(v >>> 8), (byte)v };
+  }
+  
+  private File entryFile(String key) {
+    return new File(directory, key + ".bin");
+  }
+  
+  /**
+   * Get the cached result for the key, or null if there is none.
+   * @param key cache key
+   * @return cached result or null
+   */
+  public synchronized Entry get(String key) {
+    File file = entryFile(key);
+    if(!file.exists()) {
+      misses++;
+      return null;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+        misses++;
+        return null;
+      }
+      EvalStatsTagging es = readCounts(in, Double.NaN);
+      ByThEvalStatsTagging byTh = null;
+      if(in.readBoolean()) {
+        byTh = new ByThEvalStatsTagging();
+        int n = in.readInt();
+        for(int i = 0; i < n; i++) {
+          double th = in.readDouble();
+          byTh.put(th, readCounts(in, th));
+        }
+      }
+      hits++;
+      return new Entry(es, byTh);
+    } catch (IOException ex) {
+      logger.warn("Ignoring unreadable result cache entry "+file+": "+ex.getMessage());
+      misses++;
+      return null;
+    }
+  }
+  
+  /**
+   * Store a result in the cache.
+   * @param key cache key
+   * @param es the counts for the document
+   * @param byThreshold the counts by threshold for the document, may be null
+   */
+  public synchronized void put(String key, EvalStatsTagging es, ByThEvalStatsTagging byThreshold) {
+    File file = entryFile(key);
+    try {
+      File tmp = File.createTempFile(key, ".tmp", directory);
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeCounts(out, es);
+        out.writeBoolean(byThreshold != null);
+        if(byThreshold != null) {
+          out.writeInt(byThreshold.size());
+          for(Map.Entry<Double,EvalStatsTagging> entry : byThreshold.getByThresholdEvalStats().entrySet()) {
+            out.writeDouble(entry.getKey());
+            writeCounts(out, entry.getValue());
+          }
+        }
+      }
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException ex) {
+      throw new GateRuntimeException("Could not write result cache entry "+file, ex);
+    }
+  }
+  
+  private static void writeCounts(DataOutputStream out, EvalStatsTagging es) throws IOException {
+    out.writeInt(es.nTargets);
+    out.writeInt(es.nResponses);
+    out.writeInt(es.nTargetsWithStrictResponses);
+    out.writeInt(es.nTargetsWithLenientResponses);
+    out.writeInt(es.nCorrectStrict);
+    out.writeInt(es.nCorrectPartial);
+    out.writeInt(es.nSingleCorrectStrict);
+    out.writeInt(es.nSingleCorrectPartial);
+    out.writeInt(es.nIncorrectStrict);
+    out.writeInt(es.nIncorrectPartial);
+  }
+  
+  private static EvalStatsTagging readCounts(DataInputStream in, double threshold) throws IOException {
+    EvalStatsTagging es = new EvalStatsTagging4Score(threshold);
+    es.nTargets = in.readInt();
+    es.nResponses = in.readInt();
+    es.nTargetsWithStrictResponses = in.readInt();
+    es.nTargetsWithLenientResponses = in.readInt();
+    es.nCorrectStrict = in.readInt();
+    es.nCorrectPartial = in.readInt();
+    es.nSingleCorrectStrict = in.readInt();
+    es.nSingleCorrectPartial = in.readInt();
+    es.nIncorrectStrict = in.readInt();
+    es.nIncorrectPartial = in.readInt();
+    return es;
+  }
+  
+}
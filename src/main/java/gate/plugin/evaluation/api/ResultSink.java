@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.api;
+
+/**
+ * Receives the evaluation results created by the evaluation PRs. 
+ * <p>
+ * The PRs pass every result they write to the TSV file also to the result sink, if there is 
+ * one: the results for each document as soon as the document has been processed, and the 
+ * results over all documents, for all thresholds or ranks, when processing the corpus has 
+ * finished. The close() method is called after the last result of a run.
+ * <p>
+ * Unless wrapped in an AsyncResultSink, the methods are called on the thread which runs the PR,
+ * so implementations should not take long to process a result.
+ * 
+ * @author Johann Petrak
+ */
+public interface ResultSink {
+  
+  /**
+   * Process a result.
+   * @param result the result
+   */
+  public void add(EvaluationResult result);
+  
+  /**
+   * Called after the last result of a run has been added.
+   */
+  public void close();
+  
+}
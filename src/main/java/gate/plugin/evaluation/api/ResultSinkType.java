@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.api;
+
+/**
+ * The kinds of result sinks which can be selected by a PR parameter.
+ * 
+ * @author Johann Petrak
+ */
+public enum ResultSinkType {
+  /** Do not pass results to a sink */
+  NONE, 
+  /** Keep the results in memory, see InMemoryResultSink */
+  MEMORY, 
+  /** Write the results to a JSON Lines file in the output directory */
+  JSONL, 
+  /** Write the results to a binary file in the output directory, see BinaryResultSink */
+  BINARY
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.api;
+
+/**
+ * Accumulate count, sum, mean, variance, minimum and maximum of a stream of values 
+ * in constant memory.
+ * 
+ * The sum uses Kahan summation and the mean is calculated from that sum, the variance 
+ * uses Welford's algorithm. Two objects can be merged, e.g. when the values for different 
+ * parts of a corpus have been accumulated separately.
+ * 
+ * @author Johann Petrak
+ */
+public class StreamingStats {
+  
+  private long n = 0;
+  private double sum = 0.0;
+  private double compensation = 0.0;
+  private double welfordMean = 0.0;
+  private double m2 = 0.0;
+  private double min = Double.POSITIVE_INFINITY;
+  private double max = Double.NEGATIVE_INFINITY;
+  
+  public StreamingStats() {
+  }
+  
+  public void add(double value) {
+    n++;
+    addToSum(value);
+    double delta = value - welfordMean;
+    welfordMean += delta / n;
+    m2 += delta * (value - welfordMean);
+    if(value < min) { min = value; }
+    if(value > max) { max = value; }
+  }
+  
+  private void addToSum(double value) {
+    double y = value - compensation;
+    double t = sum + y;
+    compensation = (t - sum) - y;
+    sum = t;
+  }
+  
+  /**
+   * Add all values accumulated by another object to this one.
+   * @param other the other object
+   */
+  public void merge(StreamingStats other) {
+    if(other.n == 0) {
+      return;
+    }
+    if(n == 0) {
+      n = other.n;
+      sum = other.sum;
+      compensation = other.compensation;
+      welfordMean = other.welfordMean;
+      m2 = other.m2;
+      min = other.min;
+      max = other.max;
+      return;
+    }
+    long newN = n + other.n;
+    double delta = other.welfordMean - welfordMean;
+    welfordMean += delta * other.n / newN;
+    m2 += other.m2 + delta * delta * ((double)n * other.n / newN);
+    addToSum(other.sum);
+    addToSum(-other.compensation);
+    n = newN;
+    if(other.min < min) { min = other.min; }
+    if(other.max > max) { max = other.max; }
+  }
+  
+  public long getN() { return n; }
+  
+  public double getSum() { return sum; }
+  
+  /**
+   * The mean of all values or NaN if no value has been added.
+   * @return mean
+   */
+  public double getMean() {
+    return n == 0 ? Double.NaN : sum / n;
+  }
+  
+  /**
+   * The population variance of all values or NaN if no value has been added.
+   * @return variance
+   */
+  public double getVariance() {
+    return n == 0 ? Double.NaN : m2 / n;
+  }
+  
+  /**
+   * The sample variance of all values or NaN if less than two values have been added.
+   * @return variance
+   */
+  public double getSampleVariance() {
+    return n < 2 ? Double.NaN : m2 / (n - 1);
+  }
+  
+  /**
+   * The population standard deviation of all values or NaN if no value has been added.
+   * @return standard deviation
+   */
+  public double getStdDev() {
+    return Math.sqrt(getVariance());
+  }
+  
+  public double getMin() { return n == 0 ? Double.NaN : min; }
+  
+  public double getMax() { return n == 0 ? Double.NaN : max; }
+  
+  @Override
+  public String toString() {
+    return "StreamingStats{n="+n+",mean="+getMean()+",stdDev="+getStdDev()+",min="+getMin()+",max="+getMax()+"}";
+  }
+}
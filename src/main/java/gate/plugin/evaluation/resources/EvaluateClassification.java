@@ -0,0 +1,441 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.resources;
+
+import gate.AnnotationSet;
+import gate.Controller;
+import gate.FeatureMap;
+import gate.Resource;
+import gate.Utils;
+import gate.creole.ControllerAwarePR;
+import gate.creole.ExecutionException;
+import gate.creole.metadata.CreoleParameter;
+import gate.creole.metadata.CreoleResource;
+import gate.creole.metadata.HiddenCreoleParameter;
+import gate.creole.metadata.Optional;
+import gate.creole.metadata.RunTime;
+import gate.plugin.evaluation.api.AnnotationDifferClassification;
+import gate.plugin.evaluation.api.ConfusionMatrix;
+import gate.plugin.evaluation.api.ContainmentIndex;
+import gate.plugin.evaluation.api.ContainmentType;
+import gate.plugin.evaluation.api.FeatureComparison;
+import gate.plugin.evaluation.api.IndicatorOutput;
+import gate.plugin.evaluation.api.NilTreatment;
+import gate.plugin.evaluation.api.ResultSinkType;
+import gate.util.GateRuntimeException;
+import java.io.PrintStream;
+import java.util.List;
+import org.apache.log4j.Logger;
+
+
+/**
+ * Evaluate the class labels of coextensive key and response annotations.
+ * 
+ * The confusion matrix over all documents is accumulated as documents get processed, so 
+ * the memory needed only depends on the number of distinct class labels. Per-class, 
+ * macro and micro averaged precision, recall and F-measure, and Cohen's and Scott's kappa
+ * are calculated when processing finishes.
+ * <p>
+ * The parameters of EvaluateTaggingBase which are only used for the evaluation of tagging
+ * (the features to compare, scores, NILs, indicator annotations and result sinks) are 
+ * hidden and setting them to anything else than their default is an error.
+ * 
+ * @author Johann Petrak
+ */
+@CreoleResource(
+        name = "EvaluateClassification",
+        helpURL ="https://github.com/GateNLP/gateplugin-Evaluation/wiki/EvaluateClassification-PR",
+        comment = "Calculate confusion matrix, per-class measures and kappa for the class feature of coextensive annotations")
+public class EvaluateClassification extends EvaluateTaggingBase 
+  implements ControllerAwarePR
+{
+
+  public final static long serialVersionUID = 1L;
+  
+  ///////////////////
+  /// PR PARAMETERS 
+  ///////////////////
+  
+  protected String annotationType;
+  @CreoleParameter(comment="The annotation type of the key and response annotations",defaultValue="Mention")
+  @RunTime
+  public void setAnnotationType(String value) { annotationType = value; }
+  public String getAnnotationType() { return annotationType; }
+  public String getExpandedAnnotationType() { return Utils.replaceVariablesInString(getAnnotationType()); }
+  
+  protected String classFeatureName;
+  @CreoleParameter(comment="The name of the feature that contains the class label",defaultValue="class")
+  @RunTime
+  public void setClassFeatureName(String value) { classFeatureName = value; }
+  public String getClassFeatureName() { return classFeatureName; }
+  public String getExpandedClassFeatureName() { return Utils.replaceVariablesInString(getClassFeatureName()); }
+  
+  protected Boolean outputPerDocument;
+  @CreoleParameter(comment="If true and an output directory is specified, also write a line for each document",defaultValue="false")
+  @RunTime
+  @Optional
+  public void setOutputPerDocument(Boolean value) { outputPerDocument = value; }
+  public Boolean getOutputPerDocument() { return outputPerDocument; }
+  
+  // The inherited parameters which are not used by this PR
+  
+  @Override
+  @HiddenCreoleParameter
+  public void setReferenceASName(String name) { super.setReferenceASName(name); }
+  
+  @Override
+  @HiddenCreoleParameter
+  public void setFeatureNames(List<String> names) { super.setFeatureNames(names); }
+  
+  @Override
+  @HiddenCreoleParameter
+  public void setFeatureComparison(FeatureComparison value) { super.setFeatureComparison(value); }
+  
+  @Override
+  @HiddenCreoleParameter
+  public void setScoreFeatureName(String name) { super.setScoreFeatureName(name); }
+  
+  @Override
+  @HiddenCreoleParameter
+  public void setNilTreatment(NilTreatment value) { super.setNilTreatment(value); }
+  
+  @Override
+  @HiddenCreoleParameter
+  public void setNilValue(String value) { super.setNilValue(value); }
+  
+  @Override
+  @HiddenCreoleParameter
+  public void setOutputASPrefix(String name) { super.setOutputASPrefix(name); }
+  
+  @Override
+  @HiddenCreoleParameter
+  public void setIndicatorOutput(IndicatorOutput value) { super.setIndicatorOutput(value); }
+  
+  @Override
+  @HiddenCreoleParameter
+  public void setResultSinkType(ResultSinkType value) { super.setResultSinkType(value); }
+  
+  @Override
+  @HiddenCreoleParameter
+  public void setAsyncResultSink(Boolean value) { super.setAsyncResultSink(value); }
+  
+  
+  //////////////////// 
+  // PR METHODS 
+  ///////////////////
+
+  @Override
+  public Resource init() {    
+    return this;
+  }
+
+  @Override
+  public void reInit() {
+    init();
+  }
+  
+  @Override
+  public void cleanup() {
+    super.cleanup();
+  }
+  
+  protected ConfusionMatrix allDocumentsMatrix;
+  
+  /**
+   * The confusion matrix accumulated over all documents processed so far.
+   * @return confusion matrix
+   */
+  public ConfusionMatrix getConfusionMatrix() { return allDocumentsMatrix; }
+  
+  protected String expandedAnnotationType;
+  protected String expandedClassFeatureName;
+  
+  protected static final String initialFeaturePrefixResponse = "evaluateClassification.";
+  
+  protected final Logger logger = Logger.getLogger(EvaluateClassification.class);
+  
+  protected PrintStream docsTsvPrintStream;
+  
+  @Override
+  public void execute() throws ExecutionException {
+    if(needInitialization) {
+      needInitialization = false;
+      initializeForRunning();
+    }
+    if(isInterrupted()) {
+      throw new ExecutionException("PR was interrupted!");       
+    }
+    if(!isDocumentInShard()) {
+      return;
+    }
+    long docStartTime = metrics.startDocument();
+    releaseContainmentIndex();
+    
+    AnnotationSet keySet = document.getAnnotations(expandedKeySetName).get(expandedAnnotationType);
+    AnnotationSet responseSet = document.getAnnotations(expandedResponseSetName).get(expandedAnnotationType);
+    
+    long startTime = metrics.start();
+    if(!expandedContainingNameAndType.isEmpty()) {
+      String[] setAndType = expandedContainingNameAndType.split(":",2);
+      if(setAndType.length != 2 || setAndType[0].isEmpty() || setAndType[1].isEmpty()) {
+        throw new GateRuntimeException("Runtime Parameter containingASAndName not of the form setname:typename");
+      }      
+      ContainmentIndex containingIndex = getContainmentIndex(setAndType[0], setAndType[1]);
+      ContainmentType ct = containmentType;
+      if(ct == null) ct = ContainmentType.OVERLAPPING;
+      keySet = selectOverlappingBy(keySet,expandedKeySetName,containingIndex,ct);
+      responseSet = selectOverlappingBy(responseSet,expandedResponseSetName,containingIndex,ct);
+      metrics.stop(EvaluationMetrics.Phase.CONTAINMENT, startTime);
+    }
+    
+    startTime = metrics.start();
+    AnnotationDifferClassification differ = new AnnotationDifferClassification();
+    differ.calculateConfusionMatrix(keySet, responseSet, expandedAnnotationType, expandedClassFeatureName, false);
+    ConfusionMatrix docMatrix = differ.getMatrix();
+    allDocumentsMatrix.add(docMatrix);
+    metrics.stop(EvaluationMetrics.Phase.DIFF, startTime);
+    
+    if(getAddDocumentFeatures()) {
+      startTime = metrics.start();
+      FeatureMap docFm = document.getFeatures();
+      docFm.put(featurePrefixResponse + "observedAgreement", docMatrix.getObservedAgreement());
+      docFm.put(featurePrefixResponse + "kappaCohen", docMatrix.getKappaCohen());
+      docFm.put(featurePrefixResponse + "kappaPi", docMatrix.getKappaPi());
+      docFm.put(featurePrefixResponse + "FMacro", docMatrix.getFMeasureMacro());
+      docFm.put(featurePrefixResponse + "total", docMatrix.getTotal());
+      metrics.stop(EvaluationMetrics.Phase.DOCUMENT_FEATURES, startTime);
+    }
+    
+    if(docsTsvPrintStream != null) {
+      startTime = metrics.start();
+      docsTsvPrintStream.println(outputTsvLine(document.getName(), "[label:all:micro]", docMatrix, 
+              docMatrix.getPrecisionMicro(), docMatrix.getRecallMicro(), docMatrix.getFMeasureMicro(),
+              docMatrix.getTotal(), docMatrix.getTotal(), docMatrix.getAgreed()));
+      metrics.stop(EvaluationMetrics.Phase.TSV_OUTPUT, startTime);
+    }
+    releaseContainmentIndex();
+    metrics.stopDocument(document.getName(), docStartTime);
+  }
+  
+  // This needs to run as part of the first execute, since at the moment, the parametrization
+  // does not work correctly with the controller callbacks. 
+  @Override
+  protected void initializeForRunning() {
+    checkUnusedParameters();
+    super.initializeForRunning();
+    expandedAnnotationType = getStringOrElse(getExpandedAnnotationType(),"");
+    expandedClassFeatureName = getStringOrElse(getExpandedClassFeatureName(),"");
+    if(expandedAnnotationType.isEmpty()) {
+      throw new GateRuntimeException("Annotation type is not specified or empty!");
+    }
+    if(expandedClassFeatureName.isEmpty()) {
+      throw new GateRuntimeException("Class feature name is not specified or empty!");
+    }
+    allDocumentsMatrix = new ConfusionMatrix();
+    
+    featurePrefixResponse = initialFeaturePrefixResponse + getExpandedEvaluationId() + "." + getResponseASName() + "." ;
+    
+    mainTsvPrintStream = getOutputStream("classification");
+    if(mainTsvPrintStream != null) {
+      mainTsvPrintStream.println(outputTsvHeader());
+    }
+    docsTsvPrintStream = null;
+    if(getOutputPerDocument() != null && getOutputPerDocument()) {
+      docsTsvPrintStream = getOutputStream("classification-docs");
+      if(docsTsvPrintStream != null) {
+        docsTsvPrintStream.println(outputTsvHeader());
+      }
+    }
+  }
+  
+  // Make sure none of the hidden parameters which would change what gets evaluated or output
+  // by the tagging PRs has been set.
+  protected void checkUnusedParameters() {
+    if(getReferenceASName() != null && !getReferenceASName().isEmpty()) {
+      throw new GateRuntimeException("Parameter referenceASName cannot be used with classification evaluation");
+    }
+    if(getFeatureNames() != null && !getFeatureNames().isEmpty()) {
+      throw new GateRuntimeException("Parameter featureNames cannot be used with classification evaluation");
+    }
+    if(getFeatureComparison() != null && getFeatureComparison() != FeatureComparison.FEATURE_EQUALITY) {
+      throw new GateRuntimeException("Parameter featureComparison cannot be used with classification evaluation");
+    }
+    if(getScoreFeatureName() != null && !getScoreFeatureName().isEmpty()) {
+      throw new GateRuntimeException("Parameter scoreFeatureName cannot be used with classification evaluation");
+    }
+    if(getNilTreatment() != null && getNilTreatment() != NilTreatment.NO_NILS) {
+      throw new GateRuntimeException("Parameter nilTreatment cannot be used with classification evaluation");
+    }
+    if(getNilValue() != null && !getNilValue().isEmpty()) {
+      throw new GateRuntimeException("Parameter nilValue cannot be used with classification evaluation");
+    }
+    if(getOutputASPrefix() != null && !getOutputASPrefix().isEmpty()) {
+      throw new GateRuntimeException("Parameter outputASPrefix cannot be used with classification evaluation");
+    }
+    if(getIndicatorOutput() != null && getIndicatorOutput() != IndicatorOutput.DOCUMENT) {
+      throw new GateRuntimeException("Parameter indicatorOutput cannot be used with classification evaluation");
+    }
+    if(getResultSinkType() != null && getResultSinkType() != ResultSinkType.NONE) {
+      throw new GateRuntimeException("Parameter resultSinkType cannot be used with classification evaluation");
+    }
+    if(getAsyncResultSink() != null && getAsyncResultSink()) {
+      throw new GateRuntimeException("Parameter asyncResultSink cannot be used with classification evaluation");
+    }
+    if(getResultSink() != null) {
+      throw new GateRuntimeException("A result sink cannot be used with classification evaluation");
+    }
+  }
+  
+  // The results are not passed to a result sink, so no sink must get opened, otherwise
+  // an empty results file would get created for JSONL or BINARY.
+  @Override
+  protected void openResultSink() {
+    resultSink = null;
+    activeResultSink = null;
+  }
+  
+  protected String outputTsvHeader() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("evaluationId"); sb.append("\t");
+    sb.append("evaluationType"); sb.append("\t");
+    sb.append("docName"); sb.append("\t");
+    sb.append("setName"); sb.append("\t");
+    sb.append("annotationType"); sb.append("\t");
+    sb.append("label"); sb.append("\t");
+    sb.append("precision"); sb.append("\t");
+    sb.append("recall"); sb.append("\t");
+    sb.append("F1.0"); sb.append("\t");
+    sb.append("keys"); sb.append("\t");
+    sb.append("responses"); sb.append("\t");
+    sb.append("correct"); sb.append("\t");
+    sb.append("observedAgreement"); sb.append("\t");
+    sb.append("kappaCohen"); sb.append("\t");
+    sb.append("kappaPi"); sb.append("\t");
+    sb.append("total");
+    return sb.toString();
+  }
+  
+  protected String outputTsvLine(String docName, String label, ConfusionMatrix matrix,
+          double precision, double recall, double f, long keys, long responses, long correct) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(expandedEvaluationId); sb.append("\t");
+    sb.append("classification"); sb.append("\t");
+    if(docName == null) {
+      sb.append("[doc:all:micro]");
+    } else {
+      sb.append(docName);
+    }
+    sb.append("\t");
+    sb.append(expandedResponseSetName); sb.append("\t");
+    sb.append(expandedAnnotationType); sb.append("\t");
+    sb.append(label); sb.append("\t");
+    sb.append(precision); sb.append("\t");
+    sb.append(recall); sb.append("\t");
+    sb.append(f); sb.append("\t");
+    sb.append(keys); sb.append("\t");
+    sb.append(responses); sb.append("\t");
+    sb.append(correct); sb.append("\t");
+    sb.append(matrix.getObservedAgreement()); sb.append("\t");
+    sb.append(matrix.getKappaCohen()); sb.append("\t");
+    sb.append(matrix.getKappaPi()); sb.append("\t");
+    sb.append(matrix.getTotal());
+    return sb.toString();
+  }
+  
+  public void finishRunning() {
+    outputDefaultResults();
+    outputMetricsSummary(System.out);
+    closeIndicatorsStream();
+    closeResultSink();
+    if(mainTsvPrintStream != null) {
+      mainTsvPrintStream.close();    
+    }
+    if(docsTsvPrintStream != null) {
+      docsTsvPrintStream.close();
+    }
+  }
+  
+  public void outputDefaultResults() {
+    ConfusionMatrix m = allDocumentsMatrix;
+    for(String label : m.getLabels()) {
+      System.out.println(expandedEvaluationId+" Label "+label+" Precision: "+r4(m.getPrecision(label)));
+      System.out.println(expandedEvaluationId+" Label "+label+" Recall: "+r4(m.getRecall(label)));
+      System.out.println(expandedEvaluationId+" Label "+label+" F1.0: "+r4(m.getFMeasure(label)));
+      System.out.println(expandedEvaluationId+" Label "+label+" Keys/Responses/Correct: "+
+              m.getKeyCount(label)+"/"+m.getResponseCount(label)+"/"+m.getCount(label,label));
+    }
+    System.out.println(expandedEvaluationId+" Micro Precision/Recall/F1.0: "+
+            r4(m.getPrecisionMicro())+"/"+r4(m.getRecallMicro())+"/"+r4(m.getFMeasureMicro()));
+    System.out.println(expandedEvaluationId+" Macro Precision: "+r4(m.getPrecisionMacro()));
+    System.out.println(expandedEvaluationId+" Macro Recall: "+r4(m.getRecallMacro()));
+    System.out.println(expandedEvaluationId+" Macro F1.0: "+r4(m.getFMeasureMacro()));
+    System.out.println(expandedEvaluationId+" Observed Agreement: "+r4(m.getObservedAgreement()));
+    System.out.println(expandedEvaluationId+" Kappa Cohen: "+r4(m.getKappaCohen()));
+    System.out.println(expandedEvaluationId+" Kappa Pi: "+r4(m.getKappaPi()));
+    System.out.println(expandedEvaluationId+" Total: "+m.getTotal());
+    for(ConfusionMatrix.Entry entry : m.getTopEntries(10, false)) {
+      System.out.println(expandedEvaluationId+" Confusion "+entry.getKeyLabel()+"/"+entry.getResponseLabel()+": "+entry.getCount());
+    }
+    
+    if(mainTsvPrintStream != null) {
+      for(String label : m.getLabels()) {
+        mainTsvPrintStream.println(outputTsvLine(null, label, m, 
+                m.getPrecision(label), m.getRecall(label), m.getFMeasure(label),
+                m.getKeyCount(label), m.getResponseCount(label), m.getCount(label,label)));
+      }
+      mainTsvPrintStream.println(outputTsvLine(null, "[label:all:micro]", m, 
+              m.getPrecisionMicro(), m.getRecallMicro(), m.getFMeasureMicro(),
+              m.getTotal(), m.getTotal(), m.getAgreed()));
+      mainTsvPrintStream.println(outputTsvLine(null, "[label:all:macro]", m, 
+              m.getPrecisionMacro(), m.getRecallMacro(), m.getFMeasureMacro(),
+              m.getTotal(), m.getTotal(), m.getAgreed()));
+    }
+  }
+  
+  ////////////////////////////////////////////
+  /// CONTROLLER AWARE PR methods
+  ////////////////////////////////////////////
+  
+  @Override
+  public void controllerExecutionStarted(Controller cntrlr) throws ExecutionException {
+    needInitialization = true;
+  }
+
+  @Override
+  public void controllerExecutionFinished(Controller cntrlr) throws ExecutionException {
+    // only do anything at all if we had actually been executed once, see EvaluateMaxRecall
+    if(!needInitialization) {
+      finishRunning();
+      needInitialization = true;
+    }
+  }
+
+  @Override
+  public void controllerExecutionAborted(Controller cntrlr, Throwable thrwbl) throws ExecutionException {
+    if(!needInitialization) {
+      System.err.println("Processing was aborted: "+thrwbl.getMessage());
+      thrwbl.printStackTrace(System.err);
+      System.err.println("Here are the summary stats for what was processed: ");
+      finishRunning();
+      needInitialization = true;
+    }
+  }
+  
+}
@@ -19,6 +19,7 @@
  */
 package gate.plugin.evaluation.resources;
 
+import gate.plugin.evaluation.api.ContainmentIndex;
 import gate.plugin.evaluation.api.ContainmentType;
 import gate.plugin.evaluation.api.NilTreatment;
 import gate.Annotation;
@@ -32,12 +33,16 @@ import gate.creole.ControllerAwarePR;
 import gate.creole.ExecutionException;
 import gate.creole.metadata.CreoleParameter;
 import gate.creole.metadata.CreoleResource;
+import gate.creole.metadata.HiddenCreoleParameter;
 import gate.creole.metadata.Optional;
 import gate.creole.metadata.RunTime;
 import gate.plugin.evaluation.api.AnnotationDifferTagging;
 import gate.plugin.evaluation.api.AnnotationDifferTagging.CandidateList;
 import gate.plugin.evaluation.api.AnnotationTypeSpec;
 import gate.plugin.evaluation.api.AnnotationTypeSpecs;
+import gate.plugin.evaluation.api.CandidateListIndex;
+import gate.plugin.evaluation.api.RankHistogram;
+import gate.plugin.evaluation.api.ResultSinkType;
 import gate.util.GateRuntimeException;
 import java.io.PrintStream;
 import java.util.ArrayList;
@@ -97,6 +102,16 @@ public class EvaluateMaxRecall extends EvaluateTaggingBase
   public String getElementType() { return elementType; }
   public String getExpandedElementType() { return Utils.replaceVariablesInString(getElementType()); }
   
+  // The inherited result sink parameters, which are not used by this PR
+  
+  @Override
+  @HiddenCreoleParameter
+  public void setResultSinkType(ResultSinkType value) { super.setResultSinkType(value); }
+  
+  @Override
+  @HiddenCreoleParameter
+  public void setAsyncResultSink(Boolean value) { super.setAsyncResultSink(value); }
+  
   
   //////////////////// 
   // PR METHODS 
@@ -115,7 +130,7 @@ public class EvaluateMaxRecall extends EvaluateTaggingBase
   
   @Override
   public void cleanup() {
-    //
+    super.cleanup();
   }
   
   /// API methods to return the crucial measurements and values
@@ -135,63 +150,40 @@ public class EvaluateMaxRecall extends EvaluateTaggingBase
    */
   public int getTargetsWithList() { return nTargetsWithList; }
   
-  private List<Integer> nCorrectStrictByRank;
+  // For each rank, the number of targets for which the first strict/lenient match was at that 
+  // rank, over all documents and for the current document
+  private RankHistogram nCorrectStrictByRank;
+  private RankHistogram nCorrectLenientByRank;
+  private final RankHistogram docCorrectStrictByRank = new RankHistogram();
+  private final RankHistogram docCorrectLenientByRank = new RankHistogram();
+  
   /**
    * Number of correct strict responses for a target at rank i
    * @return value
    */
   public List<Integer> getCorrectStrictByRank() { 
-    return new ArrayList<>(nCorrectStrictByRank); 
+    return nCorrectStrictByRank.toList(); 
   }
 
-  // convenience method to increment the count for a specific 
-  // index by the given value and make sure that all 
-  // new elements are set to zero.
-  // returns the new value
-  private int incCorrectStrictByRank(int index, int byValue) {
-    return incHelper(nCorrectStrictByRank,index,byValue);
-  }
-  private int incCorrectLenientByRank(int index, int byValue) {
-    return incHelper(nCorrectLenientByRank,index,byValue);
-  }
-  private int incHelper(List<Integer> what, int index, int byValue) {
-    int val = 0;
-    // if the index is not in the array yet, then we need to add index-size elements
-    if(index >= what.size()) {
-      for(int i = what.size(); i <= index; i++) {
-        what.add(0);
-      }
-      what.set(index, byValue);
-      val = byValue;
-    } else {
-      val = what.get(index);
-      val += byValue;
-      what.set(index,val);
-    }
-    return val;
-  }
-  
   // convenience method to initialize all counts 
   private void initializeCounts() {
     nTargets = 0;
     nTargetsWithList = 0;
     nCorrectLenient = 0;
-    nCorrectLenientByRank = new ArrayList<Integer>(1000);
+    nCorrectLenientByRank = new RankHistogram();
     nCorrectStrict = 0;
-    nCorrectStrictByRank = new ArrayList<Integer>(1000);
+    nCorrectStrictByRank = new RankHistogram();
     nResponseLists = 0;
     nResponseListsWithTarget = 0;
   }
   
   
-  
-  private List<Integer> nCorrectLenientByRank;
   /**
    * Number of crrect lenient responses for a target at rank i 
    * @return 
    */
   private List<Integer> getCorrectLenientByRank() {
-    return new ArrayList<>(nCorrectLenientByRank);
+    return nCorrectLenientByRank.toList();
   }
   
   private int nCorrectStrict;
@@ -211,41 +203,28 @@ public class EvaluateMaxRecall extends EvaluateTaggingBase
   }
   
   public List<Double> getMaxRecallStrictByRank() {
-    List<Double> ret = new ArrayList<>(nCorrectStrictByRank.size());
-    int sum = 0;
-    for(int corr : nCorrectStrictByRank) {
-      sum += corr;
-      ret.add(recall(nTargets,sum));
-    }
-    return ret;
+    return recallByRank(nCorrectStrictByRank, nTargets);
   }
   
   public List<Double> getMaxRecallLenientByRank() {
-    List<Double> ret = new ArrayList<>(nCorrectLenientByRank.size());
-    int sum = 0;
-    for(int corr : nCorrectLenientByRank) {
-      sum += corr;
-      ret.add(recall(nTargets,sum));
-    }
-    return ret;
+    return recallByRank(nCorrectLenientByRank, nTargets);
   }
   
   public List<Double> getMaxRecallStrict4ListByRank() {
-    List<Double> ret = new ArrayList<Double>(nCorrectStrictByRank.size());
-    int sum = 0;
-    for(int corr : nCorrectStrictByRank) {
-      sum += corr;
-      ret.add(recall(nTargetsWithList,sum));
-    }
-    return ret;
+    return recallByRank(nCorrectStrictByRank, nTargetsWithList);
   }
 
   public List<Double> getMaxRecallLenient4ListByRank() {
-    List<Double> ret = new ArrayList<>(nCorrectLenientByRank.size());
-    int sum = 0;
-    for(int corr : nCorrectLenientByRank) {
-      sum += corr;
-      ret.add(recall(nTargetsWithList,sum));
+    return recallByRank(nCorrectLenientByRank, nTargetsWithList);
+  }
+  
+  // the recall at each rank k, i.e. for a match at rank k or lower, from the prefix sums 
+  // of the counts by rank
+  private List<Double> recallByRank(RankHistogram byRank, int targets) {
+    long[] cumulative = byRank.getCumulative();
+    List<Double> ret = new ArrayList<>(cumulative.length);
+    for(long corr : cumulative) {
+      ret.add(recall(targets,(int)corr));
     }
     return ret;
   }
@@ -289,6 +268,12 @@ public class EvaluateMaxRecall extends EvaluateTaggingBase
     if(isInterrupted()) {
       throw new ExecutionException("PR was interrupted!");       
     }
+    if(!isDocumentInShard()) {
+      return;
+    }
+    long docStartTime = metrics.startDocument();
+    releaseContainmentIndex();
+    indicatorBuffer.clear();
     
     //System.out.println("DOC: "+document);
         
@@ -301,6 +286,11 @@ public class EvaluateMaxRecall extends EvaluateTaggingBase
       // for now, no support for a reference set!!
       evaluateForType(keySet,responseSet,null,typeSpec);      
     }
+    long startTime = metrics.start();
+    flushIndicatorAnnotations();
+    metrics.stop(EvaluationMetrics.Phase.INDICATORS, startTime);
+    releaseContainmentIndex();
+    metrics.stopDocument(document.getName(), docStartTime);
     
     
   }
@@ -309,6 +299,7 @@ public class EvaluateMaxRecall extends EvaluateTaggingBase
           AnnotationSet keySet, AnnotationSet responseSet, AnnotationSet referenceSet, AnnotationTypeSpec typeSpec) {
     String type = typeSpec.getKeyType();
     //System.out.println("DEBUG: evaluating for type "+typeSpec+" keysize="+keySet.size()+" resSize="+responseSet.size());
+    long startTime = metrics.start();
     if(!expandedContainingNameAndType.isEmpty()) {
       String[] setAndType = expandedContainingNameAndType.split(":",2);
       if(setAndType.length != 2 || setAndType[0].isEmpty() || setAndType[1].isEmpty()) {
@@ -316,28 +307,33 @@ public class EvaluateMaxRecall extends EvaluateTaggingBase
       }      
       String containingSetName = setAndType[0];
       String containingType = setAndType[1];
-      AnnotationSet containingSet = document.getAnnotations(setAndType[0]).get(setAndType[1]);
+      // the index for the containing annotations is shared with all other types for this 
+      // document
+      ContainmentIndex containingIndex = getContainmentIndex(containingSetName, containingType);
       // now filter the keys and responses. If the containing set/type is the same as the key set/type,
       // do not filter the keys.
       ContainmentType ct = containmentType;
       if(ct == null) ct = ContainmentType.OVERLAPPING;
-      responseSet = selectOverlappingBy(responseSet,containingSet,ct);
+      responseSet = selectOverlappingBy(responseSet,expandedResponseSetName,containingIndex,ct);
       if(containingSetName.equals(expandedKeySetName) && containingType.equals(type)) {
         // no need to do anything for the key set
       } else {
-        keySet = selectOverlappingBy(keySet,containingSet,ct);
+        keySet = selectOverlappingBy(keySet,expandedKeySetName,containingIndex,ct);
       }
       // if we have a reference set, we need to apply the same filtering to that one too
       // TODO: not used later, so commented out for now
       //if(referenceSet != null) {
-      //  referenceSet = selectOverlappingBy(referenceSet,containingSet,ct);
+      //  referenceSet = selectOverlappingBy(referenceSet,expandedReferenceSetName,containingIndex,ct);
       //}
+      metrics.stop(EvaluationMetrics.Phase.CONTAINMENT, startTime);
     } // have a containing set and type
     
     boolean filterNils = false;
     if(getNilTreatment().equals(NilTreatment.NIL_IS_ABSENT)) {
+      startTime = metrics.start();
       filterNils = true;
       removeNilAnns(keySet);
+      metrics.stop(EvaluationMetrics.Phase.NIL_REMOVAL, startTime);
     }
     //System.out.println("DEBUG: after NIL filtering, keysize="+keySet.size());
     
@@ -353,6 +349,7 @@ public class EvaluateMaxRecall extends EvaluateTaggingBase
     
     // Create the candidate lists, with the candidates sorted by the given score feature,
     // and with empty response lists removed.
+    startTime = metrics.start();
     List<CandidateList> candLists = 
               AnnotationDifferTagging.createCandidateLists(
                       document.getAnnotations(expandedResponseSetName),
@@ -361,6 +358,16 @@ public class EvaluateMaxRecall extends EvaluateTaggingBase
                       expandedScoreFeatureName, // this should be null if we evaluate for ranks                      
                       getExpandedElementType(),
                       filterNils,getNilValue(),getFeatureNames().get(0));
+    // index the lists by the offsets of the list annotations so that for each key we only
+    // need to look at the lists which overlap it
+    CandidateListIndex candListIndex = new CandidateListIndex(candLists);
+    metrics.stop(EvaluationMetrics.Phase.CANDIDATE_LISTS, startTime);
+    metrics.addAnnotations(keySet.size(), listAnns.size());
+    long nCandidates = 0;
+    for(CandidateList cl : candLists) {
+      nCandidates += cl.sizeAll();
+    }
+    metrics.addCandidateLists(candLists.size(), nCandidates);
     
     nResponseLists += candLists.size();
     nDocResponseLists += candLists.size();
@@ -368,20 +375,17 @@ public class EvaluateMaxRecall extends EvaluateTaggingBase
     // This set is used to record the listAnns that do have a target so we can count them later
     Set<Annotation> listAnnsWithTarget = new HashSet<>(listAnns.size());
     
+    startTime = metrics.start();
+    long nDocCandidatePairs = 0;
+    docCorrectStrictByRank.clear();
+    docCorrectLenientByRank.clear();
     for(Annotation keyAnn : keySet.inDocumentOrder()) {
       // each key annotation is a target so count it
       nTargets += 1;
       nDocTargets += 1;
       
-      // get all the candidate lists that overlap with the key. At the moment this
-      // is done a bit clumsily by checking the list annotations for all candidate lists
-      // separatel and putting all that overlap in a list.
-      List<CandidateList> overlaps = new ArrayList<CandidateList>();
-      for(CandidateList cl : candLists) {
-        if(cl.getListAnnotation().overlaps(keyAnn)) {
-          overlaps.add(cl);
-        }
-      }
+      // get all the candidate lists that overlap with the key
+      List<CandidateList> overlaps = candListIndex.getOverlapping(keyAnn);
 
       // if there are no overlapping lists, we are done, all the interesting stuff
       // only happens if we have at least one response list
@@ -398,11 +402,17 @@ public class EvaluateMaxRecall extends EvaluateTaggingBase
         for(CandidateList cl : overlaps) {
           // record that this list overlaps with a target
           listAnnsWithTarget.add(cl.getListAnnotation());
-          for(int i = 0; i < cl.sizeAll(); i++) {
+          // A lenient match is never at a higher index than the strict match, so once we have
+          // a strict match, only candidates at a lower index can still change anything. In 
+          // particular, after a strict match at index 0, the remaining lists only need to be
+          // recorded above.
+          int limit = Math.min(cl.sizeAll(), strictMatchIndex);
+          for(int i = 0; i < limit; i++) {
             // first check if the response overlaps with the key at all, only do something
             // if that is the case            
             Annotation resp = cl.get(i);
             if(resp.overlaps(keyAnn)) {
+              nDocCandidatePairs += 1;
               //System.out.println("DEBUG: got an overlap, matching "+keyAnn.getFeatures().get("inst")+" and "+resp.getFeatures().get("inst"));
               boolean match = AnnotationDifferTagging.isAnnotationsMatch(keyAnn, resp, 
                     featureSet, featureComparison, true, annotationTypeSpecs);
@@ -432,12 +442,12 @@ public class EvaluateMaxRecall extends EvaluateTaggingBase
           nCorrectLenient += 1;
           nDocLenientMatches += 1;
           //System.out.println("DEBUG: incrementing lenient at index "+lenientMatchIndex);
-          incCorrectLenientByRank(lenientMatchIndex, 1);
+          docCorrectLenientByRank.increment(lenientMatchIndex);
           if(strictMatchIndex < Integer.MAX_VALUE) {
             nCorrectStrict += 1;
             nDocStrictMatches += 1;
             //System.out.println("DEBUG: incrementing strict at index "+strictMatchIndex);
-            incCorrectStrictByRank(strictMatchIndex, 1);
+            docCorrectStrictByRank.increment(strictMatchIndex);
           } else {
             // TODO: maybe set to -1 instead?
           }
@@ -459,7 +469,7 @@ public class EvaluateMaxRecall extends EvaluateTaggingBase
             suf = "PM";
           } 
           AnnotationSet outSet = document.getAnnotations(outputASResName);
-          Utils.addAnn(outSet, keyAnn, keyAnn.getType()+"_"+suf, Utils.toFeatureMap(keyAnn.getFeatures()));
+          indicatorBuffer.add(outSet, keyAnn, keyAnn.getType()+"_"+suf);
         }      
         
         // TODO: maybe replace MAX_VALUE with -1 for the tsv output.
@@ -472,18 +482,23 @@ public class EvaluateMaxRecall extends EvaluateTaggingBase
         // no we do not have a list, so create an indicator annotation if wanted
         if(!outputASResName.isEmpty()) {
           AnnotationSet outSet = document.getAnnotations(outputASResName);
-          Utils.addAnn(outSet, keyAnn, keyAnn.getType()+"_NR", Utils.toFeatureMap(keyAnn.getFeatures()));
+          indicatorBuffer.add(outSet, keyAnn, keyAnn.getType()+"_NR");
         }      
         
         
       }
       
     } // end for keyAnn in keySet
+    nCorrectStrictByRank.add(docCorrectStrictByRank);
+    nCorrectLenientByRank.add(docCorrectLenientByRank);
+    metrics.stop(EvaluationMetrics.Phase.LIST_MATCHES, startTime);
+    metrics.addCandidatePairs(nDocCandidatePairs);
 
     nResponseListsWithTarget += listAnnsWithTarget.size();
     nDocResponseListsWithList += listAnnsWithTarget.size();
 
     if(mainTsvPrintStream != null) {
+      startTime = metrics.start();
       String line = outputTsvLine(
                 "list-maxrecall",
                 document.getName(),
@@ -497,6 +512,7 @@ public class EvaluateMaxRecall extends EvaluateTaggingBase
                 nDocResponseLists, 
                 nDocResponseListsWithList);
       mainTsvPrintStream.println(line);
+      metrics.stop(EvaluationMetrics.Phase.TSV_OUTPUT, startTime);
     }
     
     // TODO: maybe do the same for the reference set!
@@ -567,6 +583,7 @@ public class EvaluateMaxRecall extends EvaluateTaggingBase
   // does not work correctly with the controller callbacks. 
   @Override
   protected void initializeForRunning() {
+    checkUnusedParameters();
     //System.out.println("DEBUG: reinitializing");
     super.initializeForRunning();
     //System.out.println("DEBUG: running tagging4lists initialize");
@@ -675,8 +692,33 @@ public class EvaluateMaxRecall extends EvaluateTaggingBase
   
   
   
+  // The max recall figures are not evaluation statistics which could be passed to a result
+  // sink, so make sure no sink has been requested.
+  protected void checkUnusedParameters() {
+    if(getResultSinkType() != null && getResultSinkType() != ResultSinkType.NONE) {
+      throw new GateRuntimeException("Parameter resultSinkType cannot be used with max recall evaluation");
+    }
+    if(getAsyncResultSink() != null && getAsyncResultSink()) {
+      throw new GateRuntimeException("Parameter asyncResultSink cannot be used with max recall evaluation");
+    }
+    if(getResultSink() != null) {
+      throw new GateRuntimeException("A result sink cannot be used with max recall evaluation");
+    }
+  }
+  
+  // No sink must get opened, otherwise an empty results file would get created for JSONL 
+  // or BINARY.
+  @Override
+  protected void openResultSink() {
+    resultSink = null;
+    activeResultSink = null;
+  }
+  
   public void finishRunning() {
     outputDefaultResults();
+    outputMetricsSummary(System.out);
+    closeIndicatorsStream();
+    closeResultSink();
     if(mainTsvPrintStream != null) {
       mainTsvPrintStream.close();    
     }
@@ -771,16 +813,13 @@ public class EvaluateMaxRecall extends EvaluateTaggingBase
 
     if(mainTsvPrintStream != null) {
       // The lines for each possible rank ....
-      int n = Math.max(nCorrectLenientByRank.size(),nCorrectStrictByRank.size());
-      int nSumCS = 0;
-      int nSumCL = 0;      
+      long[] cumulativeStrict = nCorrectStrictByRank.getCumulative();
+      long[] cumulativeLenient = nCorrectLenientByRank.getCumulative();
+      int n = Math.max(cumulativeLenient.length,cumulativeStrict.length);
       for(int i = 0; i<n; i++) {
-        if(i<nCorrectStrictByRank.size()) {
-          nSumCS += nCorrectStrictByRank.get(i);
-        }
-        if(i<nCorrectLenientByRank.size()) {
-          nSumCL += nCorrectLenientByRank.get(i);
-        }
+        // beyond the highest rank with a match, the cumulative count stays at the last value
+        int nSumCS = cumulativeStrict.length == 0 ? 0 : (int)cumulativeStrict[Math.min(i, cumulativeStrict.length-1)];
+        int nSumCL = cumulativeLenient.length == 0 ? 0 : (int)cumulativeLenient[Math.min(i, cumulativeLenient.length-1)];
         String line = outputTsvLine(
                 "list-maxrecall",
                 null,
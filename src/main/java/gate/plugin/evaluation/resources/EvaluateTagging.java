@@ -20,6 +20,7 @@
 package gate.plugin.evaluation.resources;
 
 import gate.plugin.evaluation.api.AnnotationTypeSpec;
+import gate.plugin.evaluation.api.ContainmentIndex;
 import gate.plugin.evaluation.api.ContainmentType;
 import gate.plugin.evaluation.api.NilTreatment;
 import gate.Annotation;
@@ -42,14 +43,19 @@ import gate.plugin.evaluation.api.ContingencyTableInteger;
 import gate.plugin.evaluation.api.EvalStatsTagging;
 import gate.plugin.evaluation.api.EvalStatsTagging4Score;
 import gate.plugin.evaluation.api.EvalStatsTaggingMacro;
+import gate.plugin.evaluation.api.ResultCache;
 import gate.plugin.evaluation.api.ThresholdsToUse;
+import gate.util.Files;
 import gate.util.GateRuntimeException;
+import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import org.apache.log4j.Logger;
 
 /**
@@ -98,6 +104,13 @@ public class EvaluateTagging extends EvaluateTaggingBase
   public void setWhichThresholds(ThresholdsToUse value) { whichThresholds = value; }
   public ThresholdsToUse getWhichThresholds() { return whichThresholds; }
 
+  protected URL resultCacheDirectoryUrl;
+  @CreoleParameter(comment="If specified, a directory where the per-document counts are cached, so that documents with unchanged annotations do not need to get evaluated again",defaultValue="")
+  @RunTime
+  @Optional
+  public void setResultCacheDirectoryUrl(URL value) { resultCacheDirectoryUrl = value; }
+  public URL getResultCacheDirectoryUrl() { return resultCacheDirectoryUrl; }
+  
   
   // TODO: maybe separate parameter for user-specified score thresholds which would allow 
   // to evaluate for one specific singe score too?
@@ -120,7 +133,7 @@ public class EvaluateTagging extends EvaluateTaggingBase
   
   @Override
   public void cleanup() {
-    //
+    super.cleanup();
   }
   
   
@@ -143,6 +156,11 @@ public class EvaluateTagging extends EvaluateTaggingBase
   // field is non-null after initialization.
   protected boolean doScoreEvaluation = false;
   
+  // The persistent cache of per-document counts, null if not used, and the part of the 
+  // cache keys that describes the evaluation configuration.
+  protected ResultCache resultCache;
+  protected String resultCacheConfig;
+  
   protected static final String initialFeaturePrefixResponse = "evaluateTagging.response.";
   protected static final String initialFeaturePrefixReference = "evaluateTagging.reference.";
   
@@ -159,6 +177,16 @@ public class EvaluateTagging extends EvaluateTaggingBase
     if(isInterrupted()) {
       throw new ExecutionException("PR was interrupted!"); 
     }
+    if(!isDocumentInShard()) {
+      return;
+    }
+    long docStartTime = metrics.startDocument();
+    releaseContainmentIndex();
+    indicatorBuffer.clear();
+    allTypesDiffer = null;
+    allTypesRefDiffer = null;
+    allTypesKeySet = null;
+    allTypesResponseSet = null;
     
     AnnotationSet keySet = null;
     AnnotationSet responseSet = null;
@@ -168,27 +196,64 @@ public class EvaluateTagging extends EvaluateTaggingBase
     HashSet<String> responseTypes = new HashSet<>();
     keyTypes.addAll(annotationTypeSpecs.getKeyTypes());
     responseTypes.addAll(annotationTypeSpecs.getResponseTypes());
+    
+    // Scan each of the key, response and reference sets only once and partition the 
+    // annotations by type. The sets for all types and for each type are then created from 
+    // those partitions instead of fetching them from the document again for each type.
+    HashSet<String> allTypes = new HashSet<>(keyTypes);
+    allTypes.addAll(responseTypes);
+    Map<String, Map<String, List<Annotation>>> partitions = new HashMap<>();
+    Map<String, List<Annotation>> keysByType = getPartitions(partitions, expandedKeySetName, allTypes);
+    Map<String, List<Annotation>> responsesByType = getPartitions(partitions, expandedResponseSetName, allTypes);
+    Map<String, List<Annotation>> referencesByType = null;
+    if(!expandedReferenceSetName.isEmpty()) {
+      referencesByType = getPartitions(partitions, expandedReferenceSetName, allTypes);
+    }
+    
     if(getAnnotationTypes().size() > 1) {
-      keySet = document.getAnnotations(expandedKeySetName).get(keyTypes);
-      responseSet = document.getAnnotations(expandedResponseSetName).get(responseTypes);
-      if(!expandedReferenceSetName.isEmpty()) {        
-        referenceSet = document.getAnnotations(expandedReferenceSetName).get(responseTypes);
+      keySet = annotationSetForTypes(keysByType, keyTypes);
+      responseSet = annotationSetForTypes(responsesByType, responseTypes);
+      if(referencesByType != null) {        
+        referenceSet = annotationSetForTypes(referencesByType, responseTypes);
       }
       evaluateForType(keySet,responseSet,referenceSet,null);
     }
     // now do it for each typeSpec seperately
     for(AnnotationTypeSpec typeSpec : annotationTypeSpecs.getSpecs()) {
-      keySet = document.getAnnotations(expandedKeySetName).get(typeSpec.getKeyType());
-      responseSet = document.getAnnotations(expandedResponseSetName).get(typeSpec.getResponseType());
-      if(!expandedReferenceSetName.isEmpty()) {
-        referenceSet = document.getAnnotations(expandedReferenceSetName).get(typeSpec.getResponseType());
+      keySet = annotationSetForTypes(keysByType, Collections.singleton(typeSpec.getKeyType()));
+      responseSet = annotationSetForTypes(responsesByType, Collections.singleton(typeSpec.getResponseType()));
+      if(referencesByType != null) {
+        referenceSet = annotationSetForTypes(referencesByType, Collections.singleton(typeSpec.getResponseType()));
       }
       evaluateForType(keySet,responseSet,referenceSet,typeSpec);      
     }
+    long startTime = metrics.start();
+    flushIndicatorAnnotations();
+    metrics.stop(EvaluationMetrics.Phase.INDICATORS, startTime);
+    releaseContainmentIndex();
+    metrics.stopDocument(document.getName(), docStartTime);
     
-    
   }
   
+  private Map<String, List<Annotation>> getPartitions(
+          Map<String, Map<String, List<Annotation>>> partitions, String setName, Set<String> types) {
+    Map<String, List<Annotation>> ret = partitions.get(setName);
+    if(ret == null) {
+      ret = partitionByType(document.getAnnotations(setName), types);
+      partitions.put(setName, ret);
+    }
+    return ret;
+  }
+  
+  // The differs over all types for the current document, if the per-type differs can be 
+  // derived from them.
+  private AnnotationDifferTagging allTypesDiffer;
+  private AnnotationDifferTagging allTypesRefDiffer;
+  // The key and response sets of the all types pass if its counts came from the result cache.
+  // The differ over all types is then only calculated if some per-type pass is not cached.
+  private AnnotationSet allTypesKeySet;
+  private AnnotationSet allTypesResponseSet;
+  
   // TODO: need to allow for key and response types, and for lists, list element types too!
   /**
    * Do the evaluation for one typeSpec, described by a AnnotationTypeSpec instance.
@@ -205,9 +270,9 @@ public class EvaluateTagging extends EvaluateTaggingBase
     // For accessing the type->EvalStats map we use the string type still ...
     String type = "";
     if(typeSpec != null) { type = typeSpec.getKeyType(); }
-    AnnotationSet containingSet = null;
     String containingSetName = "";
     String containingType = "";
+    long startTime = metrics.start();
     if(!expandedContainingNameAndType.isEmpty()) {
       String[] setAndType = expandedContainingNameAndType.split(":",2);
       if(setAndType.length != 2 || setAndType[0].isEmpty() || setAndType[1].isEmpty()) {
@@ -215,23 +280,26 @@ public class EvaluateTagging extends EvaluateTaggingBase
       }      
       containingSetName = setAndType[0];
       containingType = setAndType[1];
-      containingSet = document.getAnnotations(setAndType[0]).get(setAndType[1]);
+      // the index for the containing annotations is shared with all other types for this 
+      // document
+      ContainmentIndex containingIndex = getContainmentIndex(containingSetName, containingType);
       // now filter the keys and responses. If the containing set/type is the same as the key set/type,
       // do not filter the keys.
       ContainmentType ct = containmentType;
       if(ct == null) ct = ContainmentType.OVERLAPPING;
-      responseSet = selectOverlappingBy(responseSet,containingSet,ct);
+      responseSet = selectOverlappingBy(responseSet,expandedResponseSetName,containingIndex,ct);
       // TODO: at the moment this will never be true since we have changed the single typeSpec to a list
       // of types. Think about when to not do this ...
       if(containingSetName.equals(expandedKeySetName) && containingType.equals(type)) {
         // no need to do anything for the key set
       } else {
-        keySet = selectOverlappingBy(keySet,containingSet,ct);
+        keySet = selectOverlappingBy(keySet,expandedKeySetName,containingIndex,ct);
       }
       // if we have a reference set, we need to apply the same filtering to that one too
       if(referenceSet != null) {
-        referenceSet = selectOverlappingBy(referenceSet,containingSet,ct);
+        referenceSet = selectOverlappingBy(referenceSet,expandedReferenceSetName,containingIndex,ct);
       }
+      metrics.stop(EvaluationMetrics.Phase.CONTAINMENT, startTime);
     } // have a containing set and typeSpec
     
     
@@ -257,33 +325,96 @@ public class EvaluateTagging extends EvaluateTaggingBase
     // nils as absent, lets remove all the nils.
     
     if(getFeatureNames() != null && getFeatureNames().size() > 0 && getNilTreatment().equals(NilTreatment.NIL_IS_ABSENT)) {
+      startTime = metrics.start();
       removeNilAnns(keySet);
       removeNilAnns(responseSet);
       if(referenceSet != null) {
         removeNilAnns(referenceSet);
       }
+      metrics.stop(EvaluationMetrics.Phase.NIL_REMOVAL, startTime);
+    }
+    
+    // the all types pass evaluates the same annotations again, so only count them per type
+    if(typeSpec != null) {
+      metrics.addAnnotations(keySet.size(), responseSet.size() + (referenceSet == null ? 0 : referenceSet.size()));
     }
     
+    // If we evaluate over all types, use a differ that can also provide the differs for each
+    // type so the per-type passes do not need to compare all annotations again. This is not
+    // possible if the keys of some type do not get filtered in the per-type pass.
+    boolean multiplexTypes = typeSpec == null && 
+            !(containingSetName.equals(expandedKeySetName) && annotationTypeSpecs.getKeyTypes().contains(containingType));
+    // If we have a result cache and do not need the differ for indicator annotations or for
+    // comparing with a reference set, try to get the counts from the cache first.
+    String cacheKey = null;
+    ResultCache.Entry cached = null;
+    if(resultCache != null && outputASResName.isEmpty() && referenceSet == null) {
+      startTime = metrics.start();
+      cacheKey = ResultCache.key(resultCacheConfig + "\t" + (typeSpec == null ? "[ALL]" : typeSpec), 
+              keySet, responseSet, featureSet, expandedScoreFeatureName);
+      cached = resultCache.get(cacheKey);
+      metrics.stop(EvaluationMetrics.Phase.RESULT_CACHE, startTime);
+    }
     
-    AnnotationDifferTagging docDiffer = new AnnotationDifferTagging(
-            keySet,
-            responseSet,
-            featureSet,
-            featureComparison,
-            annotationTypeSpecs
-    );
-    EvalStatsTagging es = docDiffer.getEvalStatsTagging();
+    AnnotationDifferTagging docDiffer = null;
+    EvalStatsTagging es;
+    // the counts by threshold for just this document
+    ByThEvalStatsTagging docBth = null;
+    if(cached != null) {
+      es = cached.getEvalStats();
+      docBth = cached.getByThreshold();
+      if(multiplexTypes) {
+        allTypesKeySet = keySet;
+        allTypesResponseSet = responseSet;
+      }
+    } else {
+      startTime = metrics.start();
+      if(typeSpec != null && allTypesDiffer == null && allTypesKeySet != null) {
+        allTypesDiffer = AnnotationDifferTagging.calculateForAllTypes(
+                allTypesKeySet, allTypesResponseSet, featureSet, featureComparison, annotationTypeSpecs);
+        allTypesKeySet = null;
+        allTypesResponseSet = null;
+      }
+      if(multiplexTypes) {
+        docDiffer = AnnotationDifferTagging.calculateForAllTypes(
+                keySet, responseSet, featureSet, featureComparison, annotationTypeSpecs);
+        allTypesDiffer = docDiffer;
+      } else if(typeSpec != null && allTypesDiffer != null) {
+        docDiffer = allTypesDiffer.getDifferForType(typeSpec);
+      } else {
+        docDiffer = new AnnotationDifferTagging(
+              keySet,
+              responseSet,
+              featureSet,
+              featureComparison,
+              annotationTypeSpecs
+        );
+      }
+      es = docDiffer.getEvalStatsTagging();
+      metrics.stop(EvaluationMetrics.Phase.DIFF, startTime);
+      metrics.addCandidatePairs(docDiffer.getCandidatePairsCount());
 
-    if(doScoreEvaluation) {
-      ByThEvalStatsTagging bth = evalStatsByThreshold.get(type);
-      AnnotationDifferTagging.calculateByThEvalStatsTagging(
+      if(doScoreEvaluation) {
+        startTime = metrics.start();
+        docBth = AnnotationDifferTagging.calculateByThEvalStatsTagging(
                 keySet, responseSet, featureSet, featureComparison, expandedScoreFeatureName, 
-              bth.getWhichThresholds(), bth, annotationTypeSpecs);
+                getWhichThresholds(), new ByThEvalStatsTagging(getWhichThresholds()), annotationTypeSpecs);
+        metrics.stop(EvaluationMetrics.Phase.THRESHOLDS, startTime);
+      }
+      if(cacheKey != null) {
+        startTime = metrics.start();
+        resultCache.put(cacheKey, es, docBth);
+        metrics.stop(EvaluationMetrics.Phase.RESULT_CACHE, startTime);
+      }
+    }
+    if(doScoreEvaluation && docBth != null) {
+      evalStatsByThreshold.get(type).add(docBth);
     }
     
     // Store the counts and measures as document feature values
     FeatureMap docFm = document.getFeatures();
     if (getAddDocumentFeatures()) {
+      startTime = metrics.start();
       String featurePrefixResponseT = featurePrefixResponse;
       if (typeSpec == null) {
         featurePrefixResponseT += "[ALL].";
@@ -308,6 +439,7 @@ public class EvaluateTagging extends EvaluateTaggingBase
       docFm.put(featurePrefixResponseT + "TrueSpuriousLenient", es.getTrueSpuriousLenient());
       docFm.put(featurePrefixResponseT + "Targets", es.getTargets());
       docFm.put(featurePrefixResponseT + "Responses", es.getResponses());
+      metrics.stop(EvaluationMetrics.Phase.DOCUMENT_FEATURES, startTime);
     }
     
     logger.debug("DEBUG: type is "+typeSpec);
@@ -322,8 +454,10 @@ public class EvaluateTagging extends EvaluateTaggingBase
     // and create the apropriate annotations.
     AnnotationSet outputAnnotationSet = null;
     if(!outputASResName.isEmpty()) {
+      startTime = metrics.start();
       outputAnnotationSet = document.getAnnotations(outputASResName);
-      docDiffer.addIndicatorAnnotations(outputAnnotationSet,"");
+      docDiffer.addIndicatorAnnotations(outputAnnotationSet,"",indicatorBuffer);
+      metrics.stop(EvaluationMetrics.Phase.INDICATORS, startTime);
     }
     
     
@@ -331,25 +465,39 @@ public class EvaluateTagging extends EvaluateTaggingBase
     // If we have a reference set, also calculate the stats for the reference set
     EvalStatsTagging res = null;
     if(referenceSet != null) {
-      AnnotationDifferTagging docRefDiffer = new AnnotationDifferTagging(
+      startTime = metrics.start();
+      AnnotationDifferTagging docRefDiffer;
+      if(multiplexTypes) {
+        docRefDiffer = AnnotationDifferTagging.calculateForAllTypes(
+                keySet, referenceSet, featureSet, featureComparison, annotationTypeSpecs);
+        allTypesRefDiffer = docRefDiffer;
+      } else if(typeSpec != null && allTypesRefDiffer != null) {
+        docRefDiffer = allTypesRefDiffer.getDifferForType(typeSpec);
+      } else {
+        docRefDiffer = new AnnotationDifferTagging(
               keySet,
               referenceSet,
               featureSet,
               featureComparison,
               annotationTypeSpecs
-      );
+        );
+      }
       res = docRefDiffer.getEvalStatsTagging();
+      metrics.stop(EvaluationMetrics.Phase.DIFF, startTime);
+      metrics.addCandidatePairs(docRefDiffer.getCandidatePairsCount());
       allDocumentsReferenceStats.get(type).add(res);
             
       // if we need to record the matchings, also add the annotations for how things changed
       // between the reference set and the response set.
       if(!outputASRefName.isEmpty()) {
+        startTime = metrics.start();
         outputAnnotationSet = document.getAnnotations(outputASRefName);
-        docRefDiffer.addIndicatorAnnotations(outputAnnotationSet,"");
+        docRefDiffer.addIndicatorAnnotations(outputAnnotationSet,"",indicatorBuffer);
         // Now add also the annotations that indicate the changes between the reference set and
         // the response set
         outputAnnotationSet = document.getAnnotations(outputASDiffName);
-        AnnotationDifferTagging.addChangesIndicatorAnnotations(docDiffer, docRefDiffer, outputAnnotationSet);
+        AnnotationDifferTagging.addChangesIndicatorAnnotations(docDiffer, docRefDiffer, outputAnnotationSet, indicatorBuffer);
+        metrics.stop(EvaluationMetrics.Phase.INDICATORS, startTime);
       }
       
       // TODO: increment the overall counts of how things changed
@@ -358,6 +506,7 @@ public class EvaluateTagging extends EvaluateTaggingBase
       
       // add document features for the reference set
       if (getAddDocumentFeatures()) {
+        startTime = metrics.start();
         String featurePrefixReferenceT = featurePrefixReference;
         if (typeSpec == null) {
           featurePrefixReferenceT += "[ALL].";
@@ -382,14 +531,17 @@ public class EvaluateTagging extends EvaluateTaggingBase
         docFm.put(featurePrefixReferenceT + "TrueSpuriousLenient", res.getTrueSpuriousLenient());
         docFm.put(featurePrefixReferenceT + "Targets", res.getTargets());
         docFm.put(featurePrefixReferenceT + "Responses", res.getResponses());
+        metrics.stop(EvaluationMetrics.Phase.DOCUMENT_FEATURES, startTime);
       }
     }
-    if(mainTsvPrintStream != null) {
+    if(mainTsvPrintStream != null || activeResultSink != null) {
+      startTime = metrics.start();
       // a line for the response stats for that document
-      mainTsvPrintStream.println(outputTsvLine("normal", document.getName(), typeSpec, expandedResponseSetName, es));
+      outputResult("normal", document.getName(), typeSpec, expandedResponseSetName, es);
       if(res != null) {
-        mainTsvPrintStream.println(outputTsvLine("normal", document.getName(), typeSpec, expandedReferenceSetName,  res));
+        outputResult("normal", document.getName(), typeSpec, expandedReferenceSetName,  res);
       }
+      metrics.stop(EvaluationMetrics.Phase.TSV_OUTPUT, startTime);
     }
   }
   
@@ -535,17 +687,25 @@ public class EvaluateTagging extends EvaluateTaggingBase
       
     }
     
+    resultCache = null;
+    if(getResultCacheDirectoryUrl() != null) {
+      resultCache = new ResultCache(Files.fileFromURL(getResultCacheDirectoryUrl()));
+      // everything which influences the counts apart from the annotations themselves
+      resultCacheConfig = "EvaluateTagging" + 
+              "\t" + (featureSet == null ? "" : new TreeSet<>(featureSet)) +
+              "\t" + featureComparison + 
+              "\t" + annotationTypeSpecs +
+              "\t" + expandedScoreFeatureName +
+              "\t" + (doScoreEvaluation ? getWhichThresholds() : "") +
+              "\t" + getNilTreatment() + "\t" + getNilValue();
+    }
+    
     featurePrefixResponse = initialFeaturePrefixResponse + getExpandedEvaluationId() + "." + getResponseASName() + "." ;
     featurePrefixReference = initialFeaturePrefixReference + getExpandedEvaluationId() + "." + getReferenceASName() + ".";
     
     mainTsvPrintStream = getOutputStream(null);
     if(mainTsvPrintStream != null) {
-      mainTsvPrintStream.print("evaluationId"); mainTsvPrintStream.print("\t");
-      mainTsvPrintStream.print("evaluationType"); mainTsvPrintStream.print("\t");
-      mainTsvPrintStream.print("docName"); mainTsvPrintStream.print("\t");
-      mainTsvPrintStream.print("setName"); mainTsvPrintStream.print("\t");
-      mainTsvPrintStream.print("annotationType"); mainTsvPrintStream.print("\t");
-      mainTsvPrintStream.println(EvalStatsTagging.getTSVHeaders());
+      mainTsvPrintStream.println(getTsvHeaderLine());
     }
     
 
@@ -554,6 +714,13 @@ public class EvaluateTagging extends EvaluateTaggingBase
   
   public void finishRunning() {
     outputDefaultResults();
+    outputMetricsSummary(System.out);
+    if(resultCache != null) {
+      System.out.println("Result cache "+resultCache.getDirectory()+": "+resultCache.getHits()+
+              " hits, "+resultCache.getMisses()+" misses");
+    }
+    closeIndicatorsStream();
+    closeResultSink();
     if(mainTsvPrintStream != null) {
       mainTsvPrintStream.close();    
     }
@@ -569,44 +736,32 @@ public class EvaluateTagging extends EvaluateTaggingBase
     for(AnnotationTypeSpec typeSpec : annotationTypeSpecs.getSpecs()) {
       //System.out.println("DEBUG: alldocumentsStats="+allDocumentsStats+" typeSpec="+typeSpec+" expandedResponseSetName="+expandedResponseSetName);
       outputEvalStatsForType(System.out, allDocumentsStats.get(typeSpec.getKeyType()), typeSpec.toString(), expandedResponseSetName);
-      if(mainTsvPrintStream != null) { 
-        mainTsvPrintStream.println(
-                outputTsvLine("normal",null, typeSpec, getResponseASName(), allDocumentsStats.get(typeSpec.getKeyType()))); }
+      outputResult("normal",null, typeSpec, getResponseASName(), allDocumentsStats.get(typeSpec.getKeyType()));
       if(!expandedReferenceSetName.isEmpty()) {
         outputEvalStatsForType(System.out, allDocumentsReferenceStats.get(typeSpec.getKeyType()), typeSpec.toString(), expandedReferenceSetName);
-        if(mainTsvPrintStream != null) { 
-          mainTsvPrintStream.println(
-                  outputTsvLine("normal",null, typeSpec, expandedReferenceSetName,  allDocumentsReferenceStats.get(typeSpec.getKeyType()))); }
+        outputResult("normal",null, typeSpec, expandedReferenceSetName,  allDocumentsReferenceStats.get(typeSpec.getKeyType()));
       }
       if(evalStatsByThreshold != null) {
         ByThEvalStatsTagging bthes = evalStatsByThreshold.get(typeSpec.getKeyType());
         for(double th : bthes.getByThresholdEvalStats().navigableKeySet()) {
           outputEvalStatsForType(System.out, bthes.get(th), typeSpec.toString(), expandedResponseSetName);
-          if(mainTsvPrintStream != null) { 
-            mainTsvPrintStream.println(
-                    outputTsvLine("score", null, typeSpec, expandedResponseSetName, bthes.get(th))); }
+          outputResult("score", null, typeSpec, expandedResponseSetName, bthes.get(th));
         }
       }
     }
     // If there was more than one typeSpec, also output the summary stats over all types
     if(annotationTypeSpecs.size() > 1) {
       outputEvalStatsForType(System.out, allDocumentsStats.get(""), "all(micro)", expandedResponseSetName);
-      if(mainTsvPrintStream != null) { 
-        mainTsvPrintStream.println(
-                outputTsvLine("normal", null, null, expandedResponseSetName, allDocumentsStats.get(""))); }
+      outputResult("normal", null, null, expandedResponseSetName, allDocumentsStats.get(""));
       if(!getStringOrElse(getReferenceASName(), "").isEmpty()) {
         outputEvalStatsForType(System.out, allDocumentsReferenceStats.get(""), "all(micro)", expandedReferenceSetName);
-        if(mainTsvPrintStream != null) { 
-          mainTsvPrintStream.println(
-                  outputTsvLine("normal", null, null, expandedReferenceSetName, allDocumentsReferenceStats.get(""))); }
+        outputResult("normal", null, null, expandedReferenceSetName, allDocumentsReferenceStats.get(""));
       }      
       if(evalStatsByThreshold != null) {
         ByThEvalStatsTagging bthes = evalStatsByThreshold.get("");
         for(double th : bthes.getByThresholdEvalStats().navigableKeySet()) {
           outputEvalStatsForType(System.out, bthes.get(th), "all(micro)", expandedResponseSetName);
-          if(mainTsvPrintStream != null) { 
-            mainTsvPrintStream.println(
-                    outputTsvLine("score", null, null, expandedResponseSetName, bthes.get(th))); }
+          outputResult("score", null, null, expandedResponseSetName, bthes.get(th));
         }        
       }
       EvalStatsTaggingMacro esm = new EvalStatsTaggingMacro();
@@ -614,18 +769,14 @@ public class EvaluateTagging extends EvaluateTaggingBase
         esm.add(allDocumentsStats.get(type));
       }
       outputEvalStatsForType(System.out, esm, "all(macro)", expandedResponseSetName);
-      if(mainTsvPrintStream != null) { 
-        mainTsvPrintStream.println(
-                outputTsvLine("normal", null, null, expandedResponseSetName, esm)); }
+      outputResult("normal", null, null, expandedResponseSetName, esm);
       if(!getStringOrElse(getReferenceASName(), "").isEmpty()) {
         esm = new EvalStatsTaggingMacro();
         for(String type : annotationTypeSpecs.getKeyTypes()) {
           esm.add(allDocumentsReferenceStats.get(type));
         }
         outputEvalStatsForType(System.out, esm, "all(macro)", expandedReferenceSetName);
-        if(mainTsvPrintStream != null) { 
-          mainTsvPrintStream.println(
-                  outputTsvLine("normal", null, null, expandedReferenceSetName, esm)); }
+        outputResult("normal", null, null, expandedReferenceSetName, esm);
       }
     }
       
@@ -19,6 +19,7 @@
  */
 package gate.plugin.evaluation.resources;
 
+import gate.plugin.evaluation.api.ContainmentIndex;
 import gate.plugin.evaluation.api.ContainmentType;
 import gate.plugin.evaluation.api.NilTreatment;
 import gate.Annotation;
@@ -45,6 +46,7 @@ import gate.plugin.evaluation.api.EvalStatsTagging4Rank;
 import gate.plugin.evaluation.api.EvalStatsTagging4Score;
 import gate.plugin.evaluation.api.ThresholdsOrRanksToUse;
 import gate.plugin.evaluation.api.ThresholdsToUse;
+import gate.plugin.evaluation.api.ListDiffCache;
 import gate.util.GateRuntimeException;
 import java.io.PrintStream;
 import java.util.ArrayList;
@@ -135,6 +137,13 @@ public class EvaluateTagging4Lists extends EvaluateTaggingBase
   @Optional  
   public void setWhichThresholds(ThresholdsOrRanksToUse value) { whichThresholds = value; }
   public ThresholdsOrRanksToUse getWhichThresholds() { return whichThresholds; }
+  
+  protected Boolean parallelThresholds;
+  @CreoleParameter(comment="If the thresholds or ranks of a document should be evaluated in parallel, using all cores",defaultValue="false")
+  @RunTime
+  @Optional  
+  public void setParallelThresholds(Boolean value) { parallelThresholds = value; }
+  public Boolean getParallelThresholds() { return parallelThresholds; }
 
   
   
@@ -155,7 +164,7 @@ public class EvaluateTagging4Lists extends EvaluateTaggingBase
   
   @Override
   public void cleanup() {
-    //
+    super.cleanup();
   }
   
   /// API methods to access the stats data the PR calculates
@@ -211,6 +220,11 @@ public class EvaluateTagging4Lists extends EvaluateTaggingBase
   // rank 1 (index 0) entries.
   protected EvalStatsTagging allDocumentsStats;
   
+  // The differs calculated for the candidate lists of the current document, so that the 
+  // differ for the extreme threshold or rank does not get calculated a second time for the
+  // indicator annotations of the best list elements
+  protected final ListDiffCache listDiffCache = new ListDiffCache();
+  
   AnnotationTypeSpecs annotationTypeSpecs4Best;
   
   String expandedEdgeName;
@@ -251,6 +265,13 @@ public class EvaluateTagging4Lists extends EvaluateTaggingBase
     if(isInterrupted()) {
       throw new ExecutionException("PR was interrupted!"); 
     }
+    if(!isDocumentInShard()) {
+      return;
+    }
+    long docStartTime = metrics.startDocument();
+    releaseContainmentIndex();
+    indicatorBuffer.clear();
+    listDiffCache.clear();
     
     //System.out.println("DOC: "+document);
         
@@ -263,7 +284,11 @@ public class EvaluateTagging4Lists extends EvaluateTaggingBase
       // for now, no support for a reference set!!
       evaluateForType(keySet,responseSet,null,typeSpec);      
     }
-    
+    long startTime = metrics.start();
+    flushIndicatorAnnotations();
+    metrics.stop(EvaluationMetrics.Phase.INDICATORS, startTime);
+    releaseContainmentIndex();
+    metrics.stopDocument(document.getName(), docStartTime);
     
   }
   
@@ -271,6 +296,7 @@ public class EvaluateTagging4Lists extends EvaluateTaggingBase
           AnnotationSet keySet, AnnotationSet responseSet, AnnotationSet referenceSet, AnnotationTypeSpec typeSpec) {
     String type = typeSpec.getKeyType();
     //System.out.println("DEBUG: evaluating for type "+typeSpec+" keysize="+keySet.size()+" resSize="+responseSet.size());
+    long startTime = metrics.start();
     if(!expandedContainingNameAndType.isEmpty()) {
       String[] setAndType = expandedContainingNameAndType.split(":",2);
       if(setAndType.length != 2 || setAndType[0].isEmpty() || setAndType[1].isEmpty()) {
@@ -278,33 +304,39 @@ public class EvaluateTagging4Lists extends EvaluateTaggingBase
       }      
       String containingSetName = setAndType[0];
       String containingType = setAndType[1];
-      AnnotationSet containingSet = document.getAnnotations(setAndType[0]).get(setAndType[1]);
+      // the index for the containing annotations is shared with all other types for this 
+      // document
+      ContainmentIndex containingIndex = getContainmentIndex(containingSetName, containingType);
       // now filter the keys and responses. If the containing set/type is the same as the key set/type,
       // do not filter the keys.
       ContainmentType ct = containmentType;
       if(ct == null) ct = ContainmentType.OVERLAPPING;
-      responseSet = selectOverlappingBy(responseSet,containingSet,ct);
+      responseSet = selectOverlappingBy(responseSet,expandedResponseSetName,containingIndex,ct);
       if(containingSetName.equals(expandedKeySetName) && containingType.equals(type)) {
         // no need to do anything for the key set
       } else {
-        keySet = selectOverlappingBy(keySet,containingSet,ct);
+        keySet = selectOverlappingBy(keySet,expandedKeySetName,containingIndex,ct);
       }
       // if we have a reference set, we need to apply the same filtering to that one too
       // TODO: we actually never use the refereceSet later, so commented out for now
       //if(referenceSet != null) {
-      //  referenceSet = selectOverlappingBy(referenceSet,containingSet,ct);
+      //  referenceSet = selectOverlappingBy(referenceSet,expandedReferenceSetName,containingIndex,ct);
       //}
+      metrics.stop(EvaluationMetrics.Phase.CONTAINMENT, startTime);
     } // have a containing set and type
     
     boolean filterNils = false;
     if(getNilTreatment().equals(NilTreatment.NIL_IS_ABSENT)) {
+      startTime = metrics.start();
       filterNils = true;
       removeNilAnns(keySet);
+      metrics.stop(EvaluationMetrics.Phase.NIL_REMOVAL, startTime);
     }
     //System.out.println("DEBUG: after NIL filtering, keysize="+keySet.size());
     
     AnnotationSet listAnns = responseSet;
     //System.out.println("DEBUG evaluating for score feature "+expandedScoreFeatureName);
+    startTime = metrics.start();
     List<CandidateList> candLists = 
               AnnotationDifferTagging.createCandidateLists(
                       document.getAnnotations(expandedResponseSetName),
@@ -313,6 +345,13 @@ public class EvaluateTagging4Lists extends EvaluateTaggingBase
                       expandedScoreFeatureName, // this should be null if we evaluate for ranks                      
                       getExpandedElementType(),
                       filterNils,getNilValue(),getFeatureNames().get(0));
+    metrics.stop(EvaluationMetrics.Phase.CANDIDATE_LISTS, startTime);
+    metrics.addAnnotations(keySet.size(), listAnns.size());
+    long nCandidates = 0;
+    for(CandidateList cl : candLists) {
+      nCandidates += cl.sizeAll();
+    }
+    metrics.addCandidateLists(candLists.size(), nCandidates);
     // get the highest scored annotation from each list
     responseSet = new AnnotationSetImpl(listAnns.getDocument());
     // if we evaluate by rank, use rank 1 (position 0) for the evaluation, so this is the 
@@ -325,6 +364,7 @@ public class EvaluateTagging4Lists extends EvaluateTaggingBase
     }
     //System.out.println("DEBUG: after creation of actual responses, respsize="+responseSet.size());
     
+    startTime = metrics.start();
     AnnotationDifferTagging docDiffer = new AnnotationDifferTagging(
             keySet,
             responseSet,
@@ -333,6 +373,8 @@ public class EvaluateTagging4Lists extends EvaluateTaggingBase
             annotationTypeSpecs4Best  // for this eval, we need to compare key with element type, not list type!
     );
     EvalStatsTagging es = docDiffer.getEvalStatsTagging();
+    metrics.stop(EvaluationMetrics.Phase.DIFF, startTime);
+    metrics.addCandidatePairs(docDiffer.getCandidatePairsCount());
     //System.out.println("DEBUG: after differ for normal: featureSet="+featureSet+" typeSpecs="+annotationTypeSpecs+" featComp="+featureComparison);
     //System.out.println("DEBUG: after differ for normal: keys="+keySet.size()+" resp="+responseSet.size()+"\nEvalStats="+es);
 
@@ -341,6 +383,7 @@ public class EvaluateTagging4Lists extends EvaluateTaggingBase
     // if we only evaluate for a particular score or rank, do that, otherwise do the whole 
     // ByTh thing
     
+    startTime = metrics.start();
     if(evaluate4ScoreTh) {
       AnnotationDifferTagging ad = AnnotationDifferTagging.calculateEvalStatsTagging4List(keySet,
               document.getAnnotations(expandedResponseSetName),
@@ -357,7 +400,7 @@ public class EvaluateTagging4Lists extends EvaluateTaggingBase
       bth.add(tmpEs);
       if(!outputASListMaxName.isEmpty()) {
         AnnotationSet outSet = document.getAnnotations(outputASListThName);
-        ad.addIndicatorAnnotations(outSet,"");
+        ad.addIndicatorAnnotations(outSet,"",indicatorBuffer);
       }      
     } else if(evaluate4AllScores) {
       AnnotationDifferTagging.calculateListByThEvalStatsTagging(keySet,
@@ -365,7 +408,8 @@ public class EvaluateTagging4Lists extends EvaluateTaggingBase
               candLists, featureSet, featureComparison, 
               expandedEdgeName, expandedScoreFeatureName, 
               bth.getWhichThresholds(), bth,
-              annotationTypeSpecs);    
+              annotationTypeSpecs, listDiffCache, 
+              parallelThresholds != null && parallelThresholds);    
       
       /* 
       
@@ -400,8 +444,9 @@ public class EvaluateTagging4Lists extends EvaluateTaggingBase
               expandedScoreFeatureName,
               Double.NEGATIVE_INFINITY,
               null,
-              annotationTypeSpecs);
-        ad.addIndicatorAnnotations(outSet,"");
+              annotationTypeSpecs,
+              listDiffCache);
+        ad.addIndicatorAnnotations(outSet,"",indicatorBuffer);
       } 
     } else if(evaluate4RankTh) {
       AnnotationDifferTagging ad = AnnotationDifferTagging.calculateEvalStatsTagging4List(keySet,
@@ -420,7 +465,7 @@ public class EvaluateTagging4Lists extends EvaluateTaggingBase
       brk.add(tmpEs);      
       if(!outputASListMaxName.isEmpty()) {
         AnnotationSet outSet = document.getAnnotations(outputASListThName);
-        ad.addIndicatorAnnotations(outSet,"");
+        ad.addIndicatorAnnotations(outSet,"",indicatorBuffer);
       }      
     } else if(evaluate4AllRanks) {
       AnnotationDifferTagging.calculateListByRankEvalStatsTagging(keySet,
@@ -428,7 +473,8 @@ public class EvaluateTagging4Lists extends EvaluateTaggingBase
               candLists, featureSet, featureComparison, 
               expandedEdgeName, expandedScoreFeatureName, 
               brk.getWhichThresholds(), brk,
-              annotationTypeSpecs);     
+              annotationTypeSpecs, listDiffCache, 
+              parallelThresholds != null && parallelThresholds);     
       
       /* 
       
@@ -470,14 +516,17 @@ public class EvaluateTagging4Lists extends EvaluateTaggingBase
               expandedScoreFeatureName,
               null,
               Integer.MAX_VALUE,      // Instead of this, we should use an internal field so we can use -Inf etc.
-              annotationTypeSpecs);
-        ad.addIndicatorAnnotations(outSet,"");
+              annotationTypeSpecs,
+              listDiffCache);
+        ad.addIndicatorAnnotations(outSet,"",indicatorBuffer);
       } 
     }
+    metrics.stop(EvaluationMetrics.Phase.THRESHOLDS, startTime);
 
     // Store the counts and measures as document feature values
     FeatureMap docFm = document.getFeatures();
     if (getAddDocumentFeatures()) {
+      startTime = metrics.start();
       String featurePrefixResponseT = featurePrefixResponse;
       featurePrefixResponseT += type;
       docFm.put(featurePrefixResponseT + "FMeasureStrict", es.getFMeasureStrict(1.0));
@@ -498,6 +547,7 @@ public class EvaluateTagging4Lists extends EvaluateTaggingBase
       docFm.put(featurePrefixResponseT + "TrueSpuriousLenient", es.getTrueSpuriousLenient());
       docFm.put(featurePrefixResponseT + "Targets", es.getTargets());
       docFm.put(featurePrefixResponseT + "Responses", es.getResponses());
+      metrics.stop(EvaluationMetrics.Phase.DOCUMENT_FEATURES, startTime);
     }
     
     //logger.debug("DEBUG: type is "+type);
@@ -508,14 +558,18 @@ public class EvaluateTagging4Lists extends EvaluateTaggingBase
     // and create the apropriate annotations.
     AnnotationSet outputAnnotationSet = null;
     if(!outputASResName.isEmpty()) {
+      startTime = metrics.start();
       outputAnnotationSet = document.getAnnotations(outputASResName);
-      docDiffer.addIndicatorAnnotations(outputAnnotationSet,"");
+      docDiffer.addIndicatorAnnotations(outputAnnotationSet,"",indicatorBuffer);
+      metrics.stop(EvaluationMetrics.Phase.INDICATORS, startTime);
     }
     
-    if(mainTsvPrintStream != null) {
+    if(mainTsvPrintStream != null || activeResultSink != null) {
+      startTime = metrics.start();
       // a line for the response stats for that document      
-      mainTsvPrintStream.println(outputTsvLine("list-best", document.getName(), typeSpec, 
-              expandedResponseSetName, es));
+      outputResult("list-best", document.getName(), typeSpec, 
+              expandedResponseSetName, es);
+      metrics.stop(EvaluationMetrics.Phase.TSV_OUTPUT, startTime);
     }
     
     // Now handle the list accuracy and per-list P/R statistics. In the previous code, we wanted
@@ -548,6 +602,7 @@ public class EvaluateTagging4Lists extends EvaluateTaggingBase
     //      have match: output overlap, x/y line
     //     increment our stats objects.
     
+    startTime = metrics.start();
     int nrTargets = keySet.size();
     //System.out.println("Number of targets found: "+nrTargets);
     //System.out.println("Number of candidate lists: "+candLists.size());
@@ -726,14 +781,13 @@ public class EvaluateTagging4Lists extends EvaluateTaggingBase
     // add the per-document stats objects to the global stats objects
     // add tmpEs to ...
     byRank4ListAcc.add(tmpEs);
+    metrics.stop(EvaluationMetrics.Phase.LIST_MATCHES, startTime);
     //System.out.println("-----------------> tmpEs");
     //System.out.println(tmpEs);
     //System.out.println("<----------------- tmpEs");
     // per document we only output the stats for rank 0
-    if(mainTsvPrintStream!=null) {
-      mainTsvPrintStream.println(outputTsvLine("list-disamb-best", document.getName(), typeSpec, 
-              responseSet.getName(), tmpEs.get(0)));
-    }
+    outputResult("list-disamb-best", document.getName(), typeSpec, 
+              responseSet.getName(), tmpEs.get(0));
     
     
     
@@ -979,12 +1033,7 @@ public class EvaluateTagging4Lists extends EvaluateTaggingBase
     
     mainTsvPrintStream = getOutputStream(null);    
     if(mainTsvPrintStream != null) {
-      mainTsvPrintStream.print("evaluationId"); mainTsvPrintStream.print("\t");
-      mainTsvPrintStream.print("evaluationType"); mainTsvPrintStream.print("\t");
-      mainTsvPrintStream.print("docName"); mainTsvPrintStream.print("\t");
-      mainTsvPrintStream.print("setName"); mainTsvPrintStream.print("\t");
-      mainTsvPrintStream.print("annotationType"); mainTsvPrintStream.print("\t");
-      mainTsvPrintStream.println(EvalStatsTagging.getTSVHeaders());
+      mainTsvPrintStream.println(getTsvHeaderLine());
     }
 
     
@@ -994,6 +1043,9 @@ public class EvaluateTagging4Lists extends EvaluateTaggingBase
   
   public void finishRunning() {
     outputDefaultResults();
+    outputMetricsSummary(System.out);
+    closeIndicatorsStream();
+    closeResultSink();
     if(mainTsvPrintStream != null) {
       mainTsvPrintStream.close();    
     }
@@ -1021,35 +1073,24 @@ public class EvaluateTagging4Lists extends EvaluateTaggingBase
     AnnotationTypeSpec typeSpecNormal = annotationTypeSpecs.getSpecs().get(0);
     AnnotationTypeSpec typeSpecList   = annotationTypeSpecs.getSpecs().get(0);
     outputEvalStatsForType(System.out, allDocumentsStats, typeSpecNormal.toString(), expandedResponseSetName);
-    if(mainTsvPrintStream != null) { 
-      mainTsvPrintStream.println(
-              outputTsvLine("list-best", null, typeSpecNormal, getResponseASName(), allDocumentsStats)); 
-    }
+    outputResult("list-best", null, typeSpecNormal, getResponseASName(), allDocumentsStats);
     if(evalStatsByThreshold != null) {
       for(double th : evalStatsByThreshold.getByThresholdEvalStats().navigableKeySet()) {
         outputEvalStatsForType(System.out, evalStatsByThreshold.get(th), typeSpecList.toString(), expandedResponseSetName);
-        if(mainTsvPrintStream != null) { 
-          mainTsvPrintStream.println(
-                  outputTsvLine("list-score", null, typeSpecList, expandedResponseSetName, evalStatsByThreshold.get(th))); }
+        outputResult("list-score", null, typeSpecList, expandedResponseSetName, evalStatsByThreshold.get(th));
       }
     } else {
       //System.out.println("Keyset for list-rank: "+evalStatsByRank.keySet());
       for(int rank : evalStatsByRank.getByRankEvalStats().navigableKeySet()) {
         outputEvalStatsForType(System.out, evalStatsByRank.get(rank), typeSpecList.toString(), expandedResponseSetName);
-        if(mainTsvPrintStream != null) { 
-          mainTsvPrintStream.println(
-                  outputTsvLine("list-rank", null, typeSpecList, expandedResponseSetName, evalStatsByRank.get(rank))); 
-        }
+        outputResult("list-rank", null, typeSpecList, expandedResponseSetName, evalStatsByRank.get(rank));
       }      
     }
       for(int rank : byRank4ListAcc.getByRankEvalStats().navigableKeySet()) {
         // TODO: need to first add eval type to that output before we can output this too
         // outputEvalStatsForType(System.out, evalStatsByRank.get(rank), typeSpecList.toString(), expandedResponseSetName);
         //System.err.println("Before writing list-disamb, stream is "+mainTsvPrintStream+" by rank object has thresholds: "+byRank4ListAcc.keySet());
-        if(mainTsvPrintStream != null) { 
-          mainTsvPrintStream.println(
-                  outputTsvLine("list-disamb",null,typeSpecNormal, getResponseASName(), byRank4ListAcc.get(rank)));
-        }
+        outputResult("list-disamb",null,typeSpecNormal, getResponseASName(), byRank4ListAcc.get(rank));
       }      
 
     System.out.println(expandedEvaluationId+" set="+expandedResponseSetName+", type="+typeSpecNormal.toString()+
@@ -21,7 +21,17 @@ package gate.plugin.evaluation.resources;
 
 import gate.plugin.evaluation.api.AnnotationTypeSpecs;
 import gate.plugin.evaluation.api.AnnotationTypeSpec;
+import gate.plugin.evaluation.api.ContainmentIndex;
 import gate.plugin.evaluation.api.ContainmentType;
+import gate.plugin.evaluation.api.IndicatorAnnotationBuffer;
+import gate.plugin.evaluation.api.IndicatorOutput;
+import gate.plugin.evaluation.api.AsyncResultSink;
+import gate.plugin.evaluation.api.BinaryResultSink;
+import gate.plugin.evaluation.api.EvaluationResult;
+import gate.plugin.evaluation.api.InMemoryResultSink;
+import gate.plugin.evaluation.api.JsonLinesResultSink;
+import gate.plugin.evaluation.api.ResultSink;
+import gate.plugin.evaluation.api.ResultSinkType;
 import gate.plugin.evaluation.api.NilTreatment;
 import gate.Annotation;
 import gate.AnnotationSet;
@@ -45,8 +55,12 @@ import java.io.FileOutputStream;
 import java.io.PrintStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import org.apache.log4j.Logger;
 
@@ -197,6 +211,48 @@ public abstract class EvaluateTaggingBase extends AbstractLanguageAnalyser
   public void setAddDocumentFeatures(Boolean value) { addDocumentFeatures = value; }
   public Boolean getAddDocumentFeatures() { return addDocumentFeatures; }
   
+  protected Integer shardIndex;
+  @CreoleParameter(comment="If shardCount is set, only documents of this shard (0 to shardCount-1) are evaluated",defaultValue="0")
+  @RunTime
+  @Optional  
+  public void setShardIndex(Integer value) { shardIndex = value; }
+  public Integer getShardIndex() { return shardIndex; }
+  
+  protected Integer shardCount;
+  @CreoleParameter(comment="Number of shards the corpus is split into for running several independent processes, 1 means no sharding",defaultValue="1")
+  @RunTime
+  @Optional  
+  public void setShardCount(Integer value) { shardCount = value; }
+  public Integer getShardCount() { return shardCount; }
+  
+  protected Integer slowDocuments;
+  @CreoleParameter(comment="Number of slowest documents to write to the -slow.tsv file in the output directory, 0 to disable",defaultValue="0")
+  @RunTime
+  @Optional  
+  public void setSlowDocuments(Integer value) { slowDocuments = value; }
+  public Integer getSlowDocuments() { return slowDocuments; }
+  
+  protected IndicatorOutput indicatorOutput;
+  @CreoleParameter(comment="Add the indicator annotations to the document or write them to the -indicators.tsv file in the output directory",defaultValue="DOCUMENT")
+  @RunTime
+  @Optional  
+  public void setIndicatorOutput(IndicatorOutput value) { indicatorOutput = value; }
+  public IndicatorOutput getIndicatorOutput() { return indicatorOutput; }
+  
+  protected ResultSinkType resultSinkType;
+  @CreoleParameter(comment="Where to send the evaluation results in addition to the TSV file: NONE, MEMORY (see getResultSink()), JSONL or BINARY file in the output directory",defaultValue="NONE")
+  @RunTime
+  @Optional  
+  public void setResultSinkType(ResultSinkType value) { resultSinkType = value; }
+  public ResultSinkType getResultSinkType() { return resultSinkType; }
+  
+  protected Boolean asyncResultSink;
+  @CreoleParameter(comment="If the result sink should run on its own thread",defaultValue="false")
+  @RunTime
+  @Optional  
+  public void setAsyncResultSink(Boolean value) { asyncResultSink = value; }
+  public Boolean getAsyncResultSink() { return asyncResultSink; }
+  
   
   protected AnnotationTypeSpecs annotationTypeSpecs;
   
@@ -211,6 +267,8 @@ public abstract class EvaluateTaggingBase extends AbstractLanguageAnalyser
   protected String outputASDiffName = "";
   protected String expandedNilValue;
   protected String expandedEvaluationId;
+  protected int expandedShardIndex = 0;
+  protected int expandedShardCount = 1;
   
   
   protected String featurePrefixResponse;
@@ -219,6 +277,15 @@ public abstract class EvaluateTaggingBase extends AbstractLanguageAnalyser
   
   protected final Logger logger = Logger.getLogger(EvaluateTaggingBase.class);
   
+  protected final EvaluationMetrics metrics = new EvaluationMetrics();
+  
+  /**
+   * Return the object which holds the timings and counters for this PR.
+   * The values are reset at the start of each run.
+   * @return metrics object
+   */
+  public EvaluationMetrics getMetrics() { return metrics; }
+  
   
   
   ////////////////////////////////////////////
@@ -228,6 +295,40 @@ public abstract class EvaluateTaggingBase extends AbstractLanguageAnalyser
   
   protected PrintStream mainTsvPrintStream;
   
+  // The index of the containing annotations for the current document, created when first 
+  // needed in execute() and dropped at the end of execute(), together with the cached 
+  // filter results it holds.
+  private ContainmentIndex containmentIndex;
+  
+  // The indicator annotations for a document are collected here and added to the document 
+  // or written to the indicators file at the end of execute()
+  protected final IndicatorAnnotationBuffer indicatorBuffer = new IndicatorAnnotationBuffer();
+  protected PrintStream indicatorsTsvPrintStream;
+  
+  // the sink set with setResultSink or created for the resultSinkType and the sink the 
+  // results get passed to, which may be an AsyncResultSink wrapping the first
+  protected ResultSink resultSink;
+  protected ResultSink activeResultSink;
+  private boolean resultSinkIsCustom = false;
+  
+  /**
+   * Set a result sink to use instead of one created for the resultSinkType parameter.
+   * This must be set before the first document is processed, the sink gets closed when 
+   * processing the corpus has finished and is only used for that one run: for the next 
+   * run, a new sink has to be set, otherwise the resultSinkType parameter is used again.
+   * @param sink the result sink or null
+   */
+  public void setResultSink(ResultSink sink) { 
+    resultSink = sink; 
+    resultSinkIsCustom = sink != null;
+  }
+  /**
+   * Return the result sink used in the current or last run, e.g. the InMemoryResultSink 
+   * if the resultSinkType is MEMORY. 
+   * @return result sink or null
+   */
+  public ResultSink getResultSink() { return resultSink; }
+  
   /** 
    * Create and open an print stream to the file where the Tsv rows should get written to.If no output directory was specified, this returns null.
    * Otherwise it returns a stream that writes to a file in the output directory that has
@@ -237,6 +338,27 @@ public abstract class EvaluateTaggingBase extends AbstractLanguageAnalyser
    * @return stream
    */
   protected PrintStream getOutputStream(String suffix) {
+    File outFile = getOutputFile(suffix, ".tsv");
+    if(outFile == null) {
+      return null;
+    }
+    FileOutputStream os = null;
+    try {
+      os = new FileOutputStream(outFile);
+    } catch (FileNotFoundException ex) {
+      throw new GateRuntimeException("Could not open output file "+outFile,ex);
+    }    
+    return new PrintStream(os);
+  }
+  
+  /**
+   * Return the file in the output directory with the given suffix and extension, named as 
+   * described for getOutputStream. If no output directory was specified, returns null.
+   * @param suffix suffix
+   * @param extension the file extension, including the dot
+   * @return file
+   */
+  protected File getOutputFile(String suffix, String extension) {
     if(expandedOutputDirectoryUrl==null) {
       return null;
     }
@@ -249,18 +371,14 @@ public abstract class EvaluateTaggingBase extends AbstractLanguageAnalyser
     }
     String fname = expandedEvaluationId.equals("") 
             ? "EvaluateTagging.tsv" : expandedEvaluationId;
+    if(expandedShardCount > 1) {
+      fname += "-shard"+expandedShardIndex+"of"+expandedShardCount;
+    }
     if(suffix != null && !suffix.isEmpty()) {
       fname += "-"+suffix;
     }
-    fname += ".tsv";
-    File outFile = new File(dir,fname);
-    FileOutputStream os = null;
-    try {
-      os = new FileOutputStream(outFile);
-    } catch (FileNotFoundException ex) {
-      throw new GateRuntimeException("Could not open output file "+outFile,ex);
-    }    
-    return new PrintStream(os);
+    fname += extension;
+    return new File(dir,fname);
   }
   
   protected boolean needInitialization = true;
@@ -271,6 +389,10 @@ public abstract class EvaluateTaggingBase extends AbstractLanguageAnalyser
   protected void initializeForRunning() {
 
     //System.out.println("DEBUG: running base initialize");
+    
+    metrics.reset();
+    metrics.setSlowDocumentsSize(getSlowDocuments() == null ? 0 : Math.max(0, getSlowDocuments()));
+    metrics.register(getClass().getSimpleName(), getName());
 
     expandedKeySetName = getStringOrElse(getExpandedKeyASName(), "");
     expandedResponseSetName = getStringOrElse(getExpandedResponseASName(),"");
@@ -332,14 +454,261 @@ public abstract class EvaluateTaggingBase extends AbstractLanguageAnalyser
     }
     
     if(getAddDocumentFeatures() == null) { setAddDocumentFeatures(true); }
+    
+    expandedShardCount = getShardCount() == null ? 1 : getShardCount();
+    expandedShardIndex = getShardIndex() == null ? 0 : getShardIndex();
+    if(expandedShardCount < 1) {
+      throw new GateRuntimeException("shardCount must be at least 1 but is "+expandedShardCount);
+    }
+    if(expandedShardIndex < 0 || expandedShardIndex >= expandedShardCount) {
+      throw new GateRuntimeException("shardIndex must be between 0 and "+(expandedShardCount-1)+" but is "+expandedShardIndex);
+    }
+    
+    if(getIndicatorOutput() == null) {
+      indicatorOutput = IndicatorOutput.DOCUMENT;
+    }
+    indicatorBuffer.clear();
+    if(indicatorOutput == IndicatorOutput.FILE && !expandedOutputASPrefix.isEmpty()) {
+      indicatorsTsvPrintStream = getOutputStream("indicators");
+      if(indicatorsTsvPrintStream == null) {
+        throw new GateRuntimeException("indicatorOutput is FILE but no output directory specified");
+      }
+      IndicatorAnnotationBuffer.writeTsvHeader(indicatorsTsvPrintStream);
+    }
+    
+    openResultSink();
 
   }
   
+  /**
+   * Check if the current document belongs to the shard this PR is configured to evaluate.
+   * 
+   * Documents are assigned to shards by a hash of the source URL of the document, or of the
+   * document name if there is no source URL. The source URL is preferred because GATE normally 
+   * adds a random suffix to the document name when a document gets loaded, so the name is not
+   * guaranteed to be identical in independent processes. String.hashCode() is used because
+   * its value is fixed by the Java specification and thus the same for every JVM.
+   * If no sharding is configured, this always returns true.
+   * 
+   * @return true if the document should be evaluated by this PR
+   */
+  protected boolean isDocumentInShard() {
+    if(expandedShardCount <= 1) {
+      return true;
+    }
+    return getShardForDocument(document, expandedShardCount) == expandedShardIndex;
+  }
+  
+  /**
+   * Return the shard index between 0 and shardCount-1 for the document.
+   * @param doc the document
+   * @param shardCount number of shards
+   * @return shard index
+   */
+  public static int getShardForDocument(gate.Document doc, int shardCount) {
+    String key = null;
+    if(doc.getSourceUrl() != null) {
+      key = doc.getSourceUrl().toExternalForm();
+    } else {
+      key = doc.getName();
+    }
+    if(key == null) {
+      key = "";
+    }
+    return Math.floorMod(key.hashCode(), shardCount);
+  }
+  
+  
+  protected void openResultSink() {
+    if(getResultSinkType() == null) {
+      resultSinkType = ResultSinkType.NONE;
+    }
+    if(getAsyncResultSink() == null) {
+      asyncResultSink = false;
+    }
+    if(!resultSinkIsCustom) {
+      resultSink = null;
+      if(resultSinkType == ResultSinkType.MEMORY) {
+        resultSink = new InMemoryResultSink();
+      } else if(resultSinkType == ResultSinkType.JSONL || resultSinkType == ResultSinkType.BINARY) {
+        boolean json = resultSinkType == ResultSinkType.JSONL;
+        File outFile = getOutputFile("results", json ? ".jsonl" : ".bin");
+        if(outFile == null) {
+          throw new GateRuntimeException("resultSinkType is "+resultSinkType+" but no output directory specified");
+        }
+        FileOutputStream os;
+        try {
+          os = new FileOutputStream(outFile);
+        } catch (FileNotFoundException ex) {
+          throw new GateRuntimeException("Could not open output file "+outFile,ex);
+        }    
+        resultSink = json ? new JsonLinesResultSink(os) : new BinaryResultSink(os);
+      }
+    }
+    activeResultSink = resultSink;
+    if(resultSink != null && asyncResultSink) {
+      activeResultSink = new AsyncResultSink(resultSink, "ResultSink-"+getName());
+    }
+  }
+  
+  protected void closeResultSink() {
+    if(activeResultSink != null) {
+      activeResultSink.close();
+      activeResultSink = null;
+    }
+    // a sink set with setResultSink is closed now and must not get used in the next run
+    resultSinkIsCustom = false;
+  }
+  
+  /**
+   * Write the line for the statistics to the TSV file and pass them to the result sink,
+   * if there is one. 
+   * @param evalType evaluation type
+   * @param docName document name or null for the statistics over all documents
+   * @param typeSpec type spec or null for the statistics over all types
+   * @param setName annotation set name, if null or empty the response set name is used
+   * @param es statistics
+   */
+  protected void outputResult(
+          String evalType,
+          String docName,
+          AnnotationTypeSpec typeSpec,
+          String setName,
+          EvalStatsTagging es
+  ) {
+    if(mainTsvPrintStream != null) {
+      mainTsvPrintStream.println(outputTsvLine(evalType, docName, typeSpec, setName, es));
+    }
+    if(activeResultSink != null) {
+      activeResultSink.add(new EvaluationResult(expandedEvaluationId, evalType, docName,
+              (setName == null || setName.isEmpty()) ? expandedResponseSetName : setName,
+              typeSpec == null ? null : typeSpec.toString(), es));
+    }
+  }
+  
+  /**
+   * Add the indicator annotations collected for the current document to the document, or
+   * write them to the indicators file.
+   */
+  protected void flushIndicatorAnnotations() {
+    if(indicatorBuffer.isEmpty()) {
+      return;
+    }
+    if(indicatorsTsvPrintStream != null) {
+      indicatorBuffer.writeTsv(indicatorsTsvPrintStream, document.getName());
+    } else {
+      indicatorBuffer.flush();
+    }
+  }
+  
+  protected void closeIndicatorsStream() {
+    if(indicatorsTsvPrintStream != null) {
+      indicatorsTsvPrintStream.close();
+      indicatorsTsvPrintStream = null;
+    }
+  }
+  
+  @Override
+  public void cleanup() {
+    metrics.unregister();
+    super.cleanup();
+  }
+  
+  /**
+   * Output the timings and counters for this run and write the slowest documents to 
+   * the -slow.tsv file, if requested.
+   * @param out stream to write to 
+   */
+  public void outputMetricsSummary(PrintStream out) {
+    out.println(metrics.getSummary(expandedEvaluationId+" "));
+    List<EvaluationMetrics.SlowDocument> slowDocs = metrics.getSlowDocuments();
+    if(!slowDocs.isEmpty()) {
+      PrintStream slowStream = getOutputStream("slow");
+      if(slowStream != null) {
+        slowStream.println("evaluationId\tdocName\tms\tkeys\tresponses\tcandidatePairs\tcandidateLists\tcandidateEntries");
+        for(EvaluationMetrics.SlowDocument sd : slowDocs) {
+          slowStream.println(expandedEvaluationId+"\t"+sd.getName()+"\t"+
+                  EvaluationMetrics.ms(sd.getNanos())+"\t"+sd.getKeys()+"\t"+
+                  sd.getResponses()+"\t"+sd.getCandidatePairs()+"\t"+
+                  sd.getCandidateLists()+"\t"+sd.getCandidateEntries());
+        }
+        slowStream.close();
+      }
+    }
+  }
+  
+  /**
+   * Partition the annotations in the set by type with a single scan over the set.
+   * Only the annotations of the given types are included, the map contains an entry for 
+   * each of those types, possibly with an empty list.
+   * 
+   * @param set the set to partition
+   * @param types the types to include
+   * @return map from type to the annotations of that type
+   */
+  protected static Map<String, List<Annotation>> partitionByType(AnnotationSet set, Set<String> types) {
+    Map<String, List<Annotation>> ret = new HashMap<>();
+    for(String type : types) {
+      ret.put(type, new ArrayList<Annotation>());
+    }
+    for(Annotation ann : set) {
+      List<Annotation> anns = ret.get(ann.getType());
+      if(anns != null) {
+        anns.add(ann);
+      }
+    }
+    return ret;
+  }
+  
+  /**
+   * Create an immutable annotation set with the annotations of the given types from a 
+   * partition created with partitionByType.
+   * 
+   * @param partitions the partitioned annotations
+   * @param types the types to include
+   * @return annotation set
+   */
+  protected AnnotationSet annotationSetForTypes(Map<String, List<Annotation>> partitions, Collection<String> types) {
+    List<Annotation> anns;
+    if(types.size() == 1) {
+      anns = partitions.get(types.iterator().next());
+    } else {
+      anns = new ArrayList<>();
+      for(String type : types) {
+        anns.addAll(partitions.get(type));
+      }
+    }
+    return new ImmutableAnnotationSetImpl(document, anns);
+  }
   
   protected static String getStringOrElse(String value, String elseValue) {
     if(value == null) return elseValue; else return value;
   }
   
+  /**
+   * Get the index of the containing annotations of the given set and type for the current 
+   * document. The index is created by the first call and then shared by all types and 
+   * annotation sets evaluated for the document until releaseContainmentIndex() is called.
+   * 
+   * @param setName name of the containing annotation set
+   * @param type type of the containing annotations
+   * @return index
+   */
+  protected ContainmentIndex getContainmentIndex(String setName, String type) {
+    if(containmentIndex == null) {
+      containmentIndex = new ContainmentIndex(document.getAnnotations(setName).get(type));
+    }
+    return containmentIndex;
+  }
+  
+  /**
+   * Drop the index of the containing annotations, this must be called at the start and
+   * end of execute().
+   */
+  protected void releaseContainmentIndex() {
+    containmentIndex = null;
+  }
+  
   /**
    * Filter the annotations in the set toFilter and select only those which 
    * overlap with any annotation in set by.
@@ -352,21 +721,25 @@ public abstract class EvaluateTaggingBase extends AbstractLanguageAnalyser
   protected static AnnotationSet selectOverlappingBy(AnnotationSet toFilterSet, AnnotationSet bySet, ContainmentType how) {
     if(toFilterSet.isEmpty()) return toFilterSet;
     if(bySet.isEmpty()) return new ImmutableAnnotationSetImpl(toFilterSet.getDocument(),null);
-    Set<Annotation> selected = new HashSet<Annotation>();
-    for(Annotation byAnn : bySet) {
-      AnnotationSet tmp = null;
-      if(how == ContainmentType.OVERLAPPING) {
-        tmp = gate.Utils.getOverlappingAnnotations(toFilterSet, byAnn);
-      } else if(how == ContainmentType.CONTAINING) {
-        tmp = gate.Utils.getContainedAnnotations(toFilterSet, byAnn);          
-      } else if(how == ContainmentType.COEXTENSIVE) {
-        tmp = gate.Utils.getCoextensiveAnnotations(toFilterSet, byAnn);        
-      } else {
-        throw new GateRuntimeException("Odd ContainmentType parameter value: "+how);
-      }
-      selected.addAll(tmp);
-    }
-    return new ImmutableAnnotationSetImpl(toFilterSet.getDocument(), selected);    
+    return new ContainmentIndex(bySet).filter(toFilterSet, how);
+  }
+  
+  /**
+   * Filter the annotations in the set toFilter and select only those which 
+   * overlap with any annotation in the containment index.
+   * <p>
+   * The index only needs to get created once for the containing annotations and can then
+   * be used to filter the key, response and reference sets. All annotations in toFilterSet must
+   * be from the document annotation set with the name setName.
+   * 
+   * @param toFilterSet the set to filter
+   * @param setName the name of the annotation set toFilterSet was taken from
+   * @param byIndex the index of the containing annotations
+   * @param how how the annotations must relate to the containing annotations
+   * @return the filtered set
+   */
+  protected static AnnotationSet selectOverlappingBy(AnnotationSet toFilterSet, String setName, ContainmentIndex byIndex, ContainmentType how) {
+    return byIndex.filter(toFilterSet, setName, how);
   }
   
   /**
@@ -388,9 +761,34 @@ public abstract class EvaluateTaggingBase extends AbstractLanguageAnalyser
           AnnotationTypeSpec typeSpec,
           String setName,
           EvalStatsTagging es
+  ) {
+    return tsvLine(expandedEvaluationId, evalType, docName, 
+            (setName == null || setName.isEmpty()) ? expandedResponseSetName : setName,
+            typeSpec == null ? null : typeSpec.toString(), es);
+  }
+  
+  /**
+   * Create a TSV line for the evaluation results without needing a PR instance. 
+   * This is what outputTsvLine uses and what standalone tools like the StreamingScorer 
+   * use to create output which is identical to that of the PRs.
+   * @param evaluationId the expanded evaluation id
+   * @param evalType evaluation type
+   * @param docName document name or null for the statistics over all documents
+   * @param setName annotation set name
+   * @param typeName type spec string or null for the statistics over all types
+   * @param es statistics
+   * @return the TSV line 
+   */
+  public static String tsvLine(
+          String evaluationId,
+          String evalType,
+          String docName,
+          String setName,
+          String typeName,
+          EvalStatsTagging es
   ) {
     StringBuilder sb = new StringBuilder();
-    sb.append(expandedEvaluationId); sb.append("\t");
+    sb.append(evaluationId); sb.append("\t");
     sb.append(evalType); sb.append("\t");
     if(docName == null) {
       sb.append("[doc:all:micro]");
@@ -398,22 +796,27 @@ public abstract class EvaluateTaggingBase extends AbstractLanguageAnalyser
       sb.append(docName);
     }
     sb.append("\t");
-    if(setName == null || setName.isEmpty()) {
-      sb.append(expandedResponseSetName);
-    } else {
-      sb.append(setName);
-    }
+    sb.append(setName);
     sb.append("\t");
-    if(typeSpec == null) {
+    if(typeName == null) {
       sb.append("[type:all:micro]");
     } else {
-      sb.append(typeSpec);
+      sb.append(typeName);
     }
     sb.append("\t");
     sb.append(es.getTSVLine());
     return sb.toString();    
   }
   
+  /**
+   * The header line of the main TSV file for the tagging evaluations.
+   * @return header line
+   */
+  public static String getTsvHeaderLine() {
+    return "evaluationId\tevaluationType\tdocName\tsetName\tannotationType\t" + 
+            EvalStatsTagging.getTSVHeaders();
+  }
+  
   
   protected static double r4(double x) {
     return ((double) Math.round(x * 10000.0) / 10000.0);
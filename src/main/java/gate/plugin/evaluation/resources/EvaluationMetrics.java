@@ -0,0 +1,406 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.resources;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.log4j.Logger;
+
+/**
+ * Timings and counters for the processing phases of an evaluation PR.
+ * <p>
+ * Each PR instance has one object of this class which is always active: a phase is timed by
+ * getting a start time from start() and passing it to stop(phase,startTime) when the phase
+ * is finished. This only costs two calls to System.nanoTime() per phase.
+ * <p>
+ * The object can be registered as a JMX MBean so that the values can be inspected while 
+ * a long evaluation is running, e.g. with jconsole. Since a GATE PR instance is only ever 
+ * used by one thread, the counters are plain fields and a JMX client may see values which are
+ * slightly out of date.
+ * <p>
+ * The evaluation time for each document is also recorded in a histogram so that percentiles
+ * can be reported, and optionally, the slowest documents are remembered, together with the
+ * number of key and response annotations, candidate pairs, candidate lists and candidate list
+ * entries for the document.
+ * 
+ * @author Johann Petrak
+ */
+public class EvaluationMetrics implements EvaluationMetricsMBean {
+  
+  /**
+   * The phases we measure. Not all phases are used by every PR.
+   */
+  public static enum Phase {
+    CONTAINMENT,
+    NIL_REMOVAL,
+    CANDIDATE_LISTS,
+    DIFF,
+    THRESHOLDS,
+    INDICATORS,
+    DOCUMENT_FEATURES,
+    TSV_OUTPUT,
+    LIST_MATCHES,
+    RESULT_CACHE
+  }
+  
+  private static final Phase[] PHASES = Phase.values();
+  
+  private final long[] phaseNanos = new long[PHASES.length];
+  private final long[] phaseCounts = new long[PHASES.length];
+  private long documents;
+  private long documentNanos;
+  private long annotations;
+  private long candidatePairs;
+  
+  private final LatencyHistogram documentLatencies = new LatencyHistogram();
+  private long docKeys;
+  private long docResponses;
+  private long docCandidatePairs;
+  private long docCandidateLists;
+  private long docCandidateEntries;
+  private int slowDocumentsSize = 0;
+  // min-heap by time, so the fastest of the slow documents is the one we drop
+  private final PriorityQueue<SlowDocument> slowDocuments = new PriorityQueue<>();
+  
+  private ObjectName objectName;
+  
+  private static final Logger logger = Logger.getLogger(EvaluationMetrics.class);
+  
+  /**
+   * Get the start time for a phase.
+   * @return the start time in nanoseconds
+   */
+  public long start() {
+    return System.nanoTime();
+  }
+  
+  /**
+   * Record the time since startTime for the given phase. 
+   * @param phase the phase 
+   * @param startTime start time as returned by start()
+   */
+  public void stop(Phase phase, long startTime) {
+    phaseNanos[phase.ordinal()] += System.nanoTime() - startTime;
+    phaseCounts[phase.ordinal()] += 1;
+  }
+  
+  /**
+   * Get the start time for a document and reset the per-document counters.
+   * @return the start time in nanoseconds
+   */
+  public long startDocument() {
+    docKeys = 0;
+    docResponses = 0;
+    docCandidatePairs = 0;
+    docCandidateLists = 0;
+    docCandidateEntries = 0;
+    return System.nanoTime();
+  }
+  
+  /**
+   * Record that a document has been evaluated, which started at the given time.
+   * @param docName the name of the document, used for the list of slow documents
+   * @param startTime start time as returned by startDocument()
+   */
+  public void stopDocument(String docName, long startTime) {
+    long nanos = System.nanoTime() - startTime;
+    documentNanos += nanos;
+    documents += 1;
+    documentLatencies.add(nanos);
+    if(slowDocumentsSize > 0) {
+      if(slowDocuments.size() < slowDocumentsSize) {
+        slowDocuments.add(new SlowDocument(docName, nanos, docKeys, docResponses, docCandidatePairs, 
+                docCandidateLists, docCandidateEntries));
+      } else if(nanos > slowDocuments.peek().nanos) {
+        slowDocuments.poll();
+        slowDocuments.add(new SlowDocument(docName, nanos, docKeys, docResponses, docCandidatePairs, 
+                docCandidateLists, docCandidateEntries));
+      }
+    }
+  }
+  
+  /**
+   * Add to the number of key and response annotations for the current document.
+   * Response annotations here include list and reference annotations.
+   * @param keys number of key annotations
+   * @param responses number of response annotations
+   */
+  public void addAnnotations(long keys, long responses) {
+    annotations += keys + responses;
+    docKeys += keys;
+    docResponses += responses;
+  }
+  
+  public void addCandidatePairs(long n) {
+    candidatePairs += n;
+    docCandidatePairs += n;
+  }
+  
+  /**
+   * Add to the number of candidate lists and the total number of entries in those lists
+   * for the current document.
+   * @param lists number of candidate lists
+   * @param entries number of entries in all those lists
+   */
+  public void addCandidateLists(long lists, long entries) {
+    docCandidateLists += lists;
+    docCandidateEntries += entries;
+  }
+  
+  /**
+   * Set how many of the slowest documents to remember. If 0, none are remembered.
+   * @param n number of documents
+   */
+  public void setSlowDocumentsSize(int n) {
+    slowDocumentsSize = n;
+  }
+  
+  /**
+   * Get the slowest documents, slowest first.
+   * @return list of slow documents
+   */
+  public List<SlowDocument> getSlowDocuments() {
+    List<SlowDocument> ret = new ArrayList<>(slowDocuments);
+    Collections.sort(ret, Collections.reverseOrder());
+    return ret;
+  }
+  
+  /**
+   * The histogram of the evaluation times per document in nanoseconds.
+   * @return histogram
+   */
+  public LatencyHistogram getDocumentLatencies() {
+    return documentLatencies;
+  }
+  
+  /**
+   * Cumulative nanoseconds for a phase.
+   * @param phase phase
+   * @return nanoseconds
+   */
+  public long getNanos(Phase phase) {
+    return phaseNanos[phase.ordinal()];
+  }
+  
+  /**
+   * Number of invocations of a phase.
+   * @param phase phase
+   * @return count
+   */
+  public long getCount(Phase phase) {
+    return phaseCounts[phase.ordinal()];
+  }
+  
+  @Override
+  public String[] getPhaseNames() {
+    String[] ret = new String[PHASES.length];
+    for(int i = 0; i < PHASES.length; i++) {
+      ret[i] = PHASES[i].name();
+    }
+    return ret;
+  }
+
+  @Override
+  public long[] getPhaseNanos() {
+    return phaseNanos.clone();
+  }
+
+  @Override
+  public long[] getPhaseCounts() {
+    return phaseCounts.clone();
+  }
+
+  @Override
+  public long getDocuments() {
+    return documents;
+  }
+
+  @Override
+  public long getDocumentNanos() {
+    return documentNanos;
+  }
+
+  @Override
+  public long getAnnotations() {
+    return annotations;
+  }
+
+  @Override
+  public long getCandidatePairs() {
+    return candidatePairs;
+  }
+
+  @Override
+  public long getDocumentNanosP50() {
+    return documentLatencies.getQuantile(0.5);
+  }
+
+  @Override
+  public long getDocumentNanosP90() {
+    return documentLatencies.getQuantile(0.9);
+  }
+
+  @Override
+  public long getDocumentNanosP99() {
+    return documentLatencies.getQuantile(0.99);
+  }
+
+  @Override
+  public long getDocumentNanosMax() {
+    return documentLatencies.getMax();
+  }
+
+  @Override
+  public final void reset() {
+    for(int i = 0; i < PHASES.length; i++) {
+      phaseNanos[i] = 0;
+      phaseCounts[i] = 0;
+    }
+    documents = 0;
+    documentNanos = 0;
+    annotations = 0;
+    candidatePairs = 0;
+    documentLatencies.reset();
+    slowDocuments.clear();
+  }
+
+  /**
+   * Create the one-line summary of all timings and counters, without a line separator.
+   * Phases which were never run are left out.
+   * @param prefix prefix for the line, normally the evaluation id
+   * @return summary
+   */
+  public String getSummary(String prefix) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(prefix).append("Timing documents: ").append(documents)
+            .append(", total ms: ").append(ms(documentNanos))
+            .append(", annotations: ").append(annotations)
+            .append(", candidate pairs: ").append(candidatePairs);
+    if(documents > 0) {
+      sb.append(", document ms p50: ").append(ms(getDocumentNanosP50()))
+              .append(", p90: ").append(ms(getDocumentNanosP90()))
+              .append(", p99: ").append(ms(getDocumentNanosP99()))
+              .append(", max: ").append(ms(getDocumentNanosMax()));
+    }
+    for(Phase p : PHASES) {
+      int i = p.ordinal();
+      if(phaseCounts[i] > 0) {
+        sb.append(", ").append(p.name())
+                .append(": calls=").append(phaseCounts[i])
+                .append(" ms=").append(ms(phaseNanos[i]));
+        if(documentNanos > 0) {
+          sb.append(" percent=").append(String.format(Locale.ROOT, "%.1f", 100.0 * phaseNanos[i] / documentNanos));
+        }
+      }
+    }
+    return sb.toString();
+  }
+  
+  @Override
+  public String getSummary() {
+    return getSummary("");
+  }
+  
+  static String ms(long nanos) {
+    return String.format(Locale.ROOT, "%.3f", nanos / 1000000.0);
+  }
+  
+  /**
+   * Register with the platform MBean server. 
+   * If this object is already registered, nothing is done. Registration problems are only logged
+   * since they should never prevent the evaluation from running.
+   * @param type the type, normally the class name of the PR
+   * @param name the name, normally the name of the PR
+   */
+  public void register(String type, String name) {
+    if(objectName != null) {
+      return;
+    }
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      // the identity hash code makes the name unique if there are several PRs with the same name,
+      // e.g. because the pipeline got duplicated for multiple threads
+      ObjectName on = new ObjectName("gate.plugin.evaluation:type="+type+
+              ",name="+ObjectName.quote(name == null ? "" : name)+
+              ",id="+Integer.toHexString(System.identityHashCode(this)));
+      server.registerMBean(this, on);
+      objectName = on;
+    } catch (JMException | RuntimeException ex) {
+      logger.warn("Could not register MBean for "+type+" "+name, ex);
+    }
+  }
+  
+  /**
+   * Unregister from the platform MBean server, if registered.
+   */
+  public void unregister() {
+    if(objectName == null) {
+      return;
+    }
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    } catch (JMException | RuntimeException ex) {
+      logger.warn("Could not unregister MBean "+objectName, ex);
+    }
+    objectName = null;
+  }
+  
+  /**
+   * A document with its evaluation time and sizes.
+   */
+  public static class SlowDocument implements Comparable<SlowDocument> {
+    private final String name;
+    private final long nanos;
+    private final long keys;
+    private final long responses;
+    private final long candidatePairs;
+    private final long candidateLists;
+    private final long candidateEntries;
+    public SlowDocument(String name, long nanos, long keys, long responses, long candidatePairs,
+            long candidateLists, long candidateEntries) {
+      this.name = name;
+      this.nanos = nanos;
+      this.keys = keys;
+      this.responses = responses;
+      this.candidatePairs = candidatePairs;
+      this.candidateLists = candidateLists;
+      this.candidateEntries = candidateEntries;
+    }
+    public String getName() { return name; }
+    public long getNanos() { return nanos; }
+    public long getKeys() { return keys; }
+    public long getResponses() { return responses; }
+    public long getCandidatePairs() { return candidatePairs; }
+    public long getCandidateLists() { return candidateLists; }
+    public long getCandidateEntries() { return candidateEntries; }
+    @Override
+    public int compareTo(SlowDocument other) {
+      return Long.compare(nanos, other.nanos);
+    }
+  }
+  
+}
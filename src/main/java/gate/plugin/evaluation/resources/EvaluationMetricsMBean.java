@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.resources;
+
+/**
+ * JMX management interface for the timing and counters of an evaluation PR.
+ * 
+ * @author Johann Petrak
+ */
+public interface EvaluationMetricsMBean {
+  /**
+   * Names of the phases, in the same order as the values returned by getPhaseNanos and 
+   * getPhaseCounts.
+   * @return phase names
+   */
+  public String[] getPhaseNames();
+  /**
+   * Cumulative nanoseconds spent in each phase.
+   * @return nanoseconds per phase
+   */
+  public long[] getPhaseNanos();
+  /**
+   * Number of times each phase was run.
+   * @return invocations per phase
+   */
+  public long[] getPhaseCounts();
+  /**
+   * Number of documents evaluated.
+   * @return number of documents
+   */
+  public long getDocuments();
+  /**
+   * Cumulative nanoseconds spent for evaluating documents.
+   * @return nanoseconds
+   */
+  public long getDocumentNanos();
+  /**
+   * Approximate median of the evaluation time per document in nanoseconds.
+   * @return nanoseconds
+   */
+  public long getDocumentNanosP50();
+  /**
+   * Approximate 90th percentile of the evaluation time per document in nanoseconds.
+   * @return nanoseconds
+   */
+  public long getDocumentNanosP90();
+  /**
+   * Approximate 99th percentile of the evaluation time per document in nanoseconds.
+   * @return nanoseconds
+   */
+  public long getDocumentNanosP99();
+  /**
+   * Maximum evaluation time for a document in nanoseconds.
+   * @return nanoseconds
+   */
+  public long getDocumentNanosMax();
+  /**
+   * Number of key, response and reference annotations that were evaluated.
+   * @return number of annotations
+   */
+  public long getAnnotations();
+  /**
+   * Number of overlapping key/response pairs which were considered by the differ.
+   * @return number of pairs
+   */
+  public long getCandidatePairs();
+  /**
+   * A human readable one-line summary of all timings and counters.
+   * @return summary
+   */
+  public String getSummary();
+  /**
+   * Set all timings and counters to zero.
+   */
+  public void reset();
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.resources;
+
+/**
+ * A histogram of non-negative long values, e.g. latencies in nanoseconds, with a fixed memory size.
+ * <p>
+ * Values are counted in logarithmic buckets: each power of two is split into 8 sub-buckets,
+ * so any quantile returned is within 12.5 percent of the true value. The maximum is kept exactly.
+ * Two histograms can be merged by adding the counts.
+ * 
+ * @author Johann Petrak
+ */
+public class LatencyHistogram {
+  
+  private static final int SUB_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BITS;
+  private static final int NBUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+  
+  private final long[] counts = new long[NBUCKETS];
+  private long count;
+  private long max;
+  
+  /**
+   * Add a value. Negative values are counted as zero.
+   * @param value the value
+   */
+  public void add(long value) {
+    if(value < 0) {
+      value = 0;
+    }
+    counts[bucketIndex(value)] += 1;
+    count += 1;
+    if(value > max) {
+      max = value;
+    }
+  }
+  
+  /**
+   * Add all the counts from the other histogram to this one.
+   * @param other other histogram
+   */
+  public void add(LatencyHistogram other) {
+    for(int i = 0; i < NBUCKETS; i++) {
+      counts[i] += other.counts[i];
+    }
+    count += other.count;
+    if(other.max > max) {
+      max = other.max;
+    }
+  }
+  
+  public void reset() {
+    for(int i = 0; i < NBUCKETS; i++) {
+      counts[i] = 0;
+    }
+    count = 0;
+    max = 0;
+  }
+  
+  public long getCount() {
+    return count;
+  }
+  
+  public long getMax() {
+    return max;
+  }
+  
+  /**
+   * Return the approximate value at the given quantile.
+   * This returns the middle of the bucket which contains the quantile, but never
+   * more than the maximum value seen. If no values have been added, 0 is returned.
+   * @param q the quantile, a value between 0.0 and 1.0
+   * @return approximate value
+   */
+  public long getQuantile(double q) {
+    if(count == 0) {
+      return 0;
+    }
+    long rank = (long)Math.ceil(q * count);
+    if(rank < 1) {
+      rank = 1;
+    }
+    long seen = 0;
+    for(int i = 0; i < NBUCKETS; i++) {
+      seen += counts[i];
+      if(seen >= rank) {
+        return Math.min(bucketValue(i), max);
+      }
+    }
+    return max;
+  }
+  
+  static int bucketIndex(long value) {
+    if(value < SUB_BUCKETS) {
+      return (int)value;
+    }
+    int exp = 63 - Long.numberOfLeadingZeros(value);
+    int sub = (int)(value >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+    return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+  }
+  
+  static long bucketValue(int index) {
+    if(index < SUB_BUCKETS) {
+      return index;
+    }
+    int exp = index / SUB_BUCKETS + SUB_BITS - 1;
+    int sub = index % SUB_BUCKETS;
+    long lower = ((long)(SUB_BUCKETS + sub)) << (exp - SUB_BITS);
+    long width = 1L << (exp - SUB_BITS);
+    return lower + width / 2;
+  }
+  
+}
@@ -0,0 +1,387 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.tools;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.annotation.ImmutableAnnotationSetImpl;
+import gate.plugin.evaluation.api.AnnotationDifferTagging;
+import gate.plugin.evaluation.api.AnnotationTypeSpec;
+import gate.plugin.evaluation.api.AnnotationTypeSpecs;
+import gate.plugin.evaluation.api.ByThEvalStatsTagging;
+import gate.plugin.evaluation.api.EvalStatsTagging;
+import gate.plugin.evaluation.api.EvalStatsTagging4Score;
+import gate.plugin.evaluation.api.EvalStatsTaggingMacro;
+import gate.plugin.evaluation.api.FeatureComparison;
+import gate.plugin.evaluation.api.GateXmlAnnotationReader;
+import gate.plugin.evaluation.api.ThresholdsToUse;
+import gate.plugin.evaluation.resources.EvaluateTaggingBase;
+import gate.util.GateRuntimeException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Command line tool to evaluate tagging over a set of GATE XML files without loading
+ * the files as GATE documents. 
+ * <p>
+ * The files are read with the GateXmlAnnotationReader, which only creates the annotations 
+ * needed, on a pool of threads and the statistics are calculated with the same code as 
+ * used by the EvaluateTagging PR. The TSV file and the summary written to standard output
+ * have the same format as the ones from the PR, except that the document name is the 
+ * file name. Evaluation against a reference set, containing annotations, nil treatment and 
+ * indicator annotations are not supported.
+ * <p>
+ * Usage: <code>StreamingScorer [options] file-or-dir ...</code>, run without arguments 
+ * to see the options. For directories, all files ending in .xml or .xml.gz are used.
+ * 
+ * @author Johann Petrak
+ */
+public class StreamingScorer {
+  
+  protected String keySetName = "Key";
+  protected String responseSetName = "Response";
+  protected List<String> annotationTypes = Collections.singletonList("Mention");
+  protected List<String> featureNames = new ArrayList<>();
+  protected FeatureComparison featureComparison = FeatureComparison.FEATURE_EQUALITY;
+  protected String scoreFeatureName = "";
+  protected ThresholdsToUse whichThresholds = ThresholdsToUse.USE_ALL;
+  protected String evaluationId = "";
+  protected File outputFile = null;
+  protected int threads = Runtime.getRuntime().availableProcessors();
+  protected List<File> inputFiles = new ArrayList<>();
+  
+  // the number of documents per thread which may be evaluated before their results are needed
+  protected static final int PENDING_PER_THREAD = 2;
+  
+  public static final String USAGE = 
+          "Usage: StreamingScorer [options] file-or-dir ...\n" +
+          "  -k name   key annotation set name, default Key, empty for the default set\n" +
+          "  -r name   response annotation set name, default Response\n" +
+          "  -t types  comma separated annotation types, default Mention\n" +
+          "  -f names  comma separated feature names, default none\n" +
+          "  -c cmp    feature comparison, default FEATURE_EQUALITY\n" +
+          "  -s name   score feature name, default none\n" +
+          "  -w which  thresholds to use if there is a score feature, default USE_ALL\n" +
+          "  -i id     evaluation id, default none\n" +
+          "  -o file   TSV output file, default none\n" +
+          "  -j n      number of threads, default number of processors";
+  
+  public static void main(String[] args) {
+    StreamingScorer scorer = new StreamingScorer();
+    try {
+      scorer.parseArgs(args);
+    } catch(GateRuntimeException ex) {
+      System.err.println(ex.getMessage());
+      System.err.println(USAGE);
+      System.exit(1);
+    }
+    scorer.run(System.out);
+  }
+  
+  /**
+   * Set the options and input files from the command line arguments.
+   * @param args the arguments
+   */
+  public void parseArgs(String[] args) {
+    int i = 0;
+    while(i < args.length && args[i].startsWith("-") && args[i].length() == 2) {
+      String opt = args[i];
+      if(i + 1 >= args.length) {
+        throw new GateRuntimeException("Missing value for option "+opt);
+      }
+      String value = args[i + 1];
+      i += 2;
+      try {
+        switch(opt) {
+          case "-k": keySetName = value; break;
+          case "-r": responseSetName = value; break;
+          case "-t": annotationTypes = splitList(value); break;
+          case "-f": featureNames = splitList(value); break;
+          case "-c": featureComparison = FeatureComparison.valueOf(value); break;
+          case "-s": scoreFeatureName = value; break;
+          case "-w": whichThresholds = ThresholdsToUse.valueOf(value); break;
+          case "-i": evaluationId = value; break;
+          case "-o": outputFile = new File(value); break;
+          case "-j": threads = Integer.parseInt(value); break;
+          default: throw new GateRuntimeException("Unknown option "+opt);
+        }
+      } catch(IllegalArgumentException ex) {
+        throw new GateRuntimeException("Invalid value for option "+opt+": "+value);
+      }
+    }
+    if(annotationTypes.isEmpty()) {
+      throw new GateRuntimeException("List of annotation types to use is not specified or empty!");
+    }
+    if(new HashSet<>(featureNames).size() != featureNames.size()) {
+      throw new GateRuntimeException("Duplicate feature in the feature name list");
+    }
+    if(threads < 1) {
+      throw new GateRuntimeException("Number of threads must be at least 1");
+    }
+    for(; i < args.length; i++) {
+      addInput(new File(args[i]));
+    }
+    if(inputFiles.isEmpty()) {
+      throw new GateRuntimeException("No input files");
+    }
+  }
+  
+  private static List<String> splitList(String value) {
+    List<String> ret = new ArrayList<>();
+    for(String s : value.split(",")) {
+      if(!s.trim().isEmpty()) {
+        ret.add(s.trim());
+      }
+    }
+    return ret;
+  }
+  
+  protected void addInput(File file) {
+    if(file.isDirectory()) {
+      File[] files = file.listFiles((dir, name) -> name.endsWith(".xml") || name.endsWith(".xml.gz"));
+      Arrays.sort(files);
+      inputFiles.addAll(Arrays.asList(files));
+    } else if(file.exists()) {
+      inputFiles.add(file);
+    } else {
+      throw new GateRuntimeException("File does not exist: "+file);
+    }
+  }
+  
+  // the counts for one document: the key is the key type or "" for all types, as for 
+  // the maps in the PR
+  protected static class DocResult {
+    protected final String docName;
+    protected final List<String> types = new ArrayList<>();
+    protected final List<AnnotationTypeSpec> typeSpecs = new ArrayList<>();
+    protected final List<EvalStatsTagging> evalStats = new ArrayList<>();
+    protected final List<ByThEvalStatsTagging> byThresholds = new ArrayList<>();
+    protected DocResult(String docName) {
+      this.docName = docName;
+    }
+    protected void add(AnnotationTypeSpec typeSpec, EvalStatsTagging es, ByThEvalStatsTagging bth) {
+      types.add(typeSpec == null ? "" : typeSpec.getKeyType());
+      typeSpecs.add(typeSpec);
+      evalStats.add(es);
+      byThresholds.add(bth);
+    }
+  }
+  
+  /**
+   * Evaluate all the input files and output the results.
+   * @param out where to write the summary of the results 
+   */
+  public void run(PrintStream out) {
+    AnnotationTypeSpecs annotationTypeSpecs = new AnnotationTypeSpecs(annotationTypes);
+    Set<String> featureSet = new HashSet<>(featureNames);
+    boolean doScoreEvaluation = !scoreFeatureName.isEmpty();
+    Set<String> allTypes = new HashSet<>(annotationTypeSpecs.getKeyTypes());
+    allTypes.addAll(annotationTypeSpecs.getResponseTypes());
+    Set<String> readFeatures = new HashSet<>(featureSet);
+    if(doScoreEvaluation) {
+      readFeatures.add(scoreFeatureName);
+    }
+    GateXmlAnnotationReader reader = new GateXmlAnnotationReader(
+            new HashSet<>(Arrays.asList(keySetName, responseSetName)), allTypes, readFeatures);
+    
+    List<String> typesPlusEmpty = new ArrayList<>();
+    if(annotationTypes.size() > 1) {
+      typesPlusEmpty.add("");
+    }
+    typesPlusEmpty.addAll(annotationTypeSpecs.getKeyTypes());
+    Map<String, EvalStatsTagging> allDocumentsStats = new HashMap<>();
+    Map<String, ByThEvalStatsTagging> evalStatsByThreshold = new HashMap<>();
+    for(String t : typesPlusEmpty) {
+      allDocumentsStats.put(t, new EvalStatsTagging4Score(Double.NaN));
+      evalStatsByThreshold.put(t, new ByThEvalStatsTagging(whichThresholds));
+    }
+    
+    PrintStream tsv = null;
+    if(outputFile != null) {
+      try {
+        tsv = new PrintStream(new FileOutputStream(outputFile));
+      } catch (FileNotFoundException ex) {
+        throw new GateRuntimeException("Could not open output file "+outputFile,ex);
+      }
+      tsv.println(EvaluateTaggingBase.getTsvHeaderLine());
+    }
+    
+    // close the TSV file also if evaluating some file fails
+    try {
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try {
+        // Only submit a few documents per thread ahead of the one whose result is needed next,
+        // so the number of results waiting to be consumed does not grow with the number of files
+        int maxPending = threads * PENDING_PER_THREAD;
+        ArrayDeque<Future<DocResult>> pending = new ArrayDeque<>(maxPending);
+        int nSubmitted = 0;
+        // consume the results in the order of the files, so the output does not depend on 
+        // the number of threads
+        for(int i = 0; i < inputFiles.size(); i++) {
+          while(nSubmitted < inputFiles.size() && pending.size() < maxPending) {
+            File file = inputFiles.get(nSubmitted++);
+            pending.add(executor.submit(() -> evaluateDocument(file, reader, annotationTypeSpecs, 
+                    featureSet, doScoreEvaluation)));
+          }
+          DocResult result;
+          try {
+            result = pending.remove().get();
+          } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new GateRuntimeException("Interrupted", ex);
+          } catch(ExecutionException ex) {
+            throw new GateRuntimeException("Error evaluating "+inputFiles.get(i), ex.getCause());
+          }
+          for(int j = 0; j < result.types.size(); j++) {
+            String type = result.types.get(j);
+            allDocumentsStats.get(type).add(result.evalStats.get(j));
+            if(result.byThresholds.get(j) != null) {
+              evalStatsByThreshold.get(type).add(result.byThresholds.get(j));
+            }
+            if(tsv != null) {
+              AnnotationTypeSpec typeSpec = result.typeSpecs.get(j);
+              tsv.println(EvaluateTaggingBase.tsvLine(evaluationId, "normal", result.docName, 
+                      responseSetName, typeSpec == null ? null : typeSpec.toString(), result.evalStats.get(j)));
+            }
+          }
+        }
+      } finally {
+        executor.shutdownNow();
+      }
+    
+      // output the results over all documents in the same way as EvaluateTagging does
+      for(AnnotationTypeSpec typeSpec : annotationTypeSpecs.getSpecs()) {
+        EvalStatsTagging es = allDocumentsStats.get(typeSpec.getKeyType());
+        EvaluateTaggingBase.outputEvalStatsForType(out, es, typeSpec.toString(), responseSetName, evaluationId);
+        outputResult(tsv, "normal", typeSpec.toString(), es);
+        if(doScoreEvaluation) {
+          ByThEvalStatsTagging bthes = evalStatsByThreshold.get(typeSpec.getKeyType());
+          for(double th : bthes.getByThresholdEvalStats().navigableKeySet()) {
+            EvaluateTaggingBase.outputEvalStatsForType(out, bthes.get(th), typeSpec.toString(), responseSetName, evaluationId);
+            outputResult(tsv, "score", typeSpec.toString(), bthes.get(th));
+          }
+        }
+      }
+      if(annotationTypeSpecs.size() > 1) {
+        EvaluateTaggingBase.outputEvalStatsForType(out, allDocumentsStats.get(""), "all(micro)", responseSetName, evaluationId);
+        outputResult(tsv, "normal", null, allDocumentsStats.get(""));
+        if(doScoreEvaluation) {
+          ByThEvalStatsTagging bthes = evalStatsByThreshold.get("");
+          for(double th : bthes.getByThresholdEvalStats().navigableKeySet()) {
+            EvaluateTaggingBase.outputEvalStatsForType(out, bthes.get(th), "all(micro)", responseSetName, evaluationId);
+            outputResult(tsv, "score", null, bthes.get(th));
+          }
+        }
+        EvalStatsTaggingMacro esm = new EvalStatsTaggingMacro();
+        for(String type : annotationTypeSpecs.getKeyTypes()) {
+          esm.add(allDocumentsStats.get(type));
+        }
+        EvaluateTaggingBase.outputEvalStatsForType(out, esm, "all(macro)", responseSetName, evaluationId);
+        outputResult(tsv, "normal", null, esm);
+      }
+    } finally {
+      if(tsv != null) {
+        tsv.close();
+      }
+    }
+  }
+  
+  private void outputResult(PrintStream tsv, String evalType, String typeName, EvalStatsTagging es) {
+    if(tsv != null) {
+      tsv.println(EvaluateTaggingBase.tsvLine(evaluationId, evalType, null, responseSetName, typeName, es));
+    }
+  }
+  
+  /**
+   * Evaluate a single file in the same way as EvaluateTagging does for a document.
+   * This runs on the threads of the pool.
+   * @param file the file
+   * @param reader the reader
+   * @param annotationTypeSpecs the type specifications
+   * @param featureSet the features to compare
+   * @param doScoreEvaluation if the counts by threshold should be calculated
+   * @return the counts
+   */
+  protected DocResult evaluateDocument(File file, GateXmlAnnotationReader reader, 
+          AnnotationTypeSpecs annotationTypeSpecs, Set<String> featureSet, boolean doScoreEvaluation) {
+    Map<String, Map<String, List<Annotation>>> sets = reader.read(file);
+    Map<String, List<Annotation>> keysByType = sets.get(keySetName);
+    Map<String, List<Annotation>> responsesByType = sets.get(responseSetName);
+    DocResult result = new DocResult(file.getName());
+    AnnotationDifferTagging allTypesDiffer = null;
+    if(annotationTypes.size() > 1) {
+      AnnotationSet keySet = annotationSetForTypes(keysByType, annotationTypeSpecs.getKeyTypes());
+      AnnotationSet responseSet = annotationSetForTypes(responsesByType, annotationTypeSpecs.getResponseTypes());
+      allTypesDiffer = AnnotationDifferTagging.calculateForAllTypes(
+              keySet, responseSet, featureSet, featureComparison, annotationTypeSpecs);
+      result.add(null, allTypesDiffer.getEvalStatsTagging(), 
+              byThreshold(keySet, responseSet, featureSet, annotationTypeSpecs, doScoreEvaluation));
+    }
+    for(AnnotationTypeSpec typeSpec : annotationTypeSpecs.getSpecs()) {
+      AnnotationSet keySet = annotationSetForTypes(keysByType, Collections.singleton(typeSpec.getKeyType()));
+      AnnotationSet responseSet = annotationSetForTypes(responsesByType, Collections.singleton(typeSpec.getResponseType()));
+      AnnotationDifferTagging docDiffer;
+      if(allTypesDiffer != null) {
+        docDiffer = allTypesDiffer.getDifferForType(typeSpec);
+      } else {
+        docDiffer = new AnnotationDifferTagging(
+                keySet, responseSet, featureSet, featureComparison, annotationTypeSpecs);
+      }
+      result.add(typeSpec, docDiffer.getEvalStatsTagging(), 
+              byThreshold(keySet, responseSet, featureSet, annotationTypeSpecs, doScoreEvaluation));
+    }
+    return result;
+  }
+  
+  private ByThEvalStatsTagging byThreshold(AnnotationSet keySet, AnnotationSet responseSet, 
+          Set<String> featureSet, AnnotationTypeSpecs annotationTypeSpecs, boolean doScoreEvaluation) {
+    if(!doScoreEvaluation) {
+      return null;
+    }
+    return AnnotationDifferTagging.calculateByThEvalStatsTagging(
+            keySet, responseSet, featureSet, featureComparison, scoreFeatureName, 
+            whichThresholds, new ByThEvalStatsTagging(whichThresholds), annotationTypeSpecs);
+  }
+  
+  private static AnnotationSet annotationSetForTypes(Map<String, List<Annotation>> partitions, Collection<String> types) {
+    List<Annotation> anns = new ArrayList<>();
+    for(String type : types) {
+      anns.addAll(partitions.get(type));
+    }
+    return new ImmutableAnnotationSetImpl(null, anns);
+  }
+  
+}
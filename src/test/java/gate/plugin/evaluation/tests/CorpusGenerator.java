@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.tests;
+
+import gate.AnnotationSet;
+import gate.Document;
+import gate.Factory;
+import gate.FeatureMap;
+import gate.Utils;
+import gate.creole.ResourceInstantiationException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generator for synthetic in-memory documents with key, response and list annotations.
+ * <p>
+ * This is used for scaling tests and the benchmarks: unlike the fixed test corpora it allows to
+ * control the number of annotations, how often responses are missing, spurious, have wrong
+ * boundaries or wrong feature values, how deeply annotations are nested, how many different 
+ * feature values and scores there are, and how long candidate lists are.
+ * <p>
+ * Each key annotation is placed into its own slot of text, so the number of keys determines
+ * the document length. For each key, a response is created with probability responseRate: 
+ * with probability boundaryNoiseRate the response gets a shifted start or end offset, with
+ * probability valueNoiseRate it gets a different value for the id feature. 
+ * In addition, with probability spuriousRate a spurious response which does not overlap
+ * with any key is created for each slot.
+ * <p>
+ * If listSetName is not null and listLength is bigger than 0, a list annotation is created 
+ * in that set for each slot which gets a response, together with listLength element annotations
+ * that are referenced from the list annotation through a feature that contains the list of 
+ * element annotation ids. This is the representation expected by EvaluateTagging4Lists.
+ * Unless there is value noise, one of the elements has the correct id, the rank of the
+ * correct element is geometrically distributed, starting at rank 0. 
+ * <p>
+ * All settings have fluent setters, so a generator can be configured like this:
+ * <pre>
+ * Document doc = new CorpusGenerator().nKeys(1000).responseRate(0.9).listLength(20).generate();
+ * </pre>
+ * The same settings (including the seed) always create the same documents.
+ * 
+ * @author Johann Petrak
+ */
+public class CorpusGenerator {
+  
+  /** How scores get assigned to responses and list elements. */
+  public static enum ScoreDistribution { 
+    /** Scores are uniformly distributed in [0,1) irrespective of correctness. */
+    UNIFORM, 
+    /** Scores of correct responses tend to be higher than those of incorrect ones. */
+    INFORMATIVE 
+  }
+  
+  private long seed = 1L;
+  private int nKeys = 100;
+  private List<String> types = Arrays.asList("Mention");
+  private String keySetName = "Key";
+  private String responseSetName = "Response";
+  private String listSetName = null;
+  private double responseRate = 0.8;
+  private double boundaryNoiseRate = 0.1;
+  private double valueNoiseRate = 0.1;
+  private double spuriousRate = 0.1;
+  private int nestingDepth = 0;
+  private int valueCardinality = 100;
+  private String idFeature = "id";
+  private String scoreFeature = "score";
+  private ScoreDistribution scoreDistribution = ScoreDistribution.UNIFORM;
+  private int nDistinctScores = 0;
+  private int listLength = 0;
+  private double rankDecay = 0.5;
+  private String listType = "LookupList";
+  private String elementType = "Lookup";
+  private String edgeFeature = "ids";
+  
+  /** Number of characters used for each key slot, without the space needed for nesting. */
+  private static final int SLOT_WIDTH = 12;
+  
+  public CorpusGenerator seed(long value) { seed = value; return this; }
+  public CorpusGenerator nKeys(int value) { nKeys = value; return this; }
+  /** 
+   * Annotation types to use, each key gets a random type from this list.
+   * @param value types
+   * @return this generator
+   */
+  public CorpusGenerator types(String... value) { types = Arrays.asList(value); return this; }
+  public CorpusGenerator keySetName(String value) { keySetName = value; return this; }
+  /**
+   * Set name for plain responses, if null, no plain responses are created.
+   * @param value set name
+   * @return this generator
+   */
+  public CorpusGenerator responseSetName(String value) { responseSetName = value; return this; }
+  /**
+   * Set name for list and element annotations, if null (the default), no lists are created.
+   * @param value set name
+   * @return this generator
+   */
+  public CorpusGenerator listSetName(String value) { listSetName = value; return this; }
+  public CorpusGenerator responseRate(double value) { responseRate = value; return this; }
+  public CorpusGenerator boundaryNoiseRate(double value) { boundaryNoiseRate = value; return this; }
+  public CorpusGenerator valueNoiseRate(double value) { valueNoiseRate = value; return this; }
+  public CorpusGenerator spuriousRate(double value) { spuriousRate = value; return this; }
+  /**
+   * Number of additional, nested key annotations inside each key annotation.
+   * Each nested annotation is one character shorter at each side than its parent and gets its
+   * own response, with the same noise rates.
+   * @param value depth
+   * @return this generator
+   */
+  public CorpusGenerator nestingDepth(int value) { nestingDepth = value; return this; }
+  public CorpusGenerator valueCardinality(int value) { valueCardinality = value; return this; }
+  public CorpusGenerator idFeature(String value) { idFeature = value; return this; }
+  /**
+   * Name of the score feature, if null, no scores are added.
+   * @param value feature name
+   * @return this generator
+   */
+  public CorpusGenerator scoreFeature(String value) { scoreFeature = value; return this; }
+  public CorpusGenerator scoreDistribution(ScoreDistribution value) { scoreDistribution = value; return this; }
+  /**
+   * Number of distinct score values, if 0 (the default) scores are continuous.
+   * @param value number of scores
+   * @return this generator
+   */
+  public CorpusGenerator nDistinctScores(int value) { nDistinctScores = value; return this; }
+  public CorpusGenerator listLength(int value) { listLength = value; return this; }
+  /**
+   * Probability that the correct element is not at the current rank but further down the list.
+   * @param value probability
+   * @return this generator
+   */
+  public CorpusGenerator rankDecay(double value) { rankDecay = value; return this; }
+  public CorpusGenerator listType(String value) { listType = value; return this; }
+  public CorpusGenerator elementType(String value) { elementType = value; return this; }
+  public CorpusGenerator edgeFeature(String value) { edgeFeature = value; return this; }
+  
+  /**
+   * Generate a single document, using the configured seed.
+   * @return document
+   * @throws ResourceInstantiationException  if the document cannot be created
+   */
+  public Document generate() throws ResourceInstantiationException {
+    return generate(new Random(seed), "gen-"+seed);
+  }
+  
+  /**
+   * Generate a number of documents. 
+   * Each document gets its own seed derived from the configured seed, so any single document
+   * does not depend on how many documents get generated.
+   * @param n number of documents
+   * @return list of documents
+   * @throws ResourceInstantiationException if a document cannot be created
+   */
+  public List<Document> generate(int n) throws ResourceInstantiationException {
+    List<Document> ret = new ArrayList<Document>(n);
+    for(int i = 0; i < n; i++) {
+      ret.add(generate(new Random(seed*31+i), "gen-"+seed+"-"+i));
+    }
+    return ret;
+  }
+  
+  protected Document generate(Random rnd, String name) throws ResourceInstantiationException {
+    int slotWidth = SLOT_WIDTH + 2*nestingDepth;
+    Document doc = Factory.newDocument(new String(new char[nKeys*slotWidth+slotWidth]).replace("\0", " "));
+    doc.setName(name);
+    AnnotationSet keys = doc.getAnnotations(keySetName);
+    AnnotationSet responses = responseSetName == null ? null : doc.getAnnotations(responseSetName);
+    AnnotationSet lists = (listSetName == null || listLength <= 0) ? null : doc.getAnnotations(listSetName);
+    for(int i = 0; i < nKeys; i++) {
+      long slotStart = (long)i*slotWidth;
+      // the outermost key is at least 2*nestingDepth+2 long and leaves room for a 
+      // shifted response end and a spurious response in the slot
+      long from = slotStart + 1;
+      long to = from + 2*nestingDepth + 2 + rnd.nextInt(SLOT_WIDTH-7);
+      String type = types.get(rnd.nextInt(types.size()));
+      for(int level = 0; level <= nestingDepth; level++) {
+        String value = "v"+rnd.nextInt(valueCardinality);
+        Utils.addAnn(keys, from+level, to-level, type, Utils.featureMap(idFeature, value));
+        if(rnd.nextDouble() < responseRate) {
+          addResponse(rnd, responses, lists, from+level, to-level, type, value);
+        }
+      }
+      if(rnd.nextDouble() < spuriousRate) {
+        // the spurious response goes into the free space at the end of the slot
+        long end = slotStart + slotWidth;
+        addResponse(rnd, responses, lists, end-2, end-1, type, "v"+rnd.nextInt(valueCardinality));
+      }
+    }
+    return doc;
+  }
+  
+  protected void addResponse(Random rnd, AnnotationSet responses, AnnotationSet lists, 
+          long from, long to, String type, String keyValue) {
+    if(rnd.nextDouble() < boundaryNoiseRate) {
+      if(rnd.nextBoolean()) { from -= 1; } else { to += 1; }
+    }
+    boolean correct = rnd.nextDouble() >= valueNoiseRate;
+    String value = correct ? keyValue : otherValue(rnd, keyValue);
+    if(responses != null) {
+      FeatureMap fm = Utils.featureMap(idFeature, value);
+      if(scoreFeature != null) {
+        fm.put(scoreFeature, score(rnd, correct));
+      }
+      Utils.addAnn(responses, from, to, type, fm);
+    }
+    if(lists != null) {
+      // the rank at which the correct value appears, or -1 if there is none
+      int correctRank = -1;
+      if(correct) {
+        correctRank = 0;
+        while(correctRank < listLength-1 && rnd.nextDouble() < rankDecay) {
+          correctRank++;
+        }
+      }
+      // create the scores first and sort them descending so that the position in the 
+      // list corresponds to the rank after sorting by score
+      double[] scores = new double[listLength];
+      for(int j = 0; j < listLength; j++) {
+        scores[j] = score(rnd, false);
+      }
+      Arrays.sort(scores);
+      List<Integer> ids = new ArrayList<Integer>(listLength);
+      for(int j = 0; j < listLength; j++) {
+        String elValue = j == correctRank ? keyValue : otherValue(rnd, keyValue);
+        FeatureMap fm = Utils.featureMap(idFeature, elValue);
+        if(scoreFeature != null) {
+          fm.put(scoreFeature, scores[listLength-1-j]);
+        }
+        ids.add(Utils.addAnn(lists, from, to, elementType, fm));
+      }
+      Utils.addAnn(lists, from, to, listType, Utils.featureMap(edgeFeature, ids));
+    }
+  }
+  
+  protected String otherValue(Random rnd, String value) {
+    if(valueCardinality < 2) {
+      return value+"x";
+    }
+    String other = value;
+    while(other.equals(value)) {
+      other = "v"+rnd.nextInt(valueCardinality);
+    }
+    return other;
+  }
+  
+  protected double score(Random rnd, boolean correct) {
+    double u = rnd.nextDouble();
+    if(scoreDistribution == ScoreDistribution.INFORMATIVE) {
+      // skew towards 1 for correct, towards 0 for incorrect responses
+      u = correct ? Math.sqrt(u) : 1.0 - Math.sqrt(1.0 - u);
+      u = Math.min(u, Math.nextDown(1.0));
+    }
+    if(nDistinctScores > 0) {
+      u = Math.floor(u * nDistinctScores) / nDistinctScores;
+    }
+    return u;
+  }
+  
+}
@@ -30,6 +30,20 @@ import org.junit.runners.Suite;
 @Suite.SuiteClasses({
   TestTagging1.class,
   TestTagging2.class,
+  TestSharding.class,
+  TestEvaluationMetrics.class,
+  TestPartitionByType.class,
+  TestIndicatorAnnotationBuffer.class,
+  TestResultSinks.class,
+  TestClassification.class,
+  TestCandidateListIndex.class,
+  TestRankHistogram.class,
+  TestListDiffCache.class,
+  TestParallelThresholds.class,
+  TestResultCache.class,
+  TestIncrementalEvaluator.class,
+  TestGateXmlAnnotationReader.class,
+  TestStreamingScorer.class,
   //TestTagging3.class,
   //TestTagging4.class
 })
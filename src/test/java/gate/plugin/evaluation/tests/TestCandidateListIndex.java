@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.tests;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.Document;
+import gate.plugin.evaluation.api.AnnotationDifferTagging;
+import gate.plugin.evaluation.api.AnnotationDifferTagging.CandidateList;
+import gate.plugin.evaluation.api.CandidateListIndex;
+import gate.plugin.evaluation.resources.EvaluateMaxRecall;
+import gate.test.GATEPluginTests;
+import gate.util.GateException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import static gate.Utils.*;
+import static gate.plugin.evaluation.tests.TestUtils.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for finding the candidate lists which overlap a target through the CandidateListIndex.
+ * 
+ * @author Johann Petrak
+ */
+public class TestCandidateListIndex extends GATEPluginTests {
+
+  @Before
+  public void setup() throws GateException {
+    initGate();
+  }
+  
+  private static List<CandidateList> candidateLists(Document doc) {
+    AnnotationSet lists = doc.getAnnotations("Lists");
+    return AnnotationDifferTagging.createCandidateLists(lists, lists.get("LookupList"), "ids", "", 
+            "Lookup", false, "", "id");
+  }
+  
+  @Test
+  public void testCandidateListIndexOverlapping01() throws Exception {
+    List<Document> docs = new CorpusGenerator().seed(21).nKeys(30).nestingDepth(2)
+            .boundaryNoiseRate(0.3).listSetName("Lists").listLength(3).generate(3);
+    Random rnd = new Random(21);
+    for(Document doc : docs) {
+      List<CandidateList> candLists = candidateLists(doc);
+      CandidateListIndex index = new CandidateListIndex(candLists);
+      assertEquals("Overlapping01, size",candLists.size(),index.size());
+      long length = doc.getContent().size();
+      List<long[]> spans = new ArrayList<>();
+      for(Annotation key : doc.getAnnotations("Key")) {
+        spans.add(new long[] { start(key), end(key) });
+      }
+      // random spans, including empty ones and spans at the ends of the document
+      for(int i = 0; i < 200; i++) {
+        long from = (long)rnd.nextInt((int)length + 1);
+        long to = Math.min(length, from + rnd.nextInt(20));
+        spans.add(new long[] { from, to });
+      }
+      for(long[] span : spans) {
+        List<CandidateList> expected = new ArrayList<>();
+        for(CandidateList cl : candLists) {
+          Annotation listAnn = cl.getListAnnotation();
+          if(start(listAnn) < span[1] && end(listAnn) > span[0]) {
+            expected.add(cl);
+          }
+        }
+        List<CandidateList> actual = index.getOverlapping(span[0], span[1]);
+        assertEquals("Overlapping01, number for "+span[0]+"-"+span[1],expected.size(),actual.size());
+        assertTrue("Overlapping01, lists for "+span[0]+"-"+span[1],actual.containsAll(expected));
+        for(int i = 1; i < actual.size(); i++) {
+          assertTrue("Overlapping01, order",
+                  start(actual.get(i-1).getListAnnotation()) <= start(actual.get(i).getListAnnotation()));
+        }
+      }
+    }
+  }
+  
+  @Test
+  public void testCandidateListIndexMaxRecall01() throws Exception {
+    // the max recall counts must be the same as when checking all lists and all candidates
+    // of each list for each key, without an index and without stopping at the first strict match
+    List<Document> docs = new CorpusGenerator().seed(23).nKeys(40).nestingDepth(2)
+            .boundaryNoiseRate(0.3).valueNoiseRate(0.3).listSetName("Lists").listLength(6).generate(4);
+    int targets = 0;
+    int targetsWithList = 0;
+    List<Integer> strictByRank = new ArrayList<>();
+    List<Integer> lenientByRank = new ArrayList<>();
+    for(Document doc : docs) {
+      List<CandidateList> candLists = candidateLists(doc);
+      for(Annotation key : doc.getAnnotations("Key").get("Mention")) {
+        targets++;
+        int strict = Integer.MAX_VALUE;
+        int lenient = Integer.MAX_VALUE;
+        boolean haveList = false;
+        for(CandidateList cl : candLists) {
+          if(!cl.getListAnnotation().overlaps(key)) {
+            continue;
+          }
+          haveList = true;
+          for(int i = 0; i < cl.sizeAll(); i++) {
+            Annotation resp = cl.get(i);
+            if(resp.overlaps(key) && AnnotationDifferTagging.isAnnotationsMatch(key, resp, FS_ID, FC_EQU, true, null)) {
+              lenient = Math.min(lenient, i);
+              if(resp.coextensive(key)) {
+                strict = Math.min(strict, i);
+              }
+            }
+          }
+        }
+        if(haveList) {
+          targetsWithList++;
+        }
+        if(lenient < Integer.MAX_VALUE) {
+          increment(lenientByRank, lenient);
+        }
+        if(strict < Integer.MAX_VALUE) {
+          increment(strictByRank, strict);
+        }
+      }
+    }
+    EvaluateMaxRecall pr = newPR(EvaluateMaxRecall.class, 
+            "keyType", "Mention", "listType", "LookupList", "elementType", "Lookup", 
+            "edgeFeatureName", "ids", "keyASName", "Key", "responseASName", "Lists", 
+            "featureNames", FL_ID);
+    runETPR(pr, docs.toArray(new Document[0]));
+    assertTrue("MaxRecall01, have strict matches below rank 0",strictByRank.size() > 1);
+    assertEquals("MaxRecall01, targets",targets,pr.getTargets());
+    assertEquals("MaxRecall01, targets with list",targetsWithList,pr.getTargetsWithList());
+    assertEquals("MaxRecall01, strict by rank",strictByRank,pr.getCorrectStrictByRank());
+    List<Double> lenientRecall = pr.getMaxRecallLenientByRank();
+    assertEquals("MaxRecall01, lenient ranks",lenientByRank.size(),lenientRecall.size());
+    int cumulative = 0;
+    for(int i = 0; i < lenientByRank.size(); i++) {
+      cumulative += lenientByRank.get(i);
+      assertEquals("MaxRecall01, lenient recall at "+i,(double)cumulative/targets,lenientRecall.get(i),EPS);
+    }
+  }
+  
+  private static void increment(List<Integer> counts, int rank) {
+    while(counts.size() <= rank) {
+      counts.add(0);
+    }
+    counts.set(rank, counts.get(rank) + 1);
+  }
+  
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.tests;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.Document;
+import gate.plugin.evaluation.api.AnnotationDifferClassification;
+import gate.plugin.evaluation.api.ConfusionMatrix;
+import gate.plugin.evaluation.api.ResultSinkType;
+import gate.plugin.evaluation.resources.EvaluateClassification;
+import gate.test.GATEPluginTests;
+import gate.util.GateException;
+import gate.util.GateRuntimeException;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.junit.Before;
+import org.junit.Test;
+import static gate.Utils.*;
+import static gate.plugin.evaluation.tests.TestUtils.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the evaluation of classification: the confusion matrix and kappas.
+ * 
+ * @author Johann Petrak
+ */
+public class TestClassification extends GATEPluginTests {
+
+  @Before
+  public void setup() throws GateException {
+    initGate();
+  }
+  
+  // Keys and responses in sets "Keys" and "Resp" with the class label in feature "c":
+  // x/x, x/y, y/y, y/y
+  private static Document newClassificationD() throws Exception {
+    Document doc = newD();
+    addA(doc,"Keys",0,10,"M",featureMap("c","x"));
+    addA(doc,"Keys",10,20,"M",featureMap("c","x"));
+    addA(doc,"Keys",20,30,"M",featureMap("c","y"));
+    addA(doc,"Keys",30,40,"M",featureMap("c","y"));
+    addA(doc,"Resp",0,10,"M",featureMap("c","x"));
+    addA(doc,"Resp",10,20,"M",featureMap("c","y"));
+    addA(doc,"Resp",20,30,"M",featureMap("c","y"));
+    addA(doc,"Resp",30,40,"M",featureMap("c","y"));
+    return doc;
+  }
+  
+  private static AnnotationDifferClassification differFor(Document doc) {
+    AnnotationDifferClassification differ = new AnnotationDifferClassification();
+    differ.calculateConfusionMatrix(doc.getAnnotations("Keys"), doc.getAnnotations("Resp"), "M", "c", false);
+    return differ;
+  }
+  
+  private static EvaluateClassification newClassificationPR(Object... nameValues) throws Exception {
+    List<Object> all = new ArrayList<>(Arrays.asList(
+            "annotationType", "M", "classFeatureName", "c", "keyASName", "Keys", "responseASName", "Resp"));
+    all.addAll(Arrays.asList(nameValues));
+    return newPR(EvaluateClassification.class, all.toArray());
+  }
+  
+  @Test
+  public void testClassificationMatrix01() throws Exception {
+    // the accumulated confusion matrix must give the same kappas as the classification differ
+    AnnotationDifferClassification differ = differFor(newClassificationD());
+    ConfusionMatrix cm = new ConfusionMatrix();
+    cm.add(differ);
+    assertEquals("Matrix01, total",4,cm.getTotal());
+    assertEquals("Matrix01, x/y",1,cm.getCount("x","y"));
+    assertEquals("Matrix01, kappa cohen",differ.getKappaCohen(),cm.getKappaCohen(),EPS4);
+    assertEquals("Matrix01, kappa pi",differ.getKappaPi(),cm.getKappaPi(),EPS4);
+    assertEquals("Matrix01, precision y",2.0/3.0,cm.getPrecision("y"),EPS);
+    assertEquals("Matrix01, recall x",0.5,cm.getRecall("x"),EPS);
+    assertEquals("Matrix01, F macro",(2.0/3.0+0.8)/2.0,cm.getFMeasureMacro(),EPS);
+    List<ConfusionMatrix.Entry> top = cm.getTopEntries(5, false);
+    assertEquals("Matrix01, number of confusions",1,top.size());
+    assertEquals("Matrix01, confusion","x/y=1",top.get(0).toString());
+    assertEquals("Matrix01, confusion rows",4,differ.getConfusionMatrix("t",5).size());
+  }
+  
+  @Test
+  public void testClassificationPR01() throws Exception {
+    Document doc1 = newClassificationD();
+    Document doc2 = newClassificationD();
+    File dir = Files.createTempDirectory("evalcls").toFile();
+    EvaluateClassification pr = newClassificationPR(
+            "evaluationId", "cls", "outputDirectoryUrl", dir.toURI().toURL());
+    PrintStream out = System.out;
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(bytes, true, "UTF-8"));
+    try {
+      runETPR(pr, doc1, doc2);
+    } finally {
+      System.setOut(out);
+    }
+    ConfusionMatrix cm = pr.getConfusionMatrix();
+    assertEquals("PR01, total",8,cm.getTotal());
+    assertEquals("PR01, agreed",6,cm.getAgreed());
+    assertEquals("PR01, x/y",2,cm.getCount("x","y"));
+    assertEquals("PR01, doc kappa",
+            differFor(doc1).getKappaCohen(),
+            ((Number)doc1.getFeatures().get("evaluateClassification.cls.Resp.kappaCohen")).doubleValue(),EPS4);
+    // only the TSV file gets written, there is no result sink
+    assertEquals("PR01, files",Arrays.asList("cls-classification.tsv"),Arrays.asList(dir.list()));
+    List<String> lines = Files.readAllLines(new File(dir, "cls-classification.tsv").toPath());
+    // header, two labels, micro and macro
+    assertEquals("PR01, lines",5,lines.size());
+    String stdout = new String(bytes.toByteArray(), "UTF-8");
+    assertTrue("PR01, micro line",stdout.contains("cls Micro Precision/Recall/F1.0: 0.75/0.75/0.75"));
+  }
+  
+  @Test
+  public void testClassificationParameters01() throws Exception {
+    Object[][] unused = new Object[][] { 
+      { "referenceASName", "Ref" },
+      { "featureNames", FL_ID },
+      { "scoreFeatureName", "score" },
+      { "outputASPrefix", "Out" },
+      { "resultSinkType", ResultSinkType.JSONL },
+    };
+    for(Object[] nameValue : unused) {
+      EvaluateClassification pr = newClassificationPR(nameValue);
+      try {
+        runETPR(pr, newClassificationD());
+        fail("Parameters01, no exception for "+nameValue[0]);
+      } catch(GateRuntimeException ex) {
+        assertTrue("Parameters01, message for "+nameValue[0],ex.getMessage().contains((String)nameValue[0]));
+      }
+    }
+  }
+  
+  // The pairs counted by comparing every annotation with every other annotation, the way
+  // the confusion matrix was originally calculated: annotations in the first set which have 
+  // the same span as another one in that set, which have no coextensive annotation in the 
+  // second set or more than one are ignored. The map is from "label1/label2" to count.
+  private static Map<String, Integer> expectedPairs(AnnotationSet set1, AnnotationSet set2, String feature) {
+    Map<String, Integer> ret = new TreeMap<>();
+    for(Annotation ann1 : set1) {
+      boolean dupe = false;
+      for(Annotation other : set1) {
+        if(!other.equals(ann1) && other.coextensive(ann1)) {
+          dupe = true;
+        }
+      }
+      if(dupe) {
+        continue;
+      }
+      List<Annotation> coextensive = new ArrayList<>();
+      for(Annotation ann2 : set2) {
+        if(ann2.coextensive(ann1)) {
+          coextensive.add(ann2);
+        }
+      }
+      if(coextensive.size() == 1) {
+        String pair = ann1.getFeatures().get(feature)+"/"+coextensive.get(0).getFeatures().get(feature);
+        Integer n = ret.get(pair);
+        ret.put(pair, n == null ? 1 : n+1);
+      }
+    }
+    return ret;
+  }
+  
+  private static Map<String, Integer> actualPairs(AnnotationDifferClassification differ) {
+    Map<String, Integer> ret = new TreeMap<>();
+    List<String> labels = new ArrayList<>(differ.getFeatureValues());
+    float[][] matrix = differ.getConfusionMatrix();
+    for(int i = 0; i < labels.size(); i++) {
+      for(int j = 0; j < labels.size(); j++) {
+        if(matrix[i][j] > 0) {
+          ret.put(labels.get(i)+"/"+labels.get(j), (int)matrix[i][j]);
+        }
+      }
+    }
+    return ret;
+  }
+  
+  private static TreeSet<String> labelsOf(Map<String, Integer> pairs) {
+    TreeSet<String> ret = new TreeSet<>();
+    for(String pair : pairs.keySet()) {
+      String[] labels = pair.split("/");
+      ret.add(labels[0]);
+      ret.add(labels[1]);
+    }
+    return ret;
+  }
+  
+  @Test
+  public void testClassificationSpans01() throws Exception {
+    Document doc = newD();
+    // duplicate span in the first set: both ignored
+    addA(doc,"Keys",0,10,"M",featureMap("c","x"));
+    addA(doc,"Keys",0,10,"M",featureMap("c","y"));
+    addA(doc,"Resp",0,10,"M",featureMap("c","x"));
+    // duplicate span in the second set: ignored
+    addA(doc,"Keys",10,20,"M",featureMap("c","x"));
+    addA(doc,"Resp",10,20,"M",featureMap("c","x"));
+    addA(doc,"Resp",10,20,"M",featureMap("c","z"));
+    // counted
+    addA(doc,"Keys",20,30,"M",featureMap("c","x"));
+    addA(doc,"Resp",20,30,"M",featureMap("c","y"));
+    addA(doc,"Keys",30,40,"M",featureMap("c","y"));
+    addA(doc,"Resp",30,40,"M",featureMap("c","y"));
+    // no counterpart in the second set, or only overlapping: ignored
+    addA(doc,"Keys",40,50,"M",featureMap("c","w"));
+    addA(doc,"Keys",50,60,"M",featureMap("c","w"));
+    addA(doc,"Resp",51,60,"M",featureMap("c","w"));
+    // no counterpart in the first set: ignored
+    addA(doc,"Resp",60,70,"M",featureMap("c","v"));
+    AnnotationDifferClassification differ = new AnnotationDifferClassification();
+    differ.calculateConfusionMatrix(doc.getAnnotations("Keys"), doc.getAnnotations("Resp"), "M", "c", false);
+    Map<String, Integer> expected = new TreeMap<>();
+    expected.put("x/y", 1);
+    expected.put("y/y", 1);
+    assertEquals("Spans01, pairs",expected,actualPairs(differ));
+    assertEquals("Spans01, pairs old",expectedPairs(doc.getAnnotations("Keys"), doc.getAnnotations("Resp"), "c"),
+            actualPairs(differ));
+    assertEquals("Spans01, labels",labelsOf(expected),differ.getFeatureValues());
+    assertEquals("Spans01, total",2.0f,differ.getTotalTrials(),EPS);
+    assertEquals("Spans01, agreed",1.0f,differ.getAgreedTrials(),EPS);
+  }
+  
+  @Test
+  public void testClassificationSpans02() throws Exception {
+    // random sets with many duplicate spans and annotations without a counterpart must 
+    // give the same counts as comparing all pairs of annotations
+    Random rnd = new Random(17);
+    for(int run = 0; run < 20; run++) {
+      Document doc = newD();
+      for(int i = 0; i < 60; i++) {
+        int from = rnd.nextInt(30)*10;
+        int to = from + 5 + rnd.nextInt(2)*5;
+        addA(doc,"Keys",from,to,"M",featureMap("c","l"+rnd.nextInt(4)));
+        if(rnd.nextDouble() < 0.7) {
+          addA(doc,"Resp",from,to,"M",featureMap("c","l"+rnd.nextInt(4)));
+        } else {
+          from = rnd.nextInt(30)*10;
+          addA(doc,"Resp",from,from+5,"M",featureMap("c","l"+rnd.nextInt(4)));
+        }
+      }
+      AnnotationSet keys = doc.getAnnotations("Keys");
+      AnnotationSet resps = doc.getAnnotations("Resp");
+      AnnotationDifferClassification differ = new AnnotationDifferClassification();
+      differ.calculateConfusionMatrix(keys, resps, "M", "c", false);
+      Map<String, Integer> expected = expectedPairs(keys, resps, "c");
+      assertEquals("Spans02, pairs run "+run,expected,actualPairs(differ));
+      assertEquals("Spans02, labels run "+run,labelsOf(expected),differ.getFeatureValues());
+      // and the other way round
+      differ = new AnnotationDifferClassification();
+      differ.calculateConfusionMatrix(resps, keys, "M", "c", false);
+      assertEquals("Spans02, reverse pairs run "+run,expectedPairs(resps, keys, "c"),actualPairs(differ));
+    }
+  }
+  
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.tests;
+
+import gate.Document;
+import gate.plugin.evaluation.resources.EvaluateTagging;
+import gate.plugin.evaluation.resources.EvaluateTagging4Lists;
+import gate.plugin.evaluation.resources.EvaluationMetrics;
+import gate.test.GATEPluginTests;
+import gate.util.GateException;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import static gate.plugin.evaluation.tests.TestUtils.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the timings and counters of the evaluation PRs.
+ * 
+ * @author Johann Petrak
+ */
+public class TestEvaluationMetrics extends GATEPluginTests {
+
+  @Before
+  public void setup() throws GateException {
+    initGate();
+  }
+  
+  @Test
+  public void testEvaluationMetricsCounters01() {
+    EvaluationMetrics m = new EvaluationMetrics();
+    long docStart = m.startDocument();
+    m.stop(EvaluationMetrics.Phase.DIFF, m.start());
+    m.stop(EvaluationMetrics.Phase.DIFF, m.start());
+    m.addAnnotations(3, 4);
+    m.addCandidatePairs(5);
+    m.stopDocument("d1", docStart);
+    assertEquals("Counters01, documents",1,m.getDocuments());
+    assertEquals("Counters01, diff calls",2,m.getCount(EvaluationMetrics.Phase.DIFF));
+    assertEquals("Counters01, threshold calls",0,m.getCount(EvaluationMetrics.Phase.THRESHOLDS));
+    assertEquals("Counters01, annotations",7,m.getAnnotations());
+    assertEquals("Counters01, candidate pairs",5,m.getCandidatePairs());
+    String summary = m.getSummary("E ");
+    assertFalse("Counters01, one line",summary.contains("\n"));
+    assertTrue("Counters01, prefix",summary.startsWith("E Timing documents: 1,"));
+    assertTrue("Counters01, annotations in summary",summary.contains("annotations: 7"));
+    assertTrue("Counters01, diff in summary",summary.contains("DIFF: calls=2"));
+    assertFalse("Counters01, unused phase in summary",summary.contains("THRESHOLDS"));
+    m.reset();
+    assertEquals("Counters01, reset",0,m.getDocuments());
+    assertEquals("Counters01, reset diff calls",0,m.getCount(EvaluationMetrics.Phase.DIFF));
+  }
+  
+  @Test
+  public void testEvaluationMetricsPR01() throws Exception {
+    List<Document> docs = new CorpusGenerator().seed(5).nKeys(30).generate(4);
+    long expectedAnnotations = 0;
+    for(Document doc : docs) {
+      expectedAnnotations += doc.getAnnotations("Key").size() + doc.getAnnotations("Response").size();
+    }
+    EvaluateTagging pr = newPR(EvaluateTagging.class, 
+            "annotationTypes", newStringList("Mention"), "featureNames", FL_ID);
+    runETPR(pr, docs.toArray(new Document[0]));
+    EvaluationMetrics m = pr.getMetrics();
+    assertEquals("PR01, documents",4,m.getDocuments());
+    assertEquals("PR01, diff calls",4,m.getCount(EvaluationMetrics.Phase.DIFF));
+    assertEquals("PR01, annotations",expectedAnnotations,m.getAnnotations());
+    assertTrue("PR01, candidate pairs",m.getCandidatePairs() > 0);
+  }
+  
+  @Test
+  public void testEvaluationMetricsSlowDocuments01() throws Exception {
+    List<Document> docs = new CorpusGenerator().seed(9).nKeys(20).listSetName("Lists").listLength(4).generate(3);
+    File dir = Files.createTempDirectory("evalslow").toFile();
+    EvaluateTagging4Lists pr = newPR(EvaluateTagging4Lists.class, 
+            "keyType", "Mention", "listType", "LookupList", "elementType", "Lookup", 
+            "edgeFeatureName", "ids", "responseASName", "Lists", "scoreFeatureName", "score",
+            "featureNames", FL_ID, "evaluationId", "slow", "slowDocuments", 2,
+            "outputDirectoryUrl", dir.toURI().toURL());
+    runETPR(pr, docs.toArray(new Document[0]));
+    Map<String, Document> byName = new HashMap<String, Document>();
+    for(Document doc : docs) {
+      byName.put(doc.getName(), doc);
+    }
+    List<String> lines = Files.readAllLines(new File(dir, "slow-slow.tsv").toPath());
+    assertEquals("SlowDocuments01, lines",3,lines.size());
+    assertEquals("SlowDocuments01, header",
+            "evaluationId\tdocName\tms\tkeys\tresponses\tcandidatePairs\tcandidateLists\tcandidateEntries",
+            lines.get(0));
+    for(String line : lines.subList(1, lines.size())) {
+      String[] fields = line.split("\t");
+      Document doc = byName.get(fields[1]);
+      assertNotNull("SlowDocuments01, document "+fields[1],doc);
+      int nLists = doc.getAnnotations("Lists").get("LookupList").size();
+      assertEquals("SlowDocuments01, keys",doc.getAnnotations("Key").size(),Integer.parseInt(fields[3]));
+      assertEquals("SlowDocuments01, lists",nLists,Integer.parseInt(fields[6]));
+      assertEquals("SlowDocuments01, entries",4*nLists,Integer.parseInt(fields[7]));
+    }
+  }
+  
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.tests;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.Document;
+import gate.plugin.evaluation.api.GateXmlAnnotationReader;
+import gate.test.GATEPluginTests;
+import gate.util.GateException;
+import java.io.ByteArrayInputStream;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+import static gate.Utils.*;
+import static gate.plugin.evaluation.tests.TestUtils.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for reading annotations from GATE XML with the GateXmlAnnotationReader.
+ * 
+ * @author Johann Petrak
+ */
+public class TestGateXmlAnnotationReader extends GATEPluginTests {
+
+  @Before
+  public void setup() throws GateException {
+    initGate();
+  }
+  
+  @Test
+  public void testGateXmlReader01() throws Exception {
+    String xml = "<?xml version='1.0' encoding='UTF-8'?><GateDocument version=\"3\">" +
+            "<GateDocumentFeatures><Feature><Name className=\"java.lang.String\">id</Name>" +
+            "<Value className=\"java.lang.String\">doc</Value></Feature></GateDocumentFeatures>" +
+            "<TextWithNodes><Node id=\"0\"/>Some<Node id=\"4\"/> text<Node id=\"9\"/></TextWithNodes>" +
+            "<AnnotationSet><Annotation Id=\"0\" Type=\"M\" StartNode=\"0\" EndNode=\"4\"></Annotation></AnnotationSet>" +
+            "<AnnotationSet Name=\"Keys\">" +
+            "<Annotation Id=\"1\" Type=\"M\" StartNode=\"0\" EndNode=\"4\">" +
+            "<Feature><Name className=\"java.lang.String\">id</Name><Value className=\"java.lang.String\">x</Value></Feature>" +
+            "<Feature><Name className=\"java.lang.String\">score</Name><Value className=\"java.lang.Double\">0.5</Value></Feature>" +
+            "<Feature><Name className=\"java.lang.String\">other</Name><Value className=\"java.lang.String\">y</Value></Feature>" +
+            "</Annotation>" +
+            "<Annotation Id=\"2\" Type=\"Token\" StartNode=\"5\" EndNode=\"9\"></Annotation>" +
+            "</AnnotationSet></GateDocument>";
+    Set<String> sets = new HashSet<String>(java.util.Arrays.asList("Keys","Resps"));
+    Set<String> fs = new HashSet<String>(java.util.Arrays.asList("id","score"));
+    GateXmlAnnotationReader reader = new GateXmlAnnotationReader(sets, java.util.Collections.singleton("M"), fs);
+    Map<String, Map<String, List<Annotation>>> anns = reader.read(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+    assertEquals("GateXmlReader01, sets",2,anns.size());
+    assertEquals("GateXmlReader01, no responses",0,anns.get("Resps").get("M").size());
+    List<Annotation> keys = anns.get("Keys").get("M");
+    assertEquals("GateXmlReader01, keys",1,keys.size());
+    Annotation key = keys.get(0);
+    assertEquals("GateXmlReader01, end",4L,(long)key.getEndNode().getOffset());
+    assertEquals("GateXmlReader01, id","x",key.getFeatures().get("id"));
+    assertEquals("GateXmlReader01, score",0.5,(Double)key.getFeatures().get("score"),EPS);
+    assertFalse("GateXmlReader01, other",key.getFeatures().containsKey("other"));
+  }
+  
+  @Test
+  public void testGateXmlReader02() throws Exception {
+    // the annotations read back must be the ones of the document
+    Document doc = new CorpusGenerator().seed(50).nKeys(30).types("A","B").spuriousRate(0.3)
+            .scoreDistribution(CorpusGenerator.ScoreDistribution.INFORMATIVE).generate();
+    Set<String> sets = new HashSet<String>(newStringList("Key","Response"));
+    Set<String> types = new HashSet<String>(newStringList("A","B"));
+    GateXmlAnnotationReader reader = new GateXmlAnnotationReader(sets, types, new HashSet<String>(newStringList("id")));
+    Map<String, Map<String, List<Annotation>>> anns = reader.read(
+            new ByteArrayInputStream(gateXml(doc, "Key", "Response").getBytes("UTF-8")));
+    for(String setName : sets) {
+      for(String type : types) {
+        AnnotationSet expected = doc.getAnnotations(setName).get(type);
+        List<Annotation> read = anns.get(setName).get(type);
+        assertEquals("GateXmlReader02, "+setName+" "+type,expected.size(),read.size());
+        for(Annotation ann : read) {
+          Annotation orig = expected.get(ann.getId());
+          assertEquals("GateXmlReader02, start",start(orig),start(ann));
+          assertEquals("GateXmlReader02, end",end(orig),end(ann));
+          assertEquals("GateXmlReader02, id",orig.getFeatures().get("id"),ann.getFeatures().get("id"));
+          assertFalse("GateXmlReader02, score",ann.getFeatures().containsKey("score"));
+        }
+      }
+    }
+  }
+  
+}
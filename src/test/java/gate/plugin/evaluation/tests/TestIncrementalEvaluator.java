@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.tests;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.Document;
+import gate.creole.ResourceInstantiationException;
+import gate.plugin.evaluation.api.AnnotationDifferTagging;
+import gate.plugin.evaluation.api.AnnotationTypeSpecs;
+import gate.plugin.evaluation.api.EvalStatsTagging;
+import gate.plugin.evaluation.api.IncrementalEvaluator;
+import gate.test.GATEPluginTests;
+import gate.util.GateException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import static gate.Utils.*;
+import static gate.plugin.evaluation.tests.TestUtils.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the IncrementalEvaluator.
+ * 
+ * @author Johann Petrak
+ */
+public class TestIncrementalEvaluator extends GATEPluginTests {
+
+  private static final AnnotationTypeSpecs SPECS_M = new AnnotationTypeSpecs(newStringList("M"));
+  
+  @Before
+  public void setup() throws GateException {
+    initGate();
+  }
+  
+  private static IncrementalEvaluator newIE(AnnotationSet keys, AnnotationSet resps) {
+    return new IncrementalEvaluator(keys, resps, FS_ID, FC_EQU, SPECS_M);
+  }
+  
+  private static String fullDiff(AnnotationSet keys, AnnotationSet resps) {
+    return new AnnotationDifferTagging(keys, resps, FS_ID, FC_EQU, SPECS_M).getEvalStatsTagging().toString();
+  }
+  
+  @Test
+  public void testIncremental01() throws ResourceInstantiationException {
+    Document doc = newD();
+    AnnotationSet keys = doc.getAnnotations("Keys");
+    AnnotationSet resps = doc.getAnnotations("Resps");
+    addAnn(keys,0,2,"M",featureMap("id","x"));
+    addAnn(keys,5,8,"M",featureMap("id","y"));
+    IncrementalEvaluator ie = newIE(keys, resps);
+    assertEquals("Incremental01, components",2,ie.getComponentCount());
+    assertEquals("Incremental01, no responses",0,ie.getEvalStatsTagging().getResponses());
+    Integer id = addAnn(resps,0,2,"M",featureMap("id","x"));
+    addAnn(resps,6,8,"M",featureMap("id","y"));
+    EvalStatsTagging es = ie.getEvalStatsTagging();
+    assertEquals("Incremental01, correct strict",1,es.getCorrectStrict());
+    assertEquals("Incremental01, correct partial",1,es.getCorrectPartial());
+    resps.remove(resps.get(id));
+    es = ie.getEvalStatsTagging();
+    assertEquals("Incremental01, correct strict after remove",0,es.getCorrectStrict());
+    assertEquals("Incremental01, responses after remove",1,es.getResponses());
+    ie.close();
+  }
+  
+  @Test
+  public void testIncrementalZeroLength01() throws ResourceInstantiationException {
+    // coextensive zero length annotations do not overlap but are paired by the differ
+    Document doc = newD();
+    AnnotationSet keys = doc.getAnnotations("Keys");
+    AnnotationSet resps = doc.getAnnotations("Resps");
+    addAnn(keys,5,5,"M",featureMap("id","x"));
+    IncrementalEvaluator ie = newIE(keys, resps);
+    Integer id = addAnn(resps,5,5,"M",featureMap("id","x"));
+    assertEquals("IncrementalZeroLength01, components",1,ie.getComponentCount());
+    assertEquals("IncrementalZeroLength01, correct strict",1,ie.getEvalStatsTagging().getCorrectStrict());
+    assertEquals("IncrementalZeroLength01, full differ",fullDiff(keys, resps),ie.getEvalStatsTagging().toString());
+    // a zero length annotation inside another one overlaps it
+    addAnn(resps,3,8,"M",featureMap("id","y"));
+    assertEquals("IncrementalZeroLength01, components with overlap",1,ie.getComponentCount());
+    resps.remove(resps.get(id));
+    assertEquals("IncrementalZeroLength01, full differ after remove",fullDiff(keys, resps),ie.getEvalStatsTagging().toString());
+    ie.close();
+  }
+  
+  @Test
+  public void testIncrementalRandom01() throws ResourceInstantiationException {
+    // after each change the counts must be identical to running the differ over both sets
+    Random rnd = new Random(49);
+    Document doc = newD();
+    AnnotationSet keys = doc.getAnnotations("Keys");
+    AnnotationSet resps = doc.getAnnotations("Resps");
+    IncrementalEvaluator ie = newIE(keys, resps);
+    List<Annotation> added = new ArrayList<Annotation>();
+    for(int i = 0; i < 300; i++) {
+      if(!added.isEmpty() && rnd.nextInt(4) == 0) {
+        Annotation ann = added.remove(rnd.nextInt(added.size()));
+        if(!keys.remove(ann)) {
+          resps.remove(ann);
+        }
+      } else {
+        AnnotationSet set = rnd.nextBoolean() ? keys : resps;
+        // about a third of the annotations have zero length
+        long from = rnd.nextInt(40);
+        long to = from + Math.max(0, rnd.nextInt(6) - 2);
+        Integer id = addAnn(set,from,to,"M",featureMap("id",rnd.nextBoolean() ? "a" : "b"));
+        added.add(set.get(id));
+      }
+      assertEquals("IncrementalRandom01, step "+i,fullDiff(keys, resps),ie.getEvalStatsTagging().toString());
+    }
+    ie.close();
+  }
+  
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.tests;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.Document;
+import gate.plugin.evaluation.api.AnnotationDifferTagging;
+import gate.plugin.evaluation.api.IndicatorAnnotationBuffer;
+import gate.plugin.evaluation.api.IndicatorOutput;
+import gate.plugin.evaluation.resources.EvaluateMaxRecall;
+import gate.plugin.evaluation.resources.EvaluateTagging;
+import gate.test.GATEPluginTests;
+import gate.util.GateException;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.Before;
+import org.junit.Test;
+import static gate.Utils.*;
+import static gate.plugin.evaluation.tests.TestUtils.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for recording indicator annotations and adding them to the document or writing 
+ * them to a file.
+ * 
+ * @author Johann Petrak
+ */
+public class TestIndicatorAnnotationBuffer extends GATEPluginTests {
+
+  @Before
+  public void setup() throws GateException {
+    initGate();
+  }
+  
+  // Create the line writeTsv writes for an annotation that was added to the document directly,
+  // without the document and set name columns
+  private static String annLine(Annotation ann) {
+    Map<String, Object> sorted = new TreeMap<>();
+    for(Map.Entry<Object, Object> fe : ann.getFeatures().entrySet()) {
+      sorted.put(String.valueOf(fe.getKey()), fe.getValue());
+    }
+    StringBuilder sb = new StringBuilder();
+    sb.append(ann.getType()).append("\t").append(start(ann)).append("\t").append(end(ann)).append("\t");
+    boolean first = true;
+    for(Map.Entry<String, Object> fe : sorted.entrySet()) {
+      if(!first) {
+        sb.append(";");
+      }
+      first = false;
+      sb.append(fe.getKey()).append("=").append(fe.getValue());
+    }
+    return sb.toString();
+  }
+  
+  // The lines for all annotations in the sets of the document with the given prefix, in the 
+  // order in which they were added.
+  private static List<String> tsvLines(Document doc, String setPrefix, boolean withNames) {
+    Map<Integer, String> byId = new TreeMap<>();
+    for(String setName : doc.getAnnotationSetNames()) {
+      if(setName != null && setName.startsWith(setPrefix)) {
+        for(Annotation ann : doc.getAnnotations(setName)) {
+          byId.put(ann.getId(), (withNames ? doc.getName()+"\t"+setName+"\t" : "")+annLine(ann));
+        }
+      }
+    }
+    return new ArrayList<>(byId.values());
+  }
+  
+  @Test
+  public void testIndicatorBufferDeferred01() throws Exception {
+    Document doc = newD();
+    AnnotationSet t = addA(doc,"Keys",0,10,"M","x");
+    addA(doc,"Keys",20,30,"M","x");
+    AnnotationSet r = addA(doc,"Resp",0,10,"M","x");
+    addA(doc,"Resp",40,50,"M","x");
+    AnnotationDifferTagging ad = new AnnotationDifferTagging(t, r, FS_ID, FC_EQU, null);
+    ad.addIndicatorAnnotations(doc.getAnnotations("Direct"), "");
+    IndicatorAnnotationBuffer buffer = new IndicatorAnnotationBuffer();
+    AnnotationSet buffered = doc.getAnnotations("Buffered");
+    ad.addIndicatorAnnotations(buffered, "", buffer);
+    assertEquals("Deferred01, nothing added before flush",0,buffered.size());
+    assertEquals("Deferred01, recorded",3,buffer.size());
+    buffer.flush();
+    assertTrue("Deferred01, empty after flush",buffer.isEmpty());
+    // same annotations with the same features, added in the same order
+    assertEquals("Deferred01, annotations",tsvLines(doc, "Direct", false),tsvLines(doc, "Buffered", false));
+  }
+  
+  @Test
+  public void testIndicatorBufferFile01() throws Exception {
+    Document doc = newD();
+    doc.setName("doc1");
+    AnnotationSet t = addA(doc,"Keys",0,10,"M","x");
+    addA(doc,"Keys",20,30,"M","x");
+    AnnotationSet r = addA(doc,"Resp",0,10,"M","y");
+    addA(doc,"Resp",22,30,"M","x");
+    AnnotationDifferTagging ad = new AnnotationDifferTagging(t, r, FS_ID, FC_EQU, null);
+    AnnotationSet direct = doc.getAnnotations("Direct");
+    ad.addIndicatorAnnotations(direct, "");
+    IndicatorAnnotationBuffer buffer = new IndicatorAnnotationBuffer();
+    ad.addIndicatorAnnotations(direct, "", buffer);
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    PrintStream ps = new PrintStream(bos, true, "UTF-8");
+    buffer.writeTsv(ps, "doc1");
+    ps.close();
+    assertTrue("File01, empty after write",buffer.isEmpty());
+    List<String> lines = Arrays.asList(new String(bos.toByteArray(), "UTF-8").split("\\r?\\n"));
+    assertEquals("File01, lines",tsvLines(doc, "Direct", true),lines);
+  }
+  
+  @Test
+  public void testIndicatorBufferFilePR01() throws Exception {
+    // the same documents evaluated with indicator output DOCUMENT and FILE must give the 
+    // same indicator annotations
+    List<Document> docsDoc = new CorpusGenerator().seed(11).nKeys(20).generate(3);
+    List<Document> docsFile = new CorpusGenerator().seed(11).nKeys(20).generate(3);
+    EvaluateTagging prDoc = newPR(EvaluateTagging.class, 
+            "annotationTypes", newStringList("Mention"), "featureNames", FL_ID, 
+            "outputASPrefix", "Out", "evaluationId", "ind");
+    runETPR(prDoc, docsDoc.toArray(new Document[0]));
+    File dir = Files.createTempDirectory("evalind").toFile();
+    EvaluateTagging prFile = newPR(EvaluateTagging.class, 
+            "annotationTypes", newStringList("Mention"), "featureNames", FL_ID, 
+            "outputASPrefix", "Out", "evaluationId", "ind", 
+            "indicatorOutput", IndicatorOutput.FILE, "outputDirectoryUrl", dir.toURI().toURL());
+    runETPR(prFile, docsFile.toArray(new Document[0]));
+    List<String> expected = new ArrayList<>();
+    expected.add("docName\tsetName\ttype\tstart\tend\tfeatures");
+    for(Document doc : docsDoc) {
+      expected.addAll(tsvLines(doc, "Out", true));
+    }
+    for(Document doc : docsFile) {
+      assertTrue("FilePR01, no annotations added",tsvLines(doc, "Out", false).isEmpty());
+    }
+    List<String> lines = Files.readAllLines(new File(dir, "ind-indicators.tsv").toPath());
+    assertTrue("FilePR01, have indicators",expected.size() > 1);
+    assertEquals("FilePR01, lines",expected,lines);
+  }
+  
+  @Test
+  public void testIndicatorBufferMaxRecall01() throws Exception {
+    // the indicator annotations of EvaluateMaxRecall are unchanged copies of the key 
+    // annotations, including the target id feature
+    List<Document> docs = new CorpusGenerator().seed(13).nKeys(10).listSetName("Lists").listLength(3).generate(1);
+    Document doc = docs.get(0);
+    for(Annotation key : doc.getAnnotations("Key")) {
+      key.getFeatures().put(IndicatorAnnotationBuffer.TARGET_ID_FEATURE, key.getId());
+    }
+    EvaluateMaxRecall pr = newPR(EvaluateMaxRecall.class, 
+            "keyType", "Mention", "listType", "LookupList", "elementType", "Lookup", 
+            "edgeFeatureName", "ids", "keyASName", "Key", "responseASName", "Lists", 
+            "featureNames", FL_ID, "outputASPrefix", "Out");
+    runETPR(pr, doc);
+    AnnotationSet out = doc.getAnnotations("Out_MaxRecall");
+    assertEquals("MaxRecall01, one indicator per key",doc.getAnnotations("Key").size(),out.size());
+    for(Annotation ind : out) {
+      Annotation key = getOnlyAnn(doc.getAnnotations("Key").get(start(ind),end(ind)).get("Mention"));
+      assertEquals("MaxRecall01, features",key.getFeatures(),ind.getFeatures());
+      assertEquals("MaxRecall01, target id",key.getId(),ind.getFeatures().get(IndicatorAnnotationBuffer.TARGET_ID_FEATURE));
+    }
+  }
+  
+}
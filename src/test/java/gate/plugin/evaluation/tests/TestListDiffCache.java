@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.tests;
+
+import gate.AnnotationSet;
+import gate.Document;
+import gate.plugin.evaluation.api.AnnotationDifferTagging;
+import gate.plugin.evaluation.api.AnnotationDifferTagging.CandidateList;
+import gate.plugin.evaluation.api.AnnotationTypeSpecs;
+import gate.plugin.evaluation.api.ListDiffCache;
+import gate.plugin.evaluation.api.ThresholdsOrRanksToUse;
+import gate.plugin.evaluation.api.ThresholdsToUse;
+import gate.test.GATEPluginTests;
+import gate.util.GateException;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import static gate.plugin.evaluation.tests.TestUtils.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the per-document cache of differs for candidate lists.
+ * 
+ * @author Johann Petrak
+ */
+public class TestListDiffCache extends GATEPluginTests {
+
+  @Before
+  public void setup() throws GateException {
+    initGate();
+  }
+  
+  private static void assertSameDiff(String msg, AnnotationDifferTagging expected, AnnotationDifferTagging actual) {
+    assertEquals(msg+" stats",expected.getEvalStatsTagging().toString(),actual.getEvalStatsTagging().toString());
+    assertEquals(msg+" correct strict",expected.getCorrectStrictAnnotations(),actual.getCorrectStrictAnnotations());
+    assertEquals(msg+" correct partial",expected.getCorrectPartialAnnotations(),actual.getCorrectPartialAnnotations());
+    assertEquals(msg+" missing",expected.getTrueMissingLenientAnnotations(),actual.getTrueMissingLenientAnnotations());
+    assertEquals(msg+" spurious",expected.getTrueSpuriousLenientAnnotations(),actual.getTrueSpuriousLenientAnnotations());
+  }
+  
+  @Test
+  public void testListDiffCache01() throws Exception {
+    Document doc = new CorpusGenerator().seed(41).nKeys(40).valueNoiseRate(0.3)
+            .listSetName("Lists").listLength(5).generate();
+    AnnotationSet keys = doc.getAnnotations("Key").get("Mention");
+    AnnotationSet lists = doc.getAnnotations("Lists");
+    List<CandidateList> candLists = AnnotationDifferTagging.createCandidateLists(
+            lists, lists.get("LookupList"), "ids", "score", "Lookup", false, "", "id");
+    AnnotationTypeSpecs specs = new AnnotationTypeSpecs(newStringList("Mention=LookupList"));
+    ListDiffCache cache = new ListDiffCache();
+    
+    // the by-threshold evaluation stores the differ for the extreme threshold
+    AnnotationDifferTagging.calculateListByThEvalStatsTagging(keys, lists, candLists, FS_ID, FC_EQU, 
+            "ids", "score", ThresholdsToUse.USE_ALL, null, specs, cache, false);
+    assertEquals("ListDiffCache01, size after thresholds",1,cache.size());
+    AnnotationDifferTagging cachedTh = cache.get(keys, lists, candLists, FS_ID, FC_EQU, "score", 
+            Double.NEGATIVE_INFINITY, null, specs);
+    assertNotNull("ListDiffCache01, extreme threshold cached",cachedTh);
+    AnnotationDifferTagging hitTh = AnnotationDifferTagging.calculateEvalStatsTagging4List(keys, lists, 
+            candLists, FS_ID, FC_EQU, "ids", "score", Double.NEGATIVE_INFINITY, null, specs, cache);
+    assertSame("ListDiffCache01, threshold hit",cachedTh,hitTh);
+    AnnotationDifferTagging freshTh = AnnotationDifferTagging.calculateEvalStatsTagging4List(keys, lists, 
+            candLists, FS_ID, FC_EQU, "ids", "score", Double.NEGATIVE_INFINITY, null, specs);
+    assertSameDiff("ListDiffCache01, threshold",freshTh,hitTh);
+    
+    // the same for the by-rank evaluation
+    AnnotationDifferTagging.calculateListByRankEvalStatsTagging(keys, lists, candLists, FS_ID, FC_EQU, 
+            "ids", "score", ThresholdsOrRanksToUse.USE_RANKS_ALL, null, specs, cache, false);
+    assertEquals("ListDiffCache01, size after ranks",2,cache.size());
+    AnnotationDifferTagging hitRank = AnnotationDifferTagging.calculateEvalStatsTagging4List(keys, lists, 
+            candLists, FS_ID, FC_EQU, "ids", "score", null, Integer.MAX_VALUE, specs, cache);
+    assertEquals("ListDiffCache01, no new entry",2,cache.size());
+    AnnotationDifferTagging freshRank = AnnotationDifferTagging.calculateEvalStatsTagging4List(keys, lists, 
+            candLists, FS_ID, FC_EQU, "ids", "score", null, Integer.MAX_VALUE, specs);
+    assertSameDiff("ListDiffCache01, rank",freshRank,hitRank);
+    
+    // a differ calculated through the cache is the same as a fresh one
+    AnnotationDifferTagging missTh = AnnotationDifferTagging.calculateEvalStatsTagging4List(keys, lists, 
+            candLists, FS_ID, FC_EQU, "ids", "score", 0.5, null, specs, cache);
+    assertEquals("ListDiffCache01, new entry",3,cache.size());
+    assertSameDiff("ListDiffCache01, threshold 0.5",AnnotationDifferTagging.calculateEvalStatsTagging4List(keys, lists, 
+            candLists, FS_ID, FC_EQU, "ids", "score", 0.5, null, specs),missTh);
+    
+    // every input is part of the key
+    AnnotationSet otherLists = doc.getAnnotations("Key");
+    assertNull("ListDiffCache01, other list annotations",cache.get(keys, otherLists, candLists, FS_ID, FC_EQU, 
+            "score", Double.NEGATIVE_INFINITY, null, specs));
+    assertNull("ListDiffCache01, other targets",cache.get(lists, lists, candLists, FS_ID, FC_EQU, 
+            "score", Double.NEGATIVE_INFINITY, null, specs));
+    assertNull("ListDiffCache01, other score feature",cache.get(keys, lists, candLists, FS_ID, FC_EQU, 
+            "other", Double.NEGATIVE_INFINITY, null, specs));
+    assertNull("ListDiffCache01, other threshold",cache.get(keys, lists, candLists, FS_ID, FC_EQU, 
+            "score", 0.1, null, specs));
+    
+    cache.clear();
+    assertEquals("ListDiffCache01, cleared",0,cache.size());
+  }
+  
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.tests;
+
+import gate.Document;
+import gate.creole.ResourceInstantiationException;
+import gate.plugin.evaluation.api.ByRankEvalStatsTagging;
+import gate.plugin.evaluation.api.ByThEvalStatsTagging;
+import gate.plugin.evaluation.api.ThresholdsOrRanksToUse;
+import gate.plugin.evaluation.resources.EvaluateTagging4Lists;
+import gate.test.GATEPluginTests;
+import gate.util.GateException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import static gate.plugin.evaluation.tests.TestUtils.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that evaluating the thresholds or ranks of a document in parallel gives the same 
+ * statistics as evaluating them one after the other.
+ * 
+ * @author Johann Petrak
+ */
+public class TestParallelThresholds extends GATEPluginTests {
+
+  @Before
+  public void setup() throws GateException {
+    initGate();
+  }
+  
+  private static List<Document> newDocs() throws ResourceInstantiationException {
+    return new CorpusGenerator().seed(51).nKeys(40).valueNoiseRate(0.2).spuriousRate(0.2)
+            .scoreDistribution(CorpusGenerator.ScoreDistribution.INFORMATIVE).nDistinctScores(20)
+            .listSetName("Lists").listLength(6).generate(4);
+  }
+  
+  private static EvaluateTagging4Lists runPR(ThresholdsOrRanksToUse which, boolean parallel) throws Exception {
+    EvaluateTagging4Lists pr = newPR(EvaluateTagging4Lists.class, 
+            "keyType", "Mention", "listType", "LookupList", "elementType", "Lookup", 
+            "edgeFeatureName", "ids", "responseASName", "Lists", "scoreFeatureName", "score",
+            "featureNames", FL_ID, "whichThresholds", which, "parallelThresholds", parallel);
+    runETPR(pr, newDocs().toArray(new Document[0]));
+    return pr;
+  }
+  
+  @Test
+  public void testParallelThresholds01() throws Exception {
+    for(ThresholdsOrRanksToUse which : new ThresholdsOrRanksToUse[] { 
+        ThresholdsOrRanksToUse.USE_TH_ALL, ThresholdsOrRanksToUse.USE_TH11FROM0TO1 }) {
+      ByThEvalStatsTagging sequential = runPR(which, false).getByThEvalStatsTagging();
+      ByThEvalStatsTagging parallel = runPR(which, true).getByThEvalStatsTagging();
+      assertTrue("ParallelThresholds01, have thresholds for "+which,sequential.size() > 2);
+      assertEquals("ParallelThresholds01, thresholds for "+which,
+              new ArrayList<>(sequential.keySet()),new ArrayList<>(parallel.keySet()));
+      for(Map.Entry<Double, ?> entry : sequential.entrySet()) {
+        assertEquals("ParallelThresholds01, "+which+" th "+entry.getKey(),
+                entry.getValue().toString(),parallel.get(entry.getKey()).toString());
+      }
+    }
+  }
+  
+  @Test
+  public void testParallelRanks01() throws Exception {
+    for(ThresholdsOrRanksToUse which : new ThresholdsOrRanksToUse[] { 
+        ThresholdsOrRanksToUse.USE_RANKS_ALL, ThresholdsOrRanksToUse.USE_RANKS_11FROM0T10 }) {
+      ByRankEvalStatsTagging sequential = runPR(which, false).getByRankEvalStatsTagging();
+      ByRankEvalStatsTagging parallel = runPR(which, true).getByRankEvalStatsTagging();
+      assertTrue("ParallelRanks01, have ranks for "+which,sequential.size() > 2);
+      assertEquals("ParallelRanks01, ranks for "+which,
+              new ArrayList<>(sequential.keySet()),new ArrayList<>(parallel.keySet()));
+      for(Map.Entry<Integer, ?> entry : sequential.entrySet()) {
+        assertEquals("ParallelRanks01, "+which+" rank "+entry.getKey(),
+                entry.getValue().toString(),parallel.get(entry.getKey()).toString());
+      }
+    }
+  }
+  
+}
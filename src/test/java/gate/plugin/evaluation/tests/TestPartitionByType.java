@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.tests;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.Document;
+import gate.plugin.evaluation.resources.EvaluateTagging;
+import gate.test.GATEPluginTests;
+import gate.util.GateException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+import static gate.plugin.evaluation.tests.TestUtils.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for partitioning the annotations of a set by type.
+ * 
+ * @author Johann Petrak
+ */
+public class TestPartitionByType extends GATEPluginTests {
+
+  // gives the tests access to the protected method
+  private static class Partitioner extends EvaluateTagging {
+    private static final long serialVersionUID = 1L;
+    static Map<String, List<Annotation>> partition(AnnotationSet set, Set<String> types) {
+      return partitionByType(set, types);
+    }
+  }
+  
+  @Before
+  public void setup() throws GateException {
+    initGate();
+  }
+  
+  private static void assertPartitions(String msg, AnnotationSet set, Set<String> types) {
+    Map<String, List<Annotation>> parts = Partitioner.partition(set, types);
+    assertEquals(msg+" types",types,parts.keySet());
+    for(String type : types) {
+      assertEquals(msg+" "+type,set.get(type),new HashSet<>(parts.get(type)));
+      assertEquals(msg+" "+type+" size",set.get(type).size(),parts.get(type).size());
+    }
+  }
+  
+  @Test
+  public void testPartitionByType01() throws Exception {
+    Document doc = newD();
+    // many annotations of a type which is not requested
+    for(int i = 0; i < 200; i++) {
+      addA(doc,"",i,i+1,"Token",i);
+    }
+    addA(doc,"",0,10,"Mention",1);
+    addA(doc,"",5,5,"Mention",2);
+    addA(doc,"",20,30,"Person",3);
+    Set<String> types = new HashSet<>(newStringList("Mention","Person","Missing"));
+    AnnotationSet set = doc.getAnnotations();
+    assertPartitions("PartitionByType01 other type",set,types);
+    assertEquals("PartitionByType01 Missing",0,Partitioner.partition(set, types).get("Missing").size());
+    assertEquals("PartitionByType01 Mention",2,Partitioner.partition(set, types).get("Mention").size());
+    
+    // only a few annotations for many types
+    Document doc2 = newD();
+    addA(doc2,"",0,10,"Mention",1);
+    addA(doc2,"",20,30,"Person",2);
+    addA(doc2,"",40,50,"Token",3);
+    assertPartitions("PartitionByType01 few",doc2.getAnnotations(),types);
+    assertFalse("PartitionByType01 few Token",
+            Partitioner.partition(doc2.getAnnotations(), types).containsKey("Token"));
+  }
+  
+}
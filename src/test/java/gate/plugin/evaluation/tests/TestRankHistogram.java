@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.tests;
+
+import gate.Document;
+import gate.plugin.evaluation.api.RankHistogram;
+import gate.plugin.evaluation.resources.EvaluateMaxRecall;
+import gate.test.GATEPluginTests;
+import gate.util.GateException;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import static gate.plugin.evaluation.tests.TestUtils.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for counting matches by rank and the by-rank output of EvaluateMaxRecall.
+ * 
+ * @author Johann Petrak
+ */
+public class TestRankHistogram extends GATEPluginTests {
+
+  @Before
+  public void setup() throws GateException {
+    initGate();
+  }
+  
+  @Test
+  public void testRankHistogram01() {
+    RankHistogram h = new RankHistogram();
+    assertEquals("RankHistogram01, empty size",0,h.size());
+    assertEquals("RankHistogram01, empty cumulative",0,h.getCumulative().length);
+    h.increment(0);
+    h.increment(2);
+    h.increment(2);
+    // beyond the initial capacity
+    h.increment(20, 3);
+    assertEquals("RankHistogram01, size",21,h.size());
+    assertEquals("RankHistogram01, rank 0",1,h.get(0));
+    assertEquals("RankHistogram01, rank 1",0,h.get(1));
+    assertEquals("RankHistogram01, rank 2",2,h.get(2));
+    assertEquals("RankHistogram01, rank 20",3,h.get(20));
+    assertEquals("RankHistogram01, beyond size",0,h.get(100));
+    List<Integer> list = h.toList();
+    assertEquals("RankHistogram01, list size",21,list.size());
+    assertEquals("RankHistogram01, list",Arrays.asList(1,0,2,0),list.subList(0, 4));
+    long[] cumulative = h.getCumulative();
+    assertEquals("RankHistogram01, cumulative size",21,cumulative.length);
+    assertEquals("RankHistogram01, cumulative 1",1,cumulative[1]);
+    assertEquals("RankHistogram01, cumulative 2",3,cumulative[2]);
+    assertEquals("RankHistogram01, cumulative 19",3,cumulative[19]);
+    assertEquals("RankHistogram01, cumulative 20",6,cumulative[20]);
+    
+    // merging histograms of different sizes
+    RankHistogram small = new RankHistogram();
+    small.increment(1);
+    small.add(h);
+    assertEquals("RankHistogram01, merged size",21,small.size());
+    assertEquals("RankHistogram01, merged rank 1",1,small.get(1));
+    assertEquals("RankHistogram01, merged rank 20",3,small.get(20));
+    h.add(small);
+    assertEquals("RankHistogram01, merged into larger rank 2",4,h.get(2));
+    
+    h.clear();
+    assertEquals("RankHistogram01, cleared size",0,h.size());
+    assertEquals("RankHistogram01, cleared rank 2",0,h.get(2));
+    h.increment(1);
+    assertEquals("RankHistogram01, after clear",Arrays.asList(0,1),h.toList());
+  }
+  
+  @Test
+  public void testRankHistogramOutput01() throws Exception {
+    List<Document> docs = new CorpusGenerator().seed(31).nKeys(40).valueNoiseRate(0.3)
+            .listSetName("Lists").listLength(6).generate(3);
+    File dir = Files.createTempDirectory("evalrank").toFile();
+    EvaluateMaxRecall pr = newPR(EvaluateMaxRecall.class, 
+            "keyType", "Mention", "listType", "LookupList", "elementType", "Lookup", 
+            "edgeFeatureName", "ids", "keyASName", "Key", "responseASName", "Lists", 
+            "featureNames", FL_ID, "evaluationId", "mr", "outputDirectoryUrl", dir.toURI().toURL());
+    runETPR(pr, docs.toArray(new Document[0]));
+    List<Integer> strictByRank = pr.getCorrectStrictByRank();
+    List<Double> lenientRecall = pr.getMaxRecallLenientByRank();
+    int targets = pr.getTargets();
+    int ranks = Math.max(strictByRank.size(), lenientRecall.size());
+    assertTrue("Output01, several ranks",ranks > 2);
+    
+    // the header line has no line separator, so the first line follows it directly
+    List<String> lines = new ArrayList<>();
+    for(String line : Files.readAllLines(new File(dir, "mr-maxrec.tsv").toPath())) {
+      line = line.substring(line.indexOf("mr\tlist-maxrecall\t"));
+      // only the lines over all documents
+      if(line.split("\t")[2].equals("[doc:all:micro]")) {
+        lines.add(line);
+      }
+    }
+    assertEquals("Output01, lines",ranks+1,lines.size());
+    int cumulativeStrict = 0;
+    for(int i = 0; i < ranks; i++) {
+      String[] fields = lines.get(i).split("\t");
+      assertEquals("Output01, fields at "+i,17,fields.length);
+      assertEquals("Output01, threshold type at "+i,"rank",fields[5]);
+      assertEquals("Output01, rank at "+i,String.valueOf(i),fields[6]);
+      assertEquals("Output01, targets at "+i,String.valueOf(targets),fields[11]);
+      if(i < strictByRank.size()) {
+        cumulativeStrict += strictByRank.get(i);
+      }
+      // beyond the highest rank with a match, the cumulative count stays at the last value
+      assertEquals("Output01, correct strict at "+i,String.valueOf(cumulativeStrict),fields[13]);
+      assertEquals("Output01, recall strict at "+i,(double)cumulativeStrict/targets,Double.parseDouble(fields[7]),EPS);
+      double recallLenient = lenientRecall.get(Math.min(i, lenientRecall.size()-1));
+      assertEquals("Output01, correct lenient at "+i,Math.round(recallLenient*targets),Long.parseLong(fields[14]));
+      assertEquals("Output01, recall lenient at "+i,recallLenient,Double.parseDouble(fields[8]),EPS);
+    }
+    String[] overall = lines.get(ranks).split("\t");
+    assertEquals("Output01, overall rank","-1",overall[6]);
+    assertEquals("Output01, overall correct strict",String.valueOf(cumulativeStrict),overall[13]);
+    assertEquals("Output01, overall recall strict",pr.getMaxRecallStrict(),Double.parseDouble(overall[7]),EPS);
+    assertEquals("Output01, overall recall lenient",pr.getMaxRecallLenient(),Double.parseDouble(overall[8]),EPS);
+  }
+  
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.tests;
+
+import gate.AnnotationSet;
+import gate.Document;
+import gate.plugin.evaluation.api.ByThEvalStatsTagging;
+import gate.plugin.evaluation.api.ResultCache;
+import gate.plugin.evaluation.resources.EvaluateTagging;
+import gate.test.GATEPluginTests;
+import gate.util.GateException;
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+import static gate.Utils.*;
+import static gate.plugin.evaluation.tests.TestUtils.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the result cache and its use by the tagging evaluation.
+ * 
+ * @author Johann Petrak
+ */
+public class TestResultCache extends GATEPluginTests {
+
+  @Before
+  public void setup() throws GateException {
+    initGate();
+  }
+  
+  private static EvaluateTagging runPR(Document doc, File dir) throws Exception {
+    EvaluateTagging pr = newPR(EvaluateTagging.class, 
+            "annotationTypes", newStringList("A","B","C"), "featureNames", FL_ID, 
+            "resultCacheDirectoryUrl", dir == null ? null : dir.toURI().toURL());
+    runETPR(pr, doc);
+    return pr;
+  }
+  
+  private static File[] entryFiles(File dir) {
+    return dir.listFiles((d, name) -> name.endsWith(".bin"));
+  }
+  
+  @Test
+  public void testResultCache01() throws Exception {
+    Document doc1 = newD();
+    AnnotationSet keys1 = doc1.getAnnotations("Keys");
+    addAnn(keys1,0,2,"M",featureMap("id","x"));
+    addAnn(keys1,3,4,"M",featureMap("id","y","other","a"));
+    // same annotations in a different order and with a feature that is not compared
+    Document doc2 = newD();
+    AnnotationSet keys2 = doc2.getAnnotations("Keys");
+    addAnn(keys2,3,4,"M",featureMap("id","y","other","b"));
+    addAnn(keys2,0,2,"M",featureMap("id","x"));
+    Set<String> fs = new HashSet<String>();
+    fs.add("id");
+    String key1 = ResultCache.key("c", keys1, keys1, fs, null);
+    assertEquals("ResultCache01, same key",key1,ResultCache.key("c", keys2, keys2, fs, null));
+    assertFalse("ResultCache01, other config",key1.equals(ResultCache.key("d", keys1, keys1, fs, null)));
+    File dir = java.nio.file.Files.createTempDirectory("evalcache").toFile();
+    ResultCache cache = new ResultCache(dir);
+    assertNull(cache.get(key1));
+    ByThEvalStatsTagging bth = new ByThEvalStatsTagging();
+    bth.put(0.5, newES(2,1,1));
+    cache.put(key1, newES(2,3,1), bth);
+    ResultCache.Entry entry = new ResultCache(dir).get(key1);
+    assertEquals("ResultCache01, responses",3,entry.getEvalStats().getResponses());
+    assertEquals("ResultCache01, by th correct",1,entry.getByThreshold().get(0.5).getCorrectStrict());
+    assertEquals("ResultCache01, misses",1,cache.getMisses());
+  }
+  
+  @Test
+  public void testResultCacheMultiplex01() throws Exception {
+    // If the counts over all types come from the cache but those of some type do not, the
+    // per-type counts must still be the same as without a cache.
+    Document doc = new CorpusGenerator().seed(48).nKeys(60).types("A","B","C")
+            .valueNoiseRate(0.2).spuriousRate(0.2).generate();
+    EvaluateTagging uncached = runPR(doc, null);
+    File dir = java.nio.file.Files.createTempDirectory("evalcache").toFile();
+    runPR(doc, dir);
+    File[] files = entryFiles(dir);
+    assertEquals("ResultCacheMultiplex01, entries",4,files.length);
+    // only keep the entry for all types, which is the only one with all the targets
+    ResultCache cache = new ResultCache(dir);
+    int allTargets = uncached.getEvalStatsTagging("").getTargets();
+    for(File file : files) {
+      String key = file.getName().substring(0, file.getName().length()-".bin".length());
+      if(cache.get(key).getEvalStats().getTargets() != allTargets) {
+        assertTrue(file.delete());
+      }
+    }
+    assertEquals("ResultCacheMultiplex01, entries kept",1,entryFiles(dir).length);
+    EvaluateTagging cached = runPR(doc, dir);
+    for(String type : new String[] { "", "A", "B", "C" }) {
+      assertEquals("ResultCacheMultiplex01, type "+type,
+              uncached.getEvalStatsTagging(type).toString(),
+              cached.getEvalStatsTagging(type).toString());
+    }
+    assertEquals("ResultCacheMultiplex01, entries restored",4,entryFiles(dir).length);
+  }
+  
+}
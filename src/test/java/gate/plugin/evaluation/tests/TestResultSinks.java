@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.tests;
+
+import gate.Document;
+import gate.plugin.evaluation.api.AnnotationDifferTagging;
+import gate.plugin.evaluation.api.AsyncResultSink;
+import gate.plugin.evaluation.api.BinaryResultSink;
+import gate.plugin.evaluation.api.EvalStatsTagging;
+import gate.plugin.evaluation.api.EvaluationResult;
+import gate.plugin.evaluation.api.InMemoryResultSink;
+import gate.plugin.evaluation.api.ResultSink;
+import gate.plugin.evaluation.api.ResultSinkType;
+import gate.plugin.evaluation.resources.EvaluateMaxRecall;
+import gate.plugin.evaluation.resources.EvaluateTagging;
+import gate.test.GATEPluginTests;
+import gate.util.GateException;
+import gate.util.GateRuntimeException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import static gate.plugin.evaluation.tests.TestUtils.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for passing the evaluation results to result sinks.
+ * 
+ * @author Johann Petrak
+ */
+public class TestResultSinks extends GATEPluginTests {
+
+  // A sink which fails if results are added after it got closed
+  private static class CheckingResultSink extends InMemoryResultSink {
+    boolean closed = false;
+    @Override
+    public synchronized void add(EvaluationResult result) {
+      if(closed) {
+        throw new GateRuntimeException("Result added to a closed sink");
+      }
+      super.add(result);
+    }
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+  
+  @Before
+  public void setup() throws GateException {
+    initGate();
+  }
+  
+  @Test
+  public void testResultSinks01() throws Exception {
+    Document doc = newKeyResponseD("x","y");
+    EvalStatsTagging es = new AnnotationDifferTagging(
+            doc.getAnnotations("Keys"), doc.getAnnotations("Resp"), FS_ID, FC_EQU, null).getEvalStatsTagging();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ResultSink sink = new AsyncResultSink(new BinaryResultSink(bytes), "test");
+    sink.add(new EvaluationResult("id", "normal", "doc1", "Resp", null, es));
+    sink.close();
+    List<EvaluationResult> results = 
+            BinaryResultSink.readAll(new ByteArrayInputStream(bytes.toByteArray()));
+    assertEquals("ResultSinks01, n",1,results.size());
+    EvaluationResult res = results.get(0);
+    assertEquals("ResultSinks01, doc","doc1",res.getDocName());
+    assertNull("ResultSinks01, type",res.getTypeName());
+    assertFalse("ResultSinks01, threshold",res.isByThreshold());
+    assertEquals("ResultSinks01, incorrect strict",1.0,res.getValue("incorrectStrict"),EPS);
+    assertEquals("ResultSinks01, precision lenient",es.getPrecisionLenient(),res.getValue("precisionLenient"),EPS);
+  }
+  
+  @Test
+  public void testResultSinksCustom01() throws Exception {
+    // a sink set by the caller is closed at the end of the run and not used in the next run
+    Document doc = newKeyResponseD("x","x");
+    EvaluateTagging pr = newPR(EvaluateTagging.class, 
+            "annotationTypes", newStringList("M"), "keyASName", "Keys", "responseASName", "Resp", 
+            "featureNames", FL_ID);
+    CheckingResultSink sink = new CheckingResultSink();
+    pr.setResultSink(sink);
+    runETPR(pr, doc);
+    assertTrue("ResultSinksCustom01, closed",sink.closed);
+    int n = sink.getResults().size();
+    assertTrue("ResultSinksCustom01, got results",n > 0);
+    runETPR(pr, doc);
+    assertEquals("ResultSinksCustom01, no results after close",n,sink.getResults().size());
+    assertNull("ResultSinksCustom01, no sink for second run",pr.getResultSink());
+    // the resultSinkType parameter is used again for the next run
+    pr.setResultSinkType(ResultSinkType.MEMORY);
+    runETPR(pr, doc);
+    assertTrue("ResultSinksCustom01, memory sink",pr.getResultSink() instanceof InMemoryResultSink);
+    assertNotSame("ResultSinksCustom01, new sink",sink,pr.getResultSink());
+    assertEquals("ResultSinksCustom01, memory sink results",n,
+            ((InMemoryResultSink)pr.getResultSink()).getResults().size());
+  }
+  
+  @Test
+  public void testResultSinksMaxRecall01() throws Exception {
+    // the max recall PR does not pass anything to a sink, so asking for one is an error
+    Document doc = new CorpusGenerator().seed(37).nKeys(10).listSetName("Lists").listLength(3).generate();
+    Object[][] unused = new Object[][] { 
+      { "resultSinkType", ResultSinkType.JSONL },
+      { "resultSinkType", ResultSinkType.MEMORY },
+      { "asyncResultSink", true },
+    };
+    for(Object[] nameValue : unused) {
+      EvaluateMaxRecall pr = newPR(EvaluateMaxRecall.class, 
+              "keyType", "Mention", "listType", "LookupList", "elementType", "Lookup", 
+              "edgeFeatureName", "ids", "keyASName", "Key", "responseASName", "Lists", 
+              "featureNames", FL_ID, nameValue[0], nameValue[1]);
+      try {
+        runETPR(pr, doc);
+        fail("ResultSinksMaxRecall01, no exception for "+nameValue[0]);
+      } catch(GateRuntimeException ex) {
+        assertTrue("ResultSinksMaxRecall01, message for "+nameValue[0],ex.getMessage().contains((String)nameValue[0]));
+      }
+    }
+    EvaluateMaxRecall pr = newPR(EvaluateMaxRecall.class, 
+            "keyType", "Mention", "listType", "LookupList", "elementType", "Lookup", 
+            "edgeFeatureName", "ids", "keyASName", "Key", "responseASName", "Lists", 
+            "featureNames", FL_ID);
+    runETPR(pr, doc);
+    assertNull("ResultSinksMaxRecall01, no sink",pr.getResultSink());
+  }
+  
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.tests;
+
+import gate.Document;
+import gate.plugin.evaluation.api.EvalStatsTagging;
+import gate.plugin.evaluation.api.EvalStatsTagging4Score;
+import gate.plugin.evaluation.resources.EvaluateTagging;
+import gate.plugin.evaluation.resources.EvaluateTaggingBase;
+import gate.test.GATEPluginTests;
+import gate.util.GateException;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import static gate.plugin.evaluation.tests.TestUtils.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for splitting the evaluation of a corpus into shards.
+ * 
+ * @author Johann Petrak
+ */
+public class TestSharding extends GATEPluginTests {
+
+  @Before
+  public void setup() throws GateException {
+    initGate();
+  }
+  
+  @Test
+  public void testShardingUnion01() throws Exception {
+    List<Document> docs = new CorpusGenerator().seed(3).nKeys(20).generate(30);
+    EvaluateTagging all = newPR(EvaluateTagging.class, 
+            "annotationTypes", newStringList("Mention"), "featureNames", FL_ID, "evaluationId", "all");
+    runETPR(all, docs.toArray(new Document[0]));
+    int shardCount = 3;
+    int[] evaluated = new int[docs.size()];
+    EvalStatsTagging sum = new EvalStatsTagging4Score(Double.NaN);
+    for(int shard = 0; shard < shardCount; shard++) {
+      EvaluateTagging pr = newPR(EvaluateTagging.class, 
+              "annotationTypes", newStringList("Mention"), "featureNames", FL_ID, "evaluationId", "shard"+shard,
+              "shardIndex", shard, "shardCount", shardCount);
+      runETPR(pr, docs.toArray(new Document[0]));
+      sum.add(pr.getEvalStatsTagging(""));
+      // only the documents which got evaluated have the document features for the shard
+      for(int i = 0; i < docs.size(); i++) {
+        if(docs.get(i).getFeatures().containsKey("evaluateTagging.response.shard"+shard+".Response.Mention.Targets")) {
+          evaluated[i]++;
+          assertEquals("ShardingUnion01, shard of "+i,shard,EvaluateTaggingBase.getShardForDocument(docs.get(i), shardCount));
+        }
+      }
+    }
+    for(int i = 0; i < docs.size(); i++) {
+      assertEquals("ShardingUnion01, evaluated "+i,1,evaluated[i]);
+    }
+    EvalStatsTagging expected = all.getEvalStatsTagging("");
+    assertEquals("ShardingUnion01, targets",expected.getTargets(),sum.getTargets());
+    assertEquals("ShardingUnion01, counts",expected.getTSVLine(),sum.getTSVLine());
+  }
+  
+}
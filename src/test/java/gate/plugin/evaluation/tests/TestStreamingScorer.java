@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2015-2018 University of Sheffield.
+ * 
+ * This file is part of gateplugin-Evaluation 
+ * (see https://github.com/GateNLP/gateplugin-Evaluation).
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 2.1 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.evaluation.tests;
+
+import gate.Document;
+import gate.plugin.evaluation.api.AnnotationTypeSpecs;
+import gate.plugin.evaluation.resources.EvaluateTagging;
+import gate.plugin.evaluation.resources.EvaluateTaggingBase;
+import gate.plugin.evaluation.tools.StreamingScorer;
+import gate.test.GATEPluginTests;
+import gate.util.GateException;
+import gate.util.GateRuntimeException;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import static gate.plugin.evaluation.tests.TestUtils.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the StreamingScorer command line tool.
+ * 
+ * @author Johann Petrak
+ */
+public class TestStreamingScorer extends GATEPluginTests {
+
+  @Before
+  public void setup() throws GateException {
+    initGate();
+  }
+  
+  private static List<String> runScorer(File dir, int threads) throws Exception {
+    File tsv = File.createTempFile("scorer", ".tsv");
+    StreamingScorer scorer = new StreamingScorer();
+    scorer.parseArgs(new String[] { "-f", "id", "-i", "sc", "-o", tsv.getPath(), "-j", ""+threads, dir.getPath() });
+    scorer.run(new PrintStream(new ByteArrayOutputStream()));
+    return Files.readAllLines(tsv.toPath(), StandardCharsets.UTF_8);
+  }
+  
+  @Test
+  public void testStreamingScorer01() throws Exception {
+    // more files than the scorer evaluates ahead for each thread
+    List<Document> docs = new CorpusGenerator().seed(50).nKeys(40).valueNoiseRate(0.2)
+            .boundaryNoiseRate(0.2).spuriousRate(0.2).generate(11);
+    File dir = Files.createTempDirectory("scorer").toFile();
+    for(Document doc : docs) {
+      Files.write(new File(dir, doc.getName()+".xml").toPath(), 
+              gateXml(doc, "Key", "Response").getBytes(StandardCharsets.UTF_8));
+    }
+    List<String> lines = runScorer(dir, 1);
+    // the header, one line per document and the line over all documents
+    assertEquals("StreamingScorer01, lines",docs.size()+2,lines.size());
+    assertEquals("StreamingScorer01, same with threads",lines,runScorer(dir, 3));
+    EvaluateTagging pr = newPR(EvaluateTagging.class, 
+            "annotationTypes", newStringList("Mention"), "featureNames", FL_ID);
+    runETPR(pr, docs.toArray(new Document[0]));
+    String type = new AnnotationTypeSpecs(newStringList("Mention")).getSpecs().get(0).toString();
+    assertEquals("StreamingScorer01, same as PR",
+            EvaluateTaggingBase.tsvLine("sc", "normal", null, "Response", type, pr.getEvalStatsTagging("Mention")),
+            lines.get(lines.size()-1));
+  }
+  
+  @Test
+  public void testStreamingScorerError01() throws Exception {
+    // a file which cannot be parsed stops the scorer, the lines for the files before it 
+    // are in the TSV file
+    List<Document> docs = new CorpusGenerator().seed(50).nKeys(10).generate(2);
+    File dir = Files.createTempDirectory("scorer").toFile();
+    Files.write(new File(dir, "a.xml").toPath(), gateXml(docs.get(0), "Key", "Response").getBytes(StandardCharsets.UTF_8));
+    Files.write(new File(dir, "b.xml").toPath(), "<GateDocument>".getBytes(StandardCharsets.UTF_8));
+    Files.write(new File(dir, "c.xml").toPath(), gateXml(docs.get(1), "Key", "Response").getBytes(StandardCharsets.UTF_8));
+    File tsv = File.createTempFile("scorer", ".tsv");
+    StreamingScorer scorer = new StreamingScorer();
+    scorer.parseArgs(new String[] { "-f", "id", "-o", tsv.getPath(), "-j", "2", dir.getPath() });
+    try {
+      scorer.run(new PrintStream(new ByteArrayOutputStream()));
+      fail("StreamingScorerError01, no exception");
+    } catch(GateRuntimeException ex) {
+      assertTrue("StreamingScorerError01, message",ex.getMessage().contains("b.xml"));
+    }
+    List<String> lines = Files.readAllLines(tsv.toPath(), StandardCharsets.UTF_8);
+    assertEquals("StreamingScorerError01, lines",2,lines.size());
+    assertTrue("StreamingScorerError01, first file",lines.get(1).contains("a.xml"));
+  }
+  
+}
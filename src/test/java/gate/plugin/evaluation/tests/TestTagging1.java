@@ -27,7 +27,13 @@ import gate.FeatureMap;
 import gate.Gate;
 import gate.creole.ResourceInstantiationException;
 import gate.plugin.evaluation.api.AnnotationDifferTagging;
+import gate.plugin.evaluation.api.AnnotationTypeSpec;
+import gate.plugin.evaluation.api.AnnotationTypeSpecs;
+import gate.plugin.evaluation.api.ContainmentIndex;
+import gate.plugin.evaluation.api.ContainmentType;
 import gate.plugin.evaluation.api.EvalStatsTagging;
+import gate.plugin.evaluation.api.EvalStatsTaggingMacro;
+import gate.plugin.evaluation.api.FeatureComparison;
 import org.junit.Test;
 import gate.test.GATEPluginTests;
 
@@ -475,4 +481,194 @@ public class TestTagging1 extends GATEPluginTests {
   }
   
   
+  @Test
+  public void testTagging1Gen01() throws ResourceInstantiationException {
+    // a generated document without any noise must give perfect results, also with nesting
+    Document doc = new CorpusGenerator().nKeys(200).nestingDepth(2)
+            .responseRate(1.0).boundaryNoiseRate(0.0).valueNoiseRate(0.0).spuriousRate(0.0)
+            .generate();
+    AnnotationDifferTagging ad = new AnnotationDifferTagging(
+            doc.getAnnotations("Key"),doc.getAnnotations("Response"),FS_ID,FC_EQU,null);
+    EvalStatsTagging es = ad.getEvalStatsTagging();
+    assertEquals("Gen01, targets",600,es.getTargets());
+    assertEquals("Gen01, responses",600,es.getResponses());
+    assertEquals("Gen01, correct strict",600,es.getCorrectStrict());
+    // with the default noise settings, we still get all keys and responses
+    doc = new CorpusGenerator().nKeys(200).listSetName("Lists").listLength(5).generate();
+    AnnotationSet keys = doc.getAnnotations("Key");
+    AnnotationSet responses = doc.getAnnotations("Response");
+    es = new AnnotationDifferTagging(keys,responses,FS_ID,FC_EQU,null).getEvalStatsTagging();
+    assertEquals("Gen01, noisy targets",200,es.getTargets());
+    assertEquals("Gen01, noisy responses",responses.size(),es.getResponses());
+    assertTrue("Gen01, noisy correct strict",es.getCorrectStrict() < 200);
+    // there is one list for each response and each list has the configured length
+    AnnotationSet lists = doc.getAnnotations("Lists");
+    List<AnnotationDifferTagging.CandidateList> cls = AnnotationDifferTagging.createCandidateLists(
+            lists, lists.get("LookupList"), "ids", "score", "Lookup", false, null, "id");
+    assertEquals("Gen01, lists",responses.size(),cls.size());
+    assertEquals("Gen01, list length",5,cls.get(0).sizeAll());
+  }
+  
+  @Test
+  public void testTagging1Containment01() throws ResourceInstantiationException {
+    // the containment index must select exactly what the gate.Utils methods select
+    Document doc = new CorpusGenerator().seed(7).nKeys(100).nestingDepth(1).generate();
+    AnnotationSet containing = doc.getAnnotations("Key").get("Mention");
+    AnnotationSet toFilter = doc.getAnnotations("Response");
+    // add some zero length annotations at the boundaries
+    for(Annotation ann : containing) {
+      addAnn(toFilter, start(ann), start(ann), "Empty", featureMap());
+      addAnn(toFilter, end(ann), end(ann), "Empty", featureMap());
+    }
+    ContainmentIndex index = new ContainmentIndex(containing);
+    for(ContainmentType ct : ContainmentType.values()) {
+      Set<Annotation> expected = new HashSet<Annotation>();
+      for(Annotation byAnn : containing) {
+        if(ct == ContainmentType.OVERLAPPING) {
+          expected.addAll(getOverlappingAnnotations(toFilter, byAnn));
+        } else if(ct == ContainmentType.CONTAINING) {
+          expected.addAll(getContainedAnnotations(toFilter, byAnn));
+        } else {
+          expected.addAll(getCoextensiveAnnotations(toFilter, byAnn));
+        }
+      }
+      Set<Annotation> actual = new HashSet<Annotation>(index.filter(toFilter, ct));
+      assertEquals("Containment01, "+ct,expected,actual);
+      // the per set bitmap gives the same result, also when it is reused
+      ContainmentIndex byName = new ContainmentIndex(containing);
+      actual = new HashSet<Annotation>(byName.filter(toFilter, "Response", ct));
+      assertEquals("Containment01, by set name "+ct,expected,actual);
+      actual = new HashSet<Annotation>(byName.filter(toFilter, "Response", ct));
+      assertEquals("Containment01, by set name again "+ct,expected,actual);
+    }
+  }
+  
+  @Test
+  public void testTagging1Multiplex01() throws ResourceInstantiationException {
+    // the differs derived from the differ for all types must give the same results as
+    // differs created just for the annotations of each type
+    Document doc = new CorpusGenerator().seed(11).nKeys(300).types("A","B","C").nestingDepth(1).generate();
+    AnnotationTypeSpecs specs = new AnnotationTypeSpecs(java.util.Arrays.asList("A","B","C"));
+    AnnotationSet keys = doc.getAnnotations("Key");
+    AnnotationSet responses = doc.getAnnotations("Response");
+    AnnotationDifferTagging all = AnnotationDifferTagging.calculateForAllTypes(keys, responses, FS_ID, FC_EQU, specs);
+    assertEquals("Multiplex01, all",
+            new AnnotationDifferTagging(keys, responses, FS_ID, FC_EQU, specs).getEvalStatsTagging().toString(),
+            all.getEvalStatsTagging().toString());
+    for(AnnotationTypeSpec spec : specs.getSpecs()) {
+      EvalStatsTagging expected = new AnnotationDifferTagging(
+              keys.get(spec.getKeyType()), responses.get(spec.getResponseType()), FS_ID, FC_EQU, specs).getEvalStatsTagging();
+      assertEquals("Multiplex01, "+spec,expected.toString(),all.getDifferForType(spec).getEvalStatsTagging().toString());
+    }
+  }
+  
+  @Test
+  public void testTagging1TargetIds01() throws ResourceInstantiationException {
+    // the differ must not change the annotations, the target ids only end up in the 
+    // indicator annotations
+    Document doc = newD();
+    AnnotationSet t = addA(doc,"Keys",0,10,"M","x");
+    addA(doc,"Keys",20,30,"M","x");
+    AnnotationSet r = addA(doc,"Resp",0,10,"M","x");
+    addA(doc,"Resp",40,50,"M","x");
+    AnnotationDifferTagging ad = new AnnotationDifferTagging(t, r, FS_ID, FC_EQU, null);
+    Annotation key1 = getOnlyAnn(t.get(0L,1L));
+    Annotation key2 = getOnlyAnn(t.get(20L,21L));
+    Annotation resp1 = getOnlyAnn(r.get(0L,1L));
+    Annotation resp2 = getOnlyAnn(r.get(40L,41L));
+    assertEquals("TargetIds01, correct",key1.getId(),ad.getTargetId(resp1));
+    assertEquals("TargetIds01, missing",key2.getId(),ad.getTargetId(key2));
+    assertNull("TargetIds01, spurious",ad.getTargetId(resp2));
+    assertFalse("TargetIds01, response unchanged",resp1.getFeatures().containsKey("gate.plugin.evaluation.targetId"));
+    assertFalse("TargetIds01, key unchanged",key2.getFeatures().containsKey("gate.plugin.evaluation.targetId"));
+    AnnotationSet out = doc.getAnnotations("Out");
+    ad.addIndicatorAnnotations(out, "");
+    assertEquals("TargetIds01, indicator",key1.getId(),
+            getOnlyAnn(out.get("M_CS")).getFeatures().get("gate.plugin.evaluation.targetId"));
+    assertFalse("TargetIds01, spurious indicator",
+            getOnlyAnn(out.get("M_SL")).getFeatures().containsKey("gate.plugin.evaluation.targetId"));
+  }
+  
+  @Test
+  public void testTagging1Macro01() {
+    // precision strict of the three objects is 1.0, 0.25 and 0.5
+    EvalStatsTaggingMacro first = new EvalStatsTaggingMacro();
+    EvalStatsTaggingMacro second = new EvalStatsTaggingMacro();
+    first.add(newES(2,2,2));
+    first.add(newES(2,4,1));
+    second.add(newES(0,2,1));
+    first.merge(second);
+    double mean = (1.0+0.25+0.5)/3.0;
+    double var = ((1.0-mean)*(1.0-mean)+(0.25-mean)*(0.25-mean)+(0.5-mean)*(0.5-mean))/3.0;
+    assertEquals("Macro01, n",3,first.getN());
+    assertEquals("Macro01, targets",4,first.getTargets());
+    assertEquals("Macro01, precision",mean,first.getPrecisionStrict(),EPS);
+    assertEquals("Macro01, std dev",Math.sqrt(var),first.getStdDev(EvalStatsTaggingMacro.Measure.PRECISION_STRICT),EPS);
+    assertEquals("Macro01, median",0.5,first.getMedian(EvalStatsTaggingMacro.Measure.PRECISION_STRICT),EPS);
+    assertEquals("Macro01, empty",1.0,new EvalStatsTaggingMacro().getRecallStrict(),EPS);
+  }
+  
+  @Test
+  public void testTagging1CandidateList01() throws ResourceInstantiationException {
+    Document doc = newD();
+    AnnotationSet set = doc.getAnnotations("Lists");
+    List<Integer> ids = new java.util.ArrayList<Integer>();
+    ids.add(addAnn(set,0,10,"Lookup",featureMap("id","a","score",0.2)));
+    ids.add(addAnn(set,0,10,"Lookup",featureMap("id","b","score",0.9)));
+    ids.add(addAnn(set,0,10,"Lookup",featureMap("id","c","score",0.5)));
+    ids.add(addAnn(set,0,10,"Lookup",featureMap("id","d","score",0.5)));
+    addListAnn(set,0,10,"LookupList",ids);
+    AnnotationDifferTagging.CandidateList cl = AnnotationDifferTagging.createCandidateLists(
+            set, set.get("LookupList"), "ids", "score", "Lookup", false, null, "id").get(0);
+    // sorted by decreasing score, identical scores keep their order
+    assertEquals("CandidateList01, first","b",cl.get(0).getFeatures().get("id"));
+    assertEquals("CandidateList01, third","d",cl.get(2).getFeatures().get("id"));
+    assertEquals("CandidateList01, score",0.5,cl.getScore(1),EPS);
+    cl.setThreshold(0.5);
+    assertEquals("CandidateList01, size at 0.5",3,cl.size());
+    cl.setThreshold(1.0);
+    assertEquals("CandidateList01, size at 1.0",0,cl.size());
+    // lowering the threshold again must make all candidates with a high enough score visible
+    cl.setThreshold(0.2);
+    assertEquals("CandidateList01, size at 0.2",4,cl.size());
+    cl.setThreshold(0.6);
+    assertEquals("CandidateList01, list at 0.6",1,cl.getList().size());
+    // views do not change the list
+    AnnotationDifferTagging.CandidateList.View view = cl.viewForThreshold(0.5);
+    assertEquals("CandidateList01, view at 0.5",3,view.size());
+    assertEquals("CandidateList01, view at rank 1",2,cl.viewForRank(1).size());
+    assertEquals("CandidateList01, size after views",1,cl.size());
+  }
+  
+  @Test
+  public void testTagging1CandidateList02() throws ResourceInstantiationException {
+    Document doc = newD();
+    AnnotationSet set = doc.getAnnotations("Lists");
+    AnnotationSet keys = doc.getAnnotations("Keys");
+    addAnn(keys,0,10,"Mention",featureMap("id","c"));
+    List<Integer> ids = new java.util.ArrayList<Integer>();
+    ids.add(addAnn(set,0,10,"Lookup",featureMap("id","a","score",0.2)));
+    ids.add(addAnn(set,0,10,"Lookup",featureMap("id","b","score",0.9)));
+    ids.add(addAnn(set,0,10,"Lookup",featureMap("id","c","score",0.5)));
+    addListAnn(set,0,10,"Mention",ids);
+    List<AnnotationDifferTagging.CandidateList> cls = AnnotationDifferTagging.createCandidateLists(
+            set, set.get("Mention"), "ids", "score", "Lookup", false, null, "id");
+    AnnotationDifferTagging.CandidateList cl = cls.get(0);
+    assertTrue(cl.isAllCoextensive());
+    assertEquals("CandidateList02, rank of c",1,cl.getFirstRank("id", false, "c"));
+    assertEquals("CandidateList02, rank of x",-1,cl.getFirstRank("id", false, "x"));
+    Set<String> fs = new HashSet<String>();
+    fs.add("id");
+    AnnotationTypeSpecs specs = new AnnotationTypeSpecs(java.util.Arrays.asList("Mention"));
+    AnnotationDifferTagging ad = AnnotationDifferTagging.calculateEvalStatsTagging4List(
+            keys, set, cls, fs, FeatureComparison.FEATURE_EQUALITY, "ids", "score", 
+            Double.NEGATIVE_INFINITY, null, specs);
+    assertEquals("CandidateList02, correct at -inf",1,ad.getEvalStatsTagging().getCorrectStrict());
+    ad = AnnotationDifferTagging.calculateEvalStatsTagging4List(
+            keys, set, cls, fs, FeatureComparison.FEATURE_EQUALITY, "ids", "score", 
+            0.6, null, specs);
+    assertEquals("CandidateList02, correct at 0.6",0,ad.getEvalStatsTagging().getCorrectStrict());
+    assertEquals("CandidateList02, incorrect at 0.6",1,ad.getEvalStatsTagging().getIncorrectStrict());
+  }
+  
 }
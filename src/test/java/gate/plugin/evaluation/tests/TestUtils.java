@@ -19,21 +19,29 @@
  */
 package gate.plugin.evaluation.tests;
 
+import gate.Annotation;
 import gate.AnnotationSet;
 import gate.Document;
 import gate.Factory;
 import gate.FeatureMap;
+import gate.Gate;
 import static gate.Utils.addAnn;
+import static gate.Utils.end;
 import static gate.Utils.featureMap;
+import static gate.Utils.start;
 import gate.creole.ExecutionException;
 import gate.creole.ResourceInstantiationException;
+import gate.plugin.evaluation.api.EvalStatsTagging;
+import gate.plugin.evaluation.api.EvalStatsTagging4Score;
 import gate.plugin.evaluation.api.FeatureComparison;
 import gate.plugin.evaluation.resources.EvaluateTagging;
 import gate.plugin.evaluation.resources.EvaluateTaggingBase;
+import gate.util.GateException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -63,10 +71,55 @@ public class TestUtils {
   public static final FeatureComparison FC_EQU = FeatureComparison.FEATURE_EQUALITY;
   public static final FeatureComparison FC_SUB = FeatureComparison.FEATURE_SUBSUMPTION;
   
+  public static void initGate() throws GateException {
+    if(!Gate.isInitialised()) {
+      Gate.init();
+    }
+  }
+  
+  /**
+   * Create a PR of the given class with the default parameter values and the given
+   * parameter name/value pairs.
+   * @param <T> PR class
+   * @param clazz PR class
+   * @param nameValues alternating parameter names and values
+   * @return PR
+   * @throws ResourceInstantiationException if the PR cannot be created
+   */
+  @SuppressWarnings("unchecked")
+  public static <T extends EvaluateTaggingBase> T newPR(Class<T> clazz, Object... nameValues) 
+          throws ResourceInstantiationException {
+    FeatureMap parms = featureMap(nameValues);
+    return (T)Factory.createResource(clazz.getName(), parms);
+  }
+  
+  public static EvalStatsTagging newES(int targets, int responses, int correct) {
+    EvalStatsTagging es = new EvalStatsTagging4Score(Double.NaN);
+    es.addTargets(targets);
+    es.addResponses(responses);
+    es.addCorrectStrict(correct);
+    return es;
+  }
+  
   public static Document newD() throws ResourceInstantiationException {
     return Factory.newDocument(STR1000);
   }
   
+  /**
+   * Create a document with one key annotation in set "Keys" and one response annotation in 
+   * set "Resp", both of type "M" from 0 to 10, with the given values for feature "id".
+   * @param keyId id feature value of the key
+   * @param responseId id feature value of the response
+   * @return document
+   * @throws ResourceInstantiationException 
+   */
+  public static Document newKeyResponseD(Object keyId, Object responseId) throws ResourceInstantiationException {
+    Document doc = newD();
+    addA(doc,"Keys",0,10,"M",keyId);
+    addA(doc,"Resp",0,10,"M",responseId);
+    return doc;
+  }
+  
   public static List<Integer> newIntList(Integer... vals)  {
     List<Integer> ret = new ArrayList<Integer>();
     ret.addAll(Arrays.asList(vals));
@@ -94,6 +147,34 @@ public class TestUtils {
     addAnn(set,from,to,typeWithoutList,featureMap("ids",annIds));
   }
     
+  /**
+   * Create the GATE XML for the annotations of some sets of a document. Only what the 
+   * GateXmlAnnotationReader needs is included, not the text.
+   * @param doc the document
+   * @param setNames the annotation sets to include
+   * @return GATE XML
+   */
+  public static String gateXml(Document doc, String... setNames) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("<?xml version='1.0' encoding='UTF-8'?><GateDocument version=\"3\"><TextWithNodes></TextWithNodes>");
+    for(String setName : setNames) {
+      sb.append("<AnnotationSet Name=\"").append(setName).append("\">");
+      for(Annotation ann : doc.getAnnotations(setName)) {
+        sb.append("<Annotation Id=\"").append(ann.getId()).append("\" Type=\"").append(ann.getType())
+                .append("\" StartNode=\"").append(start(ann)).append("\" EndNode=\"").append(end(ann)).append("\">");
+        for(Map.Entry<Object, Object> fe : ann.getFeatures().entrySet()) {
+          sb.append("<Feature><Name className=\"java.lang.String\">").append(fe.getKey())
+                  .append("</Name><Value className=\"").append(fe.getValue().getClass().getName()).append("\">")
+                  .append(fe.getValue()).append("</Value></Feature>");
+        }
+        sb.append("</Annotation>");
+      }
+      sb.append("</AnnotationSet>");
+    }
+    sb.append("</GateDocument>");
+    return sb.toString();
+  }
+  
   public static void runETPR(EvaluateTaggingBase pr, Document... docs) throws ExecutionException {
     pr.controllerExecutionStarted(null);
     for(Document d : docs) {